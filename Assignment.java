@@ -1,7 +1,13 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 
 import textbook.LinkedBinaryTree;
-import textbook.LinkedQueue;
 import textbook.Position;
 
 public class Assignment 
@@ -33,48 +39,170 @@ public class Assignment
 		{
 			throw new IllegalArgumentException("Expression string was null");
 		}
-		// break up the expression string using spaces, into a queue
-		LinkedQueue<String> tokens = new LinkedQueue<String>();
-		for (String token : expression.split(" ")) {
-			tokens.enqueue(token);
+		// break up the expression string using spaces (as expression.split(" ") would),
+		// scanning the string in place rather than copying the tokens into a queue
+		return prefix2tree(ExpressionTokenizer.splitOnSpaces(expression));
+	}
+	
+	/**
+	 * Convert an arithmetic expression (in prefix notation) held in any
+	 * CharSequence, such as a StringBuilder or CharBuffer, to a binary tree
+	 * 
+	 * Unlike prefix2tree(String), tokens may be separated by any run of spaces,
+	 * tabs or line breaks. The characters are scanned in place, so no copy of
+	 * the expression is made.
+	 * 
+	 * This method runs in O(n) time
+	 * 
+	 * @param expression
+	 *            - an arithmetic expression in prefix notation
+	 * @return BinaryTree representing an expression expressed in prefix
+	 *         notation
+	 * @throws IllegalArgumentException
+	 *             if expression was not a valid expression
+	 */
+	public static LinkedBinaryTree<String> prefix2tree(CharSequence expression) throws IllegalArgumentException 
+	{
+		if (expression == null) 
+		{
+			throw new IllegalArgumentException("Expression string was null");
 		}
-		// recursively build the tree
-		return prefix2tree(tokens);
+		return prefix2tree(new ExpressionTokenizer(expression));
 	}
 	
 	/**
-	 * Recursive helper method to build an tree representing an arithmetic
-	 * expression in prefix notation, where the expression has already been
-	 * broken up into a queue of tokens
+	 * Convert an arithmetic expression (in prefix notation) read from a Reader
+	 * to a binary tree, as prefix2tree does for a CharSequence
+	 * 
+	 * Tokens may be separated by any run of spaces, tabs or line breaks. The
+	 * expression is read through a small buffer, so it is never held in memory
+	 * as a whole.
+	 * 
+	 * This method runs in O(n) time
+	 * 
+	 * @param expression
+	 *            - a source of an arithmetic expression in prefix notation
+	 * @return BinaryTree representing an expression expressed in prefix
+	 *         notation
+	 * @throws IOException
+	 *             if the expression could not be read
+	 * @throws IllegalArgumentException
+	 *             if expression was not a valid expression
+	 */
+	public static LinkedBinaryTree<String> readPrefix(Reader expression) throws IOException, IllegalArgumentException 
+	{
+		if (expression == null) 
+		{
+			throw new IllegalArgumentException("Expression reader was null");
+		}
+		try
+		{
+			return prefix2tree(new ExpressionTokenizer(expression));
+		}
+		catch (UncheckedIOException e)
+		{
+			throw e.getCause();
+		}
+	}
+	
+	/**
+	 * Helper method to build an tree representing an arithmetic
+	 * expression in prefix notation, reading the tokens of the expression
+	 * from a tokenizer
+	 * 
+	 * Builds the tree in a single pass, keeping an explicit stack of operator
+	 * positions that are still waiting for children instead of recursing once
+	 * per operator. Deep expressions such as "+ a + b + c ..." therefore cannot
+	 * overflow the thread stack, and the method runs in O(n) time regardless
+	 * of the depth of the tree.
 	 * 
 	 * @param tokens
 	 * @return
 	 * @throws IllegalArgumentException
 	 *             if expression was not a valid expression
 	 */
-	private static LinkedBinaryTree<String> prefix2tree(LinkedQueue<String> tokens) throws IllegalArgumentException 
+	private static LinkedBinaryTree<String> prefix2tree(ExpressionTokenizer tokens) throws IllegalArgumentException 
 	{
-		LinkedBinaryTree<String> tree = new LinkedBinaryTree<String>();
+		long start = AssignmentMetrics.start();
+		AssignmentEvents.Parse event = new AssignmentEvents.Parse();
+		event.begin();
+		LinkedBinaryTree<String> tree = new ExpressionTree();
+		// operator positions which have not yet received both of their children
+		ArrayDeque<Position<String>> pending = new ArrayDeque<Position<String>>();
 
-		// use the next element of the queue to build the root
-		if (tokens.isEmpty()) 
+		// use the first token to build the root
+		if (!tokens.next()) 
 		{
 			throw new IllegalArgumentException("String was not a valid arithmetic expression in prefix notation");
 		}
-		String element = tokens.dequeue();
-		tree.addRoot(element);
-
-		// if the element is a binary operation, we need to build the left and
-		// right subtrees
-		if (element.equals("+") || element.equals("-") || element.equals("*")) 
+		Position<String> position = tree.addRoot(tokens.token());
+		if (tokens.operator() != null)
 		{
-			LinkedBinaryTree<String> left = prefix2tree(tokens);
-			LinkedBinaryTree<String> right = prefix2tree(tokens);
-			tree.attach(tree.root(), left, right);
+			pending.push(position);
 		}
-		// otherwise, assume it's a variable or a value, so it's a leaf (i.e.
-		// nothing more to do)
 
+		// every following token becomes the next free child of the most recent
+		// incomplete operator (left child first, then right child)
+		while (!pending.isEmpty())
+		{
+			if (!tokens.next()) 
+			{
+				throw new IllegalArgumentException("String was not a valid arithmetic expression in prefix notation");
+			}
+			String element = tokens.token();
+			Position<String> parent = pending.peek();
+			if (tree.left(parent) == null)
+			{
+				position = tree.addLeft(parent, element);
+			}
+			else
+			{
+				position = tree.addRight(parent, element);
+				pending.pop();		// parent now has both children
+			}
+			// if the token is a binary operation, its left and right subtrees
+			// are built from the tokens that follow it
+			if (tokens.operator() != null)
+			{
+				pending.push(position);
+			}
+			// otherwise, assume it's a variable or a value, so it's a leaf (i.e.
+			// nothing more to do)
+		}
+		AssignmentMetrics.record(AssignmentMetrics.Operation.PREFIX2TREE, start, tree.size());
+		AssignmentEvents.commit(event, "prefix2tree", tree, 0, false);
+		return tree;
+	}
+	
+	/**
+	 * Convert an arithmetic expression in infix notation to a binary tree
+	 * 
+	 * Binary operators are +, -, * with the usual precedence (* before + and -,
+	 * otherwise left to right); parentheses are optional, and a leading or
+	 * nested minus sign negates (see InfixParser).
+	 * 
+	 * Example: "((2+15)-4)" and "2+15-4" will both be a tree representing "- + 2 15 4"
+	 * 
+	 * For every tree whose elements contain no spaces, parentheses or operator
+	 * characters (apart from the sign of a negative number),
+	 * infix2tree(tree2infix(tree)) is identical to the tree.
+	 * 
+	 * This method runs in O(n) time
+	 * 
+	 * @param expression
+	 *            - an arithmetic expression in infix notation
+	 * @return BinaryTree representing the expression
+	 * @throws IllegalArgumentException
+	 *             if expression was not a valid expression
+	 */
+	public static LinkedBinaryTree<String> infix2tree(String expression) throws IllegalArgumentException 
+	{
+		long start = AssignmentMetrics.start();
+		AssignmentEvents.Parse event = new AssignmentEvents.Parse();
+		event.begin();
+		LinkedBinaryTree<String> tree = InfixParser.parse(expression);
+		AssignmentMetrics.record(AssignmentMetrics.Operation.INFIX2TREE, start, tree.size());
+		AssignmentEvents.commit(event, "infix2tree", tree, 0, false);
 		return tree;
 	}
 	
@@ -88,7 +216,10 @@ public class Assignment
 	 */
 	public static boolean equals(LinkedBinaryTree<String> a, LinkedBinaryTree<String> b) 
 	{
-		return equals(a, b, a.root(), b.root());
+		long start = AssignmentMetrics.start();
+		boolean equal = equals(a, b, a.root(), b.root());
+		AssignmentMetrics.record(AssignmentMetrics.Operation.EQUALS, start, a.size());
+		return equal;
 	}
 
 	/**
@@ -142,37 +273,14 @@ public class Assignment
 	 */
 	public static String tree2prefix(LinkedBinaryTree<String> tree) throws IllegalArgumentException 
 	{
-		if (!isArithmeticExpression(tree))
-			throw new IllegalArgumentException("Tree does not represent arithmetic expression");
-		
-		StringBuilder expression = new StringBuilder();
-		
-		return tree2prefix(tree, tree.root(), expression).toString().substring(1);		//.substring(1) to remove first space
-	}
-	
-	/**
-	 * Helper method used by: 
-	 * 		- tree2prefix(LinkedBinaryTree<String> tree) 
-	 * 
-	 * Performs preorder traversal on tree to create desired expression.
-	 * 
-	 * @param tree - a tree representing an arithmetic expression
-	 * @param treeRoot - the root position of the tree
-	 * @param expression - a StringBuilder object to hold the String 
-	 *  
-	 * @return the expression
-	 */
-	private static StringBuilder tree2prefix(LinkedBinaryTree<String> tree, Position<String> treeRoot, StringBuilder expression)
-	{
-		// pseudocode used to guide code from https://en.wikipedia.org/wiki/Binary_expression_tree#Prefix_traversal
-		// while unvisited positions remain in the tree peform preorder traversal
-		if (treeRoot != null)
-		{
-			expression.append(" " + treeRoot.getElement());
-			tree2prefix(tree, tree.left(treeRoot), expression);
-			tree2prefix(tree, tree.right(treeRoot), expression);
-		}
-		return expression;
+		long start = AssignmentMetrics.start();
+		AssignmentEvents.Serialize event = new AssignmentEvents.Serialize();
+		event.begin();
+		// validated, then written straight into a StringBuilder of the exact length, without recursion
+		String prefix = ExpressionWriter.prefix(tree);
+		AssignmentMetrics.record(AssignmentMetrics.Operation.TREE2PREFIX, start, tree.size());
+		AssignmentEvents.commit(event, "tree2prefix", tree, tree.size(), false, prefix);
+		return prefix;
 	}
 
 	/**
@@ -200,47 +308,14 @@ public class Assignment
 	 */
 	public static String tree2infix(LinkedBinaryTree<String> tree) throws IllegalArgumentException 
 	{
-		if (!isArithmeticExpression(tree))
-			throw new IllegalArgumentException("Tree does not represent arithmetic expression");
-		
-		StringBuilder expression = new StringBuilder();
-		
-		return tree2infix(tree, tree.root(), expression).toString();
-	}
-	
-	/**
-	 * Helper method used by:
-	 * 		 - tree2Infix(LinkedBinaryTree<String> tree) 
-	 * 
-	 * Performs inorder traversal on tree to create desired expression.
-	 * 
-	 * @param tree - a tree representing an arithmetic expression
-	 * @param subtreeRoot - a position that is the root of the current tree
-	 * @param expression - the arithmetic expression being built
-	 * 
-	 * @return the String form of the arithmetic expression
-	 */
-	private static StringBuilder tree2infix(LinkedBinaryTree<String> tree, Position<String> subtreeRoot, StringBuilder expression)
-	{
-		/* pseodocode for inorder order traversal used as guide, from pg 36 of The University of Sydney INFO1105 (Goodrich, Tamassia, Goldwasser) lecture notes , week 4
-		 https://elearning.sydney.edu.au/bbcswebdav/pid-4874052-dt-content-rid-20620515_1/courses/2017_S2C_INFO1105_ND/INFO1105_Lecture4_2017.pdf */
-		// while unvisited positions remain in the tree, perform inorder traversal
-		if (subtreeRoot != null)
-		{
-			if (tree.left(subtreeRoot) != null)
-			{
-				expression.append("(");
-				tree2infix(tree, tree.left(subtreeRoot), expression);	
-			}
-			expression.append(subtreeRoot.getElement());
-			
-			if (tree.right(subtreeRoot) != null)
-			{
-				tree2infix(tree, tree.right(subtreeRoot), expression);
-				expression.append(")" );
-			}
-		}
-		return expression;
+		long start = AssignmentMetrics.start();
+		AssignmentEvents.Serialize event = new AssignmentEvents.Serialize();
+		event.begin();
+		// validated, then written straight into a StringBuilder of the exact length, without recursion
+		String infix = ExpressionWriter.infix(tree);
+		AssignmentMetrics.record(AssignmentMetrics.Operation.TREE2INFIX, start, tree.size());
+		AssignmentEvents.commit(event, "tree2infix", tree, tree.size(), false, infix);
+		return infix;
 	}
 
 	/**
@@ -258,71 +333,145 @@ public class Assignment
 	 */
 	public static LinkedBinaryTree<String> simplify(LinkedBinaryTree<String> tree) throws IllegalArgumentException 
 	{
+		return simplify(tree, NumericMode.WRAPPING);
+	}
+	
+	/**
+	 * Simplifies the subtrees which can be evaluated to a single integer value,
+	 * using the given arithmetic
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @param mode
+	 *            - NumericMode.WRAPPING for int arithmetic (as simplify(tree)),
+	 *            or NumericMode.EXACT for exact results of any size
+	 * @return resulting binary tree after evaluating as many of the subtrees as
+	 *         possible
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression, or mode is null
+	 */
+	public static LinkedBinaryTree<String> simplify(LinkedBinaryTree<String> tree, NumericMode mode) throws IllegalArgumentException 
+	{
+		long start = AssignmentMetrics.start();
+		AssignmentEvents.Simplify event = new AssignmentEvents.Simplify();
+		event.begin();
 		if (!isArithmeticExpression(tree))
 			throw new IllegalArgumentException("Tree does not represent arithmetic expression");
-				
-		return simplify(tree, tree.root());
+		if (mode == null)
+			throw new IllegalArgumentException("mode must not be null");
+		
+		int size = tree.size();
+		int visited = size;
+		if (tree instanceof ExpressionTree)
+		{
+			// only the paths from positions changed since the last simplify can have become foldable
+			ExpressionTree expression = (ExpressionTree) tree;
+			if (expression.isSimplified(mode))
+			{
+				HashSet<Position<String>> paths = changedPaths(expression);
+				visited = paths.size();
+				resimplify(tree, tree.root(), paths, mode);
+			}
+			else
+				simplify(tree, tree.root(), mode);
+			expression.markSimplified(mode);
+		}
+		else
+			simplify(tree, tree.root(), mode);
+		AssignmentMetrics.record(AssignmentMetrics.Operation.SIMPLIFY, start, visited);
+		// every fold removes positions
+		AssignmentEvents.commit(event, "simplify", tree, size, tree.size() != size);
+		return tree;
 	}
 	
 	/**
 	 * Helper method used by:
-	 * 		 - simplify(LinkedBinaryTree<String> tree)
+	 * 		 - simplify(LinkedBinaryTree<String> tree, NumericMode mode)
 	 * 
 	 * Performs inorder traversal to calculate Integer arithmetic expressions
 	 * and simplify subtrees with result. 
 	 * 
 	 * uses helper methods:
-	 * 		 - modifyPosition(LinkedBinaryTree<String> tree, Position<String> p, String element)
-	 * 		 - IsInteger(Position<String> p)
+	 * 		 - fold(LinkedBinaryTree<String> tree, Position<String> p, Position<String> left, Position<String> right, NumericMode mode)
+	 * 		 - isNumber(Position<String> p, NumericMode mode)
 	 * 
 	 * @param tree - a tree representing an arithmetic expression that is being simplified
 	 * @param treeRoot - a position that is the root of the current tree
+	 * @param mode - the arithmetic used to evaluate operators
 	 * 
 	 * @return a simplified tree
 	 */
-	private static LinkedBinaryTree<String> simplify(LinkedBinaryTree<String> tree, Position<String> treeRoot)
+	private static LinkedBinaryTree<String> simplify(LinkedBinaryTree<String> tree, Position<String> treeRoot, NumericMode mode)
 	{
 		/* pseodocode for postorder traversal taken from pg 23 of The University of Sydney INFO1105 (Goodrich, Tamassia, Goldwasser) lecture notes , week 4
 		 https://elearning.sydney.edu.au/bbcswebdav/pid-4874052-dt-content-rid-20620515_1/courses/2017_S2C_INFO1105_ND/INFO1105_Lecture4_2017.pdf */
 		//while unvisited positions with children remain in the tree, perform postorder traversal
 		if (tree.left(treeRoot) != null && tree.right(treeRoot) != null)
 		{
-			simplify(tree, tree.left(treeRoot));
-			simplify(tree, tree.right(treeRoot));	
+			simplify(tree, tree.left(treeRoot), mode);
+			simplify(tree, tree.right(treeRoot), mode);	
 		
 			Position<String> leftChild = tree.left(treeRoot);	
 			Position<String> rightChild = tree.right(treeRoot);		
-			Integer leftValue = 0;					// initialize with random value 0
-			Integer rightValue = 0;					// initialize with random value 0
-			Integer calculatedValue;
 
 			//check if left and right children hold Integer values
-			if (isInteger(leftChild) && isInteger(rightChild))
+			if (isNumber(leftChild, mode) && isNumber(rightChild, mode))
+				fold(tree, treeRoot, leftChild, rightChild, mode);
+		}
+		return tree;
+	}
+
+	/**
+	 * Helper method used by:
+	 * 		 - simplify(LinkedBinaryTree<String> tree, NumericMode mode)
+	 * 
+	 * Collects the positions on the paths from each position changed since the
+	 * tree was simplified to the root. Walking up stops at a position already
+	 * collected, so this runs in O(depth * changed positions) time at worst.
+	 * 
+	 * @param tree - a simplified tree whose elements may have been set since
+	 * 
+	 * @return the positions of the paths
+	 */
+	private static HashSet<Position<String>> changedPaths(ExpressionTree tree)
+	{
+		HashSet<Position<String>> paths = new HashSet<Position<String>>();
+		for (Position<String> p : tree.changedSinceSimplified())
+		{
+			while (p != null && paths.add(p))
 			{
-				leftValue = Integer.parseInt(leftChild.getElement());	
-				rightValue = Integer.parseInt(rightChild.getElement());
-		
-				// for case when parent contains addition operator
-				if (treeRoot.getElement().equals("+"))
-				{	
-					calculatedValue = leftValue + rightValue;
-					modifyPosition(tree, treeRoot, calculatedValue.toString());
-				}
-				// for case when parent contains negative operator
-				if (treeRoot.getElement().equals("-"))
-				{
-					calculatedValue = leftValue - rightValue;
-					modifyPosition(tree, treeRoot, calculatedValue.toString());
-				}
-				//for case when parent contains multiplying operator
-				if (treeRoot.getElement().equals("*"))
-				{
-					calculatedValue = leftValue * rightValue;
-					modifyPosition(tree, treeRoot, calculatedValue.toString());
-				}
+				p = tree.parent(p);
 			}
 		}
-		return tree;
+		return paths;
+	}
+	
+	/**
+	 * Helper method used by:
+	 * 		 - simplify(LinkedBinaryTree<String> tree, NumericMode mode)
+	 * 
+	 * Performs the postorder traversal of simplify(tree, treeRoot, mode), but
+	 * only visits the given paths: every other subtree was already simplified
+	 * and has not changed since.
+	 * 
+	 * @param tree - a tree representing an arithmetic expression that is being simplified
+	 * @param treeRoot - a position that is the root of the current tree
+	 * @param paths - the positions whose subtree may have changed
+	 * @param mode - the arithmetic used to evaluate operators
+	 */
+	private static void resimplify(LinkedBinaryTree<String> tree, Position<String> treeRoot, HashSet<Position<String>> paths,
+			NumericMode mode)
+	{
+		if (paths.contains(treeRoot) && tree.left(treeRoot) != null && tree.right(treeRoot) != null)
+		{
+			resimplify(tree, tree.left(treeRoot), paths, mode);
+			resimplify(tree, tree.right(treeRoot), paths, mode);
+			
+			Position<String> leftChild = tree.left(treeRoot);	
+			Position<String> rightChild = tree.right(treeRoot);
+			if (isNumber(leftChild, mode) && isNumber(rightChild, mode))
+				fold(tree, treeRoot, leftChild, rightChild, mode);
+		}
 	}
 
 	/**
@@ -348,143 +497,188 @@ public class Assignment
 	 */
 	public static LinkedBinaryTree<String> simplifyFancy(LinkedBinaryTree<String> tree) throws IllegalArgumentException
 	{
+		return simplifyFancy(tree, NumericMode.WRAPPING);
+	}
+	
+	/**
+	 * Applies simplifyFancy's simplifications, evaluating operators with the
+	 * given arithmetic
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @param mode
+	 *            - NumericMode.WRAPPING for int arithmetic (as simplifyFancy(tree)),
+	 *            or NumericMode.EXACT for exact results of any size
+	 * @return resulting binary tree after applying the simplifications
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression, or mode is null
+	 */
+	public static LinkedBinaryTree<String> simplifyFancy(LinkedBinaryTree<String> tree, NumericMode mode) throws IllegalArgumentException
+	{
+		long start = AssignmentMetrics.start();
+		AssignmentEvents.Simplify event = new AssignmentEvents.Simplify();
+		event.begin();
 		if (!isArithmeticExpression(tree))
 			throw new IllegalArgumentException("Tree does not represent arithmetic expression");
+		if (mode == null)
+			throw new IllegalArgumentException("mode must not be null");
 				
-		return simplifyFancy(tree, tree.root());
+		int visited = tree.size();
+		simplifyFancy(tree, tree.root(), new SubexpressionTable(), mode);
+		AssignmentMetrics.record(AssignmentMetrics.Operation.SIMPLIFY_FANCY, start, visited);
+		// every fold and rule removes positions
+		AssignmentEvents.commit(event, "simplifyFancy", tree, visited, tree.size() != visited);
+		return tree;
 	}
 	
 	/**
 	 * Helper method used by:
-	 * 		- simplifyFancy(LinkedBinaryTree<String> tree, Position<String> treeRoot)
+	 * 		- simplifyFancy(LinkedBinaryTree<String> tree, NumericMode mode)
 	 * 
 	 * Takes a binary tree representing an arithmetic expression and a position that is its root.
 	 * Uses a postorder tree traversal to visit positions in the tree and perform all simplifications
 	 * specified by simplifyFancy.
 	 * 
 	 * uses helper methods:
-	 * 		- modifyPosition(LinkedBinaryTree<String> tree, Position<String> p, String element)
+	 * 		- fold(LinkedBinaryTree<String> tree, Position<String> p, Position<String> left, Position<String> right, NumericMode mode)
 	 * 		- modifyPosition(LinkedBinaryTree<String> tree, Position<String> p, Position<String> q)
 	 * 		- IsInteger(Position<String> p)
+	 * 		- isNumber(Position<String> p, NumericMode mode)
 	 * 		- removeSubtree(LinkedBinaryTree<String> tree, Position<String> treeRoot)
 	 * 
+	 * Each subtree is given an id from table once it has been simplified, so the
+	 * (x - x) case compares the ids of the children instead of their elements.
+	 * 
 	 * @param tree - binary tree being simplified
 	 * @param treeRoot - position being visited within tree (root of subtrees)
+	 * @param table - the ids of the subtrees simplified so far
+	 * @param mode - the arithmetic used to evaluate operators
 	 * 
-	 * @return simplified tree
+	 * @return the id of the simplified subtree that has taken the place of treeRoot
 	 */
-	private static LinkedBinaryTree<String> simplifyFancy(LinkedBinaryTree<String> tree, Position<String> treeRoot)
+	private static int simplifyFancy(LinkedBinaryTree<String> tree, Position<String> treeRoot, SubexpressionTable table,
+			NumericMode mode)
 	{
 		/* pseodocode for postorder traversal taken from pg 23 of The University of Sydney INFO1105 (Goodrich, Tamassia, Goldwasser) lecture notes , week 4
 		 https://elearning.sydney.edu.au/bbcswebdav/pid-4874052-dt-content-rid-20620515_1/courses/2017_S2C_INFO1105_ND/INFO1105_Lecture4_2017.pdf */
 		// while unvisited positions with children remain in the tree, perform postorder traversal
 		if (tree.left(treeRoot) != null && tree.right(treeRoot) != null)
 		{
-			simplifyFancy(tree, tree.left(treeRoot));
-			simplifyFancy(tree, tree.right(treeRoot));
+			int leftId = simplifyFancy(tree, tree.left(treeRoot), table, mode);
+			int rightId = simplifyFancy(tree, tree.right(treeRoot), table, mode);
 	
-			// initialize with random values that are not 1 or 0 to not interfere with if statement comparison
-			Integer leftValue = -1111;				
-			Integer rightValue = -1111;
-			Integer calculatedValue;
 			Position<String> leftChild = tree.left(treeRoot);		
 			Position<String> rightChild = tree.right(treeRoot);		
 
-			// check if left child holds an Integer value and store it in leftValue if it does
-			if (isInteger(leftChild))
-				leftValue = Integer.parseInt(leftChild.getElement());	
-			// check if right child holds an Integer value and store it in rightValue if it does
-			if (isInteger(rightChild))
-				rightValue = Integer.parseInt(rightChild.getElement());
+			// check if the children hold Integer values (classified once, when the positions were set)
+			boolean leftInteger = isInteger(leftChild);
+			boolean rightInteger = isInteger(rightChild);
+			int leftValue = leftInteger ? ExpressionTree.integerValue(leftChild) : 0;
+			int rightValue = rightInteger ? ExpressionTree.integerValue(rightChild) : 0;
+			// in EXACT mode literals outside the int range are numbers too (but never 0 or 1)
+			boolean leftNumber = isNumber(leftChild, mode);
+			boolean rightNumber = isNumber(rightChild, mode);
 		
-			// for cases where position contains addition operator
-			if (treeRoot.getElement().equals("+"))
-			{	
-				// for case where both left and right children are integer values
-				if (isInteger(leftChild) && isInteger(rightChild))
-				{
-					calculatedValue = leftValue + rightValue;	
-					modifyPosition(tree, treeRoot, calculatedValue.toString());
-				}
-				// for (0 + x) case
-				else if (leftValue.equals(0))
-				{
-					modifyPosition(tree, treeRoot, leftChild);
-				}
-				// for (x + 0) case
-				else if (rightValue.equals(0))
-				{
-					modifyPosition(tree, treeRoot, rightChild);
-				}			
-			}
-			// for cases where position contains multiplication operator
-			else if (treeRoot.getElement().equals("*"))
+			switch (ExpressionTree.kindOf(treeRoot))
 			{
-				// for case where both children are integer values
-				if (isInteger(leftChild) && isInteger(rightChild))
-				{
-					calculatedValue = leftValue * rightValue;
-					modifyPosition(tree, treeRoot, calculatedValue.toString());
-				}			
-				// for (x * 1) case
-				else if (rightValue.equals(1))
-				{
-					modifyPosition(tree, treeRoot, rightChild);
-				}	
-				// for (1 * x) case
-				else if (leftValue.equals(1))
-				{
-					modifyPosition(tree, treeRoot, leftChild);
-				}	
-				// for  (x * 0) case
-				else if (rightValue.equals(0))
-				{
-					tree.set(treeRoot, "0");
-					tree.remove(rightChild);
-					removeSubtree(tree, leftChild);
-				}	
-				// for  (0 * x) case
-				else if (leftValue.equals(0))
-				{
-					tree.set(treeRoot, "0");
-					tree.remove(leftChild);
-					removeSubtree(tree, rightChild);
-				}	
-			}
-			// for cases where position contains negative operator
-			else if (treeRoot.getElement().equals("-"))
-			{
-				// for case where both children are integer values
-				if (isInteger(leftChild) && isInteger(rightChild))
-				{
-					calculatedValue = leftValue - rightValue;
-					modifyPosition(tree, treeRoot, calculatedValue.toString());
-				}
-				// for (x - 0) case
-				else if (rightValue.equals(0))
-				{
-					modifyPosition(tree, treeRoot, rightChild);
-				}
-				// for (x - x) case
-				else if (!isInteger(rightChild) && !isInteger(leftChild))
-				{
-					StringBuilder treeElements1 = new StringBuilder();
-					StringBuilder treeElements2 = new StringBuilder();
-					String leftsubTree = getTreeElements(tree, leftChild, treeElements1).toString();
-					String rightsubTree = getTreeElements(tree, rightChild, treeElements2).toString();
-
-					if (leftsubTree.equals(rightsubTree))
+				// for cases where position contains addition operator
+				case ADD:
+					// for case where both left and right children are integer values
+					if (leftNumber && rightNumber)
 					{
+						fold(tree, treeRoot, leftChild, rightChild, mode);
+						return table.leaf(treeRoot.getElement());
+					}
+					// for (0 + x) case
+					else if (leftInteger && leftValue == 0)
+					{
+						AssignmentMetrics.fired(AssignmentMetrics.Rule.ZERO_PLUS_X);
+						modifyPosition(tree, treeRoot, leftChild);
+						return rightId;
+					}
+					// for (x + 0) case
+					else if (rightInteger && rightValue == 0)
+					{
+						AssignmentMetrics.fired(AssignmentMetrics.Rule.X_PLUS_ZERO);
+						modifyPosition(tree, treeRoot, rightChild);
+						return leftId;
+					}
+					break;
+				// for cases where position contains multiplication operator
+				case MULTIPLY:
+					// for case where both children are integer values
+					if (leftNumber && rightNumber)
+					{
+						fold(tree, treeRoot, leftChild, rightChild, mode);
+						return table.leaf(treeRoot.getElement());
+					}			
+					// for (x * 1) case
+					else if (rightInteger && rightValue == 1)
+					{
+						AssignmentMetrics.fired(AssignmentMetrics.Rule.X_TIMES_ONE);
+						modifyPosition(tree, treeRoot, rightChild);
+						return leftId;
+					}	
+					// for (1 * x) case
+					else if (leftInteger && leftValue == 1)
+					{
+						AssignmentMetrics.fired(AssignmentMetrics.Rule.ONE_TIMES_X);
+						modifyPosition(tree, treeRoot, leftChild);
+						return rightId;
+					}	
+					// for  (x * 0) case
+					else if (rightInteger && rightValue == 0)
+					{
+						AssignmentMetrics.fired(AssignmentMetrics.Rule.X_TIMES_ZERO);
+						ExpressionTree.setInteger(tree, treeRoot, 0);
+						tree.remove(rightChild);
+						removeSubtree(tree, leftChild);
+						return table.leaf(treeRoot.getElement());
+					}	
+					// for  (0 * x) case
+					else if (leftInteger && leftValue == 0)
+					{
+						AssignmentMetrics.fired(AssignmentMetrics.Rule.ZERO_TIMES_X);
+						ExpressionTree.setInteger(tree, treeRoot, 0);
+						tree.remove(leftChild);
+						removeSubtree(tree, rightChild);
+						return table.leaf(treeRoot.getElement());
+					}	
+					break;
+				// for cases where position contains negative operator
+				case SUBTRACT:
+					// for case where both children are integer values
+					if (leftNumber && rightNumber)
+					{
+						fold(tree, treeRoot, leftChild, rightChild, mode);
+						return table.leaf(treeRoot.getElement());
+					}
+					// for (x - 0) case
+					else if (rightInteger && rightValue == 0)
+					{
+						AssignmentMetrics.fired(AssignmentMetrics.Rule.X_MINUS_ZERO);
+						modifyPosition(tree, treeRoot, rightChild);
+						return leftId;
+					}
+					// for (x - x) case: equal subtrees have equal ids
+					else if (!rightNumber && !leftNumber && leftId == rightId)
+					{
+						AssignmentMetrics.fired(AssignmentMetrics.Rule.X_MINUS_X);
 						//evaluate position to 0
-						tree.set(treeRoot, "0");
+						ExpressionTree.setInteger(tree, treeRoot, 0);
 						// remove left and right subtrees
 						removeSubtree(tree, leftChild);
 						removeSubtree(tree, rightChild);	
-					}	
-				}
+						return table.leaf(treeRoot.getElement());
+					}
+					break;
+				default:
+					break;
 			}
+			// no simplification applied, the operator keeps its children
+			return table.operator(ExpressionTree.kindOf(treeRoot), leftId, rightId);
 		}
-		return tree;
+		return table.leaf(treeRoot.getElement());
 	}
 			
 	/**
@@ -514,10 +708,16 @@ public class Assignment
 		
 		//check that variable name given is valid
 		if (variable == null || !(variable instanceof String) || variable.equals("+") 
-				|| variable.equals("-") || variable.equals("*") || (variable.matches("[0-9]+")))	//variable.matches taken from https://stackoverflow.com/questions/10575624/java-string-see-if-a-string-contains-only-numbers-and-not-letters
+				|| variable.equals("-") || variable.equals("*") || ExpressionTree.isDigits(variable))
 			throw new IllegalArgumentException("invalid variable: must not be an operator, only numeric or null");
 		
-		return substitute(tree, tree.root(), variable, ((Integer) value).toString());
+		long start = AssignmentMetrics.start();
+		AssignmentEvents.Substitute event = new AssignmentEvents.Substitute();
+		event.begin();
+		int replaced = substitute(tree, tree.root(), variable, ((Integer) value).toString());
+		AssignmentMetrics.record(AssignmentMetrics.Operation.SUBSTITUTE, start, tree.size());
+		AssignmentEvents.commit(event, "substitute", tree, tree.size(), replaced > 0);
+		return tree;
 	}
 	
 	/**
@@ -533,26 +733,28 @@ public class Assignment
 	 * @param variable - a variable name
 	 * @param value - an integer value in String format
 	 * 
-	 * @return a binary tree with values substituted into positions
-	 * that previously carried the given variable
+	 * @return the number of positions that carried the given variable, and
+	 * now carry the value
 	 */
-	private static LinkedBinaryTree<String> substitute(LinkedBinaryTree<String> tree, Position<String> treeRoot,
+	private static int substitute(LinkedBinaryTree<String> tree, Position<String> treeRoot,
 			String variable, String value) throws IllegalArgumentException
 	{
 		/* pseodocode for preorder traversal taken from pg 21 of The University of Sydney INFO1105 (Goodrich, Tamassia, Goldwasser) lecture notes , week 4
 		 https://elearning.sydney.edu.au/bbcswebdav/pid-4874052-dt-content-rid-20620515_1/courses/2017_S2C_INFO1105_ND/INFO1105_Lecture4_2017.pdf */
 		// while unvisited positions are in the tree, perform preorder traversal
+		int replaced = 0;
 		if (treeRoot != null)
 		{
 			// if element = given variable, replace with value
 			if (treeRoot.getElement().equals(variable))
 			{
 				tree.set(treeRoot, value); 
+				replaced++;
 			}
-			substitute(tree, tree.left(treeRoot), variable, value);
-			substitute(tree, tree.right(treeRoot), variable, value);
+			replaced += substitute(tree, tree.left(treeRoot), variable, value);
+			replaced += substitute(tree, tree.right(treeRoot), variable, value);
 		}
-		return tree;
+		return replaced;
 	}
 
 	/**
@@ -586,10 +788,16 @@ public class Assignment
 		{
 
 			if (key == null || !(key instanceof String) || key.equals("+") 
-					|| key.equals("-") || key.equals("*") || key.matches("[0-9]+"))	//variable.matches taken from https://stackoverflow.com/questions/10575624/java-string-see-if-a-string-contains-only-numbers-and-not-letters
+					|| key.equals("-") || key.equals("*") || ExpressionTree.isDigits(key))
 				throw new IllegalArgumentException("invalid variable in map: must not be an operator, only numeric or null");
 		}
-		return substitute(tree, tree.root(), map);
+		long start = AssignmentMetrics.start();
+		AssignmentEvents.Substitute event = new AssignmentEvents.Substitute();
+		event.begin();
+		int replaced = substitute(tree, tree.root(), map);
+		AssignmentMetrics.record(AssignmentMetrics.Operation.SUBSTITUTE, start, tree.size());
+		AssignmentEvents.commit(event, "substitute", tree, tree.size(), replaced > 0);
+		return tree;
 	}
 	
 	/**
@@ -603,35 +811,176 @@ public class Assignment
 	 * @param subtreeRoot - a Position that is the root of the given tree
 	 * @param mappedVariables - a map (key = String variable, value = integer value to replace variable in tree)
 	 * 
-	 * @return a tree with all variables in map, substituted with desired values.
+	 * @return the number of positions substituted with values
 	 */
-	private static LinkedBinaryTree<String> substitute(LinkedBinaryTree<String> tree, Position<String> treeRoot,
+	private static int substitute(LinkedBinaryTree<String> tree, Position<String> treeRoot,
 			HashMap<String, Integer> mappedVariables) throws IllegalArgumentException
 	{
 		/* pseodocode for preorder traversal taken from pg 21 of The University of Sydney INFO1105 (Goodrich, Tamassia, Goldwasser) lecture notes , week 4
 		 https://elearning.sydney.edu.au/bbcswebdav/pid-4874052-dt-content-rid-20620515_1/courses/2017_S2C_INFO1105_ND/INFO1105_Lecture4_2017.pdf */
 		//while unvisited Positions are still in tree, perform preorder traversal
+		int replaced = 0;
 		if (treeRoot != null)
 		{
-			//ensure map contains the variable as a key because hashMap.get() also returns null if key does not exist in map
-			if (mappedVariables.containsKey(treeRoot.getElement()))
+			// operators cannot be keys, so only operands are looked up (once, with
+			// containsKey only needed to tell a null value from a missing key)
+			if (!ExpressionTree.kindOf(treeRoot).isOperator())
 			{
 				Integer value = mappedVariables.get(treeRoot.getElement());
-				
-				// check exception for null values in map
-				if (value == null)
-					throw new IllegalArgumentException("invalid value in map: values cannot be null");
-				// substitute the corresponding value into the position
-				else
+				if (value != null)
 				{
-					String valueAsString = ((Integer) value).toString();
-					tree.set(treeRoot, valueAsString);
+					ExpressionTree.setInteger(tree, treeRoot, value);
+					replaced++;
 				}
+				// check exception for null values in map
+				else if (mappedVariables.containsKey(treeRoot.getElement()))
+					throw new IllegalArgumentException("invalid value in map: values cannot be null");
 			}
-			substitute(tree, tree.left(treeRoot), mappedVariables);
-			substitute(tree, tree.right(treeRoot), mappedVariables);
+			replaced += substitute(tree, tree.left(treeRoot), mappedVariables);
+			replaced += substitute(tree, tree.right(treeRoot), mappedVariables);
 		}
-		return tree;
+		return replaced;
+	}
+
+	/**
+	 * Given a tree, a variable label and a value, this returns a read-only
+	 * view of the tree in which all instances of that variable are replaced
+	 * with the given value. Unlike substitute, the given tree is not modified,
+	 * so one parsed tree can be bound to different values any number of times
+	 * (and from several threads at once, provided it is not modified).
+	 * 
+	 * This method does not copy the tree; the returned view can be given to
+	 * tree2prefix, tree2infix, equals, compile or isArithmeticExpression, or
+	 * copied with toTree() before using simplify or simplifyFancy
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @param variable
+	 *            - a variable label that might exist in the tree
+	 * @param value
+	 *            - an integer value that the variable represents
+	 * @return view of the tree with all instances of the specified variable
+	 *         replaced by its numeric value
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression, or the variable is an
+	 *             operator, only numeric or null
+	 */
+	public static BoundExpressionTree bind(LinkedBinaryTree<String> tree, String variable, int value)
+			throws IllegalArgumentException 
+	{
+		HashMap<String, Integer> map = new HashMap<String, Integer>();
+		map.put(variable, value);
+		return bind(tree, map);
+	}
+	
+	/**
+	 * Given a tree and a map of variable labels to values, this returns a
+	 * read-only view of the tree in which all instances of those variables are
+	 * replaced by the corresponding values, without modifying the tree (see
+	 * bind(LinkedBinaryTree<String>, String, int))
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @param map
+	 *            - a map of variable labels to integer values
+	 * @return view of the tree with all instances of variables which are keys
+	 *         in the map replaced by their numeric values
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression, or map is null, has an
+	 *             invalid variable or a null value
+	 */
+	public static BoundExpressionTree bind(LinkedBinaryTree<String> tree, HashMap<String, Integer> map)
+			throws IllegalArgumentException 
+	{
+		long start = AssignmentMetrics.start();
+		if (!isArithmeticExpression(tree))
+			throw new IllegalArgumentException("Tree does not represent arithmetic expression");
+		
+		// a view: no position is visited
+		BoundExpressionTree bound = new BoundExpressionTree(tree, map);
+		AssignmentMetrics.record(AssignmentMetrics.Operation.BIND, start, 0);
+		return bound;
+	}
+
+	/**
+	 * Given a tree, index its variables once so that values can be substituted
+	 * into it any number of times by slot, as an int[] or long[], visiting only
+	 * the positions holding variables
+	 * 
+	 * Example: for "+ * 2 x y", slot("x") is 0 and slot("y") is 1, so
+	 * substitute(new int[] {3, 4}) makes the tree "+ * 2 3 4"
+	 * 
+	 * This method runs in O(n) time, and each substitute afterwards in time
+	 * proportional to the number of variable positions
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @return an index of the variable positions of the tree
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression
+	 */
+	public static SymbolIndex index(LinkedBinaryTree<String> tree) throws IllegalArgumentException
+	{
+		long start = AssignmentMetrics.start();
+		SymbolIndex index = SymbolIndex.of(tree);
+		AssignmentMetrics.record(AssignmentMetrics.Operation.INDEX, start, tree.size());
+		return index;
+	}
+
+	/**
+	 * Given a tree, compile it once into an evaluator that can be run against
+	 * any number of variable bindings, instead of calling substitute and
+	 * simplify (which modify the tree) for every binding
+	 * 
+	 * Example: for "+ * 2 x y", slot("x") is 0 and slot("y") is 1, so
+	 * evaluate(new long[] {3, 4}) returns 10
+	 * 
+	 * This method runs in O(n) time, and does not modify the tree
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @return a compiled form of the expression, taking the value of each
+	 *         variable from an array indexed by the variable's slot
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression
+	 */
+	public static CompiledExpression compile(LinkedBinaryTree<String> tree) throws IllegalArgumentException
+	{
+		long start = AssignmentMetrics.start();
+		CompiledExpression compiled = CompiledExpression.compile(tree);
+		AssignmentMetrics.record(AssignmentMetrics.Operation.COMPILE, start, tree.size());
+		return compiled;
+	}
+
+	/**
+	 * Given a tree and a table of variable values, stored as one column (an
+	 * int[] or a long[]) per variable label, evaluate the expression for every
+	 * row of the table
+	 * 
+	 * The tree is compiled once and then evaluated a chunk of rows at a time
+	 * (see CompiledExpression.evaluate(Map, long[])), with no boxing and no
+	 * per-row maps or trees
+	 * 
+	 * This method runs in O(n + rows * n) time, and does not modify the tree
+	 * 
+	 * @param tree
+	 *            - a tree representing an arithmetic expression
+	 * @param columns
+	 *            - a map of variable labels to columns of values
+	 * @param results
+	 *            - array to fill with the value of the expression in each row
+	 * @throws IllegalArgumentException
+	 *             if tree was not a valid expression, or a variable in the tree
+	 *             has no column (or a column with too few rows)
+	 * @throws ArithmeticException
+	 *             if a result does not fit in a long
+	 */
+	public static void evaluate(LinkedBinaryTree<String> tree, Map<String, ?> columns, long[] results)
+			throws IllegalArgumentException, ArithmeticException
+	{
+		long start = AssignmentMetrics.start();
+		compile(tree).evaluate(columns, results);
+		AssignmentMetrics.record(AssignmentMetrics.Operation.EVALUATE, start, (long) tree.size() * results.length);
 	}
 
 	/**
@@ -640,6 +989,9 @@ public class Assignment
 	 * 
 	 * Ideally, this method should run in O(n) expected time
 	 * 
+	 * For an ExpressionTree, such as any tree returned by prefix2tree, this runs
+	 * in O(1) time, so the validation done by each of the other methods is free
+	 * 
 	 * @param tree
 	 *            - a tree representing an arithmetic expression
 	 * @return true if the tree is not null and it obeys the structure of an
@@ -647,10 +999,30 @@ public class Assignment
 	 */
 	public static boolean isArithmeticExpression(LinkedBinaryTree<String> tree) 
 	{
+		long start = AssignmentMetrics.start();
+		AssignmentEvents.Validate event = new AssignmentEvents.Validate();
+		event.begin();
+		boolean valid;
+		int visited = 0;
 		if (tree == null || tree.root() == null)
-			return false;
-		
-		return isArithmeticExpression(tree, tree.root());
+			valid = false;
+		// an ExpressionTree (e.g. from prefix2tree) keeps its validity up to date as it changes
+		else if (tree instanceof ExpressionTree)
+			valid = ((ExpressionTree) tree).isArithmeticExpression();
+		// binding variables of a valid template only replaces leaves by integers
+		else if (tree instanceof BoundExpressionTree && isArithmeticExpression(((BoundExpressionTree) tree).template()))
+			valid = true;
+		// an ImmutableExpressionTree is checked when it is made, and cannot change
+		else if (tree instanceof ImmutableExpressionTree)
+			valid = true;
+		else
+		{
+			valid = isArithmeticExpression(tree, tree.root());
+			visited = tree.size();
+		}
+		AssignmentMetrics.record(AssignmentMetrics.Operation.IS_ARITHMETIC_EXPRESSION, start, visited);
+		AssignmentEvents.commit(event, "isArithmeticExpression", tree, (tree == null) ? 0 : tree.size(), false);
+		return valid;
 	}
 	
 	/**
@@ -672,14 +1044,14 @@ public class Assignment
 		Boolean leftSubtreeFlag = null;
 		Boolean rightSubtreeFlag = null;
 		
+		boolean isOperator = ExpressionTree.kindOf(treeRoot).isOperator();
+		
 		//return false if tree is single position with operator
-		if ((tree.size() == 1) 
-				&& (treeRoot.getElement().equals("+") || treeRoot.getElement().equals("-") || treeRoot.getElement().equals("*")))
+		if ((tree.size() == 1) && isOperator)
 			return false;
 		
 		// return false if position is leaf and contains operand
-		if ((tree.left(treeRoot) == null && tree.right(treeRoot) == null)
-				&& (treeRoot.getElement().equals("+") || treeRoot.getElement().equals("-") || treeRoot.getElement().equals("*")))
+		if ((tree.left(treeRoot) == null && tree.right(treeRoot) == null) && isOperator)
 			return false;
 		
 		// return false if position only has 1 child (must be proper tree)
@@ -691,7 +1063,7 @@ public class Assignment
 		//else return result of recursive method call on left and right subtrees for tree traversal
 		if (tree.left(treeRoot) != null && tree.right(treeRoot) != null)
 		{
-			if (!treeRoot.getElement().equals("+") && !treeRoot.getElement().equals("-") && !treeRoot.getElement().equals("*"))
+			if (!isOperator)
 				return false;
 	
 			leftSubtreeFlag = isArithmeticExpression(tree, tree.left(treeRoot));
@@ -715,6 +1087,7 @@ public class Assignment
 	 * 			- simplifyFancy(LinkedBinaryTree<String> tree, Position<String> treeRoot)
 	 * 
 	 * checks if a position carries an element which can be converted to an Integer type
+	 * (positions of an ExpressionTree are classified once, when their element is set)
 	 * 
 	 * @param p - a position in a tree
 	 * 
@@ -722,14 +1095,206 @@ public class Assignment
 	 */
 	private static boolean isInteger(Position<String> p)
 	{
-		try
-		{
-			Integer.parseInt(p.getElement());
+		return ExpressionTree.kindOf(p) == ExpressionTree.Kind.INTEGER;
+	}
+	
+	/**
+	 * Helper method used by:
+	 * 			- simplify(LinkedBinaryTree<String> tree, Position<String> treeRoot, NumericMode mode)
+	 * 			- simplifyFancy(LinkedBinaryTree<String> tree, Position<String> treeRoot, SubexpressionTable table, NumericMode mode)
+	 * 
+	 * checks if a position carries an integer the given arithmetic can evaluate: an
+	 * int, or in EXACT mode an integer literal of any length
+	 * 
+	 * @param p - a position in a tree
+	 * @param mode - the arithmetic used to evaluate operators
+	 * 
+	 * @return true if the element is an integer in the given mode, false otherwise
+	 */
+	private static boolean isNumber(Position<String> p, NumericMode mode)
+	{
+		ExpressionTree.Kind kind = ExpressionTree.kindOf(p);
+		if (kind == ExpressionTree.Kind.INTEGER)
 			return true;
+		// literals outside the int range are classified as variables
+		return mode == NumericMode.EXACT && kind == ExpressionTree.Kind.VARIABLE && isIntegerLiteral(p.getElement());
+	}
+	
+	/**
+	 * @param element - an element of a position (possibly null)
+	 * @return true if the element is an optional sign followed by one or more
+	 *         digits, as new BigInteger(element) would accept
+	 */
+	static boolean isIntegerLiteral(String element)
+	{
+		if (element == null || element.isEmpty())
+			return false;
+		int start = (element.charAt(0) == '-' || element.charAt(0) == '+') ? 1 : 0;
+		if (start == element.length())
+			return false;
+		for (int i = start; i < element.length(); i++)
+		{
+			if (Character.digit(element.charAt(i), 10) < 0)
+				return false;
 		}
-		catch(NumberFormatException e)
+		return true;
+	}
+	
+	/**
+	 * Helper method used by:
+	 * 			- simplify(LinkedBinaryTree<String> tree, Position<String> treeRoot, NumericMode mode)
+	 * 			- simplifyFancy(LinkedBinaryTree<String> tree, Position<String> treeRoot, SubexpressionTable table, NumericMode mode)
+	 * 
+	 * Evaluates the operator at p, whose children are both numbers in the given mode,
+	 * replacing p with the result and removing its children
+	 * 
+	 * @param tree - any tree of the LinkedBinaryTree class
+	 * @param p - a position holding an operator
+	 * @param left - the left child of p
+	 * @param right - the right child of p
+	 * @param mode - the arithmetic used to evaluate the operator
+	 */
+	private static void fold(LinkedBinaryTree<String> tree, Position<String> p, Position<String> left, Position<String> right,
+			NumericMode mode)
+	{
+		AssignmentMetrics.fold();
+		ExpressionTree.Kind operator = ExpressionTree.kindOf(p);
+		if (mode == NumericMode.EXACT)
 		{
-			return false;
+			if (isInteger(left) && isInteger(right))
+			{
+				// the exact result of an operator on two ints always fits in a long
+				long leftValue = ExpressionTree.integerValue(left);
+				long rightValue = ExpressionTree.integerValue(right);
+				modifyPosition(tree, p, operator == ExpressionTree.Kind.ADD ? leftValue + rightValue
+						: operator == ExpressionTree.Kind.SUBTRACT ? leftValue - rightValue : leftValue * rightValue);
+			}
+			else
+				foldExact(tree, p, operator, left.getElement(), right.getElement());
+			return;
+		}
+
+		int leftValue = ExpressionTree.integerValue(left);	
+		int rightValue = ExpressionTree.integerValue(right);
+		switch (operator)
+		{
+			// for case when parent contains addition operator
+			case ADD:
+				modifyPosition(tree, p, leftValue + rightValue);
+				break;
+			// for case when parent contains negative operator
+			case SUBTRACT:
+				modifyPosition(tree, p, leftValue - rightValue);
+				break;
+			//for case when parent contains multiplying operator
+			case MULTIPLY:
+				modifyPosition(tree, p, leftValue * rightValue);
+				break;
+			default:
+				break;
+		}
+	}
+	
+	/**
+	 * Helper method used by:
+	 * 			- fold(LinkedBinaryTree<String> tree, Position<String> p, Position<String> left, Position<String> right, NumericMode mode)
+	 * 
+	 * Evaluates an operator on two integer literals, at least one outside the int
+	 * range. Literals of up to 18 digits are parsed as longs and evaluated with
+	 * Math.*Exact; BigInteger is used for longer literals, or when a result
+	 * overflows a long.
+	 * 
+	 * @param tree - any tree of the LinkedBinaryTree class
+	 * @param p - a position holding an operator
+	 * @param operator - the kind of p
+	 * @param left - the element of the left child of p
+	 * @param right - the element of the right child of p
+	 */
+	private static void foldExact(LinkedBinaryTree<String> tree, Position<String> p, ExpressionTree.Kind operator,
+			String left, String right)
+	{
+		if (fitsLong(left) && fitsLong(right))
+		{
+			long leftValue = Long.parseLong(left);
+			long rightValue = Long.parseLong(right);
+			try
+			{
+				switch (operator)
+				{
+					case ADD:
+						modifyPosition(tree, p, Math.addExact(leftValue, rightValue));
+						return;
+					case SUBTRACT:
+						modifyPosition(tree, p, Math.subtractExact(leftValue, rightValue));
+						return;
+					default:
+						modifyPosition(tree, p, Math.multiplyExact(leftValue, rightValue));
+						return;
+				}
+			}
+			catch (ArithmeticException e)
+			{
+				// the result overflows a long, so is evaluated again as a BigInteger
+			}
+		}
+		
+		BigInteger leftValue = new BigInteger(left);
+		BigInteger rightValue = new BigInteger(right);
+		BigInteger result;
+		switch (operator)
+		{
+			case ADD:
+				result = leftValue.add(rightValue);
+				break;
+			case SUBTRACT:
+				result = leftValue.subtract(rightValue);
+				break;
+			default:
+				result = leftValue.multiply(rightValue);
+				break;
+		}
+		if (result.bitLength() < 32)
+			modifyPosition(tree, p, result.intValue());
+		else
+		{
+			tree.set(p, result.toString());
+			tree.remove(tree.left(p));
+			tree.remove(tree.right(p));
+		}
+	}
+	
+	/**
+	 * @param literal - an integer literal
+	 * @return true if the literal has at most 18 digits, so Long.parseLong accepts it
+	 */
+	static boolean fitsLong(String literal)
+	{
+		char first = literal.charAt(0);
+		return literal.length() - ((first == '-' || first == '+') ? 1 : 0) <= 18;
+	}
+	
+	/**
+	 * Overloaded Helper method used by: 
+	 * 			- fold(LinkedBinaryTree<String> tree, Position<String> p, Position<String> left, Position<String> right, NumericMode mode)
+	 * 			- foldExact(LinkedBinaryTree<String> tree, Position<String> p, ExpressionTree.Kind operator, String left, String right)
+	 * 
+	 * This version inserts a long value into a given Position and removes the
+	 * Position's children from the tree, without converting an int value to a
+	 * String and parsing it again
+	 * 
+	 * @param tree - any tree of the LinkedBinaryTree class
+	 * @param p	- any position within the tree
+	 * @param value - an integer to become the element held in the position
+	 */
+	private static void modifyPosition(LinkedBinaryTree<String> tree, Position<String> p, long value)
+	{
+		if ((int) value == value)
+			modifyPosition(tree, p, (int) value);
+		else
+		{
+			tree.set(p, Long.toString(value));
+			tree.remove(tree.left(p));
+			tree.remove(tree.right(p));
 		}
 	}
 	
@@ -738,16 +1303,16 @@ public class Assignment
 	 * 			- simplify(LinkedBinaryTree<String> tree, Position<String> treeRoot)
 	 * 			- simplifyFancy(LinkedBinaryTree<String> tree, Position<String> treeRoot)
 	 * 
-	 * This version inserts a desired String value into a given Position and 
+	 * This version inserts a desired Integer value into a given Position and 
 	 * removes the Position's children from the tree
 	 * 
 	 * @param tree - any tree of the LinkedBinaryTree class
 	 * @param p	- any position within the tree
-	 * @param element - a String to become the element held in the position
+	 * @param value - an integer to become the element held in the position
 	 */
-	private static void modifyPosition(LinkedBinaryTree<String> tree, Position<String> p, String element)
+	private static void modifyPosition(LinkedBinaryTree<String> tree, Position<String> p, int value)
 	{
-		tree.set(p, element);
+		ExpressionTree.setInteger(tree, p, value);
 		tree.remove(tree.left(p));
 		tree.remove(tree.right(p));
 	}
@@ -792,30 +1357,4 @@ public class Assignment
 		}
 		return tree; 
 	}
-	
-	/**
-	 * Helper method used by:
-	 * 		- simplifyFancy(LinkedBinaryTree<String> tree, Position<String> treeRoot)
-	 * 
-	 * Takes a tree rooted at treeRoot and returns 
-	 * a concatenation of the elements in prefix order
-	 * 
-	 * @param tree - any binary tree
-	 * @param treeRoot - a Position in the tree
-	 * @param elements - A StringBuilder object to create the return String
-	 * 
-	 * @return a String of concatenated elements in prefix order
-	 */
-	private static StringBuilder getTreeElements(LinkedBinaryTree<String> tree, Position<String> treeRoot, StringBuilder elements)
-	{
-		// pseudocode used to guide code from https://en.wikipedia.org/wiki/Binary_expression_tree#Prefix_traversal
-		// while unvisited positions remain in the tree peform preorder traversal
-		if (treeRoot != null)
-		{
-			elements.append(treeRoot.getElement());
-			getTreeElements(tree, tree.left(treeRoot), elements);
-			getTreeElements(tree, tree.right(treeRoot), elements);
-		}
-		return elements;
-	}
 }
\ No newline at end of file
@@ -0,0 +1,228 @@
+import java.util.ArrayDeque;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+/**
+ * JDK Flight Recorder events for the phases of Assignment, so a recording
+ * shows each slow call as one event, with the expression it worked on,
+ * rather than as thousands of nested recursive frames:
+ * 		Assignment.Parse		- prefix2tree, infix2tree
+ * 		Assignment.Validate		- isArithmeticExpression
+ * 		Assignment.Simplify		- simplify, simplifyFancy
+ * 		Assignment.Substitute	- substitute
+ * 		Assignment.Serialize	- tree2prefix, tree2infix
+ *
+ * Each event gives the size of the tree when the call started, the size and
+ * depth of the tree it left, whether the call changed the tree, and the
+ * start of the resulting expression in prefix notation (or, for Serialize,
+ * of the text written). The depth and the expression are only worked out
+ * for events which are recorded: those lasting at least the threshold (1 ms
+ * by default), while a recording which enables them is running.
+ *
+ * Example:
+ * 		java -XX:StartFlightRecording:filename=rec.jfr ...
+ * 		jfr print --events Assignment.Simplify rec.jfr
+ * or, for every call, "Assignment.Simplify#threshold=0 ms" in the settings.
+ */
+final class AssignmentEvents
+{
+	// characters of an expression kept in an event
+	static final int MAX_EXPRESSION = 200;
+
+	private AssignmentEvents()
+	{
+	}
+
+	/**
+	 * The fields every event of Assignment has
+	 */
+	@Category("Assignment")
+	@StackTrace(false)
+	abstract static class ExpressionEvent extends Event
+	{
+		@Label("Operation")
+		@Description("The method of Assignment called")
+		String operation;
+
+		@Label("Tree Size")
+		@Description("Positions in the tree when the call started")
+		int treeSize;
+
+		@Label("Result Size")
+		@Description("Positions in the tree when the call ended")
+		int resultSize;
+
+		@Label("Result Depth")
+		@Description("Depth of the tree when the call ended (0 for a single position)")
+		int resultDepth;
+
+		@Label("Rewritten")
+		@Description("Whether the call changed the tree")
+		boolean rewritten;
+
+		@Label("Expression")
+		@Description("The start of the resulting expression, in prefix notation")
+		String expression;
+	}
+
+	@Name("Assignment.Parse")
+	@Label("Parse Expression")
+	@Threshold("1 ms")
+	static final class Parse extends ExpressionEvent
+	{
+	}
+
+	@Name("Assignment.Validate")
+	@Label("Validate Tree")
+	@Threshold("1 ms")
+	static final class Validate extends ExpressionEvent
+	{
+	}
+
+	@Name("Assignment.Simplify")
+	@Label("Simplify Tree")
+	@Threshold("1 ms")
+	static final class Simplify extends ExpressionEvent
+	{
+	}
+
+	@Name("Assignment.Substitute")
+	@Label("Substitute Variables")
+	@Threshold("1 ms")
+	static final class Substitute extends ExpressionEvent
+	{
+	}
+
+	@Name("Assignment.Serialize")
+	@Label("Serialize Tree")
+	@Threshold("1 ms")
+	static final class Serialize extends ExpressionEvent
+	{
+	}
+
+	/**
+	 * Ends an event begun when an operation started, and commits it if it
+	 * is to be recorded
+	 *
+	 * @param event - the event
+	 * @param operation - the name of the method of Assignment
+	 * @param tree - the tree the operation built or worked on (or null)
+	 * @param treeSize - the size of the tree when the operation started
+	 * @param rewritten - whether the operation changed the tree
+	 */
+	static void commit(ExpressionEvent event, String operation, LinkedBinaryTree<String> tree, int treeSize, boolean rewritten)
+	{
+		commit(event, operation, tree, treeSize, rewritten, null);
+	}
+
+	/**
+	 * As commit(event, operation, tree, treeSize, rewritten), for an
+	 * operation which wrote the tree out as text
+	 *
+	 * @param text - what the operation wrote (or null to write the tree in
+	 * 				prefix notation)
+	 */
+	static void commit(ExpressionEvent event, String operation, LinkedBinaryTree<String> tree, int treeSize, boolean rewritten,
+			String text)
+	{
+		event.end();
+		if (event.shouldCommit())
+		{
+			event.operation = operation;
+			event.treeSize = treeSize;
+			event.rewritten = rewritten;
+			if (tree != null && tree.root() != null)
+			{
+				event.resultSize = tree.size();
+				event.resultDepth = depth(tree);
+				event.expression = (text != null) ? truncate(text) : prefix(tree);
+			}
+			event.commit();
+		}
+	}
+
+	/**
+	 * Helper method used by:
+	 * 		- commit(ExpressionEvent event, String operation, LinkedBinaryTree<String> tree, int treeSize, boolean rewritten, String text)
+	 *
+	 * Finds the depth of a tree with an explicit stack, so deep trees (which
+	 * prefix2tree builds without recursion) cannot overflow the thread stack
+	 *
+	 * @param tree - a tree with a root
+	 * @return the number of edges on its longest path from the root
+	 */
+	static int depth(LinkedBinaryTree<String> tree)
+	{
+		int deepest = 0;
+		ArrayDeque<Position<String>> positions = new ArrayDeque<Position<String>>();
+		ArrayDeque<Integer> depths = new ArrayDeque<Integer>();
+		positions.push(tree.root());
+		depths.push(0);
+		while (!positions.isEmpty())
+		{
+			Position<String> p = positions.pop();
+			int depth = depths.pop();
+			deepest = Math.max(deepest, depth);
+			Position<String> left = tree.left(p);
+			Position<String> right = tree.right(p);
+			if (left != null)
+			{
+				positions.push(left);
+				depths.push(depth + 1);
+			}
+			if (right != null)
+			{
+				positions.push(right);
+				depths.push(depth + 1);
+			}
+		}
+		return deepest;
+	}
+
+	/**
+	 * Helper method used by:
+	 * 		- commit(ExpressionEvent event, String operation, LinkedBinaryTree<String> tree, int treeSize, boolean rewritten, String text)
+	 *
+	 * Writes the elements of a tree in preorder, separated by spaces, until
+	 * MAX_EXPRESSION characters are written. Unlike ExpressionWriter.prefix it
+	 * does not validate the tree (which would begin a Validate event of its
+	 * own) and visits no more positions than it writes.
+	 *
+	 * @param tree - a tree with a root
+	 * @return the start of the tree in prefix notation, ending in "..." if cut short
+	 */
+	static String prefix(LinkedBinaryTree<String> tree)
+	{
+		StringBuilder builder = new StringBuilder();
+		ArrayDeque<Position<String>> positions = new ArrayDeque<Position<String>>();
+		positions.push(tree.root());
+		while (!positions.isEmpty())
+		{
+			if (builder.length() > MAX_EXPRESSION)
+				return builder.substring(0, MAX_EXPRESSION) + "...";
+			Position<String> p = positions.pop();
+			if (builder.length() > 0)
+				builder.append(' ');
+			builder.append(p.getElement());
+			if (tree.right(p) != null)
+				positions.push(tree.right(p));
+			if (tree.left(p) != null)
+				positions.push(tree.left(p));
+		}
+		return truncate(builder.toString());
+	}
+
+	private static String truncate(String expression)
+	{
+		return (expression.length() <= MAX_EXPRESSION) ? expression : expression.substring(0, MAX_EXPRESSION) + "...";
+	}
+}
@@ -0,0 +1,502 @@
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * Optional instrumentation of the public operations of Assignment: for each
+ * operation the number of calls, the positions they visited and a histogram
+ * of their latency, and for simplify and simplifyFancy the operators folded
+ * into integers and the simplifyFancy rules applied.
+ *
+ * Instrumentation is off unless enabled with setEnabled(true) (or the
+ * system property "assignment.metrics=true"), and while it is off each
+ * operation reads one volatile boolean and does nothing else. While it is
+ * on, each call reads the clock twice and updates a few LongAdders, so
+ * threads calling operations at once do not contend.
+ *
+ * The metrics are published as MXBeans by register() (and at start up with
+ * "assignment.metrics=true"):
+ * 		Assignment:type=Metrics							- AssignmentMetricsMXBean: enabled, folds, rules, reset()
+ * 		Assignment:type=Operation,name=SIMPLIFY_FANCY	- OperationMXBean of each Operation
+ * so they can be watched with jconsole or any JMX client.
+ *
+ * The latency of an operation includes the operations it calls (simplify
+ * validates its tree with isArithmeticExpression, evaluate compiles it), and
+ * a call which throws an exception is not recorded.
+ */
+public final class AssignmentMetrics
+{
+	/**
+	 * The public operations of Assignment (each covering every overload)
+	 */
+	public enum Operation
+	{
+		PREFIX2TREE, INFIX2TREE, EQUALS, TREE2PREFIX, TREE2INFIX, SIMPLIFY, SIMPLIFY_FANCY,
+		SUBSTITUTE, BIND, INDEX, COMPILE, EVALUATE, IS_ARITHMETIC_EXPRESSION
+	}
+
+	/**
+	 * The rules simplifyFancy applies besides folding operators on integers
+	 */
+	public enum Rule
+	{
+		ZERO_PLUS_X, X_PLUS_ZERO, ONE_TIMES_X, X_TIMES_ONE, ZERO_TIMES_X, X_TIMES_ZERO, X_MINUS_ZERO, X_MINUS_X
+	}
+
+	/**
+	 * The metrics of all operations
+	 */
+	public interface AssignmentMetricsMXBean
+	{
+		boolean isEnabled();
+
+		void setEnabled(boolean enabled);
+
+		/**
+		 * @return operators evaluated to an integer by simplify and simplifyFancy
+		 */
+		long getFolds();
+
+		/**
+		 * @return the times each Rule was applied, by name
+		 */
+		Map<String, Long> getRules();
+
+		/**
+		 * Sets every count and histogram to 0
+		 */
+		void reset();
+	}
+
+	/**
+	 * The metrics of one operation
+	 */
+	public interface OperationMXBean
+	{
+		/**
+		 * @return completed calls
+		 */
+		long getCalls();
+
+		/**
+		 * @return positions visited: those of the trees built, written,
+		 *         validated or traversed (0 for a tree whose validity is known)
+		 */
+		long getNodesVisited();
+
+		long getTotalNanos();
+
+		double getMeanNanos();
+
+		long getMaxNanos();
+
+		/**
+		 * @return latency at most half the calls took, in nanoseconds (to within 12.5%)
+		 */
+		long getP50Nanos();
+
+		long getP99Nanos();
+
+		long getP999Nanos();
+	}
+
+	// returned by start() while instrumentation is off (System.nanoTime() will not return it in practice)
+	private static final long DISABLED = Long.MIN_VALUE;
+
+	// latencies below this are counted exactly, those above in 8 buckets per power of 2
+	private static final int SUB_BUCKETS = 8;
+	private static final int BUCKETS = (64 - 3 + 1) * SUB_BUCKETS;
+
+	private static volatile boolean enabled = Boolean.getBoolean("assignment.metrics");
+
+	private static final EnumMap<Operation, OperationMetrics> OPERATIONS = new EnumMap<Operation, OperationMetrics>(Operation.class);
+	private static final LongAdder FOLDS = new LongAdder();
+	private static final LongAdder[] RULES = new LongAdder[Rule.values().length];
+
+	static
+	{
+		for (Operation operation : Operation.values())
+		{
+			OPERATIONS.put(operation, new OperationMetrics());
+		}
+		for (int i = 0; i < RULES.length; i++)
+		{
+			RULES[i] = new LongAdder();
+		}
+		if (enabled)
+		{
+			try
+			{
+				register(ManagementFactory.getPlatformMBeanServer());
+			}
+			catch (JMException e)
+			{
+				// the metrics are still recorded, and can be read through this class
+			}
+		}
+	}
+
+	private AssignmentMetrics()
+	{
+	}
+
+	/**
+	 * @return true if operations are being recorded
+	 */
+	public static boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * @param enabled - whether to record operations from now on
+	 */
+	public static void setEnabled(boolean enabled)
+	{
+		AssignmentMetrics.enabled = enabled;
+	}
+
+	/**
+	 * @param operation - an operation of Assignment
+	 * @return its metrics
+	 */
+	public static OperationMXBean operation(Operation operation)
+	{
+		return OPERATIONS.get(operation);
+	}
+
+	/**
+	 * @return operators evaluated to an integer by simplify and simplifyFancy
+	 */
+	public static long folds()
+	{
+		return FOLDS.sum();
+	}
+
+	/**
+	 * @param rule - a rule of simplifyFancy
+	 * @return the times it was applied
+	 */
+	public static long rule(Rule rule)
+	{
+		return RULES[rule.ordinal()].sum();
+	}
+
+	/**
+	 * Sets every count and histogram to 0
+	 */
+	public static void reset()
+	{
+		for (OperationMetrics metrics : OPERATIONS.values())
+		{
+			metrics.reset();
+		}
+		FOLDS.reset();
+		for (LongAdder rule : RULES)
+		{
+			rule.reset();
+		}
+	}
+
+	/**
+	 * Publishes the metrics in the platform MBeanServer
+	 *
+	 * @throws JMException
+	 * 				if they could not be registered (or already are)
+	 */
+	public static void register() throws JMException
+	{
+		register(ManagementFactory.getPlatformMBeanServer());
+	}
+
+	/**
+	 * Publishes the metrics in an MBeanServer, under the names given in the
+	 * description of this class
+	 *
+	 * @param server - where to register the MXBeans
+	 * @throws JMException
+	 * 				if they could not be registered (or already are)
+	 */
+	public static void register(MBeanServer server) throws JMException
+	{
+		if (server.isRegistered(name()))
+			throw new InstanceAlreadyExistsException(name().toString());
+		server.registerMBean(new Global(), name());
+		for (Operation operation : Operation.values())
+		{
+			server.registerMBean(OPERATIONS.get(operation), name(operation));
+		}
+	}
+
+	/**
+	 * Removes the metrics from an MBeanServer
+	 *
+	 * @param server - where the MXBeans were registered
+	 * @throws JMException
+	 * 				if they were not registered
+	 */
+	public static void unregister(MBeanServer server) throws JMException
+	{
+		if (!server.isRegistered(name()))
+			throw new InstanceNotFoundException(name().toString());
+		server.unregisterMBean(name());
+		for (Operation operation : Operation.values())
+		{
+			server.unregisterMBean(name(operation));
+		}
+	}
+
+	/**
+	 * @return the name of the AssignmentMetricsMXBean
+	 */
+	public static ObjectName name() throws MalformedObjectNameException
+	{
+		return new ObjectName("Assignment:type=Metrics");
+	}
+
+	/**
+	 * @param operation - an operation of Assignment
+	 * @return the name of its OperationMXBean
+	 */
+	public static ObjectName name(Operation operation) throws MalformedObjectNameException
+	{
+		return new ObjectName("Assignment:type=Operation,name=" + operation.name());
+	}
+
+	/**
+	 * Called on entering an operation
+	 *
+	 * @return the time to give record, or DISABLED
+	 */
+	static long start()
+	{
+		return enabled ? System.nanoTime() : DISABLED;
+	}
+
+	/**
+	 * Called on leaving an operation
+	 *
+	 * @param operation - the operation left
+	 * @param start - what start() returned on entering it
+	 * @param nodes - the number of positions visited
+	 */
+	static void record(Operation operation, long start, long nodes)
+	{
+		if (start != DISABLED)
+			OPERATIONS.get(operation).record(System.nanoTime() - start, nodes);
+	}
+
+	/**
+	 * Called by simplify and simplifyFancy for each operator folded
+	 */
+	static void fold()
+	{
+		if (enabled)
+			FOLDS.increment();
+	}
+
+	/**
+	 * Called by simplifyFancy for each rule applied
+	 */
+	static void fired(Rule rule)
+	{
+		if (enabled)
+			RULES[rule.ordinal()].increment();
+	}
+
+	/**
+	 * Helper method used by:
+	 * 		- OperationMetrics.record(long nanos, long nodes)
+	 *
+	 * @param nanos - a latency
+	 * @return the bucket of the histogram counting it: values below 8 have a
+	 *         bucket each, larger ones share one of 8 buckets per power of 2
+	 */
+	static int bucket(long nanos)
+	{
+		if (nanos < SUB_BUCKETS)
+			return (int) Math.max(nanos, 0);
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int sub = (int) (nanos >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+		return (exponent - 2) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @param bucket - a bucket of the histogram
+	 * @return the largest latency it counts
+	 */
+	static long bucketLimit(int bucket)
+	{
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		int exponent = bucket / SUB_BUCKETS + 2;
+		long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 3);
+		return lower + (1L << (exponent - 3)) - 1;
+	}
+
+	private static final class Global implements AssignmentMetricsMXBean
+	{
+		@Override
+		public boolean isEnabled()
+		{
+			return AssignmentMetrics.isEnabled();
+		}
+
+		@Override
+		public void setEnabled(boolean enabled)
+		{
+			AssignmentMetrics.setEnabled(enabled);
+		}
+
+		@Override
+		public long getFolds()
+		{
+			return folds();
+		}
+
+		@Override
+		public Map<String, Long> getRules()
+		{
+			Map<String, Long> rules = new LinkedHashMap<String, Long>();
+			for (Rule rule : Rule.values())
+			{
+				rules.put(rule.name(), rule(rule));
+			}
+			return rules;
+		}
+
+		@Override
+		public void reset()
+		{
+			AssignmentMetrics.reset();
+		}
+	}
+
+	private static final class OperationMetrics implements OperationMXBean
+	{
+		private final LongAdder calls = new LongAdder();
+		private final LongAdder nodes = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final LongAccumulator maxNanos = new LongAccumulator(new LongBinaryOperator()
+		{
+			@Override
+			public long applyAsLong(long left, long right)
+			{
+				return Math.max(left, right);
+			}
+		}, 0);
+		private final LongAdder[] histogram = new LongAdder[BUCKETS];
+
+		private OperationMetrics()
+		{
+			for (int i = 0; i < histogram.length; i++)
+			{
+				histogram[i] = new LongAdder();
+			}
+		}
+
+		private void record(long nanos, long nodes)
+		{
+			calls.increment();
+			this.nodes.add(nodes);
+			totalNanos.add(nanos);
+			maxNanos.accumulate(nanos);
+			histogram[bucket(nanos)].increment();
+		}
+
+		private void reset()
+		{
+			calls.reset();
+			nodes.reset();
+			totalNanos.reset();
+			maxNanos.reset();
+			for (LongAdder bucket : histogram)
+			{
+				bucket.reset();
+			}
+		}
+
+		@Override
+		public long getCalls()
+		{
+			return calls.sum();
+		}
+
+		@Override
+		public long getNodesVisited()
+		{
+			return nodes.sum();
+		}
+
+		@Override
+		public long getTotalNanos()
+		{
+			return totalNanos.sum();
+		}
+
+		@Override
+		public double getMeanNanos()
+		{
+			long count = getCalls();
+			return (count == 0) ? 0 : (double) getTotalNanos() / count;
+		}
+
+		@Override
+		public long getMaxNanos()
+		{
+			return maxNanos.get();
+		}
+
+		@Override
+		public long getP50Nanos()
+		{
+			return percentile(50);
+		}
+
+		@Override
+		public long getP99Nanos()
+		{
+			return percentile(99);
+		}
+
+		@Override
+		public long getP999Nanos()
+		{
+			return percentile(99.9);
+		}
+
+		// the limit of the bucket holding the call of that rank (at most the maximum)
+		private long percentile(double percentile)
+		{
+			long[] counts = new long[histogram.length];
+			long total = 0;
+			for (int i = 0; i < counts.length; i++)
+			{
+				counts[i] = histogram[i].sum();
+				total += counts[i];
+			}
+			if (total == 0)
+				return 0;
+			long rank = Math.max((long) Math.ceil(percentile / 100 * total), 1);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++)
+			{
+				seen += counts[i];
+				if (seen >= rank)
+					return Math.min(bucketLimit(i), getMaxNanos());
+			}
+			return getMaxNanos();
+		}
+	}
+}
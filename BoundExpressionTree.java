@@ -0,0 +1,222 @@
+import java.util.HashMap;
+import java.util.Map;
+
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+/**
+ * A read-only view of a tree representing an arithmetic expression, in which
+ * variables are replaced by integer values, without changing (or copying)
+ * the underlying template tree.
+ *
+ * Creating a view is O(1) apart from converting the values to Strings.
+ * Positions of the template are handed out as they are, except for variable
+ * positions with a value, which are handed out as lightweight positions
+ * holding that value. Any number of views of one template may be used at
+ * the same time, from any number of threads, as long as the template itself
+ * is no longer modified.
+ *
+ * Methods which modify a tree (set, addRoot, addLeft, addRight, remove and
+ * attach) throw UnsupportedOperationException, so in-place operations such
+ * as Assignment.simplify must be given toTree() instead; read-only
+ * operations such as Assignment.tree2prefix, tree2infix, equals, compile and
+ * isArithmeticExpression can be given the view directly.
+ */
+public class BoundExpressionTree extends LinkedBinaryTree<String>
+{
+	/**
+	 * A variable position of the template, seen through the view with its value
+	 */
+	private static final class BoundPosition implements Position<String>
+	{
+		private final Position<String> variable;
+		private final String value;
+
+		private BoundPosition(Position<String> variable, String value)
+		{
+			this.variable = variable;
+			this.value = value;
+		}
+
+		@Override
+		public String getElement()
+		{
+			return value;
+		}
+	}
+
+	private final LinkedBinaryTree<String> template;
+	// value (already converted to a String) of each bound variable
+	private final HashMap<String, String> values;
+
+	/**
+	 * Creates a view of template with each variable that is a key in bindings
+	 * replaced by its value
+	 *
+	 * @param template - a tree representing an arithmetic expression
+	 * @param bindings - a map of variable labels to integer values
+	 * @throws IllegalArgumentException
+	 * 				if template or bindings is null, or bindings has a null value or
+	 * 				a key which is an operator, only numeric or null
+	 */
+	public BoundExpressionTree(LinkedBinaryTree<String> template, Map<String, Integer> bindings)
+			throws IllegalArgumentException
+	{
+		if (template == null)
+			throw new IllegalArgumentException("Tree was null");
+		if (bindings == null)
+			throw new IllegalArgumentException("invalid map: map cannot be null");
+
+		// a view of a view binds its variables in the original template
+		HashMap<String, String> values = new HashMap<String, String>();
+		if (template instanceof BoundExpressionTree)
+		{
+			values.putAll(((BoundExpressionTree) template).values);
+			template = ((BoundExpressionTree) template).template;
+		}
+		for (Map.Entry<String, Integer> binding : bindings.entrySet())
+		{
+			String key = binding.getKey();
+			if (key == null || ExpressionTree.classify(key).isOperator() || ExpressionTree.isDigits(key))
+				throw new IllegalArgumentException("invalid variable in map: must not be an operator, only numeric or null");
+			if (binding.getValue() == null)
+				throw new IllegalArgumentException("invalid value in map: values cannot be null");
+			if (!values.containsKey(binding.getKey()))
+				values.put(binding.getKey(), binding.getValue().toString());
+		}
+		this.template = template;
+		this.values = values;
+	}
+
+	/**
+	 * @return the tree this is a view of
+	 */
+	public LinkedBinaryTree<String> template()
+	{
+		return template;
+	}
+
+	/**
+	 * Makes a modifiable copy of the tree as seen through this view
+	 *
+	 * This method runs in O(n) time
+	 *
+	 * @return a new tree with the values in place of the bound variables
+	 */
+	public ExpressionTree toTree()
+	{
+		return ExpressionTree.copyOf(this);
+	}
+
+	/**
+	 * @param p - a position of the template (or null)
+	 * @return the position as seen through this view
+	 */
+	private Position<String> view(Position<String> p)
+	{
+		if (p == null)
+			return null;
+		String value = values.get(p.getElement());
+		return (value == null) ? p : new BoundPosition(p, value);
+	}
+
+	/**
+	 * @param p - a position of this view
+	 * @return the corresponding position of the template
+	 */
+	private Position<String> unwrap(Position<String> p)
+	{
+		return (p instanceof BoundPosition) ? ((BoundPosition) p).variable : p;
+	}
+
+	@Override
+	public int size()
+	{
+		return template.size();
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return template.isEmpty();
+	}
+
+	@Override
+	public Position<String> root()
+	{
+		return view(template.root());
+	}
+
+	@Override
+	public Position<String> parent(Position<String> p)
+	{
+		return template.parent(unwrap(p));
+	}
+
+	@Override
+	public Position<String> left(Position<String> p)
+	{
+		// bound positions are leaves
+		return (p instanceof BoundPosition) ? null : view(template.left(p));
+	}
+
+	@Override
+	public Position<String> right(Position<String> p)
+	{
+		return (p instanceof BoundPosition) ? null : view(template.right(p));
+	}
+
+	@Override
+	public Position<String> sibling(Position<String> p)
+	{
+		// bound positions are created on demand, so compare the template's positions
+		Position<String> variable = unwrap(p);
+		Position<String> parent = template.parent(variable);
+		if (parent == null)
+			return null;
+		Position<String> left = template.left(parent);
+		return view((variable == left) ? template.right(parent) : left);
+	}
+
+	@Override
+	public boolean isRoot(Position<String> p)
+	{
+		return unwrap(p) == template.root();
+	}
+
+	@Override
+	public Position<String> addRoot(String e)
+	{
+		throw new UnsupportedOperationException("BoundExpressionTree is read-only");
+	}
+
+	@Override
+	public Position<String> addLeft(Position<String> p, String e)
+	{
+		throw new UnsupportedOperationException("BoundExpressionTree is read-only");
+	}
+
+	@Override
+	public Position<String> addRight(Position<String> p, String e)
+	{
+		throw new UnsupportedOperationException("BoundExpressionTree is read-only");
+	}
+
+	@Override
+	public String set(Position<String> p, String e)
+	{
+		throw new UnsupportedOperationException("BoundExpressionTree is read-only");
+	}
+
+	@Override
+	public void attach(Position<String> p, LinkedBinaryTree<String> t1, LinkedBinaryTree<String> t2)
+	{
+		throw new UnsupportedOperationException("BoundExpressionTree is read-only");
+	}
+
+	@Override
+	public String remove(Position<String> p)
+	{
+		throw new UnsupportedOperationException("BoundExpressionTree is read-only");
+	}
+}
@@ -0,0 +1,398 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import textbook.LinkedBinaryTree;
+
+/**
+ * Simplifies a file of arithmetic expressions in prefix notation, one per
+ * line, into another file, as
+ * 		tree2prefix(simplifyFancy(prefix2tree(line)))
+ * would for each line, without reading the input through a Reader.
+ *
+ * The input is memory-mapped in chunks (of DEFAULT_CHUNK_SIZE bytes unless
+ * another size is given), each ending after the last line break it holds, so
+ * no line is split between chunks (a chunk is mapped larger when a single line
+ * does not fit). Each line is copied from the mapped bytes into a reused array
+ * and tokenized through a CharSequence view of it, so no String is decoded
+ * for a line, and operands repeated from line to line share a String from a
+ * small cache. The results are written with ExpressionWriter into a buffer
+ * which is written to the output channel whenever it fills up.
+ *
+ * Bytes are treated as ISO-8859-1 characters, so the line breaks, spaces,
+ * operators and digits of any ASCII compatible encoding (such as UTF-8) are
+ * recognised, and every other byte is copied to the output unchanged. Tokens
+ * may be separated by any run of spaces or tabs (as prefix2tree(CharSequence)
+ * allows), line breaks may be "\n" or "\r\n", and blank lines are copied as
+ * blank lines.
+ *
+ * Usage:
+ * 		java BulkSimplifier input output
+ * prints the Report of the run, including lines and bytes per second.
+ */
+public class BulkSimplifier
+{
+	// bytes of input mapped at a time
+	public static final int DEFAULT_CHUNK_SIZE = 64 << 20;
+	// size of the buffer used to write to the output
+	private static final int OUTPUT_BUFFER = 1 << 20;
+	// number of operand Strings kept for reuse (a power of 2)
+	private static final int OPERAND_CACHE = 1024;
+
+	/**
+	 * The amount of input and output of a run, and how long it took
+	 */
+	public static final class Report
+	{
+		private final long lines;
+		private final long bytesRead;
+		private final long bytesWritten;
+		private final long nanos;
+
+		private Report(long lines, long bytesRead, long bytesWritten, long nanos)
+		{
+			this.lines = lines;
+			this.bytesRead = bytesRead;
+			this.bytesWritten = bytesWritten;
+			this.nanos = nanos;
+		}
+
+		/**
+		 * @return the number of lines read (including blank lines)
+		 */
+		public long lines()
+		{
+			return lines;
+		}
+
+		/**
+		 * @return the size of the input, in bytes
+		 */
+		public long bytesRead()
+		{
+			return bytesRead;
+		}
+
+		/**
+		 * @return the size of the output, in bytes
+		 */
+		public long bytesWritten()
+		{
+			return bytesWritten;
+		}
+
+		/**
+		 * @return how long the run took, in nanoseconds
+		 */
+		public long nanos()
+		{
+			return nanos;
+		}
+
+		/**
+		 * @return lines read per second
+		 */
+		public double linesPerSecond()
+		{
+			return perSecond(lines);
+		}
+
+		/**
+		 * @return bytes of input read per second
+		 */
+		public double bytesPerSecond()
+		{
+			return perSecond(bytesRead);
+		}
+
+		private double perSecond(long count)
+		{
+			return (nanos == 0) ? 0 : count * 1e9 / nanos;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("%d lines, %d bytes in, %d bytes out in %.3f s: %.0f lines/s, %.1f MB/s",
+					lines, bytesRead, bytesWritten, nanos / 1e9, linesPerSecond(), bytesPerSecond() / 1e6);
+		}
+	}
+
+	/**
+	 * Simplifies every line of input into output (which is created, or
+	 * replaced if it exists), mapping DEFAULT_CHUNK_SIZE bytes of input at a time
+	 *
+	 * @param input - a file of expressions in prefix notation, one per line
+	 * @param output - where to write the simplified expressions
+	 * @return the report of the run
+	 * @throws IOException
+	 * 				if a file could not be read or written
+	 * @throws IllegalArgumentException
+	 * 				if a line was not a valid expression (the message gives its number)
+	 */
+	public static Report simplify(Path input, Path output) throws IOException, IllegalArgumentException
+	{
+		return simplify(input, output, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Simplifies every line of input into output (which is created, or
+	 * replaced if it exists)
+	 *
+	 * @param input - a file of expressions in prefix notation, one per line
+	 * @param output - where to write the simplified expressions
+	 * @param chunkSize - bytes of input to map at a time
+	 * @return the report of the run
+	 * @throws IOException
+	 * 				if a file could not be read or written
+	 * @throws IllegalArgumentException
+	 * 				if chunkSize is less than 1, or a line was not a valid
+	 * 				expression (the message gives its number)
+	 */
+	public static Report simplify(Path input, Path output, int chunkSize) throws IOException, IllegalArgumentException
+	{
+		if (chunkSize < 1)
+			throw new IllegalArgumentException("chunkSize must be at least 1: " + chunkSize);
+
+		long start = System.nanoTime();
+		long lines = 0;
+		try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			long size = in.size();
+			ChannelOutput writer = new ChannelOutput(out);
+			MappedLine line = new MappedLine();
+			long position = 0;
+			while (position < size)
+			{
+				// map whole lines: up to the last line break of the chunk, or the end of the file
+				long length = Math.min(chunkSize, size - position);
+				MappedByteBuffer chunk = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+				int end = lastLineBreak(chunk) + 1;
+				while (end == 0 && position + length < size)
+				{
+					// a single line longer than the chunk
+					if (length == Integer.MAX_VALUE)
+						throw new IllegalArgumentException("Line " + (lines + 1) + " is longer than " + Integer.MAX_VALUE + " bytes");
+					length = Math.min(Math.min(length * 2, Integer.MAX_VALUE), size - position);
+					chunk = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+					end = lastLineBreak(chunk) + 1;
+				}
+				if (end == 0)
+					end = (int) length;		// the last line has no line break
+
+				int lineStart = 0;
+				while (lineStart < end)
+				{
+					int lineEnd = lineStart;
+					while (lineEnd < end && chunk.get(lineEnd) != '\n')
+					{
+						lineEnd++;
+					}
+					lines++;
+					line.set(chunk, lineStart, lineEnd);
+					simplifyLine(line, lines, writer);
+					lineStart = lineEnd + 1;
+				}
+				position += end;
+			}
+			writer.flush();
+			return new Report(lines, size, writer.written, System.nanoTime() - start);
+		}
+	}
+
+	// index of the last '\n' in a buffer, or -1
+	private static int lastLineBreak(ByteBuffer buffer)
+	{
+		for (int i = buffer.limit() - 1; i >= 0; i--)
+		{
+			if (buffer.get(i) == '\n')
+				return i;
+		}
+		return -1;
+	}
+
+	private static void simplifyLine(MappedLine line, long number, ChannelOutput writer) throws IOException
+	{
+		if (!line.isBlank())
+		{
+			LinkedBinaryTree<String> tree;
+			try
+			{
+				tree = Assignment.simplifyFancy(Assignment.prefix2tree(line));
+			}
+			catch (IllegalArgumentException e)
+			{
+				throw new IllegalArgumentException("Line " + number + ": " + e.getMessage(), e);
+			}
+			ExpressionWriter.writePrefix(tree, writer);
+		}
+		writer.append('\n');
+	}
+
+	/**
+	 * A line of a mapped chunk, as a CharSequence of ISO-8859-1 characters
+	 * (without its line break)
+	 */
+	private static final class MappedLine implements CharSequence
+	{
+		// the bytes of the line, copied from the chunk in bulk so that the
+		// tokenizer scans an array rather than making a call per byte
+		private byte[] bytes = new byte[256];
+		private int length;
+		// operands created recently, in a direct-mapped cache, so operands
+		// repeated from line to line share one String
+		private final String[] operands = new String[OPERAND_CACHE];
+
+		private void set(ByteBuffer chunk, int start, int end)
+		{
+			// a "\r\n" line break
+			if (end > start && chunk.get(end - 1) == '\r')
+				end--;
+			length = end - start;
+			if (bytes.length < length)
+				bytes = new byte[Math.max(length, bytes.length * 2)];
+			chunk.position(start);
+			chunk.get(bytes, 0, length);
+		}
+
+		private boolean isBlank()
+		{
+			for (int i = 0; i < length; i++)
+			{
+				if (bytes[i] != ' ' && bytes[i] != '\t')
+					return false;
+			}
+			return true;
+		}
+
+		@Override
+		public int length()
+		{
+			return length;
+		}
+
+		@Override
+		public char charAt(int index)
+		{
+			return (char) (bytes[index] & 0xFF);
+		}
+
+		// only used by the tokenizer to create the String of an operand
+		@Override
+		public CharSequence subSequence(int start, int end)
+		{
+			int hash = 0;
+			for (int i = start; i < end; i++)
+			{
+				hash = 31 * hash + bytes[i];
+			}
+			int slot = (hash ^ (hash >>> 16)) & (OPERAND_CACHE - 1);
+			String cached = operands[slot];
+			if (cached != null && matches(cached, start, end))
+				return cached;
+
+			String operand = new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+			operands[slot] = operand;
+			return operand;
+		}
+
+		private boolean matches(String operand, int start, int end)
+		{
+			if (operand.length() != end - start)
+				return false;
+			for (int i = start; i < end; i++)
+			{
+				if (operand.charAt(i - start) != (char) (bytes[i] & 0xFF))
+					return false;
+			}
+			return true;
+		}
+
+		@Override
+		public String toString()
+		{
+			return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+		}
+	}
+
+	/**
+	 * Encodes characters as ISO-8859-1 into a buffer, writing the buffer to a
+	 * channel whenever it fills up
+	 */
+	private static final class ChannelOutput implements Appendable
+	{
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(OUTPUT_BUFFER);
+		private long written;
+
+		private ChannelOutput(FileChannel channel)
+		{
+			this.channel = channel;
+		}
+
+		@Override
+		public Appendable append(CharSequence csq) throws IOException
+		{
+			if (csq == null)
+				csq = "null";
+			return append(csq, 0, csq.length());
+		}
+
+		@Override
+		public Appendable append(CharSequence csq, int start, int end) throws IOException
+		{
+			if (csq == null)
+				csq = "null";
+			for (int i = start; i < end; i++)
+			{
+				append(csq.charAt(i));
+			}
+			return this;
+		}
+
+		@Override
+		public Appendable append(char c) throws IOException
+		{
+			if (!buffer.hasRemaining())
+				flush();
+			buffer.put((c <= 0xFF) ? (byte) c : (byte) '?');
+			written++;
+			return this;
+		}
+
+		// write the bytes in the buffer to the channel
+		private void flush() throws IOException
+		{
+			buffer.flip();
+			while (buffer.hasRemaining())
+			{
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * Simplifies the file named by the first argument into the file named by
+	 * the second, and prints the report of the run
+	 *
+	 * @param args - the input and output file names
+	 * @throws IOException
+	 * 				if a file could not be read or written
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length != 2)
+		{
+			System.err.println("Usage: java BulkSimplifier input output");
+			System.exit(2);
+		}
+		System.out.println(simplify(Paths.get(args[0]), Paths.get(args[1])));
+	}
+}
@@ -0,0 +1,809 @@
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Objects;
+
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+/**
+ * A flat, array based representation of a binary tree representing an
+ * arithmetic expression, as an alternative to LinkedBinaryTree<String> for
+ * storing large numbers of small expressions.
+ *
+ * Positions are stored in prefix (preorder) order in parallel arrays, so the
+ * left child of an operator at index i is always at index i + 1:
+ * 		- opcodes[i]  - ADD, SUBTRACT, MULTIPLY, LITERAL or VARIABLE
+ * 		- operands[i] - for an operator, the index of its right child
+ * 						for a literal, an index into the literal pool
+ * 						for a variable, an index into the variable names
+ *
+ * Literals are kept as primitive values in a long pool (with the original
+ * text only kept when it is not the canonical form of the value, e.g. "007"),
+ * and each distinct variable name is stored once. Every integer literal
+ * within the long range is a literal, even one outside the int range which
+ * ExpressionTree classifies as a variable; only longer literals are stored
+ * as variable names. Converting to and from a
+ * LinkedBinaryTree is lossless.
+ *
+ * The operations tree2prefix, tree2infix, simplify, substitute and equals
+ * behave exactly like the corresponding methods of Assignment, but work on
+ * the arrays directly and never recurse, so they are safe on very deep trees.
+ */
+public class CompactExpressionTree
+{
+	// opcodes
+	public static final int ADD = 0;
+	public static final int SUBTRACT = 1;
+	public static final int MULTIPLY = 2;
+	public static final int LITERAL = 3;
+	public static final int VARIABLE = 4;
+
+	// element of each operator opcode
+	private static final String[] OPERATORS = {"+", "-", "*"};
+
+	private int size;
+	private int[] opcodes;
+	private int[] operands;
+
+	// literal pool, with the original text of any literal not written in canonical form
+	private long[] literals;
+	private String[] spellings;
+	private int literalCount;
+
+	// distinct variable names
+	private String[] names;
+	private int nameCount;
+
+	private CompactExpressionTree(int capacity)
+	{
+		opcodes = new int[capacity];
+		operands = new int[capacity];
+		literals = new long[Math.max(capacity / 2 + 1, 1)];
+		spellings = new String[literals.length];
+		names = new String[4];
+	}
+
+	/**
+	 * Converts a binary tree representing an arithmetic expression to its compact form
+	 *
+	 * This method runs in O(n) time
+	 *
+	 * @param tree - a tree representing an arithmetic expression
+	 * @return the compact form of the tree
+	 * @throws IllegalArgumentException
+	 * 				if tree was not a valid expression
+	 */
+	public static CompactExpressionTree fromTree(LinkedBinaryTree<String> tree) throws IllegalArgumentException
+	{
+		if (tree == null || tree.root() == null)
+			throw new IllegalArgumentException("Tree does not represent arithmetic expression");
+
+		CompactExpressionTree compact = new CompactExpressionTree(tree.size());
+		HashMap<String, Integer> nameIndex = new HashMap<String, Integer>();
+
+		// preorder traversal with an explicit stack; each entry also records the
+		// index of the operator whose right child it is (or -1 for a left child)
+		ArrayDeque<Position<String>> positions = new ArrayDeque<Position<String>>();
+		int[] owners = new int[16];
+		int stackSize = 0;
+		positions.push(tree.root());
+		owners[stackSize++] = -1;
+
+		while (!positions.isEmpty())
+		{
+			Position<String> p = positions.pop();
+			int owner = owners[--stackSize];
+			int index = compact.size++;
+			if (owner >= 0)
+			{
+				compact.operands[owner] = index;
+			}
+
+			String element = p.getElement();
+			Position<String> left = tree.left(p);
+			Position<String> right = tree.right(p);
+			int opcode = opcodeOf(ExpressionTree.kindOf(p));
+
+			if (opcode != VARIABLE && opcode != LITERAL)
+			{
+				// operators must have exactly 2 children
+				if (left == null || right == null)
+					throw new IllegalArgumentException("Tree does not represent arithmetic expression");
+				compact.opcodes[index] = opcode;
+				if (stackSize + 2 > owners.length)
+				{
+					owners = Arrays.copyOf(owners, owners.length * 2);
+				}
+				positions.push(right);
+				owners[stackSize++] = index;
+				positions.push(left);
+				owners[stackSize++] = -1;
+			}
+			else
+			{
+				// anything else must be a leaf
+				if (left != null || right != null)
+					throw new IllegalArgumentException("Tree does not represent arithmetic expression");
+				if (opcode == LITERAL)
+				{
+					long value = ExpressionTree.integerValue(p);
+					compact.addLiteral(index, value, element.equals(Long.toString(value)) ? null : element);
+				}
+				else if (isLongLiteral(element))
+				{
+					long value = Long.parseLong(element);
+					compact.addLiteral(index, value, element.equals(Long.toString(value)) ? null : element);
+				}
+				else
+				{
+					Integer nameNumber = nameIndex.get(element);
+					if (nameNumber == null)
+					{
+						nameNumber = compact.addName(element);
+						nameIndex.put(element, nameNumber);
+					}
+					compact.opcodes[index] = VARIABLE;
+					compact.operands[index] = nameNumber;
+				}
+			}
+		}
+		return compact;
+	}
+
+	/**
+	 * Creates an empty compact tree with room for the given number of
+	 * positions, to be filled in prefix order by the append methods
+	 *
+	 * Helper method used by:
+	 * 		- ExpressionCodec.decodeCompact
+	 *
+	 * @param capacity - the number of positions the tree will have
+	 * @return an empty compact tree
+	 */
+	static CompactExpressionTree withCapacity(int capacity)
+	{
+		return new CompactExpressionTree(Math.max(capacity, 1));
+	}
+
+	/**
+	 * Appends an operator, whose right child is set with setRight once it is appended
+	 *
+	 * @param opcode - ADD, SUBTRACT or MULTIPLY
+	 */
+	void appendOperator(int opcode)
+	{
+		opcodes[size++] = opcode;
+	}
+
+	/**
+	 * @param operator - index of an operator
+	 * @param index - index of its right child
+	 */
+	void setRight(int operator, int index)
+	{
+		operands[operator] = index;
+	}
+
+	/**
+	 * Appends a literal
+	 *
+	 * @param value - the value of the literal
+	 * @param spelling - the element of the literal if it is not Long.toString(value), otherwise null
+	 */
+	void appendLiteral(long value, String spelling)
+	{
+		addLiteral(size++, value, spelling);
+	}
+
+	/**
+	 * Appends a variable
+	 *
+	 * @param number - number of the variable's name, as returned by appendName
+	 */
+	void appendVariable(int number)
+	{
+		opcodes[size] = VARIABLE;
+		operands[size++] = number;
+	}
+
+	/**
+	 * @param name - a variable name not already in the tree
+	 * @return the number of the name
+	 */
+	int appendName(String name)
+	{
+		return addName(name);
+	}
+
+	/**
+	 * Converts this compact tree back to a binary tree, with the same elements
+	 * in every position as the tree it was created from (after any changes made
+	 * by simplify or substitute)
+	 *
+	 * This method runs in O(n) time
+	 *
+	 * @return a binary tree representing the same arithmetic expression
+	 */
+	public LinkedBinaryTree<String> toTree()
+	{
+		LinkedBinaryTree<String> tree = new LinkedBinaryTree<String>();
+		// operator positions which have not yet received both of their children
+		ArrayDeque<Position<String>> pending = new ArrayDeque<Position<String>>();
+
+		// the arrays are in prefix order, so the tree is built as prefix2tree does
+		for (int i = 0; i < size; i++)
+		{
+			Position<String> position;
+			if (i == 0)
+			{
+				position = tree.addRoot(element(i));
+			}
+			else if (tree.left(pending.peek()) == null)
+			{
+				position = tree.addLeft(pending.peek(), element(i));
+			}
+			else
+			{
+				position = tree.addRight(pending.pop(), element(i));
+			}
+			if (opcodes[i] < LITERAL)
+			{
+				pending.push(position);
+			}
+		}
+		return tree;
+	}
+
+	/**
+	 * @return number of positions in the tree
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @param index - index of a position, in prefix order
+	 * @return the opcode of the position
+	 */
+	public int opcode(int index)
+	{
+		checkIndex(index);
+		return opcodes[index];
+	}
+
+	/**
+	 * @param index - index of an operator, in prefix order
+	 * @return index of the operator's right child (its left child is at index + 1)
+	 */
+	public int right(int index)
+	{
+		checkIndex(index);
+		if (opcodes[index] >= LITERAL)
+			throw new IllegalArgumentException("position " + index + " is not an operator");
+		return operands[index];
+	}
+
+	/**
+	 * @param index - index of a literal, in prefix order
+	 * @return the value of the literal
+	 */
+	public long literal(int index)
+	{
+		checkIndex(index);
+		if (opcodes[index] != LITERAL)
+			throw new IllegalArgumentException("position " + index + " is not a literal");
+		return literals[operands[index]];
+	}
+
+	/**
+	 * @param index - index of a variable, in prefix order
+	 * @return the number of the variable's name, between 0 and variableCount() - 1
+	 */
+	public int variable(int index)
+	{
+		checkIndex(index);
+		if (opcodes[index] != VARIABLE)
+			throw new IllegalArgumentException("position " + index + " is not a variable");
+		return operands[index];
+	}
+
+	/**
+	 * @return number of distinct variable names in the tree (including any
+	 *         that have since been substituted)
+	 */
+	public int variableCount()
+	{
+		return nameCount;
+	}
+
+	/**
+	 * @param number - number of a variable name, between 0 and variableCount() - 1
+	 * @return the variable name
+	 */
+	public String variableName(int number)
+	{
+		if (number < 0 || number >= nameCount)
+			throw new IndexOutOfBoundsException("variable " + number + " out of range");
+		return names[number];
+	}
+
+	/**
+	 * @param index - index of a position, in prefix order
+	 * @return the element the position would hold in a LinkedBinaryTree
+	 */
+	public String element(int index)
+	{
+		checkIndex(index);
+		switch (opcodes[index])
+		{
+			case LITERAL:
+				String spelling = spellings[operands[index]];
+				return (spelling != null) ? spelling : Long.toString(literals[operands[index]]);
+			case VARIABLE:
+				return names[operands[index]];
+			default:
+				return OPERATORS[opcodes[index]];
+		}
+	}
+
+	/**
+	 * Output the expression in prefix notation, as Assignment.tree2prefix does
+	 *
+	 * This method runs in O(n) time
+	 *
+	 * @return prefix notation expression of the tree
+	 */
+	public String tree2prefix()
+	{
+		StringBuilder expression = new StringBuilder(size * 3);
+		for (int i = 0; i < size; i++)
+		{
+			if (i > 0)
+			{
+				expression.append(' ');
+			}
+			appendElement(expression, i);
+		}
+		return expression.toString();
+	}
+
+	/**
+	 * Output the expression in infix notation with parenthesis, as
+	 * Assignment.tree2infix does
+	 *
+	 * Performs an inorder traversal with an explicit stack of indexes. An
+	 * operator is pushed as ~index after its left subtree has been written,
+	 * so it is finished off (operator, right subtree, ")") when popped again.
+	 *
+	 * This method runs in O(n) time
+	 *
+	 * @return infix notation expression of the tree
+	 */
+	public String tree2infix()
+	{
+		StringBuilder expression = new StringBuilder(size * 3);
+		int[] stack = new int[16];
+		int stackSize = 0;
+		stack[stackSize++] = 0;
+
+		while (stackSize > 0)
+		{
+			int index = stack[--stackSize];
+			if (index < 0)
+			{
+				// left subtree done: write the operator, then the right subtree and ")"
+				index = ~index;
+				appendElement(expression, index);
+				stack[stackSize++] = size;		// marker for ")"
+				stack[stackSize++] = operands[index];
+			}
+			else if (index == size)
+			{
+				expression.append(')');
+			}
+			else if (opcodes[index] < LITERAL)
+			{
+				if (stackSize + 3 > stack.length)
+				{
+					stack = Arrays.copyOf(stack, stack.length * 2);
+				}
+				expression.append('(');
+				stack[stackSize++] = ~index;
+				stack[stackSize++] = index + 1;
+			}
+			else
+			{
+				appendElement(expression, index);
+			}
+		}
+		return expression.toString();
+	}
+
+	/**
+	 * Simplify any subtrees which can be evaluated to a single integer value,
+	 * as Assignment.simplify does (including its 32-bit integer arithmetic, so
+	 * literals outside the int range are never folded). The tree is modified
+	 * and returned.
+	 *
+	 * Because every child has a larger index than its parent, one backwards pass
+	 * over the arrays evaluates each subtree after its children. A forwards pass
+	 * then copies the remaining positions, skipping the children of folded ones.
+	 *
+	 * This method runs in O(n) time
+	 *
+	 * @return this tree, after evaluating as many of the subtrees as possible
+	 */
+	public CompactExpressionTree simplify()
+	{
+		// constant[i] is true if the subtree at i evaluates to values[i]
+		boolean[] constant = new boolean[size];
+		long[] values = new long[size];
+		// end[i] is the index just after the last position in the subtree at i
+		int[] end = new int[size];
+		boolean folded = false;
+
+		for (int i = size - 1; i >= 0; i--)
+		{
+			int opcode = opcodes[i];
+			if (opcode == LITERAL)
+			{
+				values[i] = literals[operands[i]];
+				constant[i] = (int) values[i] == values[i];
+				end[i] = i + 1;
+			}
+			else if (opcode == VARIABLE)
+			{
+				end[i] = i + 1;
+			}
+			else
+			{
+				int left = i + 1;
+				int right = operands[i];
+				end[i] = end[right];
+				if (constant[left] && constant[right])
+				{
+					constant[i] = true;
+					values[i] = apply(opcode, (int) values[left], (int) values[right]);
+					folded = true;
+				}
+			}
+		}
+		if (!folded)
+			return this;
+
+		// copy the surviving positions (in prefix order) into new arrays
+		int[] newOpcodes = new int[size];
+		int[] newOperands = new int[size];
+		long[] newLiterals = new long[size];
+		String[] newSpellings = new String[size];
+		int[] newIndex = new int[size];
+		int newSize = 0;
+		int newLiteralCount = 0;
+
+		int i = 0;
+		while (i < size)
+		{
+			newIndex[i] = newSize;
+			if (opcodes[i] < LITERAL && !constant[i])
+			{
+				newOpcodes[newSize] = opcodes[i];
+				newOperands[newSize] = operands[i];	// remapped below
+				i++;
+			}
+			else if (opcodes[i] == VARIABLE)
+			{
+				newOpcodes[newSize] = VARIABLE;
+				newOperands[newSize] = operands[i];
+				i++;
+			}
+			else
+			{
+				// a literal, or a folded operator which becomes a literal (children skipped)
+				newOpcodes[newSize] = LITERAL;
+				newOperands[newSize] = newLiteralCount;
+				newLiterals[newLiteralCount] = values[i];
+				newSpellings[newLiteralCount] = (opcodes[i] == LITERAL) ? spellings[operands[i]] : null;
+				newLiteralCount++;
+				i = end[i];
+			}
+			newSize++;
+		}
+		for (int j = 0; j < newSize; j++)
+		{
+			if (newOpcodes[j] < LITERAL)
+			{
+				newOperands[j] = newIndex[newOperands[j]];
+			}
+		}
+
+		opcodes = newOpcodes;
+		operands = newOperands;
+		literals = newLiterals;
+		spellings = newSpellings;
+		literalCount = newLiteralCount;
+		size = newSize;
+		return this;
+	}
+
+	/**
+	 * Replace all instances of a variable in the tree with the given value, as
+	 * Assignment.substitute does. The tree is modified and returned.
+	 *
+	 * This method runs in O(n) time
+	 *
+	 * @param variable - a variable label that might exist in the tree
+	 * @param value - an integer value that the variable represents
+	 * @return this tree, after replacing all instances of the variable
+	 * @throws IllegalArgumentException
+	 * 				if the variable is null, an operator or numeric
+	 */
+	public CompactExpressionTree substitute(String variable, int value) throws IllegalArgumentException
+	{
+		if (variable == null || variable.equals("+") || variable.equals("-") || variable.equals("*")
+				|| ExpressionTree.isDigits(variable))
+			throw new IllegalArgumentException("invalid variable: must not be an operator, only numeric or null");
+
+		HashMap<String, Integer> map = new HashMap<String, Integer>();
+		map.put(variable, value);
+		return substitute(map);
+	}
+
+	/**
+	 * Replace all instances of the variables which are keys in the map with
+	 * their values, as Assignment.substitute does. The tree is modified and
+	 * returned.
+	 *
+	 * Each distinct variable name is looked up in the map once, rather than
+	 * once per position, and its occurrences share one new slot of the
+	 * literal pool. A literal replaced through a key such as "-5" keeps its
+	 * slot, so substituting again and again does not grow the pool.
+	 *
+	 * This method runs in O(n) expected time
+	 *
+	 * @param map - a map of variable labels to integer values
+	 * @return this tree, after replacing all instances of the variables
+	 * @throws IllegalArgumentException
+	 * 				if map is null, has an invalid variable, or tries to substitute a null
+	 */
+	public CompactExpressionTree substitute(HashMap<String, Integer> map) throws IllegalArgumentException
+	{
+		if (map == null)
+			throw new IllegalArgumentException("invalid map: map cannot be null");
+		for (String key: map.keySet())
+		{
+			if (key == null || key.equals("+") || key.equals("-") || key.equals("*") || ExpressionTree.isDigits(key))
+				throw new IllegalArgumentException("invalid variable in map: must not be an operator, only numeric or null");
+		}
+
+		Integer[] replacements = new Integer[nameCount];
+		for (int n = 0; n < nameCount; n++)
+		{
+			if (map.containsKey(names[n]))
+			{
+				replacements[n] = checkValue(map.get(names[n]));
+			}
+		}
+		// keys such as "-5" are allowed and replace literals written exactly the same way
+		boolean literalKeys = false;
+		for (String key: map.keySet())
+		{
+			literalKeys |= Assignment.isIntegerLiteral(key);
+		}
+
+		// literal slot of each substituted name, once its first occurrence is replaced
+		int[] nameSlots = new int[nameCount];
+		Arrays.fill(nameSlots, -1);
+		// literal slots already replaced, as a slot may be shared by several positions
+		// which all had the same element (and must not be replaced twice)
+		boolean[] replaced = literalKeys ? new boolean[literalCount] : null;
+		for (int i = 0; i < size; i++)
+		{
+			if (opcodes[i] == VARIABLE && replacements[operands[i]] != null)
+			{
+				int name = operands[i];
+				if (nameSlots[name] < 0)
+				{
+					addLiteral(i, replacements[name], null);
+					nameSlots[name] = operands[i];
+				}
+				else
+				{
+					opcodes[i] = LITERAL;
+					operands[i] = nameSlots[name];
+				}
+			}
+			else if (literalKeys && opcodes[i] == LITERAL && !replaced[operands[i]] && map.containsKey(element(i)))
+			{
+				literals[operands[i]] = checkValue(map.get(element(i)));
+				spellings[operands[i]] = null;
+				replaced[operands[i]] = true;
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Helper method used by:
+	 * 		- substitute(HashMap<String, Integer> map)
+	 *
+	 * @param value - a value from the map being substituted
+	 * @return value
+	 * @throws IllegalArgumentException
+	 * 				if value is null
+	 */
+	private static Integer checkValue(Integer value) throws IllegalArgumentException
+	{
+		if (value == null)
+			throw new IllegalArgumentException("invalid value in map: values cannot be null");
+		return value;
+	}
+
+	/**
+	 * Test to see if two compact trees are identical (every position in the tree
+	 * stores the same value), as Assignment.equals does
+	 *
+	 * @param a
+	 * @param b
+	 * @return true if the trees have the same structure and values, false otherwise
+	 */
+	public static boolean equals(CompactExpressionTree a, CompactExpressionTree b)
+	{
+		if (a.size != b.size)
+			return false;
+		for (int i = 0; i < a.size; i++)
+		{
+			if (a.opcodes[i] != b.opcodes[i])
+				return false;
+			switch (a.opcodes[i])
+			{
+				case LITERAL:
+					if (a.literals[a.operands[i]] != b.literals[b.operands[i]]
+							|| !Objects.equals(a.spellings[a.operands[i]], b.spellings[b.operands[i]]))
+						return false;
+					break;
+				case VARIABLE:
+					if (!a.names[a.operands[i]].equals(b.names[b.operands[i]]))
+						return false;
+					break;
+				default:
+					// same position of the right child means the same shape
+					if (a.operands[i] != b.operands[i])
+						return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Estimate of the heap used by this tree's arrays, in bytes (assuming 4 byte
+	 * references and 16 byte array headers, and not counting the variable name
+	 * Strings, which are shared with the tree the compact tree was built from)
+	 *
+	 * @return approximate number of bytes used
+	 */
+	public long estimatedBytes()
+	{
+		return 5 * 16L + 4L * opcodes.length + 4L * operands.length + 8L * literals.length
+				+ 4L * spellings.length + 4L * names.length;
+	}
+
+	/**
+	 * Helper method used by:
+	 * 		- fromTree(LinkedBinaryTree<String> tree)
+	 * 		- ExpressionCodec.decodeCompact
+	 * 		- CompiledExpression.compile
+	 *
+	 * @param element - an element ExpressionTree classifies as a variable
+	 * @return true if the element is nonetheless an integer literal whose
+	 *         value fits in a long, as Long.parseLong would accept it
+	 */
+	static boolean isLongLiteral(String element)
+	{
+		if (!Assignment.isIntegerLiteral(element))
+			return false;
+		return Assignment.fitsLong(element) || new BigInteger(element).bitLength() < 64;
+	}
+
+	/**
+	 * Helper method used by:
+	 * 		- fromTree(LinkedBinaryTree<String> tree)
+	 *
+	 * @param kind - the kind of element held by a position
+	 * @return the opcode for that kind of element
+	 */
+	private static int opcodeOf(ExpressionTree.Kind kind)
+	{
+		switch (kind)
+		{
+			case ADD:
+				return ADD;
+			case SUBTRACT:
+				return SUBTRACT;
+			case MULTIPLY:
+				return MULTIPLY;
+			case INTEGER:
+				return LITERAL;
+			default:
+				return VARIABLE;
+		}
+	}
+
+	/**
+	 * Helper method used by:
+	 * 		- simplify()
+	 *
+	 * @return the result of applying an operator to two values
+	 */
+	private static int apply(int opcode, int left, int right)
+	{
+		switch (opcode)
+		{
+			case ADD:
+				return left + right;
+			case SUBTRACT:
+				return left - right;
+			default:
+				return left * right;
+		}
+	}
+
+	/**
+	 * Makes the position at index a literal with the given value, adding the value to the pool
+	 *
+	 * @param index - index of the position
+	 * @param value - value of the literal
+	 * @param spelling - original text of the literal, or null if it is Long.toString(value)
+	 */
+	private void addLiteral(int index, long value, String spelling)
+	{
+		if (literalCount == literals.length)
+		{
+			literals = Arrays.copyOf(literals, literals.length * 2);
+			spellings = Arrays.copyOf(spellings, spellings.length * 2);
+		}
+		literals[literalCount] = value;
+		spellings[literalCount] = spelling;
+		opcodes[index] = LITERAL;
+		operands[index] = literalCount++;
+	}
+
+	/**
+	 * Adds a distinct variable name to the name table
+	 *
+	 * @param name - a variable name not already in the table
+	 * @return index of the name
+	 */
+	private int addName(String name)
+	{
+		if (nameCount == names.length)
+		{
+			names = Arrays.copyOf(names, names.length * 2);
+		}
+		names[nameCount] = name;
+		return nameCount++;
+	}
+
+	/**
+	 * Appends the element at index to a StringBuilder, without creating a String for literals
+	 */
+	private void appendElement(StringBuilder expression, int index)
+	{
+		if (opcodes[index] == LITERAL && spellings[operands[index]] == null)
+		{
+			expression.append(literals[operands[index]]);
+		}
+		else
+		{
+			expression.append(element(index));
+		}
+	}
+
+	private void checkIndex(int index)
+	{
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("index " + index + " out of range for tree of size " + size);
+	}
+}
@@ -0,0 +1,481 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import textbook.LinkedBinaryTree;
+
+/**
+ * An arithmetic expression compiled once into a small stack machine program,
+ * so it can be evaluated against many different variable values without
+ * substituting into (or even looking at) the tree it was compiled from.
+ *
+ * Each distinct variable of the expression is given a slot number, in the
+ * order the variables first appear in prefix notation. Values are passed to
+ * evaluate as a primitive array indexed by slot; slot(String) finds the slot
+ * of a variable by name.
+ *
+ * Evaluation uses exact long arithmetic (throwing ArithmeticException if a
+ * result overflows), does not allocate, and a CompiledExpression may be
+ * shared between threads.
+ *
+ * Usage:
+ * 		CompiledExpression f = Assignment.compile(Assignment.prefix2tree("+ * 2 x y"));
+ * 		long[] values = new long[f.variableCount()];
+ * 		values[f.slot("x")] = 3;
+ * 		values[f.slot("y")] = 4;
+ * 		f.evaluate(values);		// 10
+ */
+public final class CompiledExpression
+{
+	// instructions, stored in the low bits of each int of the program
+	// (the remaining bits hold the index of a constant or the slot of a variable)
+	private static final int CONSTANT = 0;		// push constants[operand]
+	private static final int LOAD = 1;			// push values[operand]
+	private static final int ADD = 2;			// pop b, pop a, push a + b
+	private static final int SUBTRACT = 3;		// pop b, pop a, push a - b
+	private static final int REVERSE_SUBTRACT = 4;	// pop b, pop a, push b - a
+	private static final int MULTIPLY = 5;		// pop b, pop a, push a * b
+	private static final int OPCODE_BITS = 3;
+	private static final int OPCODE_MASK = (1 << OPCODE_BITS) - 1;
+
+	// number of rows evaluated together by evaluate(Map<String, ?>, long[])
+	public static final int BATCH_CHUNK = 1024;
+
+	// evaluation stack of each thread, and the int values of evaluate(int[])
+	// widened to longs, reused by every expression
+	private static final ThreadLocal<long[][]> STACKS = new ThreadLocal<long[][]>()
+	{
+		@Override
+		protected long[][] initialValue()
+		{
+			return new long[][] {new long[16], new long[16]};
+		}
+	};
+
+	private final int[] program;
+	private final long[] constants;
+	private final String[] variables;
+	private final HashMap<String, Integer> slots;
+	private final int maxStack;
+
+	private CompiledExpression(int[] program, long[] constants, String[] variables, int maxStack)
+	{
+		this.program = program;
+		this.constants = constants;
+		this.variables = variables;
+		this.maxStack = maxStack;
+		this.slots = new HashMap<String, Integer>();
+		for (int i = 0; i < variables.length; i++)
+		{
+			slots.put(variables[i], i);
+		}
+	}
+
+	/**
+	 * Compiles a tree representing an arithmetic expression
+	 *
+	 * The subtree needing the deeper evaluation stack is always evaluated first
+	 * (swapping the operands of "-" when it is the right subtree), so the stack
+	 * stays shallow even for very deep trees such as "+ a + b + c ...".
+	 *
+	 * Every integer literal within the long range is compiled as a constant,
+	 * so only real variables are given slots.
+	 *
+	 * This method runs in O(n) time and does not modify the tree
+	 *
+	 * @param tree - a tree representing an arithmetic expression
+	 * @return the compiled expression
+	 * @throws IllegalArgumentException
+	 * 				if tree was not a valid expression
+	 * @throws ArithmeticException
+	 * 				if an integer literal does not fit in a long
+	 */
+	public static CompiledExpression compile(LinkedBinaryTree<String> tree) throws IllegalArgumentException, ArithmeticException
+	{
+		CompactExpressionTree compact = CompactExpressionTree.fromTree(tree);
+		int size = compact.size();
+
+		// the compact tree keeps literals outside the long range as names
+		String[] variables = new String[compact.variableCount()];
+		for (int v = 0; v < variables.length; v++)
+		{
+			variables[v] = compact.variableName(v);
+			if (Assignment.isIntegerLiteral(variables[v]))
+				throw new ArithmeticException("integer literal does not fit in a long: " + variables[v]);
+		}
+
+		// stack depth needed to evaluate each subtree (children have larger indexes)
+		int[] needed = new int[size];
+		for (int i = size - 1; i >= 0; i--)
+		{
+			if (compact.opcode(i) >= CompactExpressionTree.LITERAL)
+			{
+				needed[i] = 1;
+			}
+			else
+			{
+				int left = needed[i + 1];
+				int right = needed[compact.right(i)];
+				needed[i] = (left == right) ? left + 1 : Math.max(left, right);
+			}
+		}
+
+		// emit the program in postorder using an explicit stack; an entry i >= 0
+		// means "evaluate subtree i", an entry ~i means "apply the operator at i"
+		int[] program = new int[size];
+		int length = 0;
+		long[] constants = new long[size];
+		int constantCount = 0;
+		boolean[] reversed = new boolean[size];
+		int[] stack = new int[16];
+		int stackSize = 0;
+		stack[stackSize++] = 0;
+
+		while (stackSize > 0)
+		{
+			int entry = stack[--stackSize];
+			if (entry < 0)
+			{
+				int i = ~entry;
+				program[length++] = operation(compact.opcode(i), reversed[i]);
+				continue;
+			}
+			switch (compact.opcode(entry))
+			{
+				case CompactExpressionTree.LITERAL:
+					constants[constantCount] = compact.literal(entry);
+					program[length++] = (constantCount++ << OPCODE_BITS) | CONSTANT;
+					break;
+				case CompactExpressionTree.VARIABLE:
+					program[length++] = (compact.variable(entry) << OPCODE_BITS) | LOAD;
+					break;
+				default:
+					int left = entry + 1;
+					int right = compact.right(entry);
+					reversed[entry] = needed[right] > needed[left];
+					if (stackSize + 3 > stack.length)
+					{
+						stack = Arrays.copyOf(stack, stack.length * 2);
+					}
+					// pushed in reverse: the first subtree to evaluate is on top
+					stack[stackSize++] = ~entry;
+					stack[stackSize++] = reversed[entry] ? left : right;
+					stack[stackSize++] = reversed[entry] ? right : left;
+			}
+		}
+
+		return new CompiledExpression(program, Arrays.copyOf(constants, constantCount), variables, needed[0]);
+	}
+
+	/**
+	 * Helper method used by:
+	 * 		- compile(LinkedBinaryTree<String> tree)
+	 *
+	 * @param opcode - a CompactExpressionTree operator opcode
+	 * @param reversed - true if the right operand will be evaluated first
+	 * @return the instruction applying the operator
+	 */
+	private static int operation(int opcode, boolean reversed)
+	{
+		switch (opcode)
+		{
+			case CompactExpressionTree.ADD:
+				return ADD;
+			case CompactExpressionTree.SUBTRACT:
+				return reversed ? REVERSE_SUBTRACT : SUBTRACT;
+			default:
+				return MULTIPLY;
+		}
+	}
+
+	/**
+	 * @return number of distinct variables in the expression (the number of slots)
+	 */
+	public int variableCount()
+	{
+		return variables.length;
+	}
+
+	/**
+	 * @param slot - a slot number, between 0 and variableCount() - 1
+	 * @return name of the variable in that slot
+	 */
+	public String variable(int slot)
+	{
+		return variables[slot];
+	}
+
+	/**
+	 * @param variable - a variable name
+	 * @return the slot of the variable, or -1 if it does not appear in the expression
+	 */
+	public int slot(String variable)
+	{
+		Integer slot = slots.get(variable);
+		return (slot == null) ? -1 : slot;
+	}
+
+	/**
+	 * @return the maximum depth of the evaluation stack
+	 */
+	public int maxStack()
+	{
+		return maxStack;
+	}
+
+	/**
+	 * Evaluates the expression
+	 *
+	 * @param values - the value of each variable, indexed by slot
+	 * @return the value of the expression
+	 * @throws IllegalArgumentException
+	 * 				if values has fewer entries than there are variables
+	 * @throws ArithmeticException
+	 * 				if a result does not fit in a long
+	 */
+	public long evaluate(long[] values) throws IllegalArgumentException, ArithmeticException
+	{
+		return evaluate(values, stack());
+	}
+
+	/**
+	 * Evaluates the expression, using the caller's array as the evaluation stack
+	 *
+	 * @param values - the value of each variable, indexed by slot
+	 * @param stack - an array of at least maxStack() entries
+	 * @return the value of the expression
+	 * @throws IllegalArgumentException
+	 * 				if values has fewer entries than there are variables, or stack is null or too small
+	 * @throws ArithmeticException
+	 * 				if a result does not fit in a long
+	 */
+	public long evaluate(long[] values, long[] stack) throws IllegalArgumentException, ArithmeticException
+	{
+		if (values == null || values.length < variables.length)
+			throw new IllegalArgumentException("a value is needed for each of the " + variables.length + " variables");
+		if (stack == null || stack.length < maxStack)
+			throw new IllegalArgumentException("stack must have at least " + maxStack + " entries");
+
+		return run(values, stack);
+	}
+
+	/**
+	 * Evaluates the expression with int values for the variables
+	 *
+	 * @param values - the value of each variable, indexed by slot
+	 * @return the value of the expression
+	 * @throws IllegalArgumentException
+	 * 				if values has fewer entries than there are variables
+	 * @throws ArithmeticException
+	 * 				if a result does not fit in a long
+	 */
+	public long evaluate(int[] values) throws IllegalArgumentException, ArithmeticException
+	{
+		if (values == null || values.length < variables.length)
+			throw new IllegalArgumentException("a value is needed for each of the " + variables.length + " variables");
+
+		long[][] holder = STACKS.get();
+		if (holder[1].length < variables.length)
+		{
+			holder[1] = new long[Math.max(variables.length, holder[1].length * 2)];
+		}
+		long[] widened = holder[1];
+		for (int slot = 0; slot < variables.length; slot++)
+		{
+			widened[slot] = values[slot];
+		}
+		return run(widened, stack());
+	}
+
+	/**
+	 * Helper method used by:
+	 * 		- evaluate(long[] values, long[] stack)
+	 * 		- evaluate(int[] values)
+	 *
+	 * Runs the program, once values and stack are known to be large enough
+	 *
+	 * @param values - the value of each variable, indexed by slot
+	 * @param stack - an array of at least maxStack entries
+	 * @return the value of the expression
+	 * @throws ArithmeticException
+	 * 				if a result does not fit in a long
+	 */
+	private long run(long[] values, long[] stack) throws ArithmeticException
+	{
+		int top = -1;
+		for (int instruction : program)
+		{
+			switch (instruction & OPCODE_MASK)
+			{
+				case CONSTANT:
+					stack[++top] = constants[instruction >>> OPCODE_BITS];
+					break;
+				case LOAD:
+					stack[++top] = values[instruction >>> OPCODE_BITS];
+					break;
+				case ADD:
+					top--;
+					stack[top] = Math.addExact(stack[top], stack[top + 1]);
+					break;
+				case SUBTRACT:
+					top--;
+					stack[top] = Math.subtractExact(stack[top], stack[top + 1]);
+					break;
+				case REVERSE_SUBTRACT:
+					top--;
+					stack[top] = Math.subtractExact(stack[top + 1], stack[top]);
+					break;
+				default:
+					top--;
+					stack[top] = Math.multiplyExact(stack[top], stack[top + 1]);
+			}
+		}
+		return stack[0];
+	}
+
+	/**
+	 * Evaluates the expression for every row of a table of variable values,
+	 * given as one column (an int[] or a long[]) per variable name
+	 *
+	 * Rows are processed in chunks of BATCH_CHUNK: each instruction of the
+	 * program is applied to a whole chunk at a time in a simple loop over
+	 * primitive arrays (which the JIT compiler can vectorize), with overflow
+	 * checked once per chunk rather than once per value.
+	 *
+	 * @param columns - the values of each variable, keyed by variable name; columns
+	 * 					of variables not in the expression are ignored
+	 * @param results - array to fill with the value of the expression for each row;
+	 * 					its length is the number of rows
+	 * @throws IllegalArgumentException
+	 * 				if a variable has no column, or a column is not an int[] or long[]
+	 * 				or has fewer rows than results
+	 * @throws ArithmeticException
+	 * 				if a result does not fit in a long
+	 */
+	public void evaluate(Map<String, ?> columns, long[] results) throws IllegalArgumentException, ArithmeticException
+	{
+		if (columns == null || results == null)
+			throw new IllegalArgumentException("columns and results cannot be null");
+
+		// columns in slot order
+		Object[] bySlot = new Object[variables.length];
+		for (int slot = 0; slot < variables.length; slot++)
+		{
+			Object column = columns.get(variables[slot]);
+			int rows;
+			if (column instanceof int[])
+				rows = ((int[]) column).length;
+			else if (column instanceof long[])
+				rows = ((long[]) column).length;
+			else
+				throw new IllegalArgumentException("variable " + variables[slot] + " needs an int[] or long[] column");
+			if (rows < results.length)
+				throw new IllegalArgumentException("column " + variables[slot] + " has fewer than " + results.length + " rows");
+			bySlot[slot] = column;
+		}
+
+		long[][] stack = new long[Math.max(maxStack, 1)][BATCH_CHUNK];
+		for (int start = 0; start < results.length; start += BATCH_CHUNK)
+		{
+			evaluateChunk(bySlot, start, Math.min(BATCH_CHUNK, results.length - start), stack, results);
+		}
+	}
+
+	/**
+	 * Helper method used by:
+	 * 		- evaluate(Map<String, ?> columns, long[] results)
+	 *
+	 * Runs the program once over rows start to start + rows - 1, with each entry
+	 * of the evaluation stack being a vector of values (one per row)
+	 */
+	private void evaluateChunk(Object[] columns, int start, int rows, long[][] stack, long[] results)
+	{
+		int top = -1;
+		for (int instruction : program)
+		{
+			int opcode = instruction & OPCODE_MASK;
+			if (opcode == CONSTANT)
+			{
+				Arrays.fill(stack[++top], 0, rows, constants[instruction >>> OPCODE_BITS]);
+				continue;
+			}
+			if (opcode == LOAD)
+			{
+				Object column = columns[instruction >>> OPCODE_BITS];
+				long[] vector = stack[++top];
+				if (column instanceof int[])
+				{
+					int[] values = (int[]) column;
+					for (int i = 0; i < rows; i++)
+					{
+						vector[i] = values[start + i];
+					}
+				}
+				else
+				{
+					System.arraycopy((long[]) column, start, vector, 0, rows);
+				}
+				continue;
+			}
+
+			top--;
+			long[] a = stack[top];
+			long[] b = stack[top + 1];
+			// sign bit of overflow is set if any result overflowed
+			long overflow = 0;
+			switch (opcode)
+			{
+				case ADD:
+					for (int i = 0; i < rows; i++)
+					{
+						long r = a[i] + b[i];
+						overflow |= (a[i] ^ r) & (b[i] ^ r);
+						a[i] = r;
+					}
+					break;
+				case SUBTRACT:
+					for (int i = 0; i < rows; i++)
+					{
+						long r = a[i] - b[i];
+						overflow |= (a[i] ^ b[i]) & (a[i] ^ r);
+						a[i] = r;
+					}
+					break;
+				case REVERSE_SUBTRACT:
+					for (int i = 0; i < rows; i++)
+					{
+						long r = b[i] - a[i];
+						overflow |= (b[i] ^ a[i]) & (b[i] ^ r);
+						a[i] = r;
+					}
+					break;
+				default:
+					for (int i = 0; i < rows; i++)
+					{
+						long r = a[i] * b[i];
+						// the high half of the product must just be the sign of the low half
+						// (x | -x has its sign bit set for any x other than 0)
+						long high = Math.multiplyHigh(a[i], b[i]) ^ (r >> 63);
+						overflow |= high | -high;
+						a[i] = r;
+					}
+			}
+			if (overflow < 0)
+				throw new ArithmeticException("long overflow");
+		}
+		System.arraycopy(stack[0], 0, results, start, rows);
+	}
+
+	/**
+	 * @return this thread's evaluation stack, grown if needed to hold maxStack() entries
+	 */
+	private long[] stack()
+	{
+		long[][] holder = STACKS.get();
+		if (holder[0].length < maxStack)
+		{
+			holder[0] = new long[Math.max(maxStack, holder[0].length * 2)];
+		}
+		return holder[0];
+	}
+}
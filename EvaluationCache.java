@@ -0,0 +1,233 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import textbook.LinkedBinaryTree;
+
+/**
+ * A thread-safe, bounded cache of the results of substituting a map of
+ * variables into an expression and simplifying it, so evaluating the same
+ * expression with the same values again is a hash lookup.
+ *
+ * A result is keyed by the text of the expression together with the values
+ * of the expression's own variables, in the order of their slots in a
+ * SymbolIndex of the expression (kept, with the parsed tree, in an
+ * ExpressionCache of the same size). Bindings of variables the expression
+ * does not use do not take part in the key, so they do not cause misses.
+ * Bindings of integer literals such as "-7" (which substitute replaces too)
+ * are not cached at all.
+ *
+ * Results are evicted when the least recently used results of a stripe no
+ * longer fit (see StripedLruCache), and expire timeToLive after they were
+ * computed: an expired result is computed again the next time it is asked
+ * for. They are handed out as read-only BoundExpressionTree views, shared by
+ * every caller, so must be copied (e.g. with toTree()) to be modified.
+ *
+ * Usage:
+ * 		EvaluationCache cache = new EvaluationCache(10000, 1, TimeUnit.MINUTES, NumericMode.WRAPPING);
+ * 		cache.evaluate("+ * 2 x y", values);	// as simplify(substitute(prefix2tree("+ * 2 x y"), values))
+ */
+public class EvaluationCache
+{
+	// value of a variable the bindings leave unbound (the values are Integers, so never this)
+	private static final long UNBOUND = Long.MIN_VALUE;
+
+	/**
+	 * An expression together with the values of its variables
+	 */
+	private static final class Key
+	{
+		private final String expression;
+		private final long[] values;
+		private final int hash;
+
+		private Key(String expression, long[] values)
+		{
+			this.expression = expression;
+			this.values = values;
+			this.hash = 31 * expression.hashCode() + Arrays.hashCode(values);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			return hash == other.hash && expression.equals(other.expression) && Arrays.equals(values, other.values);
+		}
+	}
+
+	/**
+	 * A simplified tree, and when it expires (in System.nanoTime())
+	 */
+	private static final class Result
+	{
+		private final BoundExpressionTree tree;
+		private final long expires;
+
+		private Result(BoundExpressionTree tree, long expires)
+		{
+			this.tree = tree;
+			this.expires = expires;
+		}
+	}
+
+	private final ExpressionCache expressions;
+	private final StripedLruCache<Key, Result> results;
+	private final long timeToLive;		// in nanoseconds
+	private final NumericMode mode;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder expirations = new LongAdder();
+
+	/**
+	 * @param maximumSize - the greatest number of results (and of parsed
+	 * 				expressions) to keep
+	 * @param timeToLive - how long a result is kept after it is computed
+	 * @param unit - the unit of timeToLive
+	 * @param mode - the arithmetic results are simplified with
+	 * @throws IllegalArgumentException
+	 * 				if maximumSize or timeToLive is less than 1, or unit or mode is null
+	 */
+	public EvaluationCache(int maximumSize, long timeToLive, TimeUnit unit, NumericMode mode) throws IllegalArgumentException
+	{
+		if (timeToLive < 1)
+			throw new IllegalArgumentException("timeToLive must be at least 1: " + timeToLive);
+		if (unit == null || mode == null)
+			throw new IllegalArgumentException("unit and mode must not be null");
+
+		this.expressions = new ExpressionCache(maximumSize);
+		this.results = new StripedLruCache<Key, Result>(maximumSize, ExpressionCache.DEFAULT_STRIPES);
+		this.timeToLive = unit.toNanos(timeToLive);
+		this.mode = mode;
+	}
+
+	/**
+	 * Substitutes the values of variables into an expression and simplifies
+	 * it, or finds the result of doing so in the cache
+	 *
+	 * @param expression - an arithmetic expression in prefix notation, as
+	 * 				accepted by Assignment.prefix2tree(String)
+	 * @param bindings - a map of variable labels to integer values
+	 * @return a read-only tree equal to
+	 *         Assignment.simplify(Assignment.substitute(Assignment.prefix2tree(expression), bindings), mode)
+	 * @throws IllegalArgumentException
+	 * 				for the same arguments as prefix2tree, substitute and simplify
+	 */
+	public LinkedBinaryTree<String> evaluate(String expression, Map<String, Integer> bindings) throws IllegalArgumentException
+	{
+		if (bindings == null)
+			throw new IllegalArgumentException("invalid map: map cannot be null");
+		String[] variables = expressions.variables(expression);
+
+		boolean bindsIntegers = false;
+		for (String key : bindings.keySet())
+		{
+			if (key == null || ExpressionTree.classify(key).isOperator() || ExpressionTree.isDigits(key))
+				throw new IllegalArgumentException("invalid variable in map: must not be an operator, only numeric or null");
+			// substitute replaces integer literals such as "-7" or "-99999999999" too, which the key cannot describe
+			bindsIntegers |= Assignment.isIntegerLiteral(key);
+		}
+		if (bindsIntegers)
+			return compute(expression, bindings).tree;
+
+		long[] values = new long[variables.length];
+		for (int slot = 0; slot < values.length; slot++)
+		{
+			String variable = variables[slot];
+			Integer value = bindings.get(variable);
+			if (value == null && bindings.containsKey(variable))
+				throw new IllegalArgumentException("invalid value in map: values cannot be null");
+			values[slot] = (value == null) ? UNBOUND : value;
+		}
+
+		Key key = new Key(expression, values);
+		Result result = results.get(key);
+		if (result != null)
+		{
+			if (System.nanoTime() - result.expires < 0)
+			{
+				hits.increment();
+				return result.tree;
+			}
+			results.remove(key, result);
+			expirations.increment();
+		}
+		misses.increment();
+
+		Result computed = compute(expression, bindings);
+		// another thread may have cached the same result meanwhile
+		Result cached = results.putIfAbsent(key, computed);
+		return (cached != null) ? cached.tree : computed.tree;
+	}
+
+	private Result compute(String expression, Map<String, Integer> bindings)
+	{
+		ExpressionTree tree = ((BoundExpressionTree) expressions.tree(expression)).toTree();
+		Assignment.substitute(tree, new HashMap<String, Integer>(bindings));
+		Assignment.simplify(tree, mode);
+		return new Result(new BoundExpressionTree(tree, Collections.<String, Integer>emptyMap()), System.nanoTime() + timeToLive);
+	}
+
+	/**
+	 * @return the number of results in the cache (including expired results
+	 *         not yet asked for again)
+	 */
+	public int size()
+	{
+		return results.size();
+	}
+
+	/**
+	 * Removes every result and parsed expression from the cache (the counters
+	 * are not reset)
+	 */
+	public void clear()
+	{
+		results.clear();
+		expressions.clear();
+	}
+
+	/**
+	 * @return the number of evaluations which found their result in the cache
+	 */
+	public long hits()
+	{
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of evaluations which had to compute their result
+	 */
+	public long misses()
+	{
+		return misses.sum();
+	}
+
+	/**
+	 * @return the number of results removed because they had expired
+	 */
+	public long expirations()
+	{
+		return expirations.sum();
+	}
+
+	/**
+	 * @return the number of results removed to keep the cache within its size
+	 */
+	public long evictions()
+	{
+		return results.evictions();
+	}
+}
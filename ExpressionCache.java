@@ -0,0 +1,223 @@
+import java.util.Collections;
+import java.util.concurrent.atomic.LongAdder;
+
+import textbook.LinkedBinaryTree;
+
+/**
+ * A thread-safe, bounded cache in front of Assignment.prefix2tree, mapping
+ * the text of an expression to its parsed (and optionally simplified) tree,
+ * and to the tree compiled by Assignment.compile.
+ *
+ * Trees are handed out as read-only BoundExpressionTree views (binding no
+ * variables) of a tree only the cache can reach, so one tree can be shared by
+ * every caller: read-only operations (tree2prefix, tree2infix, equals,
+ * compile, bind ...) can be given it directly, while in-place operations
+ * (simplify, substitute ...) must be given a copy, e.g. from toTree().
+ *
+ * The entries are kept in a StripedLruCache, which evicts the least recently
+ * used expressions of each stripe. Expressions are parsed outside its locks,
+ * so a miss never holds up the other expressions of its stripe (two threads
+ * missing the same expression at once may both parse it, but only one tree
+ * is kept). Invalid expressions are not cached.
+ *
+ * Hits and misses are counted with LongAdders, so counting does not make
+ * threads contend with each other.
+ */
+public class ExpressionCache
+{
+	// number of stripes used by ExpressionCache(int)
+	public static final int DEFAULT_STRIPES = 16;
+
+	/**
+	 * A cached expression
+	 */
+	private static final class Entry
+	{
+		private final BoundExpressionTree tree;
+		// compiled the first time it is asked for
+		private volatile CompiledExpression compiled;
+		// names of the variables in slot order, found the first time they are asked for
+		private volatile String[] variables;
+
+		private Entry(BoundExpressionTree tree)
+		{
+			this.tree = tree;
+		}
+	}
+
+	private final StripedLruCache<String, Entry> entries;
+	// arithmetic to simplify trees with before caching them, or null to cache them as parsed
+	private final NumericMode simplify;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Creates a cache of parsed trees, split into DEFAULT_STRIPES stripes
+	 *
+	 * @param maximumSize - the greatest number of expressions to keep
+	 * @throws IllegalArgumentException
+	 * 				if maximumSize is less than 1
+	 */
+	public ExpressionCache(int maximumSize) throws IllegalArgumentException
+	{
+		this(maximumSize, DEFAULT_STRIPES, null);
+	}
+
+	/**
+	 * @param maximumSize - the greatest number of expressions to keep
+	 * @param stripes - the number of independently locked parts to split the
+	 * 				cache into (at most maximumSize are used)
+	 * @param simplify - the arithmetic to simplify each tree with before it is
+	 * 				cached, or null to cache trees as parsed
+	 * @throws IllegalArgumentException
+	 * 				if maximumSize or stripes is less than 1
+	 */
+	public ExpressionCache(int maximumSize, int stripes, NumericMode simplify) throws IllegalArgumentException
+	{
+		this.entries = new StripedLruCache<String, Entry>(maximumSize, stripes);
+		this.simplify = simplify;
+	}
+
+	/**
+	 * Looks up (or parses and caches) the tree of an expression
+	 *
+	 * @param expression - an arithmetic expression in prefix notation, as
+	 * 				accepted by Assignment.prefix2tree(String)
+	 * @return a read-only tree representing the expression, shared with every
+	 *         other caller asking for the same expression
+	 * @throws IllegalArgumentException
+	 * 				if expression was null or not a valid expression
+	 */
+	public LinkedBinaryTree<String> tree(String expression) throws IllegalArgumentException
+	{
+		return entry(expression).tree;
+	}
+
+	/**
+	 * Looks up (or parses, compiles and caches) the compiled form of an
+	 * expression
+	 *
+	 * @param expression - an arithmetic expression in prefix notation, as
+	 * 				accepted by Assignment.prefix2tree(String)
+	 * @return the expression compiled by Assignment.compile
+	 * @throws IllegalArgumentException
+	 * 				if expression was null or not a valid expression
+	 */
+	public CompiledExpression compiled(String expression) throws IllegalArgumentException
+	{
+		Entry entry = entry(expression);
+		CompiledExpression compiled = entry.compiled;
+		if (compiled == null)
+		{
+			// compiling the same tree twice at once gives equivalent results, so no lock is needed
+			compiled = Assignment.compile(entry.tree);
+			entry.compiled = compiled;
+		}
+		return compiled;
+	}
+
+	/**
+	 * Helper method used by:
+	 * 		- EvaluationCache.evaluate(String expression, Map<String, Integer> bindings)
+	 *
+	 * Looks up (or parses and caches) the variables of an expression, in the
+	 * order of their slots in SymbolIndex.of(tree(expression)). Unlike
+	 * compiled, this works for any valid expression, including one with a
+	 * literal too long for a long (which is then one of the variables).
+	 *
+	 * @param expression - an arithmetic expression in prefix notation, as
+	 * 				accepted by Assignment.prefix2tree(String)
+	 * @return the names of the variables of the expression, which must not be modified
+	 * @throws IllegalArgumentException
+	 * 				if expression was null or not a valid expression
+	 */
+	String[] variables(String expression) throws IllegalArgumentException
+	{
+		Entry entry = entry(expression);
+		String[] variables = entry.variables;
+		if (variables == null)
+		{
+			// the index only reads the tree here, so the shared tree is safe to index
+			SymbolIndex index = SymbolIndex.of(entry.tree);
+			variables = new String[index.variableCount()];
+			for (int slot = 0; slot < variables.length; slot++)
+			{
+				variables[slot] = index.variable(slot);
+			}
+			entry.variables = variables;
+		}
+		return variables;
+	}
+
+	private Entry entry(String expression)
+	{
+		if (expression == null)
+			throw new IllegalArgumentException("Expression string was null");
+
+		Entry entry = entries.get(expression);
+		if (entry != null)
+		{
+			hits.increment();
+			return entry;
+		}
+		misses.increment();
+
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree(expression);
+		if (simplify != null)
+			Assignment.simplify(tree, simplify);
+		Entry created = new Entry(new BoundExpressionTree(tree, Collections.<String, Integer>emptyMap()));
+		// another thread may have cached the expression while it was parsed
+		Entry cached = entries.putIfAbsent(expression, created);
+		return (cached != null) ? cached : created;
+	}
+
+	/**
+	 * @return the greatest number of expressions the cache keeps
+	 */
+	public int maximumSize()
+	{
+		return entries.maximumSize();
+	}
+
+	/**
+	 * @return the number of expressions in the cache
+	 */
+	public int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Removes every expression from the cache (the counters are not reset)
+	 */
+	public void clear()
+	{
+		entries.clear();
+	}
+
+	/**
+	 * @return the number of lookups which found their expression in the cache
+	 */
+	public long hits()
+	{
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of lookups which had to parse their expression
+	 *         (including invalid expressions)
+	 */
+	public long misses()
+	{
+		return misses.sum();
+	}
+
+	/**
+	 * @return the number of expressions removed to keep the cache within its size
+	 */
+	public long evictions()
+	{
+		return entries.evictions();
+	}
+}
@@ -0,0 +1,549 @@
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+/**
+ * A compact, versioned binary encoding of a list of trees representing
+ * arithmetic expressions, written to and read from ByteBuffers (so heap
+ * buffers, direct buffers and memory-mapped files can all be used).
+ *
+ * Layout (varints are unsigned LEB128, 7 bits per byte, low bits first):
+ *
+ * 		magic		4 bytes, "EXPR"
+ * 		version		1 byte, VERSION
+ * 		names		varint count, then each name as a varint length and its UTF-8 bytes
+ * 		trees		varint count, then each tree as a varint number of positions and
+ * 					its positions in prefix order:
+ * 						ADD, SUBTRACT or MULTIPLY	1 byte, followed by the left and right subtrees
+ * 						LITERAL						1 byte and the zigzag varint of an int
+ * 						NAME						1 byte and the varint index of an element in names
+ * 						NULL						1 byte, for a null element
+ *
+ * Integers are stored as LITERALs only when their element is written the way
+ * Integer.toString writes their value; any other element (variables, "007",
+ * literals outside the int range) is stored once in the dictionary of names
+ * shared by all the trees, so every tree decodes to exactly the elements it
+ * was encoded from.
+ *
+ * decode builds ExpressionTrees without tokenizing or parsing text: every
+ * occurrence of a name is the same String, and small integers come from a
+ * table, so almost nothing is allocated besides the positions themselves.
+ * decodeCompact goes further and fills the arrays of CompactExpressionTrees,
+ * which share their opcodes with this layout, so no position is allocated.
+ */
+public class ExpressionCodec
+{
+	// "EXPR" in ASCII
+	public static final int MAGIC = 0x45585052;
+	// version of the layout written by encode
+	public static final int VERSION = 1;
+
+	// opcodes, the same as those of CompactExpressionTree
+	private static final byte ADD = CompactExpressionTree.ADD;
+	private static final byte SUBTRACT = CompactExpressionTree.SUBTRACT;
+	private static final byte MULTIPLY = CompactExpressionTree.MULTIPLY;
+	private static final byte LITERAL = CompactExpressionTree.LITERAL;
+	private static final byte NAME = CompactExpressionTree.VARIABLE;
+	private static final byte NULL = 5;
+
+	// elements of the integers decoded most often, so they are not created again
+	private static final int SMALL_MIN = -128;
+	private static final int SMALL_MAX = 1023;
+	private static final String[] SMALL = new String[SMALL_MAX - SMALL_MIN + 1];
+
+	static
+	{
+		for (int i = SMALL_MIN; i <= SMALL_MAX; i++)
+		{
+			SMALL[i - SMALL_MIN] = Integer.toString(i);
+		}
+	}
+
+	/**
+	 * Encodes trees into a new buffer of exactly the right size
+	 *
+	 * @param trees - trees representing arithmetic expressions
+	 * @return a heap buffer holding the encoding, from position 0 to its limit
+	 * @throws IllegalArgumentException
+	 * 				if trees is null or a tree was not a valid expression
+	 */
+	public static ByteBuffer encode(List<? extends LinkedBinaryTree<String>> trees) throws IllegalArgumentException
+	{
+		Dictionary dictionary = new Dictionary(trees);
+		ByteBuffer buffer = ByteBuffer.allocate(dictionary.encodedLength);
+		write(dictionary, trees, buffer);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Encodes trees into a buffer, from its position
+	 *
+	 * @param trees - trees representing arithmetic expressions
+	 * @param buffer - where to write the encoding
+	 * @throws java.nio.BufferOverflowException
+	 * 				if buffer has fewer than encodedLength(trees) bytes remaining
+	 * @throws IllegalArgumentException
+	 * 				if trees is null or a tree was not a valid expression
+	 */
+	public static void encode(List<? extends LinkedBinaryTree<String>> trees, ByteBuffer buffer) throws IllegalArgumentException
+	{
+		write(new Dictionary(trees), trees, buffer);
+	}
+
+	/**
+	 * @param trees - trees representing arithmetic expressions
+	 * @return the number of bytes encode(trees, buffer) writes
+	 * @throws IllegalArgumentException
+	 * 				if trees is null or a tree was not a valid expression
+	 */
+	public static int encodedLength(List<? extends LinkedBinaryTree<String>> trees) throws IllegalArgumentException
+	{
+		return new Dictionary(trees).encodedLength;
+	}
+
+	/**
+	 * The names of a list of trees, each with its index, and the length of
+	 * the whole encoding
+	 */
+	private static final class Dictionary
+	{
+		private final HashMap<String, Integer> indexes = new HashMap<String, Integer>();
+		private final ArrayList<byte[]> names = new ArrayList<byte[]>();
+		private int encodedLength;
+
+		private Dictionary(List<? extends LinkedBinaryTree<String>> trees)
+		{
+			if (trees == null)
+				throw new IllegalArgumentException("List of trees was null");
+
+			long length = 0;
+			ArrayDeque<Position<String>> stack = new ArrayDeque<Position<String>>();
+			for (LinkedBinaryTree<String> tree : trees)
+			{
+				if (!Assignment.isArithmeticExpression(tree))
+					throw new IllegalArgumentException("Tree does not represent arithmetic expression");
+				length += varintLength(tree.size());
+				stack.push(tree.root());
+				while (!stack.isEmpty())
+				{
+					Position<String> p = stack.pop();
+					length++;
+					switch (opcode(p))
+					{
+						case LITERAL:
+							length += varintLength(zigzag(ExpressionTree.integerValue(p)));
+							break;
+						case NAME:
+							Integer index = indexes.get(p.getElement());
+							if (index == null)
+							{
+								index = names.size();
+								indexes.put(p.getElement(), index);
+								byte[] name = p.getElement().getBytes(StandardCharsets.UTF_8);
+								names.add(name);
+								length += varintLength(name.length) + name.length;
+							}
+							length += varintLength(index);
+							break;
+						default:
+							break;
+					}
+					if (tree.left(p) != null)
+					{
+						stack.push(tree.right(p));
+						stack.push(tree.left(p));
+					}
+				}
+			}
+			length += 4 + 1 + varintLength(names.size()) + varintLength(trees.size());
+			if (length > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Encoding is too long for a ByteBuffer: " + length + " bytes");
+			encodedLength = (int) length;
+		}
+	}
+
+	private static void write(Dictionary dictionary, List<? extends LinkedBinaryTree<String>> trees, ByteBuffer buffer)
+	{
+		buffer.putInt(MAGIC);
+		buffer.put((byte) VERSION);
+		putVarint(buffer, dictionary.names.size());
+		for (byte[] name : dictionary.names)
+		{
+			putVarint(buffer, name.length);
+			buffer.put(name);
+		}
+
+		putVarint(buffer, trees.size());
+		ArrayDeque<Position<String>> stack = new ArrayDeque<Position<String>>();
+		for (LinkedBinaryTree<String> tree : trees)
+		{
+			putVarint(buffer, tree.size());
+			stack.push(tree.root());
+			while (!stack.isEmpty())
+			{
+				Position<String> p = stack.pop();
+				byte opcode = opcode(p);
+				buffer.put(opcode);
+				if (opcode == LITERAL)
+					putVarint(buffer, zigzag(ExpressionTree.integerValue(p)));
+				else if (opcode == NAME)
+					putVarint(buffer, dictionary.indexes.get(p.getElement()));
+				if (tree.left(p) != null)
+				{
+					stack.push(tree.right(p));
+					stack.push(tree.left(p));
+				}
+			}
+		}
+	}
+
+	private static byte opcode(Position<String> p)
+	{
+		switch (ExpressionTree.kindOf(p))
+		{
+			case ADD:
+				return ADD;
+			case SUBTRACT:
+				return SUBTRACT;
+			case MULTIPLY:
+				return MULTIPLY;
+			case INTEGER:
+				return isCanonical(p.getElement()) ? LITERAL : NAME;
+			default:
+				return (p.getElement() == null) ? NULL : NAME;
+		}
+	}
+
+	// true if an integer element is written as Integer.toString writes its value
+	private static boolean isCanonical(String integer)
+	{
+		int start = (integer.charAt(0) == '-') ? 1 : 0;
+		if (integer.charAt(start) == '0')
+			return integer.length() == 1;
+		for (int i = start; i < integer.length(); i++)
+		{
+			if (integer.charAt(i) < '0' || integer.charAt(i) > '9')
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * The dictionary of names at the start of an encoding, with the kind and
+	 * value of each name as ExpressionTree would classify it
+	 */
+	private static final class Names
+	{
+		private final String[] names;
+		private final ExpressionTree.Kind[] kinds;
+		private final int[] values;
+
+		// reads the header and the names, leaving the buffer at the count of trees
+		private Names(ByteBuffer buffer)
+		{
+			if (buffer.getInt() != MAGIC)
+				throw invalid("not an encoding of expressions");
+			int version = buffer.get();
+			if (version != VERSION)
+				throw invalid("unsupported version " + version);
+
+			// a varint of 5 bytes can be negative, and every name takes at least a byte
+			int count = getVarint(buffer);
+			if (count < 0 || count > buffer.remaining())
+				throw invalid(count + " names");
+			names = new String[count];
+			kinds = new ExpressionTree.Kind[count];
+			values = new int[count];
+			for (int i = 0; i < count; i++)
+			{
+				int length = getVarint(buffer);
+				if (length < 0 || length > buffer.remaining())
+					throw invalid("name of " + length + " bytes");
+				byte[] name = new byte[length];
+				buffer.get(name);
+				names[i] = new String(name, StandardCharsets.UTF_8);
+				kinds[i] = ExpressionTree.classify(names[i]);
+				// encode writes operators as opcodes, so a name never is one
+				if (kinds[i].isOperator())
+					throw invalid("operator " + names[i] + " as a name");
+				values[i] = (kinds[i] == ExpressionTree.Kind.INTEGER) ? Integer.parseInt(names[i]) : 0;
+			}
+		}
+	}
+
+	/**
+	 * Decodes trees encoded by encode, from the position of a buffer (which is
+	 * left just after the encoding)
+	 *
+	 * @param buffer - a buffer holding an encoding
+	 * @return the trees, as ExpressionTrees
+	 * @throws IllegalArgumentException
+	 * 				if the buffer does not hold a valid encoding of this version
+	 */
+	public static List<LinkedBinaryTree<String>> decode(ByteBuffer buffer) throws IllegalArgumentException
+	{
+		try
+		{
+			Names names = new Names(buffer);
+			int treeCount = treeCount(buffer);
+			ArrayList<LinkedBinaryTree<String>> trees = new ArrayList<LinkedBinaryTree<String>>(treeCount);
+			ArrayDeque<Position<String>> pending = new ArrayDeque<Position<String>>();
+			for (int t = 0; t < treeCount; t++)
+			{
+				trees.add(decodeTree(buffer, names, pending));
+			}
+			return trees;
+		}
+		catch (BufferUnderflowException | IndexOutOfBoundsException e)
+		{
+			throw invalid("truncated or corrupt");
+		}
+	}
+
+	/**
+	 * Decodes trees encoded by encode into their compact form, from the
+	 * position of a buffer (which is left just after the encoding). The
+	 * positions are written straight into the arrays of each compact tree,
+	 * without creating a node or a String for any of them.
+	 *
+	 * @param buffer - a buffer holding an encoding
+	 * @return the trees, as CompactExpressionTrees
+	 * @throws IllegalArgumentException
+	 * 				if the buffer does not hold a valid encoding of this version
+	 */
+	public static List<CompactExpressionTree> decodeCompact(ByteBuffer buffer) throws IllegalArgumentException
+	{
+		try
+		{
+			Names names = new Names(buffer);
+			int treeCount = treeCount(buffer);
+			ArrayList<CompactExpressionTree> trees = new ArrayList<CompactExpressionTree>(treeCount);
+			// number of each name in the tree being decoded (or -1), with the null element last,
+			// and the name of each number
+			int[] numbers = new int[names.names.length + 1];
+			int[] used = new int[numbers.length];
+			Arrays.fill(numbers, -1);
+			int[] pending = new int[16];
+			for (int t = 0; t < treeCount; t++)
+			{
+				int size = getVarint(buffer);
+				// every position takes at least a byte
+				if (size < 1 || size > buffer.remaining())
+					throw invalid("tree of " + size + " positions");
+				if (pending.length < size)
+					pending = new int[size];
+				trees.add(decodeCompactTree(buffer, size, names, numbers, used, pending));
+			}
+			return trees;
+		}
+		catch (BufferUnderflowException | IndexOutOfBoundsException e)
+		{
+			throw invalid("truncated or corrupt");
+		}
+	}
+
+	private static int treeCount(ByteBuffer buffer)
+	{
+		int count = getVarint(buffer);
+		// every tree takes at least 2 bytes
+		if (count < 0 || count > buffer.remaining() / 2)
+			throw invalid(count + " trees");
+		return count;
+	}
+
+	// builds the positions of one tree in prefix order, as prefix2tree does
+	private static ExpressionTree decodeTree(ByteBuffer buffer, Names names, ArrayDeque<Position<String>> pending)
+	{
+		int size = getVarint(buffer);
+		ExpressionTree tree = new ExpressionTree();
+		Position<String> parent = null;		// the root comes first
+		do
+		{
+			if (tree.size() == size)
+				throw invalid("tree has more than " + size + " positions");
+			byte opcode = buffer.get();
+			Position<String> position;
+			switch (opcode)
+			{
+				case ADD:
+					position = tree.addNext(parent, ExpressionTokenizer.PLUS, ExpressionTree.Kind.ADD, 0);
+					break;
+				case SUBTRACT:
+					position = tree.addNext(parent, ExpressionTokenizer.MINUS, ExpressionTree.Kind.SUBTRACT, 0);
+					break;
+				case MULTIPLY:
+					position = tree.addNext(parent, ExpressionTokenizer.TIMES, ExpressionTree.Kind.MULTIPLY, 0);
+					break;
+				case LITERAL:
+					int value = unzigzag(getVarint(buffer));
+					position = tree.addNext(parent, literal(value), ExpressionTree.Kind.INTEGER, value);
+					break;
+				case NAME:
+					int index = getVarint(buffer);
+					position = tree.addNext(parent, names.names[index], names.kinds[index], names.values[index]);
+					break;
+				case NULL:
+					position = tree.addNext(parent, null, ExpressionTree.Kind.VARIABLE, 0);
+					break;
+				default:
+					throw invalid("unknown opcode " + opcode);
+			}
+			if (parent != null && position == tree.right(parent))
+				pending.pop();		// parent now has both children
+			if (opcode <= MULTIPLY)
+				pending.push(position);
+			parent = pending.peek();
+		}
+		while (parent != null);
+
+		if (tree.size() != size)
+			throw invalid("tree has fewer than " + size + " positions");
+		return tree;
+	}
+
+	// fills the arrays of one compact tree in prefix order
+	private static CompactExpressionTree decodeCompactTree(ByteBuffer buffer, int size, Names names, int[] numbers, int[] used, int[] pending)
+	{
+		CompactExpressionTree tree = CompactExpressionTree.withCapacity(size);
+		// operators which have not yet received their right child
+		int top = 0;
+		try
+		{
+			for (int i = 0; i < size; i++)
+			{
+				if (i > 0)
+				{
+					if (top == 0)
+						throw invalid("tree has fewer than " + size + " positions");
+					// anything but the position after an operator is its right child
+					if (i != pending[top - 1] + 1)
+						tree.setRight(pending[--top], i);
+				}
+
+				byte opcode = buffer.get();
+				switch (opcode)
+				{
+					case ADD:
+					case SUBTRACT:
+					case MULTIPLY:
+						tree.appendOperator(opcode);
+						pending[top++] = i;
+						break;
+					case LITERAL:
+						tree.appendLiteral(unzigzag(getVarint(buffer)), null);
+						break;
+					case NAME:
+						int index = getVarint(buffer);
+						if (names.kinds[index] == ExpressionTree.Kind.INTEGER)
+							tree.appendLiteral(names.values[index], names.names[index]);
+						// as CompactExpressionTree.fromTree, literals outside the int range are literals too
+						else if (CompactExpressionTree.isLongLiteral(names.names[index]))
+						{
+							long value = Long.parseLong(names.names[index]);
+							tree.appendLiteral(value, names.names[index].equals(Long.toString(value)) ? null : names.names[index]);
+						}
+						else
+							tree.appendVariable(number(tree, numbers, used, index, names.names[index]));
+						break;
+					case NULL:
+						tree.appendVariable(number(tree, numbers, used, numbers.length - 1, null));
+						break;
+					default:
+						throw invalid("unknown opcode " + opcode);
+				}
+			}
+			if (top != 0)
+				throw invalid("tree has more than " + size + " positions");
+			return tree;
+		}
+		finally
+		{
+			// forget the numbers of the names in this tree
+			for (int number = 0; number < tree.variableCount(); number++)
+			{
+				numbers[used[number]] = -1;
+			}
+		}
+	}
+
+	// number of a name in a compact tree, appending the name the first time it is used
+	private static int number(CompactExpressionTree tree, int[] numbers, int[] used, int index, String name)
+	{
+		if (numbers[index] < 0)
+		{
+			numbers[index] = tree.appendName(name);
+			used[numbers[index]] = index;
+		}
+		return numbers[index];
+	}
+
+	private static String literal(int value)
+	{
+		return (value >= SMALL_MIN && value <= SMALL_MAX) ? SMALL[value - SMALL_MIN] : Integer.toString(value);
+	}
+	private static int zigzag(int value)
+	{
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unzigzag(int value)
+	{
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static int varintLength(int value)
+	{
+		int length = 1;
+		while ((value & ~0x7F) != 0)
+		{
+			value >>>= 7;
+			length++;
+		}
+		return length;
+	}
+
+	private static void putVarint(ByteBuffer buffer, int value)
+	{
+		while ((value & ~0x7F) != 0)
+		{
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private static int getVarint(ByteBuffer buffer)
+	{
+		// most varints are one or two bytes (below 128, or 16384)
+		int b = buffer.get();
+		if (b >= 0)
+			return b;
+		int value = b & 0x7F;
+		b = buffer.get();
+		if (b >= 0)
+			return value | (b << 7);
+		value |= (b & 0x7F) << 7;
+		for (int shift = 14; shift < 35; shift += 7)
+		{
+			b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw invalid("varint is too long");
+	}
+
+	private static IllegalArgumentException invalid(String reason)
+	{
+		return new IllegalArgumentException("Buffer does not hold valid encoded expressions: " + reason);
+	}
+}
@@ -0,0 +1,316 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the latency of an ExpressionServer under load: opens a number of
+ * connections to it at once, and once every connection is open sends the
+ * same number of requests over each, waiting for the reply to one request
+ * before sending the next. The Report gives the requests per second over all
+ * connections, and percentiles of the time from sending a request to reading
+ * its reply.
+ *
+ * Every latency is kept, so percentiles are exact (a million requests take
+ * 8 MB).
+ *
+ * Usage:
+ * 		java ExpressionLoadGenerator [port [connections [requests]]]
+ * sends requests (100 by default) over each of connections (10000 by
+ * default) to a server on the loopback address at port (ExpressionServer.DEFAULT_PORT
+ * by default), and prints the Report. Each end of each connection needs a
+ * file descriptor, so the limit on open files may have to be raised first.
+ */
+public class ExpressionLoadGenerator
+{
+	public static final int DEFAULT_CONNECTIONS = 10000;
+	public static final int DEFAULT_REQUESTS = 100;
+
+	/**
+	 * The requests sent during a run, how long they took, and how many failed
+	 */
+	public static final class Report
+	{
+		private final int connections;
+		private final long[] latencies;
+		private final long errors;
+		private final long nanos;
+
+		private Report(int connections, long[] latencies, long errors, long nanos)
+		{
+			this.connections = connections;
+			this.latencies = latencies;
+			this.errors = errors;
+			this.nanos = nanos;
+			Arrays.sort(latencies);
+		}
+
+		/**
+		 * @return the number of connections open during the run
+		 */
+		public int connections()
+		{
+			return connections;
+		}
+
+		/**
+		 * @return the number of requests answered
+		 */
+		public long requests()
+		{
+			return latencies.length;
+		}
+
+		/**
+		 * @return the number of requests answered with "ERR"
+		 */
+		public long errors()
+		{
+			return errors;
+		}
+
+		/**
+		 * @return the time from the first request being sent to the last reply
+		 *         being read, in nanoseconds
+		 */
+		public long nanos()
+		{
+			return nanos;
+		}
+
+		/**
+		 * @return requests answered per second
+		 */
+		public double requestsPerSecond()
+		{
+			return (nanos == 0) ? 0 : latencies.length * 1e9 / nanos;
+		}
+
+		/**
+		 * @param percentile - between 0 (exclusive) and 100 (inclusive)
+		 * @return the latency, in nanoseconds, which that percentage of the
+		 *         requests took at most (0 if there were no requests)
+		 * @throws IllegalArgumentException
+		 * 				if percentile is not in range
+		 */
+		public long latency(double percentile) throws IllegalArgumentException
+		{
+			if (!(percentile > 0 && percentile <= 100))
+				throw new IllegalArgumentException("percentile must be more than 0 and at most 100: " + percentile);
+			if (latencies.length == 0)
+				return 0;
+			// nearest rank
+			int rank = (int) Math.ceil(percentile / 100 * latencies.length);
+			return latencies[Math.max(rank, 1) - 1];
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("%d connections, %d requests (%d errors) in %.3f s: %.0f requests/s, "
+					+ "latency p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us",
+					connections, requests(), errors, nanos / 1e9, requestsPerSecond(),
+					latency(50) / 1e3, latency(99) / 1e3, latency(99.9) / 1e3, latency(100) / 1e3);
+		}
+	}
+
+	/**
+	 * Runs a load test against a server on the loopback address
+	 *
+	 * @param port - the port the server listens on
+	 * @param connections - the number of connections to open at once
+	 * @param requests - the number of requests to send over each connection
+	 * @param mix - the requests to send, in turn (each connection starting at
+	 * 				a different one)
+	 * @param threads - the kind of thread to run each connection on
+	 * @return the report of the run
+	 * @throws IOException
+	 * 				if a connection could not be opened, or was closed before
+	 * 				every request was answered
+	 * @throws InterruptedException
+	 * 				if interrupted while waiting for the connections
+	 * @throws IllegalArgumentException
+	 * 				if connections is less than 1, requests less than 0, mix
+	 * 				empty (or holding a line break), or threads null or not supported
+	 */
+	public static Report run(final int port, int connections, final int requests, final List<String> mix,
+			SimplificationPipeline.Threads threads) throws IOException, InterruptedException, IllegalArgumentException
+	{
+		if (connections < 1 || requests < 0)
+			throw new IllegalArgumentException("connections must be at least 1 and requests at least 0");
+		if (mix == null || mix.isEmpty())
+			throw new IllegalArgumentException("mix must hold at least one request");
+		for (String request : mix)
+		{
+			if (request == null || request.indexOf('\n') >= 0 || request.indexOf('\r') >= 0)
+				throw new IllegalArgumentException("invalid request: must be a single line: " + request);
+		}
+		if (threads == null || !threads.isSupported())
+			throw new IllegalArgumentException("Threads not supported by this JVM: " + threads);
+
+		final CountDownLatch connected = new CountDownLatch(connections);
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+		final LongAdder errors = new LongAdder();
+		final long[][] latencies = new long[connections][];
+		List<Thread> running = new ArrayList<Thread>();
+		for (int i = 0; i < connections; i++)
+		{
+			final int connection = i;
+			Thread thread = threads.newThread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						latencies[connection] = load(port, connection, requests, mix, connected, start, errors);
+					}
+					catch (IOException e)
+					{
+						failure.compareAndSet(null, e);
+					}
+					catch (InterruptedException e)
+					{
+						// abandoned
+					}
+				}
+			}, "load-" + i);
+			running.add(thread);
+			thread.start();
+		}
+
+		long started;
+		try
+		{
+			connected.await();
+			started = System.nanoTime();
+			start.countDown();
+			for (Thread thread : running)
+			{
+				thread.join();
+			}
+		}
+		finally
+		{
+			for (Thread thread : running)
+			{
+				thread.interrupt();
+			}
+		}
+		long nanos = System.nanoTime() - started;
+		if (failure.get() != null)
+			throw failure.get();
+
+		long[] all = new long[connections * requests];
+		for (int i = 0; i < connections; i++)
+		{
+			System.arraycopy(latencies[i], 0, all, i * requests, requests);
+		}
+		return new Report(connections, all, errors.sum(), nanos);
+	}
+
+	/**
+	 * Helper method used by:
+	 * 		- run(int port, int connections, int requests, List<String> mix, SimplificationPipeline.Threads threads)
+	 *
+	 * Opens a connection, waits for every other connection to be open, and
+	 * sends requests over it one at a time
+	 *
+	 * @return the latency of each request, in nanoseconds
+	 */
+	private static long[] load(int port, int connection, int requests, List<String> mix, CountDownLatch connected,
+			CountDownLatch start, LongAdder errors) throws IOException, InterruptedException
+	{
+		Socket socket;
+		try
+		{
+			socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		}
+		finally
+		{
+			connected.countDown();
+		}
+		try
+		{
+			socket.setTcpNoDelay(true);
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+			long[] latencies = new long[requests];
+			start.await();
+			for (int i = 0; i < requests; i++)
+			{
+				String request = mix.get((connection + i) % mix.size());
+				long sent = System.nanoTime();
+				out.write(request);
+				out.write('\n');
+				out.flush();
+				String reply = in.readLine();
+				latencies[i] = System.nanoTime() - sent;
+				if (reply == null)
+					throw new IOException("Connection " + connection + " closed after " + i + " replies");
+				if (reply.startsWith("ERR"))
+					errors.increment();
+			}
+			return latencies;
+		}
+		finally
+		{
+			socket.close();
+		}
+	}
+
+	/**
+	 * @param count - the number of requests
+	 * @param seed - seeds the random choice of requests
+	 * @return random expressions (see RandomExpressions) of 1 to 20 operators
+	 *         over the variables x, y and z, every other one with bindings for them
+	 */
+	public static List<String> randomRequests(int count, long seed)
+	{
+		Random random = new Random(seed);
+		RandomExpressions expressions = new RandomExpressions(random, "x", "y", "z", "0", "1", "2", "7", "15", "-3");
+		List<String> mix = new ArrayList<String>();
+		for (int i = 0; i < count; i++)
+		{
+			StringBuilder request = new StringBuilder(expressions.next(1 + random.nextInt(20)));
+			if (i % 2 == 1)
+				request.append(" | x=").append(random.nextInt(100)).append(" y=").append(random.nextInt(100) - 50)
+						.append(" z=").append(random.nextInt(10));
+			mix.add(request.toString());
+		}
+		return mix;
+	}
+
+	/**
+	 * Runs a load test of random requests and prints the report
+	 *
+	 * @param args - the port, the number of connections and the number of
+	 * 				requests per connection, each optional
+	 * @throws IOException
+	 * 				if a connection failed
+	 * @throws InterruptedException
+	 * 				if interrupted
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		int port = (args.length > 0) ? Integer.parseInt(args[0]) : ExpressionServer.DEFAULT_PORT;
+		int connections = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_CONNECTIONS;
+		int requests = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_REQUESTS;
+		SimplificationPipeline.Threads threads = SimplificationPipeline.Threads.VIRTUAL.isSupported()
+				? SimplificationPipeline.Threads.VIRTUAL : SimplificationPipeline.Threads.PLATFORM;
+		System.out.println(run(port, connections, requests, randomRequests(1000, 42), threads));
+	}
+}
@@ -0,0 +1,315 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A server, listening on the loopback address, which simplifies or evaluates
+ * arithmetic expressions sent to it, one request per line:
+ * 		+ * 2 x - 3 3				-> OK * 2 x
+ * 		+ * 2 x y | x=3 y=-4		-> OK 2
+ * 		+ 1							-> ERR String was not a valid arithmetic expression in prefix notation
+ * A request without bindings (after a '|') is answered with
+ * 		tree2prefix(simplifyFancy(prefix2tree(expression)))
+ * and one with bindings with
+ * 		tree2prefix(simplify(substitute(prefix2tree(expression), bindings)))
+ * taken from an EvaluationCache, so repeated requests are hash lookups.
+ * Every request gets exactly one line in reply, so a client may send several
+ * requests before reading the replies. Text is UTF-8, and line breaks may be
+ * "\n" or "\r\n".
+ *
+ * Each connection is served by a thread of its own, which blocks reading
+ * the next request: a virtual thread (on Java 21 and later) costs little
+ * more than the socket, so many thousands of mostly idle connections need
+ * no pool or selector.
+ *
+ * Usage:
+ * 		java ExpressionServer [port]
+ * serves on the port (8765 by default) until killed. See ExpressionLoadGenerator
+ * for measuring its latency under load.
+ */
+public class ExpressionServer implements Closeable
+{
+	public static final int DEFAULT_PORT = 8765;
+	// connections waiting to be accepted
+	private static final int BACKLOG = 4096;
+	// results kept by the default cache
+	private static final int DEFAULT_CACHE_SIZE = 100000;
+	// longest wait before accepting again after accept fails, in milliseconds
+	private static final long MAX_ACCEPT_BACKOFF = 1000;
+
+	private final ServerSocket server;
+	private final SimplificationPipeline.Threads threads;
+	private final EvaluationCache cache;
+	private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+	private final Thread acceptor;
+	private volatile boolean closed;
+
+	/**
+	 * Starts a server on virtual threads if this JVM supports them (otherwise
+	 * on platform threads), with a cache of DEFAULT_CACHE_SIZE results kept
+	 * for a minute, simplified with WRAPPING arithmetic
+	 *
+	 * @param port - the port to listen on, or 0 for any free port
+	 * @throws IOException
+	 * 				if the port could not be listened on
+	 */
+	public ExpressionServer(int port) throws IOException
+	{
+		this(port, SimplificationPipeline.Threads.VIRTUAL.isSupported() ? SimplificationPipeline.Threads.VIRTUAL
+				: SimplificationPipeline.Threads.PLATFORM,
+				new EvaluationCache(DEFAULT_CACHE_SIZE, 1, TimeUnit.MINUTES, NumericMode.WRAPPING));
+	}
+
+	/**
+	 * Starts a server
+	 *
+	 * @param port - the port to listen on, or 0 for any free port
+	 * @param threads - the kind of thread to serve each connection on
+	 * @param cache - where to find and keep the results of requests with bindings
+	 * @throws IOException
+	 * 				if the port could not be listened on
+	 * @throws IllegalArgumentException
+	 * 				if threads is null or not supported, or cache is null
+	 */
+	public ExpressionServer(int port, SimplificationPipeline.Threads threads, EvaluationCache cache)
+			throws IOException, IllegalArgumentException
+	{
+		if (threads == null || !threads.isSupported())
+			throw new IllegalArgumentException("Threads not supported by this JVM: " + threads);
+		if (cache == null)
+			throw new IllegalArgumentException("cache must not be null");
+
+		this.threads = threads;
+		this.cache = cache;
+		this.server = new ServerSocket();
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+		// accepting is never the slow part, so a platform thread will do
+		this.acceptor = SimplificationPipeline.Threads.PLATFORM.newThread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				accept();
+			}
+		}, "expression-server-" + port());
+		acceptor.start();
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public int port()
+	{
+		return server.getLocalPort();
+	}
+
+	/**
+	 * @return the number of connections open
+	 */
+	public int connections()
+	{
+		return connections.size();
+	}
+
+	/**
+	 * Stops listening and closes every connection
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		closed = true;
+		server.close();
+		for (Socket socket : connections)
+		{
+			socket.close();
+		}
+		try
+		{
+			acceptor.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void accept()
+	{
+		long backoff = 0;
+		while (!closed)
+		{
+			final Socket socket;
+			try
+			{
+				socket = server.accept();
+				backoff = 0;
+			}
+			catch (IOException e)
+			{
+				// closed, or the connection was reset before it was accepted, or
+				// (e.g. out of file descriptors) accept keeps failing until
+				// connections are closed, so wait longer each time rather than spin
+				if (closed)
+					return;
+				backoff = Math.min(Math.max(2 * backoff, 1), MAX_ACCEPT_BACKOFF);
+				try
+				{
+					Thread.sleep(backoff);
+				}
+				catch (InterruptedException interrupted)
+				{
+					return;
+				}
+				continue;
+			}
+			connections.add(socket);
+			if (closed)
+			{
+				close(socket);
+				return;
+			}
+			threads.newThread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					serve(socket);
+				}
+			}, "expression-connection-" + socket.getPort()).start();
+		}
+	}
+
+	// answers the requests of one connection until the client closes it
+	private void serve(Socket socket)
+	{
+		try
+		{
+			socket.setTcpNoDelay(true);
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+			String request;
+			while ((request = in.readLine()) != null)
+			{
+				out.write(answer(request));
+				out.write('\n');
+				// let the client pipeline requests: write once the requests read so far are answered
+				if (!in.ready())
+					out.flush();
+			}
+			out.flush();
+		}
+		catch (SocketException e)
+		{
+			// closed by the client, or by close()
+		}
+		catch (IOException e)
+		{
+			// nothing can be answered on a broken connection
+		}
+		finally
+		{
+			close(socket);
+		}
+	}
+
+	private void close(Socket socket)
+	{
+		connections.remove(socket);
+		try
+		{
+			socket.close();
+		}
+		catch (IOException e)
+		{
+			// already closed
+		}
+	}
+
+	/**
+	 * Helper method used by:
+	 * 		- serve(Socket socket)
+	 *
+	 * @param request - an expression in prefix notation, optionally followed
+	 * 				by '|' and bindings of the form name=value, separated by spaces
+	 * @return "OK " followed by the result, or "ERR " followed by why there is none
+	 * 				(including an expression too deeply nested to simplify, or any
+	 * 				other exception thrown while answering)
+	 */
+	String answer(String request)
+	{
+		try
+		{
+			int bar = request.indexOf('|');
+			if (bar < 0)
+				return "OK " + Assignment.tree2prefix(Assignment.simplifyFancy(Assignment.prefix2tree(request)));
+			String expression = request.substring(0, bar).trim();
+			return "OK " + Assignment.tree2prefix(cache.evaluate(expression, bindings(request.substring(bar + 1))));
+		}
+		catch (RuntimeException e)
+		{
+			// an invalid request, or one that cannot be evaluated (e.g. ArithmeticException),
+			// is answered like any other so every request still gets exactly one reply
+			String message = e.getMessage();
+			return "ERR " + ((message == null) ? e.toString() : message.replace('\n', ' ').replace('\r', ' '));
+		}
+		catch (StackOverflowError e)
+		{
+			// only the stack of this request is lost, so the connection can still be served
+			return "ERR expression is nested too deeply to simplify";
+		}
+	}
+
+	private static HashMap<String, Integer> bindings(String text) throws IllegalArgumentException
+	{
+		HashMap<String, Integer> bindings = new HashMap<String, Integer>();
+		for (String binding : text.trim().split("\\s+"))
+		{
+			if (binding.isEmpty())
+				continue;
+			int equals = binding.indexOf('=');
+			if (equals <= 0)
+				throw new IllegalArgumentException("invalid binding: must be name=value: " + binding);
+			try
+			{
+				bindings.put(binding.substring(0, equals), Integer.valueOf(binding.substring(equals + 1)));
+			}
+			catch (NumberFormatException e)
+			{
+				throw new IllegalArgumentException("invalid binding: value must be an int: " + binding);
+			}
+		}
+		return bindings;
+	}
+
+	/**
+	 * Serves on the port given as the first argument (or DEFAULT_PORT) until killed
+	 *
+	 * @param args - the port, optionally
+	 * @throws IOException
+	 * 				if the port could not be listened on
+	 * @throws InterruptedException
+	 * 				if interrupted while serving
+	 */
+	@SuppressWarnings("resource")
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		ExpressionServer server = new ExpressionServer((args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PORT);
+		System.out.println("Serving on " + InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.port()
+				+ " with " + server.threads.name().toLowerCase() + " threads");
+		server.acceptor.join();
+	}
+}
@@ -0,0 +1,365 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+
+/**
+ * Splits an arithmetic expression into tokens by scanning its characters in
+ * place, without building an intermediate array or queue of Strings.
+ *
+ * The tokenizer reads either directly from a CharSequence (e.g. a String,
+ * StringBuilder or CharBuffer) or incrementally from a Reader through a small
+ * internal buffer, so very large expressions never have to be held in memory
+ * as a second copy.
+ *
+ * After each successful call to next(), the current token is described by
+ * its offsets start() and end(). Operators are handed out as the interned
+ * constants PLUS, MINUS and TIMES; a String is only created for a variable or
+ * numeric token when token() is called.
+ *
+ * Usage:
+ * 		ExpressionTokenizer tokens = new ExpressionTokenizer("+ 2\t15");
+ * 		while (tokens.next())
+ * 			System.out.println(tokens.token());
+ */
+public class ExpressionTokenizer
+{
+	// operator tokens, shared by every tree built from a tokenizer
+	public static final String PLUS = "+";
+	public static final String MINUS = "-";
+	public static final String TIMES = "*";
+
+	// initial size of the buffer used when reading from a Reader
+	private static final int BUFFER_SIZE = 8192;
+
+	// source when scanning a CharSequence (null when reading from a Reader)
+	private final CharSequence text;
+	// source when reading from a Reader (null when scanning a CharSequence)
+	private final Reader reader;
+	// true if tokens are separated by exactly one space each (String.split(" ") rules)
+	private final boolean singleSpaces;
+
+	// characters read from the reader; buffer[0] is at offset bufferOffset in the stream
+	private char[] buffer;
+	private int bufferLimit;
+	private long bufferOffset;
+	private boolean endOfInput;
+
+	// index (into text or buffer) of the next character to scan
+	private int position;
+	// index (into text or buffer) of the current token
+	private int tokenStart;
+	private int tokenEnd;
+	// index of the next non-space character, used to avoid rescanning runs of spaces
+	private int nextNonSpace = -1;
+	private boolean started;
+
+	/**
+	 * Creates a tokenizer over a CharSequence where tokens are separated by
+	 * any run of whitespace (spaces, tabs or line breaks)
+	 *
+	 * @param text - an arithmetic expression
+	 */
+	public ExpressionTokenizer(CharSequence text)
+	{
+		this(text, false);
+	}
+
+	/**
+	 * Creates a tokenizer that reads characters from a Reader as they are needed,
+	 * where tokens are separated by any run of whitespace (spaces, tabs or line breaks)
+	 *
+	 * @param reader - a source of an arithmetic expression
+	 */
+	public ExpressionTokenizer(Reader reader)
+	{
+		if (reader == null)
+			throw new IllegalArgumentException("Reader was null");
+		this.text = null;
+		this.reader = reader;
+		this.singleSpaces = false;
+		this.buffer = new char[BUFFER_SIZE];
+	}
+
+	private ExpressionTokenizer(CharSequence text, boolean singleSpaces)
+	{
+		if (text == null)
+			throw new IllegalArgumentException("Expression was null");
+		this.text = text;
+		this.reader = null;
+		this.singleSpaces = singleSpaces;
+	}
+
+	/**
+	 * Creates a tokenizer over a CharSequence that produces exactly the same tokens
+	 * as text.toString().split(" "), i.e. every single space is a separator (so two
+	 * adjacent spaces delimit an empty token) and trailing empty tokens are dropped
+	 *
+	 * @param text - an arithmetic expression
+	 * @return a tokenizer using single space separators
+	 */
+	public static ExpressionTokenizer splitOnSpaces(CharSequence text)
+	{
+		return new ExpressionTokenizer(text, true);
+	}
+
+	/**
+	 * Advances to the next token
+	 *
+	 * @return true if there was another token, false if the input has been used up
+	 * @throws UncheckedIOException
+	 * 				if the underlying Reader fails
+	 */
+	public boolean next()
+	{
+		if (reader != null)
+			return nextFromReader();
+		if (singleSpaces)
+			return nextSingleSpaces();
+
+		int length = text.length();
+		while (position < length && isWhitespace(text.charAt(position)))
+		{
+			position++;
+		}
+		if (position == length)
+			return false;
+
+		tokenStart = position;
+		while (position < length && !isWhitespace(text.charAt(position)))
+		{
+			position++;
+		}
+		tokenEnd = position;
+		return true;
+	}
+
+	/**
+	 * Helper method used by:
+	 * 		- next()
+	 *
+	 * Finds the next token following the rules of String.split(" ")
+	 *
+	 * @return true if there was another token, false otherwise
+	 */
+	private boolean nextSingleSpaces()
+	{
+		int length = text.length();
+		// an empty expression is a single empty token
+		if (!started)
+		{
+			started = true;
+			if (length == 0)
+			{
+				tokenStart = 0;
+				tokenEnd = 0;
+				position = 1;
+				return true;
+			}
+		}
+		if (position > length)
+			return false;
+
+		int end = position;
+		while (end < length && text.charAt(end) != ' ')
+		{
+			end++;
+		}
+		// an empty token only counts if a non-empty token comes after it
+		if (end == position)
+		{
+			if (nextNonSpace < position)
+			{
+				nextNonSpace = position;
+				while (nextNonSpace < length && text.charAt(nextNonSpace) == ' ')
+				{
+					nextNonSpace++;
+				}
+			}
+			if (nextNonSpace == length)
+			{
+				position = length + 1;
+				return false;
+			}
+		}
+		tokenStart = position;
+		tokenEnd = end;
+		position = end + 1;
+		return true;
+	}
+
+	/**
+	 * Helper method used by:
+	 * 		- next()
+	 *
+	 * Finds the next whitespace separated token in the reader, refilling the
+	 * buffer as needed. A token is always kept whole in the buffer, which
+	 * grows if a single token is longer than the buffer.
+	 *
+	 * @return true if there was another token, false otherwise
+	 */
+	private boolean nextFromReader()
+	{
+		// skip whitespace, discarding it from the buffer as we go
+		while (true)
+		{
+			while (position < bufferLimit && isWhitespace(buffer[position]))
+			{
+				position++;
+			}
+			if (position < bufferLimit)
+				break;
+			if (!fill(position))
+				return false;
+		}
+
+		// scan the token, keeping it in the buffer if more input must be read
+		int scan = position;
+		while (true)
+		{
+			while (scan < bufferLimit && !isWhitespace(buffer[scan]))
+			{
+				scan++;
+			}
+			if (scan < bufferLimit)
+				break;
+			int keep = position;
+			boolean more = fill(keep);
+			scan -= keep - position;		// the token may have moved to the start of the buffer
+			if (!more)
+				break;
+		}
+		tokenStart = position;
+		tokenEnd = scan;
+		position = scan;
+		return true;
+	}
+
+	/**
+	 * Helper method used by:
+	 * 		- nextFromReader()
+	 *
+	 * Discards characters before keep from the buffer and reads more characters
+	 * from the reader after those still in use. Afterwards position is 0 if it
+	 * was at keep.
+	 *
+	 * @param keep - index of the first character that must stay in the buffer
+	 * @return true if any characters were read, false at the end of the input
+	 */
+	private boolean fill(int keep)
+	{
+		if (endOfInput)
+			return false;
+
+		int remaining = bufferLimit - keep;
+		if (keep > 0)
+		{
+			System.arraycopy(buffer, keep, buffer, 0, remaining);
+			bufferOffset += keep;
+			position -= keep;
+			bufferLimit = remaining;
+		}
+		else if (remaining == buffer.length)
+		{
+			char[] larger = new char[buffer.length * 2];
+			System.arraycopy(buffer, 0, larger, 0, remaining);
+			buffer = larger;
+		}
+
+		try
+		{
+			int read = reader.read(buffer, bufferLimit, buffer.length - bufferLimit);
+			while (read == 0)
+			{
+				read = reader.read(buffer, bufferLimit, buffer.length - bufferLimit);
+			}
+			if (read < 0)
+			{
+				endOfInput = true;
+				return false;
+			}
+			bufferLimit += read;
+			return true;
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return offset of the first character of the current token in the input
+	 */
+	public long start()
+	{
+		return (reader == null) ? tokenStart : bufferOffset + tokenStart;
+	}
+
+	/**
+	 * @return offset just after the last character of the current token in the input
+	 */
+	public long end()
+	{
+		return (reader == null) ? tokenEnd : bufferOffset + tokenEnd;
+	}
+
+	/**
+	 * @return number of characters in the current token
+	 */
+	public int length()
+	{
+		return tokenEnd - tokenStart;
+	}
+
+	/**
+	 * @param index - index of a character within the current token
+	 * @return the character at that index of the current token
+	 */
+	public char charAt(int index)
+	{
+		return (reader == null) ? text.charAt(tokenStart + index) : buffer[tokenStart + index];
+	}
+
+	/**
+	 * Classifies the current token without creating a String
+	 *
+	 * @return PLUS, MINUS or TIMES if the current token is that operator, null otherwise
+	 */
+	public String operator()
+	{
+		if (tokenEnd - tokenStart != 1)
+			return null;
+		switch (charAt(0))
+		{
+			case '+':
+				return PLUS;
+			case '-':
+				return MINUS;
+			case '*':
+				return TIMES;
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * @return the current token, as one of the operator constants or as a new String
+	 */
+	public String token()
+	{
+		String operator = operator();
+		if (operator != null)
+			return operator;
+		if (reader == null)
+			return text.subSequence(tokenStart, tokenEnd).toString();
+		return new String(buffer, tokenStart, tokenEnd - tokenStart);
+	}
+
+	/**
+	 * @param c - any character
+	 * @return true if c separates tokens (space, tab or line break)
+	 */
+	private static boolean isWhitespace(char c)
+	{
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+	}
+}
@@ -0,0 +1,511 @@
+import java.util.ArrayDeque;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+/**
+ * A LinkedBinaryTree<String> for arithmetic expressions, whose positions
+ * classify their element once, when it is stored, as an operator, an integer
+ * or a variable (and cache the value of an integer).
+ *
+ * Trees built by Assignment.prefix2tree are ExpressionTrees, so operations
+ * visiting their positions never need to compare operator strings or parse
+ * integers again. Positions of any other LinkedBinaryTree<String> can still
+ * be classified through kindOf and integerValue, which fall back to
+ * examining the element (without relying on exceptions).
+ *
+ * An ExpressionTree also keeps count of its positions which break the
+ * structure of an arithmetic expression (an operator without two children,
+ * or an operand with any child), updating the count on every change made
+ * through its methods, so whether it represents an arithmetic expression is
+ * known in O(1) time (see isArithmeticExpression()).
+ *
+ * Once Assignment.simplify has simplified an ExpressionTree, the tree
+ * remembers the positions whose element is set afterwards (by substitute,
+ * for instance), until a position is added or removed. The next simplify
+ * then only needs to visit the paths from those positions to the root.
+ */
+public class ExpressionTree extends LinkedBinaryTree<String>
+{
+	/**
+	 * The kinds of element a position of an arithmetic expression can hold
+	 */
+	public enum Kind
+	{
+		ADD, SUBTRACT, MULTIPLY, INTEGER, VARIABLE;
+
+		/**
+		 * @return true if this is one of the binary operators +, - or *
+		 */
+		public boolean isOperator()
+		{
+			return this == ADD || this == SUBTRACT || this == MULTIPLY;
+		}
+	}
+
+	/**
+	 * A position which classifies its element whenever the element is set
+	 */
+	protected static class ExpressionNode extends Node<String>
+	{
+		private Kind kind;
+		private int value;		// value of an INTEGER element
+
+		public ExpressionNode(String element, Node<String> parent, Node<String> left, Node<String> right)
+		{
+			super(element, parent, left, right);
+			classify(element);
+		}
+
+		private ExpressionNode(String element, Kind kind, int value, Node<String> parent, Node<String> left, Node<String> right)
+		{
+			super(element, parent, left, right);
+			this.kind = kind;
+			this.value = value;
+		}
+
+		@Override
+		public void setElement(String element)
+		{
+			super.setElement(element);
+			classify(element);
+		}
+
+		/**
+		 * Sets the element to an integer whose value is already known, so it
+		 * does not have to be parsed again
+		 *
+		 * @param value - the new value of the position
+		 */
+		public void setInteger(int value)
+		{
+			super.setElement(Integer.toString(value));
+			this.kind = Kind.INTEGER;
+			this.value = value;
+		}
+
+		private void classify(String element)
+		{
+			kind = ExpressionTree.classify(element);
+			value = (kind == Kind.INTEGER) ? Integer.parseInt(element) : 0;
+		}
+	}
+
+	// number of positions which break the structure of an arithmetic expression
+	private int invalid;
+
+	// mode of the last simplify, or null if positions have been added or removed since
+	private NumericMode simplified;
+	// positions whose element has been set since the last simplify, each
+	// once however often it is set, so there are never more than size()
+	private LinkedHashSet<Position<String>> changed;
+
+	// number of times positions have been removed from the tree, or moved out of it by attach
+	private int removals;
+
+	// kind and value of the element of the position addNext is adding
+	private Kind nextKind;
+	private int nextValue;
+
+	/**
+	 * Creates an empty expression tree
+	 */
+	public ExpressionTree()
+	{
+		super();
+	}
+
+	/**
+	 * Equivalent to Assignment.isArithmeticExpression(this), but runs in O(1)
+	 * time as the positions breaking the structure are counted as the tree changes
+	 *
+	 * @return true if the tree is not empty and it obeys the structure of an
+	 *              arithmetic expression. Otherwise, it returns false
+	 */
+	public boolean isArithmeticExpression()
+	{
+		return root() != null && invalid == 0;
+	}
+
+	/**
+	 * Records that the tree has just been simplified in the given mode, so
+	 * changes of element from now on are remembered
+	 *
+	 * @param mode - the arithmetic the tree was simplified with
+	 */
+	public void markSimplified(NumericMode mode)
+	{
+		simplified = mode;
+		changed = new LinkedHashSet<Position<String>>();
+	}
+
+	/**
+	 * @param mode - an arithmetic of simplify
+	 * @return true if the tree was simplified in the given mode and no
+	 *         position has been added or removed since
+	 */
+	public boolean isSimplified(NumericMode mode)
+	{
+		return mode != null && simplified == mode;
+	}
+
+	/**
+	 * @return the positions whose element has been set since the tree was
+	 *         simplified, in the order they were first set, or null if the
+	 *         tree is not simplified
+	 */
+	public Set<Position<String>> changedSinceSimplified()
+	{
+		return changed;
+	}
+
+	/**
+	 * Helper method used by:
+	 * 		- SymbolIndex.substitute, to check in O(1) time that no position
+	 * 		  it refers to can have been removed since it last looked
+	 *
+	 * @return the number of times positions have been removed from the tree
+	 */
+	int removals()
+	{
+		return removals;
+	}
+
+	// the element of p has been set
+	private void changed(Position<String> p)
+	{
+		if (changed != null)
+			changed.add(p);
+	}
+
+	// a position has been added or removed, so the tree may need simplifying anywhere
+	private void restructured()
+	{
+		simplified = null;
+		changed = null;
+	}
+
+	/**
+	 * @param p - a position in this tree (or null)
+	 * @return 1 if p is an operator without two children or an operand with any
+	 *         child, 0 otherwise
+	 */
+	private int invalid(Position<String> p)
+	{
+		return (p == null) ? 0 : invalid(this, p);
+	}
+
+	private static int invalid(LinkedBinaryTree<String> tree, Position<String> p)
+	{
+		boolean leaf = tree.left(p) == null && tree.right(p) == null;
+		boolean proper = tree.left(p) != null && tree.right(p) != null;
+		return (kindOf(p).isOperator() ? proper : leaf) ? 0 : 1;
+	}
+
+	/**
+	 * @param tree - any tree of the LinkedBinaryTree class
+	 * @return the number of positions of tree which break the structure of an
+	 *         arithmetic expression, counted without recursion
+	 */
+	private static int countInvalid(LinkedBinaryTree<String> tree)
+	{
+		if (tree instanceof ExpressionTree)
+			return ((ExpressionTree) tree).invalid;
+
+		int count = 0;
+		ArrayDeque<Position<String>> stack = new ArrayDeque<Position<String>>();
+		if (tree.root() != null)
+			stack.push(tree.root());
+		while (!stack.isEmpty())
+		{
+			Position<String> p = stack.pop();
+			count += invalid(tree, p);
+			if (tree.left(p) != null)
+				stack.push(tree.left(p));
+			if (tree.right(p) != null)
+				stack.push(tree.right(p));
+		}
+		return count;
+	}
+
+	@Override
+	public Position<String> addRoot(String e)
+	{
+		Position<String> root = super.addRoot(e);
+		invalid += invalid(root);
+		restructured();
+		return root;
+	}
+
+	@Override
+	public Position<String> addLeft(Position<String> p, String e)
+	{
+		int before = invalid(p);
+		Position<String> child = super.addLeft(p, e);
+		invalid += invalid(p) + invalid(child) - before;
+		restructured();
+		return child;
+	}
+
+	@Override
+	public Position<String> addRight(Position<String> p, String e)
+	{
+		int before = invalid(p);
+		Position<String> child = super.addRight(p, e);
+		invalid += invalid(p) + invalid(child) - before;
+		restructured();
+		return child;
+	}
+
+	/**
+	 * Adds the next position of an expression being built in prefix order: the
+	 * root if parent is null, otherwise the left child of parent if it has
+	 * none, or else its right child. The kind and value of the element are
+	 * already known, so it is not classified again.
+	 *
+	 * Helper method used by:
+	 * 		- ExpressionCodec.decode, which adds two children to every operator
+	 * 		  and none to any operand, so the tree is a valid expression once it
+	 * 		  is complete and the bookkeeping of addLeft and addRight is skipped
+	 *
+	 * @param parent - an operator position with at most one child, or null
+	 * @param e - the element of the new position
+	 * @param kind - the kind of e, i.e. classify(e)
+	 * @param value - the value of e if it is an INTEGER
+	 * @return the new position
+	 */
+	Position<String> addNext(Position<String> parent, String e, Kind kind, int value)
+	{
+		nextKind = kind;
+		nextValue = value;
+		try
+		{
+			if (parent == null)
+				return super.addRoot(e);
+			return (((Node<String>) parent).getLeft() == null) ? super.addLeft(parent, e) : super.addRight(parent, e);
+		}
+		finally
+		{
+			nextKind = null;
+		}
+	}
+
+	@Override
+	public String set(Position<String> p, String e)
+	{
+		int before = invalid(p);
+		String old = super.set(p, e);
+		invalid += invalid(p) - before;
+		changed(p);
+		return old;
+	}
+
+	@Override
+	public String remove(Position<String> p)
+	{
+		Position<String> parent = parent(p);
+		int before = invalid(p) + invalid(parent);
+		String old = super.remove(p);
+		invalid += invalid(parent) - before;
+		removals++;
+		restructured();
+		return old;
+	}
+
+	@Override
+	public void attach(Position<String> p, LinkedBinaryTree<String> t1, LinkedBinaryTree<String> t2)
+	{
+		int before = invalid(p);
+		int attached = countInvalid(t1) + countInvalid(t2);
+		super.attach(p, t1, t2);
+		invalid += invalid(p) + attached - before;
+		restructured();
+		// t1 and t2 are left empty
+		if (t1 instanceof ExpressionTree)
+		{
+			((ExpressionTree) t1).invalid = 0;
+			((ExpressionTree) t1).removals++;
+			((ExpressionTree) t1).restructured();
+		}
+		if (t2 instanceof ExpressionTree)
+		{
+			((ExpressionTree) t2).invalid = 0;
+			((ExpressionTree) t2).removals++;
+			((ExpressionTree) t2).restructured();
+		}
+	}
+
+	@Override
+	protected Node<String> createNode(String element, Node<String> parent, Node<String> left, Node<String> right)
+	{
+		if (nextKind != null)
+			return new ExpressionNode(element, nextKind, nextValue, parent, left, right);
+		return new ExpressionNode(element, parent, left, right);
+	}
+
+	/**
+	 * Makes a copy of any tree, with the same element in every position
+	 *
+	 * Performs a preorder traversal with an explicit stack, so it runs in O(n)
+	 * time regardless of the depth of the tree
+	 *
+	 * @param tree - any tree of the LinkedBinaryTree class
+	 * @return a new ExpressionTree with the same structure and elements
+	 */
+	public static ExpressionTree copyOf(LinkedBinaryTree<String> tree)
+	{
+		ExpressionTree copy = new ExpressionTree();
+		if (tree == null || tree.root() == null)
+			return copy;
+
+		// pairs of positions (one in each tree) whose children still need copying
+		ArrayDeque<Position<String>> sources = new ArrayDeque<Position<String>>();
+		ArrayDeque<Position<String>> targets = new ArrayDeque<Position<String>>();
+		sources.push(tree.root());
+		targets.push(copy.addRoot(tree.root().getElement()));
+		while (!sources.isEmpty())
+		{
+			Position<String> source = sources.pop();
+			Position<String> target = targets.pop();
+			Position<String> left = tree.left(source);
+			Position<String> right = tree.right(source);
+			if (right != null)
+			{
+				sources.push(right);
+				targets.push(copy.addRight(target, right.getElement()));
+			}
+			if (left != null)
+			{
+				sources.push(left);
+				targets.push(copy.addLeft(target, left.getElement()));
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * Replaces the element at a position with an integer, without converting
+	 * the integer to a String and parsing it again to classify it
+	 *
+	 * @param p - a position in this tree
+	 * @param value - the new value of the position
+	 */
+	public void setInteger(Position<String> p, int value)
+	{
+		Node<String> node = validate(p);
+		if (node instanceof ExpressionNode)
+		{
+			int before = invalid(p);
+			((ExpressionNode) node).setInteger(value);
+			invalid += invalid(p) - before;
+			changed(p);
+		}
+		else
+			set(p, Integer.toString(value));
+	}
+
+	/**
+	 * Replaces the element at a position of any tree with an integer, using
+	 * setInteger(Position, int) when the tree is an ExpressionTree
+	 *
+	 * @param tree - any tree of the LinkedBinaryTree class
+	 * @param p - a position in the tree
+	 * @param value - the new value of the position
+	 */
+	public static void setInteger(LinkedBinaryTree<String> tree, Position<String> p, int value)
+	{
+		if (tree instanceof ExpressionTree)
+			((ExpressionTree) tree).setInteger(p, value);
+		else
+			tree.set(p, Integer.toString(value));
+	}
+
+	/**
+	 * @param p - a position in any LinkedBinaryTree<String>
+	 * @return the kind of element held by the position
+	 */
+	public static Kind kindOf(Position<String> p)
+	{
+		if (p instanceof ExpressionNode)
+			return ((ExpressionNode) p).kind;
+		if (p instanceof ImmutableExpressionTree.ImmutableNode)
+			return ((ImmutableExpressionTree.ImmutableNode) p).kind;
+		return classify(p.getElement());
+	}
+
+	/**
+	 * @param p - a position holding an integer (i.e. kindOf(p) == Kind.INTEGER)
+	 * @return the value of the integer
+	 */
+	public static int integerValue(Position<String> p)
+	{
+		if (p instanceof ExpressionNode)
+			return ((ExpressionNode) p).value;
+		if (p instanceof ImmutableExpressionTree.ImmutableNode)
+			return ((ImmutableExpressionTree.ImmutableNode) p).value;
+		return Integer.parseInt(p.getElement());
+	}
+
+	/**
+	 * @param s - any String
+	 * @return true if s is one or more of the digits 0 to 9, as
+	 *         s.matches("[0-9]+") would decide, without a regular expression
+	 */
+	public static boolean isDigits(String s)
+	{
+		if (s.isEmpty())
+			return false;
+		for (int i = 0; i < s.length(); i++)
+		{
+			if (s.charAt(i) < '0' || s.charAt(i) > '9')
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Classifies an element. An element is an INTEGER exactly when
+	 * Integer.parseInt would accept it, but no exception is used to find out.
+	 *
+	 * @param element - an element of a position (possibly null)
+	 * @return the kind of the element
+	 */
+	public static Kind classify(String element)
+	{
+		if (element == null || element.isEmpty())
+			return Kind.VARIABLE;
+
+		int length = element.length();
+		char first = element.charAt(0);
+		if (length == 1)
+		{
+			switch (first)
+			{
+				case '+':
+					return Kind.ADD;
+				case '-':
+					return Kind.SUBTRACT;
+				case '*':
+					return Kind.MULTIPLY;
+			}
+		}
+
+		// optional sign followed by at least one digit, within the range of an int
+		boolean negative = (first == '-');
+		int i = (first == '-' || first == '+') ? 1 : 0;
+		long limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+		long magnitude = 0;
+		for (; i < length; i++)
+		{
+			int digit = Character.digit(element.charAt(i), 10);
+			if (digit < 0)
+				return Kind.VARIABLE;
+			magnitude = magnitude * 10 + digit;
+			if (magnitude > limit)
+				return Kind.VARIABLE;
+		}
+		return Kind.INTEGER;
+	}
+}
@@ -0,0 +1,382 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+/**
+ * Writes a tree representing an arithmetic expression in prefix or infix
+ * notation (exactly as Assignment.tree2prefix and tree2infix format it)
+ * straight into an Appendable (a StringBuilder, Writer, CharBuffer ...), an
+ * ASCII encoded ByteBuffer or a WritableByteChannel.
+ *
+ * The traversals use an explicit stack, so deep trees cannot overflow the
+ * thread stack, and append each element and separator directly: no String
+ * is created per position and the output is never copied as a whole.
+ * prefixLength and infixLength give the exact length of the output, so a
+ * buffer can be allocated at its final size before writing.
+ *
+ * Characters outside ASCII are written to ByteBuffers and channels as '?',
+ * as String.getBytes(StandardCharsets.US_ASCII) would encode them.
+ */
+public class ExpressionWriter
+{
+	// size of the buffer used to write to a channel
+	private static final int CHANNEL_BUFFER = 8192;
+
+	// marks where an infix subtree ends on the stack of writeInfix
+	private static final Object CLOSE = new Object();
+
+	/**
+	 * @param tree - a tree representing an arithmetic expression
+	 * @return the number of characters in the prefix notation of the tree
+	 * @throws IllegalArgumentException
+	 * 				if tree was not a valid expression
+	 */
+	public static long prefixLength(LinkedBinaryTree<String> tree) throws IllegalArgumentException
+	{
+		validate(tree);
+		// the elements, separated by single spaces
+		return elementsLength(tree) + tree.size() - 1;
+	}
+
+	/**
+	 * @param tree - a tree representing an arithmetic expression
+	 * @return the number of characters in the infix notation of the tree
+	 * @throws IllegalArgumentException
+	 * 				if tree was not a valid expression
+	 */
+	public static long infixLength(LinkedBinaryTree<String> tree) throws IllegalArgumentException
+	{
+		validate(tree);
+		// the elements, with a pair of parentheses around each of the size / 2 operators
+		return elementsLength(tree) + (tree.size() / 2) * 2;
+	}
+
+	/**
+	 * @return the prefix notation of the tree, built in a StringBuilder of
+	 *         exactly the right size
+	 * @throws IllegalArgumentException
+	 * 				if tree was not a valid expression, or the output would be
+	 * 				longer than a String can be
+	 */
+	public static String prefix(LinkedBinaryTree<String> tree) throws IllegalArgumentException
+	{
+		StringBuilder expression = new StringBuilder(capacity(prefixLength(tree)));
+		try
+		{
+			appendPrefix(tree, expression);
+		}
+		catch (IOException e)
+		{
+			// a StringBuilder does not throw IOException
+			throw new UncheckedIOException(e);
+		}
+		return expression.toString();
+	}
+
+	/**
+	 * @return the infix notation of the tree, built in a StringBuilder of
+	 *         exactly the right size
+	 * @throws IllegalArgumentException
+	 * 				if tree was not a valid expression, or the output would be
+	 * 				longer than a String can be
+	 */
+	public static String infix(LinkedBinaryTree<String> tree) throws IllegalArgumentException
+	{
+		StringBuilder expression = new StringBuilder(capacity(infixLength(tree)));
+		try
+		{
+			appendInfix(tree, expression);
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+		return expression.toString();
+	}
+
+	/**
+	 * Appends the prefix notation of a tree
+	 *
+	 * @param tree - a tree representing an arithmetic expression
+	 * @param out - where to append the expression
+	 * @throws IOException
+	 * 				if out throws IOException
+	 * @throws IllegalArgumentException
+	 * 				if tree was not a valid expression
+	 */
+	public static void writePrefix(LinkedBinaryTree<String> tree, Appendable out) throws IOException, IllegalArgumentException
+	{
+		validate(tree);
+		appendPrefix(tree, out);
+	}
+
+	private static void appendPrefix(LinkedBinaryTree<String> tree, Appendable out) throws IOException
+	{
+		// preorder traversal, keeping the right subtrees still to be written
+		ArrayDeque<Position<String>> stack = new ArrayDeque<Position<String>>();
+		Position<String> p = tree.root();
+		out.append(p.getElement());
+		while (true)
+		{
+			if (tree.left(p) != null)
+			{
+				stack.push(tree.right(p));
+				p = tree.left(p);
+			}
+			else if (!stack.isEmpty())
+			{
+				p = stack.pop();
+			}
+			else
+			{
+				return;
+			}
+			out.append(' ');
+			out.append(p.getElement());
+		}
+	}
+
+	/**
+	 * Appends the infix notation of a tree
+	 *
+	 * @param tree - a tree representing an arithmetic expression
+	 * @param out - where to append the expression
+	 * @throws IOException
+	 * 				if out throws IOException
+	 * @throws IllegalArgumentException
+	 * 				if tree was not a valid expression
+	 */
+	public static void writeInfix(LinkedBinaryTree<String> tree, Appendable out) throws IOException, IllegalArgumentException
+	{
+		validate(tree);
+		appendInfix(tree, out);
+	}
+
+	private static void appendInfix(LinkedBinaryTree<String> tree, Appendable out) throws IOException
+	{
+		// inorder traversal, keeping the operators whose element and right subtree
+		// are still to be written, and CLOSE where a right subtree ends
+		ArrayDeque<Object> stack = new ArrayDeque<Object>();
+		Position<String> p = tree.root();
+		while (true)
+		{
+			while (tree.left(p) != null)
+			{
+				out.append('(');
+				stack.push(p);
+				p = tree.left(p);
+			}
+			out.append(p.getElement());
+
+			p = null;
+			while (p == null)
+			{
+				if (stack.isEmpty())
+					return;
+				Object top = stack.pop();
+				if (top == CLOSE)
+				{
+					out.append(')');
+					continue;
+				}
+				Position<String> operator = position(top);
+				out.append(operator.getElement());
+				stack.push(CLOSE);
+				p = tree.right(operator);
+			}
+		}
+	}
+
+	/**
+	 * Writes the prefix notation of a tree into a buffer, encoded as ASCII
+	 *
+	 * @param tree - a tree representing an arithmetic expression
+	 * @param buffer - where to write the expression, from its position
+	 * @throws BufferOverflowException
+	 * 				if buffer has fewer than prefixLength(tree) bytes remaining
+	 * @throws IllegalArgumentException
+	 * 				if tree was not a valid expression
+	 */
+	public static void writePrefix(LinkedBinaryTree<String> tree, ByteBuffer buffer)
+			throws BufferOverflowException, IllegalArgumentException
+	{
+		try
+		{
+			writePrefix(tree, new AsciiAppendable(buffer, null));
+		}
+		catch (IOException e)
+		{
+			// only thrown when writing to a channel
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Writes the infix notation of a tree into a buffer, encoded as ASCII
+	 *
+	 * @param tree - a tree representing an arithmetic expression
+	 * @param buffer - where to write the expression, from its position
+	 * @throws BufferOverflowException
+	 * 				if buffer has fewer than infixLength(tree) bytes remaining
+	 * @throws IllegalArgumentException
+	 * 				if tree was not a valid expression
+	 */
+	public static void writeInfix(LinkedBinaryTree<String> tree, ByteBuffer buffer)
+			throws BufferOverflowException, IllegalArgumentException
+	{
+		try
+		{
+			writeInfix(tree, new AsciiAppendable(buffer, null));
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Writes the prefix notation of a tree to a channel, encoded as ASCII,
+	 * through a small buffer
+	 *
+	 * @param tree - a tree representing an arithmetic expression
+	 * @param channel - where to write the expression
+	 * @throws IOException
+	 * 				if the channel could not be written to
+	 * @throws IllegalArgumentException
+	 * 				if tree was not a valid expression
+	 */
+	public static void writePrefix(LinkedBinaryTree<String> tree, WritableByteChannel channel)
+			throws IOException, IllegalArgumentException
+	{
+		AsciiAppendable out = new AsciiAppendable(ByteBuffer.allocateDirect(CHANNEL_BUFFER), channel);
+		writePrefix(tree, out);
+		out.flush();
+	}
+
+	/**
+	 * Writes the infix notation of a tree to a channel, encoded as ASCII,
+	 * through a small buffer
+	 *
+	 * @param tree - a tree representing an arithmetic expression
+	 * @param channel - where to write the expression
+	 * @throws IOException
+	 * 				if the channel could not be written to
+	 * @throws IllegalArgumentException
+	 * 				if tree was not a valid expression
+	 */
+	public static void writeInfix(LinkedBinaryTree<String> tree, WritableByteChannel channel)
+			throws IOException, IllegalArgumentException
+	{
+		AsciiAppendable out = new AsciiAppendable(ByteBuffer.allocateDirect(CHANNEL_BUFFER), channel);
+		writeInfix(tree, out);
+		out.flush();
+	}
+
+	/**
+	 * Encodes characters as ASCII into a ByteBuffer, writing the buffer to a
+	 * channel (if there is one) whenever it fills up
+	 */
+	private static final class AsciiAppendable implements Appendable
+	{
+		private final ByteBuffer buffer;
+		private final WritableByteChannel channel;
+
+		AsciiAppendable(ByteBuffer buffer, WritableByteChannel channel)
+		{
+			this.buffer = buffer;
+			this.channel = channel;
+		}
+
+		@Override
+		public Appendable append(CharSequence csq) throws IOException
+		{
+			if (csq == null)
+				csq = "null";
+			return append(csq, 0, csq.length());
+		}
+
+		@Override
+		public Appendable append(CharSequence csq, int start, int end) throws IOException
+		{
+			if (csq == null)
+				csq = "null";
+			for (int i = start; i < end; i++)
+			{
+				append(csq.charAt(i));
+			}
+			return this;
+		}
+
+		@Override
+		public Appendable append(char c) throws IOException
+		{
+			if (channel != null && !buffer.hasRemaining())
+				drain();
+			buffer.put((c < 0x80) ? (byte) c : (byte) '?');
+			return this;
+		}
+
+		// write the bytes in the buffer to the channel
+		private void drain() throws IOException
+		{
+			buffer.flip();
+			while (buffer.hasRemaining())
+			{
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		void flush() throws IOException
+		{
+			drain();
+		}
+	}
+
+	/**
+	 * @return the total length of the elements of a tree ("null" for a null element)
+	 */
+	private static long elementsLength(LinkedBinaryTree<String> tree)
+	{
+		long length = 0;
+		ArrayDeque<Position<String>> stack = new ArrayDeque<Position<String>>();
+		stack.push(tree.root());
+		while (!stack.isEmpty())
+		{
+			Position<String> p = stack.pop();
+			String element = p.getElement();
+			length += (element == null) ? 4 : element.length();
+			if (tree.left(p) != null)
+			{
+				stack.push(tree.right(p));
+				stack.push(tree.left(p));
+			}
+		}
+		return length;
+	}
+
+	private static int capacity(long length)
+	{
+		if (length > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Expression is too long for a String: " + length + " characters");
+		return (int) length;
+	}
+
+	private static void validate(LinkedBinaryTree<String> tree)
+	{
+		if (!Assignment.isArithmeticExpression(tree))
+			throw new IllegalArgumentException("Tree does not represent arithmetic expression");
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Position<String> position(Object entry)
+	{
+		return (Position<String>) entry;
+	}
+}
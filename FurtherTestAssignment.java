@@ -7,6 +7,7 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import textbook.LinkedBinaryTree;
+import textbook.Position;
 
 public class FurtherTestAssignment 
 {
@@ -614,6 +615,105 @@ public class FurtherTestAssignment
 		assertEquals(expression, result);
 	}
 
+	// parse a right leaning chain of 10^6 tokens ("+ a + a ... + a a") without a larger thread stack
+	@Test (timeout = 5000)
+	public void testPrefix2treeDeepChain()
+	{
+		int operators = 500000;
+		StringBuilder expression = new StringBuilder();
+		for (int i = 0; i < operators; i++)
+		{
+			expression.append("+ a ");
+		}
+		expression.append("a");
+		
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree(expression.toString());
+		assertEquals(2 * operators + 1, tree.size());
+		// walk down the right spine checking every operator and its left operand
+		Position<String> position = tree.root();
+		for (int i = 0; i < operators; i++)
+		{
+			assertEquals("+", position.getElement());
+			assertEquals("a", tree.left(position).getElement());
+			position = tree.right(position);
+		}
+		assertEquals("a", position.getElement());
+		assertTrue(tree.isExternal(position));
+		
+		// a chain missing its last operand is still rejected
+		thrown.expect(IllegalArgumentException.class);
+		Assignment.prefix2tree(expression.substring(0, expression.length() - 2));
+	}
+
+	// (x - x) compares the structure of the subtrees, not their concatenated elements
+	@Test (timeout = 100)
+	public void testSimplifyFancySubtraction()
+	{
+		LinkedBinaryTree<String> tree;
+
+		// a + bc and ab + c have the same elements in prefix order
+		tree = Assignment.simplifyFancy(Assignment.prefix2tree("- + a bc + ab c"));
+		assertEquals("- + a bc + ab c", Assignment.tree2prefix(tree));
+		tree = Assignment.simplifyFancy(Assignment.prefix2tree("- - a b - a c"));
+		assertEquals("- - a b - a c", Assignment.tree2prefix(tree));
+		tree = Assignment.simplifyFancy(Assignment.prefix2tree("- * x y * y x"));
+		assertEquals("- * x y * y x", Assignment.tree2prefix(tree));
+
+		tree = Assignment.simplifyFancy(Assignment.prefix2tree("- * x y * x y"));
+		assertEquals("0", Assignment.tree2prefix(tree));
+		// equal once simplified: (x + 0) - x and (2 * x) - (* * 1 2 x)
+		tree = Assignment.simplifyFancy(Assignment.prefix2tree("- + x 0 x"));
+		assertEquals("0", Assignment.tree2prefix(tree));
+		tree = Assignment.simplifyFancy(Assignment.prefix2tree("+ y - * 2 x * * 1 2 x"));
+		assertEquals("y", Assignment.tree2prefix(tree));
+		// nested: ((a - b) - (a - b)) - 0
+		tree = Assignment.simplifyFancy(Assignment.prefix2tree("- - - a b - a b - c c"));
+		assertEquals("0", Assignment.tree2prefix(tree));
+		assertEquals(1, tree.size());
+	}
+
+	// EXACT mode evaluates with long arithmetic, and BigInteger once a result overflows a long
+	@Test (timeout = 100)
+	public void testSimplifyExact()
+	{
+		LinkedBinaryTree<String> tree;
+
+		// int arithmetic wraps around, and longer literals are variables
+		tree = Assignment.simplify(Assignment.prefix2tree("* 99999 99999"));
+		assertEquals("1409865409", Assignment.tree2prefix(tree));
+		tree = Assignment.simplify(Assignment.prefix2tree("+ 99999999999 1"));
+		assertEquals("+ 99999999999 1", Assignment.tree2prefix(tree));
+
+		tree = Assignment.simplify(Assignment.prefix2tree("* 99999 99999"), NumericMode.EXACT);
+		assertEquals("9999800001", Assignment.tree2prefix(tree));
+		tree = Assignment.simplify(Assignment.prefix2tree("+ 1 * 99999 99999"), NumericMode.EXACT);
+		assertEquals("9999800002", Assignment.tree2prefix(tree));
+		tree = Assignment.simplify(Assignment.prefix2tree("* 2147483647 -2147483648"), NumericMode.EXACT);
+		assertEquals("-4611686016279904256", Assignment.tree2prefix(tree));
+		// overflowing a long
+		tree = Assignment.simplify(Assignment.prefix2tree("* 9223372036854775807 2"), NumericMode.EXACT);
+		assertEquals("18446744073709551614", Assignment.tree2prefix(tree));
+		tree = Assignment.simplify(Assignment.prefix2tree("- * 9223372036854775807 2 9223372036854775807"), NumericMode.EXACT);
+		assertEquals("9223372036854775807", Assignment.tree2prefix(tree));
+		// results back in the int range are integers again
+		tree = Assignment.simplify(Assignment.prefix2tree("- 99999999999999999999 99999999999999999998"), NumericMode.EXACT);
+		assertEquals("1", Assignment.tree2prefix(tree));
+		assertEquals(ExpressionTree.Kind.INTEGER, ExpressionTree.kindOf(tree.root()));
+		// variables are left alone
+		tree = Assignment.simplify(Assignment.prefix2tree("+ x * 99999999999 10"), NumericMode.EXACT);
+		assertEquals("+ x 999999999990", Assignment.tree2prefix(tree));
+
+		tree = Assignment.simplifyFancy(Assignment.prefix2tree("- * 99999 99999 9999800001"), NumericMode.EXACT);
+		assertEquals("0", Assignment.tree2prefix(tree));
+		tree = Assignment.simplifyFancy(Assignment.prefix2tree("* + x 0 99999999999"), NumericMode.EXACT);
+		assertEquals("* x 99999999999", Assignment.tree2prefix(tree));
+		tree = Assignment.simplifyFancy(Assignment.prefix2tree("- 99999999999 99999999999"), NumericMode.EXACT);
+		assertEquals("0", Assignment.tree2prefix(tree));
+
+		thrown.expect(IllegalArgumentException.class);
+		Assignment.simplify(Assignment.prefix2tree("+ 1 2"), null);
+	}
+
 	//Testing helper method to print tree elements and double check errors
 	public void printTree(LinkedBinaryTree<String> tree)
 	{
@@ -0,0 +1,626 @@
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+/**
+ * An immutable tree representing an arithmetic expression, which can be
+ * shared by any number of threads without locks or copies.
+ *
+ * Every field of the tree and of its positions is final, and no position is
+ * ever changed after it is made, so a tree is safely published however it
+ * reaches another thread (even through a plain field). Instead of changing
+ * the tree, simplify, simplifyFancy and substitute return a new tree, which
+ * shares with this one every subtree they leave unchanged: only the
+ * positions on the paths from the changed positions to the root are made
+ * again. An operation which changes nothing returns this tree itself.
+ *
+ * The rewriting operations behave exactly like the corresponding methods of
+ * Assignment (including NumericMode), but never recurse, so they are safe on
+ * very deep trees.
+ *
+ * A tree is checked to represent an arithmetic expression when it is made,
+ * so Assignment.isArithmeticExpression takes O(1) time on it. Read-only
+ * operations such as Assignment.tree2prefix, tree2infix, equals, compile,
+ * bind and index can be given the tree directly. Methods which modify a
+ * tree (set, addRoot, addLeft, addRight, remove and attach) throw
+ * UnsupportedOperationException, so Assignment.simplify and the other
+ * in-place operations must be given toTree() instead.
+ *
+ * Positions do not refer to their parent, as a shared position has a
+ * different parent in each tree, so parent and sibling throw
+ * UnsupportedOperationException too. Walk down from the root instead.
+ *
+ * Example:
+ * 		ImmutableExpressionTree formula = ImmutableExpressionTree.fromTree(Assignment.prefix2tree("+ * 2 x - y 0"));
+ * 		// from any thread, at the same time
+ * 		Assignment.tree2prefix(formula.substitute(values).simplify());
+ */
+public class ImmutableExpressionTree extends LinkedBinaryTree<String>
+{
+	/**
+	 * A position which never changes, classified once when it is made
+	 */
+	static final class ImmutableNode implements Position<String>
+	{
+		final String element;
+		final ExpressionTree.Kind kind;
+		final int value;			// value of an INTEGER element
+		final ImmutableNode left;
+		final ImmutableNode right;
+		final int size;				// positions in the subtree
+
+		private ImmutableNode(String element, ExpressionTree.Kind kind, int value, ImmutableNode left, ImmutableNode right)
+		{
+			this.element = element;
+			this.kind = kind;
+			this.value = value;
+			this.left = left;
+			this.right = right;
+			this.size = 1 + ((left == null) ? 0 : left.size) + ((right == null) ? 0 : right.size);
+		}
+
+		@Override
+		public String getElement()
+		{
+			return element;
+		}
+	}
+
+	/**
+	 * What to make of each position of a tree, visited in postorder
+	 */
+	private abstract static class Rewrite
+	{
+		/**
+		 * @param p - a position without children
+		 * @return the position to take its place
+		 */
+		abstract ImmutableNode leaf(Position<String> p);
+
+		/**
+		 * @param p - a position with two children
+		 * @param left - the position which has taken the place of its left child
+		 * @param right - the position which has taken the place of its right child
+		 * @return the position to take its place
+		 */
+		abstract ImmutableNode operator(Position<String> p, ImmutableNode left, ImmutableNode right);
+	}
+
+	private final ImmutableNode root;
+
+	private ImmutableExpressionTree(ImmutableNode root)
+	{
+		this.root = root;
+	}
+
+	/**
+	 * Makes an immutable copy of a tree
+	 *
+	 * This method runs in O(n) time (or O(1) if tree is already immutable)
+	 *
+	 * @param tree - a tree representing an arithmetic expression
+	 * @return an immutable tree with the same structure and elements
+	 * @throws IllegalArgumentException
+	 * 				if tree was not a valid expression
+	 */
+	public static ImmutableExpressionTree fromTree(LinkedBinaryTree<String> tree) throws IllegalArgumentException
+	{
+		if (tree instanceof ImmutableExpressionTree)
+			return (ImmutableExpressionTree) tree;
+		if (!Assignment.isArithmeticExpression(tree))
+			throw new IllegalArgumentException("Tree does not represent arithmetic expression");
+
+		return new ImmutableExpressionTree(rewrite(tree, new Rewrite()
+		{
+			@Override
+			ImmutableNode leaf(Position<String> p)
+			{
+				// positions of an ExpressionTree are already classified
+				ExpressionTree.Kind kind = ExpressionTree.kindOf(p);
+				int value = (kind == ExpressionTree.Kind.INTEGER) ? ExpressionTree.integerValue(p) : 0;
+				return new ImmutableNode(p.getElement(), kind, value, null, null);
+			}
+
+			@Override
+			ImmutableNode operator(Position<String> p, ImmutableNode left, ImmutableNode right)
+			{
+				return new ImmutableNode(p.getElement(), ExpressionTree.kindOf(p), 0, left, right);
+			}
+		}));
+	}
+
+	/**
+	 * Makes a modifiable copy of this tree
+	 *
+	 * This method runs in O(n) time
+	 *
+	 * @return a new tree with the same structure and elements
+	 */
+	public ExpressionTree toTree()
+	{
+		return ExpressionTree.copyOf(this);
+	}
+
+	/**
+	 * Simplifies the subtrees which can be evaluated to a single integer
+	 * value, as Assignment.simplify does
+	 *
+	 * This method runs in O(n) time
+	 *
+	 * @return a tree after evaluating as many of the subtrees as possible
+	 */
+	public ImmutableExpressionTree simplify()
+	{
+		return simplify(NumericMode.WRAPPING);
+	}
+
+	/**
+	 * Simplifies the subtrees which can be evaluated to a single integer
+	 * value, using the given arithmetic, as Assignment.simplify does
+	 *
+	 * This method runs in O(n) time
+	 *
+	 * @param mode - NumericMode.WRAPPING for int arithmetic (as simplify()),
+	 * 				or NumericMode.EXACT for exact results of any size
+	 * @return a tree after evaluating as many of the subtrees as possible
+	 * @throws IllegalArgumentException
+	 * 				if mode is null
+	 */
+	public ImmutableExpressionTree simplify(final NumericMode mode) throws IllegalArgumentException
+	{
+		if (mode == null)
+			throw new IllegalArgumentException("mode must not be null");
+
+		return rewrite(new Rewrite()
+		{
+			@Override
+			ImmutableNode leaf(Position<String> p)
+			{
+				return (ImmutableNode) p;
+			}
+
+			@Override
+			ImmutableNode operator(Position<String> p, ImmutableNode left, ImmutableNode right)
+			{
+				if (isNumber(left, mode) && isNumber(right, mode))
+					return fold(((ImmutableNode) p).kind, left, right, mode);
+				return share((ImmutableNode) p, left, right);
+			}
+		});
+	}
+
+	/**
+	 * Applies the simplifications of Assignment.simplifyFancy
+	 *
+	 * This method runs in O(n) expected time
+	 *
+	 * @return a tree after applying the simplifications
+	 */
+	public ImmutableExpressionTree simplifyFancy()
+	{
+		return simplifyFancy(NumericMode.WRAPPING);
+	}
+
+	/**
+	 * Applies the simplifications of Assignment.simplifyFancy, evaluating
+	 * operators with the given arithmetic
+	 *
+	 * Each subtree is given an id from a SubexpressionTable once it has been
+	 * simplified, so the (x - x) case compares the ids of the children.
+	 *
+	 * This method runs in O(n) expected time
+	 *
+	 * @param mode - NumericMode.WRAPPING for int arithmetic (as simplifyFancy()),
+	 * 				or NumericMode.EXACT for exact results of any size
+	 * @return a tree after applying the simplifications
+	 * @throws IllegalArgumentException
+	 * 				if mode is null
+	 */
+	public ImmutableExpressionTree simplifyFancy(final NumericMode mode) throws IllegalArgumentException
+	{
+		if (mode == null)
+			throw new IllegalArgumentException("mode must not be null");
+
+		final SubexpressionTable table = new SubexpressionTable();
+		// id of each position of the new tree (no position occurs twice in one tree)
+		final IdentityHashMap<ImmutableNode, Integer> ids = new IdentityHashMap<ImmutableNode, Integer>();
+		return rewrite(new Rewrite()
+		{
+			@Override
+			ImmutableNode leaf(Position<String> p)
+			{
+				ImmutableNode node = (ImmutableNode) p;
+				ids.put(node, table.leaf(node.element));
+				return node;
+			}
+
+			@Override
+			ImmutableNode operator(Position<String> p, ImmutableNode left, ImmutableNode right)
+			{
+				int leftId = ids.get(left);
+				int rightId = ids.get(right);
+				ImmutableNode result = simplifyFancy((ImmutableNode) p, left, right, leftId, rightId, mode);
+				// a child taking the place of p keeps its id
+				if (result != left && result != right)
+					ids.put(result, (result.left == null) ? table.leaf(result.element) : table.operator(result.kind, leftId, rightId));
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Helper method used by:
+	 * 		- simplifyFancy(NumericMode mode)
+	 *
+	 * Applies the first simplification of Assignment.simplifyFancy which
+	 * matches an operator whose children have already been simplified
+	 *
+	 * @param p - a position holding an operator
+	 * @param left - the simplified left child of p
+	 * @param right - the simplified right child of p
+	 * @param leftId - the id of left
+	 * @param rightId - the id of right
+	 * @param mode - the arithmetic used to evaluate operators
+	 *
+	 * @return left or right if p reduces to one of them, a new leaf if p
+	 *         reduces to an integer, otherwise p with the children given
+	 */
+	private static ImmutableNode simplifyFancy(ImmutableNode p, ImmutableNode left, ImmutableNode right, int leftId,
+			int rightId, NumericMode mode)
+	{
+		boolean leftInteger = left.kind == ExpressionTree.Kind.INTEGER;
+		boolean rightInteger = right.kind == ExpressionTree.Kind.INTEGER;
+		// in EXACT mode literals outside the int range are numbers too (but never 0 or 1)
+		boolean leftNumber = isNumber(left, mode);
+		boolean rightNumber = isNumber(right, mode);
+
+		if (leftNumber && rightNumber)
+			return fold(p.kind, left, right, mode);
+		switch (p.kind)
+		{
+			case ADD:
+				// (0 + x)
+				if (leftInteger && left.value == 0)
+					return right;
+				// (x + 0)
+				if (rightInteger && right.value == 0)
+					return left;
+				break;
+			case MULTIPLY:
+				// (x * 1)
+				if (rightInteger && right.value == 1)
+					return left;
+				// (1 * x)
+				if (leftInteger && left.value == 1)
+					return right;
+				// (x * 0) and (0 * x)
+				if ((rightInteger && right.value == 0) || (leftInteger && left.value == 0))
+					return integer(0);
+				break;
+			case SUBTRACT:
+				// (x - 0)
+				if (rightInteger && right.value == 0)
+					return left;
+				// (x - x): equal subtrees have equal ids
+				if (!rightNumber && !leftNumber && leftId == rightId)
+					return integer(0);
+				break;
+			default:
+				break;
+		}
+		return share(p, left, right);
+	}
+
+	/**
+	 * Replaces all instances of a variable with the given value, as
+	 * Assignment.substitute does
+	 *
+	 * This method runs in O(n) time
+	 *
+	 * @param variable - a variable label that might exist in the tree
+	 * @param value - an integer value that the variable represents
+	 * @return a tree after replacing all instances of the variable
+	 * @throws IllegalArgumentException
+	 * 				if the variable is null, an operator or numeric
+	 */
+	public ImmutableExpressionTree substitute(String variable, int value) throws IllegalArgumentException
+	{
+		if (variable == null || variable.equals("+") || variable.equals("-") || variable.equals("*")
+				|| ExpressionTree.isDigits(variable))
+			throw new IllegalArgumentException("invalid variable: must not be an operator, only numeric or null");
+
+		HashMap<String, Integer> map = new HashMap<String, Integer>();
+		map.put(variable, value);
+		return substitute(map);
+	}
+
+	/**
+	 * Replaces all instances of the variables which are keys in the map with
+	 * their values, as Assignment.substitute does
+	 *
+	 * This method runs in O(n) expected time
+	 *
+	 * @param map - a map of variable labels to integer values
+	 * @return a tree after replacing all instances of the variables
+	 * @throws IllegalArgumentException
+	 * 				if map is null, has an invalid variable, or tries to substitute a null
+	 */
+	public ImmutableExpressionTree substitute(final HashMap<String, Integer> map) throws IllegalArgumentException
+	{
+		if (map == null)
+			throw new IllegalArgumentException("invalid map: map cannot be null");
+		for (String key: map.keySet())
+		{
+			if (key == null || key.equals("+") || key.equals("-") || key.equals("*") || ExpressionTree.isDigits(key))
+				throw new IllegalArgumentException("invalid variable in map: must not be an operator, only numeric or null");
+		}
+
+		return rewrite(new Rewrite()
+		{
+			@Override
+			ImmutableNode leaf(Position<String> p)
+			{
+				ImmutableNode node = (ImmutableNode) p;
+				Integer value = map.get(node.element);
+				if (value != null)
+					return integer(value);
+				if (map.containsKey(node.element))
+					throw new IllegalArgumentException("invalid value in map: values cannot be null");
+				return node;
+			}
+
+			@Override
+			ImmutableNode operator(Position<String> p, ImmutableNode left, ImmutableNode right)
+			{
+				return share((ImmutableNode) p, left, right);
+			}
+		});
+	}
+
+	/**
+	 * Helper method used by:
+	 * 		- simplify(NumericMode mode)
+	 * 		- simplifyFancy(NumericMode mode)
+	 * 		- substitute(HashMap<String, Integer> map)
+	 *
+	 * @return this tree if rewrite kept its root, otherwise a tree with the new root
+	 */
+	private ImmutableExpressionTree rewrite(Rewrite rewrite)
+	{
+		ImmutableNode newRoot = rewrite(this, rewrite);
+		return (newRoot == root) ? this : new ImmutableExpressionTree(newRoot);
+	}
+
+	/**
+	 * Helper method used by:
+	 * 		- fromTree(LinkedBinaryTree<String> tree)
+	 * 		- rewrite(Rewrite rewrite)
+	 *
+	 * Performs a postorder traversal with explicit stacks, so it runs in O(n)
+	 * time regardless of the depth of the tree, giving each position the
+	 * positions which have taken the place of its children
+	 *
+	 * @param tree - a tree representing an arithmetic expression
+	 * @param rewrite - what to make of each position
+	 *
+	 * @return the position which has taken the place of the root
+	 */
+	private static ImmutableNode rewrite(LinkedBinaryTree<String> tree, Rewrite rewrite)
+	{
+		ArrayDeque<Position<String>> positions = new ArrayDeque<Position<String>>();
+		// whether the children of the position on the same level of positions are done
+		ArrayDeque<Boolean> visited = new ArrayDeque<Boolean>();
+		ArrayDeque<ImmutableNode> done = new ArrayDeque<ImmutableNode>();
+		positions.push(tree.root());
+		visited.push(false);
+		while (!positions.isEmpty())
+		{
+			Position<String> p = positions.pop();
+			boolean childrenDone = visited.pop();
+			Position<String> left = tree.left(p);
+			if (left == null)
+				done.push(rewrite.leaf(p));
+			else if (childrenDone)
+			{
+				ImmutableNode right = done.pop();
+				done.push(rewrite.operator(p, done.pop(), right));
+			}
+			else
+			{
+				positions.push(p);
+				visited.push(true);
+				positions.push(tree.right(p));
+				visited.push(false);
+				positions.push(left);
+				visited.push(false);
+			}
+		}
+		return done.pop();
+	}
+
+	/**
+	 * @return p if its children are left and right, otherwise a copy of p with them
+	 */
+	private static ImmutableNode share(ImmutableNode p, ImmutableNode left, ImmutableNode right)
+	{
+		if (left == p.left && right == p.right)
+			return p;
+		return new ImmutableNode(p.element, p.kind, 0, left, right);
+	}
+
+	private static ImmutableNode integer(int value)
+	{
+		return new ImmutableNode(Integer.toString(value), ExpressionTree.Kind.INTEGER, value, null, null);
+	}
+
+	private static ImmutableNode integer(long value)
+	{
+		if ((int) value == value)
+			return integer((int) value);
+		// classified as a variable, as ExpressionTree does for an element outside the int range
+		return new ImmutableNode(Long.toString(value), ExpressionTree.Kind.VARIABLE, 0, null, null);
+	}
+
+	/**
+	 * @return true if the position holds an int, or in EXACT mode an integer
+	 *         literal of any length
+	 */
+	private static boolean isNumber(ImmutableNode p, NumericMode mode)
+	{
+		if (p.kind == ExpressionTree.Kind.INTEGER)
+			return true;
+		return mode == NumericMode.EXACT && p.kind == ExpressionTree.Kind.VARIABLE && Assignment.isIntegerLiteral(p.element);
+	}
+
+	/**
+	 * Helper method used by:
+	 * 		- simplify(NumericMode mode)
+	 * 		- simplifyFancy(ImmutableNode p, ImmutableNode left, ImmutableNode right, int leftId, int rightId, NumericMode mode)
+	 *
+	 * Evaluates an operator on two numbers with the same arithmetic as
+	 * Assignment.simplify: int arithmetic in WRAPPING mode, and in EXACT mode
+	 * long arithmetic, falling back to BigInteger for literals of more than 18
+	 * digits or results which overflow a long
+	 *
+	 * @param operator - ADD, SUBTRACT or MULTIPLY
+	 * @param left - a number in the given mode
+	 * @param right - a number in the given mode
+	 * @param mode - the arithmetic used to evaluate the operator
+	 *
+	 * @return a new leaf holding the result
+	 */
+	private static ImmutableNode fold(ExpressionTree.Kind operator, ImmutableNode left, ImmutableNode right, NumericMode mode)
+	{
+		if (left.kind == ExpressionTree.Kind.INTEGER && right.kind == ExpressionTree.Kind.INTEGER)
+		{
+			if (mode == NumericMode.EXACT)
+			{
+				// the exact result of an operator on two ints always fits in a long
+				long leftValue = left.value;
+				long rightValue = right.value;
+				return integer(operator == ExpressionTree.Kind.ADD ? leftValue + rightValue
+						: operator == ExpressionTree.Kind.SUBTRACT ? leftValue - rightValue : leftValue * rightValue);
+			}
+			return integer(operator == ExpressionTree.Kind.ADD ? left.value + right.value
+					: operator == ExpressionTree.Kind.SUBTRACT ? left.value - right.value : left.value * right.value);
+		}
+
+		if (Assignment.fitsLong(left.element) && Assignment.fitsLong(right.element))
+		{
+			long leftValue = Long.parseLong(left.element);
+			long rightValue = Long.parseLong(right.element);
+			try
+			{
+				return integer(operator == ExpressionTree.Kind.ADD ? Math.addExact(leftValue, rightValue)
+						: operator == ExpressionTree.Kind.SUBTRACT ? Math.subtractExact(leftValue, rightValue)
+						: Math.multiplyExact(leftValue, rightValue));
+			}
+			catch (ArithmeticException e)
+			{
+				// the result overflows a long, so is evaluated again as a BigInteger
+			}
+		}
+		BigInteger leftValue = new BigInteger(left.element);
+		BigInteger rightValue = new BigInteger(right.element);
+		BigInteger result = operator == ExpressionTree.Kind.ADD ? leftValue.add(rightValue)
+				: operator == ExpressionTree.Kind.SUBTRACT ? leftValue.subtract(rightValue) : leftValue.multiply(rightValue);
+		if (result.bitLength() < 32)
+			return integer(result.intValue());
+		return new ImmutableNode(result.toString(), ExpressionTree.Kind.VARIABLE, 0, null, null);
+	}
+
+	/**
+	 * @param p - a position of this tree
+	 * @return p as a position of an immutable tree
+	 * @throws IllegalArgumentException
+	 * 				if p is not a position of an immutable tree
+	 */
+	private static ImmutableNode node(Position<String> p) throws IllegalArgumentException
+	{
+		if (!(p instanceof ImmutableNode))
+			throw new IllegalArgumentException("Not valid position type");
+		return (ImmutableNode) p;
+	}
+
+	@Override
+	public int size()
+	{
+		return root.size;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return false;
+	}
+
+	@Override
+	public Position<String> root()
+	{
+		return root;
+	}
+
+	@Override
+	public Position<String> parent(Position<String> p)
+	{
+		throw new UnsupportedOperationException("ImmutableExpressionTree positions do not refer to their parent");
+	}
+
+	@Override
+	public Position<String> sibling(Position<String> p)
+	{
+		throw new UnsupportedOperationException("ImmutableExpressionTree positions do not refer to their parent");
+	}
+
+	@Override
+	public Position<String> left(Position<String> p)
+	{
+		return node(p).left;
+	}
+
+	@Override
+	public Position<String> right(Position<String> p)
+	{
+		return node(p).right;
+	}
+
+	@Override
+	public Position<String> addRoot(String e)
+	{
+		throw new UnsupportedOperationException("ImmutableExpressionTree is read-only");
+	}
+
+	@Override
+	public Position<String> addLeft(Position<String> p, String e)
+	{
+		throw new UnsupportedOperationException("ImmutableExpressionTree is read-only");
+	}
+
+	@Override
+	public Position<String> addRight(Position<String> p, String e)
+	{
+		throw new UnsupportedOperationException("ImmutableExpressionTree is read-only");
+	}
+
+	@Override
+	public String set(Position<String> p, String e)
+	{
+		throw new UnsupportedOperationException("ImmutableExpressionTree is read-only");
+	}
+
+	@Override
+	public void attach(Position<String> p, LinkedBinaryTree<String> t1, LinkedBinaryTree<String> t2)
+	{
+		throw new UnsupportedOperationException("ImmutableExpressionTree is read-only");
+	}
+
+	@Override
+	public String remove(Position<String> p)
+	{
+		throw new UnsupportedOperationException("ImmutableExpressionTree is read-only");
+	}
+}
@@ -0,0 +1,244 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+/**
+ * Parses arithmetic expressions in infix notation, such as the output of
+ * Assignment.tree2infix ("((2+15)-4)"), into trees.
+ *
+ * The operators are +, - and *, where * binds tighter than + and -, and
+ * operators of equal precedence group to the left ("a-b-c" is "((a-b)-c)").
+ * Parentheses are optional and whitespace between tokens is ignored. An
+ * operand is any run of characters other than whitespace, parentheses and
+ * operators. A minus sign where an operand is expected is unary: followed
+ * directly by a digit it is part of a negative literal ("2*-5" multiplies by
+ * the element "-5"), otherwise it negates what follows, which becomes the
+ * subtraction "0 - x" ("-x*y" is "((0-x)*y)", as unary minus binds tightest).
+ *
+ * A single pass of the shunting-yard algorithm, with an explicit operator
+ * stack, rewrites the expression in postfix notation, held as token offsets
+ * in int arrays; the tree is then built from the postfix tokens in reverse
+ * (each operator followed by its right, then left subtree), with an explicit
+ * stack of the operators waiting for children. Both passes run in O(n) time
+ * with no recursion, so deeply nested expressions cannot overflow the thread
+ * stack, and a String is only created for each operand.
+ */
+public final class InfixParser
+{
+	// kinds of postfix token, and of operator stack entries
+	private static final int OPERAND = 0;
+	private static final int ADD = 1;
+	private static final int SUBTRACT = 2;
+	private static final int MULTIPLY = 3;
+	private static final int NEGATE = 4;		// unary minus: a subtraction whose left operand 0 is already output
+	private static final int OPEN = 5;			// an open parenthesis (only on the operator stack)
+
+	// start offset of the operand 0 put in front of a unary minus
+	private static final int ZERO = -1;
+
+	private final CharSequence text;
+
+	// postfix tokens: the kind of each, and the offsets of each operand
+	private int[] kinds = new int[16];
+	private int[] starts = new int[16];
+	private int[] ends = new int[16];
+	private int length;
+
+	private int[] operators = new int[16];
+	private int top;
+
+	private InfixParser(CharSequence text)
+	{
+		this.text = text;
+	}
+
+	/**
+	 * Converts an arithmetic expression in infix notation to a binary tree
+	 *
+	 * @param expression - an arithmetic expression in infix notation
+	 * @return an ExpressionTree representing the expression
+	 * @throws IllegalArgumentException
+	 * 				if expression was null or not a valid expression
+	 */
+	public static LinkedBinaryTree<String> parse(CharSequence expression) throws IllegalArgumentException
+	{
+		if (expression == null)
+			throw new IllegalArgumentException("Expression string was null");
+		InfixParser parser = new InfixParser(expression);
+		parser.toPostfix();
+		return parser.build();
+	}
+
+	private void toPostfix()
+	{
+		int n = text.length();
+		int i = 0;
+		boolean expectOperand = true;
+		while (true)
+		{
+			while (i < n && Character.isWhitespace(text.charAt(i)))
+			{
+				i++;
+			}
+			if (i == n)
+				break;
+
+			char c = text.charAt(i);
+			if (expectOperand)
+			{
+				if (c == '(')
+				{
+					push(OPEN);
+					i++;
+				}
+				else if (c == '-' && (i + 1 == n || !Character.isDigit(text.charAt(i + 1))))
+				{
+					// a unary minus, as "0 -" binding tighter than any binary operator
+					output(OPERAND, ZERO, ZERO);
+					push(NEGATE);
+					i++;
+				}
+				else if (c == '-' || isOperandChar(c))
+				{
+					// an operand, or a negative literal
+					int start = i++;
+					while (i < n && isOperandChar(text.charAt(i)))
+					{
+						i++;
+					}
+					output(OPERAND, start, i);
+					expectOperand = false;
+				}
+				else
+					throw invalid();
+			}
+			else if (c == ')')
+			{
+				while (top > 0 && operators[top - 1] != OPEN)
+				{
+					output(operators[--top], 0, 0);
+				}
+				if (top == 0)
+					throw invalid();
+				top--;		// the matching open parenthesis
+				i++;
+			}
+			else
+			{
+				int operator = (c == '+') ? ADD : (c == '-') ? SUBTRACT : (c == '*') ? MULTIPLY : OPEN;
+				if (operator == OPEN)
+					throw invalid();
+				// output the operators of the left operand which bind at least as tightly
+				while (top > 0 && operators[top - 1] != OPEN && precedence(operators[top - 1]) >= precedence(operator))
+				{
+					output(operators[--top], 0, 0);
+				}
+				push(operator);
+				expectOperand = true;
+				i++;
+			}
+		}
+		// an empty expression, or one ending with an operator
+		if (expectOperand)
+			throw invalid();
+		while (top > 0)
+		{
+			if (operators[top - 1] == OPEN)
+				throw invalid();
+			output(operators[--top], 0, 0);
+		}
+	}
+
+	private LinkedBinaryTree<String> build()
+	{
+		ExpressionTree tree = new ExpressionTree();
+		// operator positions which have not yet received both of their children
+		ArrayDeque<Position<String>> pending = new ArrayDeque<Position<String>>();
+
+		// the last postfix token is the root; reading backwards, each operator
+		// is followed by its right subtree, then its left subtree
+		Position<String> position = tree.addRoot(element(length - 1));
+		if (kinds[length - 1] != OPERAND)
+			pending.push(position);
+		for (int k = length - 2; k >= 0; k--)
+		{
+			Position<String> parent = pending.peek();
+			if (tree.right(parent) == null)
+			{
+				position = tree.addRight(parent, element(k));
+			}
+			else
+			{
+				position = tree.addLeft(parent, element(k));
+				pending.pop();		// parent now has both children
+			}
+			if (kinds[k] != OPERAND)
+				pending.push(position);
+		}
+		return tree;
+	}
+
+	// element of the postfix token k
+	private String element(int k)
+	{
+		switch (kinds[k])
+		{
+			case ADD:
+				return ExpressionTokenizer.PLUS;
+			case MULTIPLY:
+				return ExpressionTokenizer.TIMES;
+			case OPERAND:
+				return (starts[k] == ZERO) ? "0" : text.subSequence(starts[k], ends[k]).toString();
+			default:
+				// SUBTRACT and NEGATE
+				return ExpressionTokenizer.MINUS;
+		}
+	}
+
+	private void output(int kind, int start, int end)
+	{
+		if (length == kinds.length)
+		{
+			kinds = Arrays.copyOf(kinds, length * 2);
+			starts = Arrays.copyOf(starts, length * 2);
+			ends = Arrays.copyOf(ends, length * 2);
+		}
+		kinds[length] = kind;
+		starts[length] = start;
+		ends[length] = end;
+		length++;
+	}
+
+	private void push(int operator)
+	{
+		if (top == operators.length)
+			operators = Arrays.copyOf(operators, top * 2);
+		operators[top++] = operator;
+	}
+
+	private static int precedence(int operator)
+	{
+		switch (operator)
+		{
+			case ADD:
+			case SUBTRACT:
+				return 1;
+			case MULTIPLY:
+				return 2;
+			default:
+				return 3;
+		}
+	}
+
+	private static boolean isOperandChar(char c)
+	{
+		return c != '(' && c != ')' && c != '+' && c != '-' && c != '*' && !Character.isWhitespace(c);
+	}
+
+	private static IllegalArgumentException invalid()
+	{
+		return new IllegalArgumentException("String was not a valid arithmetic expression in infix notation");
+	}
+}
@@ -0,0 +1,19 @@
+/**
+ * The arithmetic Assignment.simplify and simplifyFancy use to evaluate an
+ * operator whose children are both integers
+ */
+public enum NumericMode
+{
+	/**
+	 * 32-bit int arithmetic, as Java's int operators: results wrap around on
+	 * overflow, and only elements Integer.parseInt accepts are integers
+	 */
+	WRAPPING,
+
+	/**
+	 * exact results: integer literals of any length are integers, and are
+	 * evaluated with long arithmetic checked by Math.addExact, subtractExact and
+	 * multiplyExact, falling back to BigInteger only when a result overflows
+	 */
+	EXACT
+}
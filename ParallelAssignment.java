@@ -0,0 +1,306 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+/**
+ * Fork/join versions of Assignment.simplify and Assignment.tree2prefix for
+ * very large expressions, giving exactly the same results as the sequential
+ * methods.
+ *
+ * Each task traverses its subtree with an explicit stack (so long chains
+ * such as "+ a + b + c ..." cannot overflow the thread stack). At an
+ * operator whose children are both operators, the left subtree is forked as
+ * a new task while the current task carries on with the right one, and the
+ * two results are merged at the operator, unless the worker already has
+ * enough forked tasks waiting to be stolen; trees whose size is unknown can
+ * therefore be split without counting their positions first.
+ *
+ * LinkedBinaryTree keeps an unsynchronized count of its positions, so
+ * positions removed by simplify are removed while holding the lock of the
+ * tree; everything else runs without locking, as every task works on a
+ * separate subtree.
+ */
+public class ParallelAssignment
+{
+	// number of waiting tasks a worker may have before it stops splitting
+	private static final int SURPLUS = 3;
+
+	/**
+	 * Simplify any subtrees which can be evaluated to a single integer value,
+	 * as Assignment.simplify does, using the common ForkJoinPool
+	 *
+	 * @param tree - a tree representing an arithmetic expression
+	 * @return the tree after evaluating as many of the subtrees as possible
+	 * @throws IllegalArgumentException
+	 * 				if tree was not a valid expression
+	 */
+	public static LinkedBinaryTree<String> simplify(LinkedBinaryTree<String> tree) throws IllegalArgumentException
+	{
+		return simplify(tree, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Simplify any subtrees which can be evaluated to a single integer value,
+	 * as Assignment.simplify does
+	 *
+	 * @param tree - a tree representing an arithmetic expression
+	 * @param pool - the pool to run the tasks in
+	 * @return the tree after evaluating as many of the subtrees as possible
+	 * @throws IllegalArgumentException
+	 * 				if tree was not a valid expression
+	 */
+	public static LinkedBinaryTree<String> simplify(LinkedBinaryTree<String> tree, ForkJoinPool pool)
+			throws IllegalArgumentException
+	{
+		if (!Assignment.isArithmeticExpression(tree))
+			throw new IllegalArgumentException("Tree does not represent arithmetic expression");
+
+		pool.invoke(new SimplifyTask(tree, tree.root(), null));
+		return tree;
+	}
+
+	/**
+	 * Output the expression in prefix notation, as Assignment.tree2prefix does,
+	 * using the common ForkJoinPool
+	 *
+	 * @param tree - a tree representing an arithmetic expression
+	 * @return prefix notation expression of the tree
+	 * @throws IllegalArgumentException
+	 * 				if tree was not a valid expression
+	 */
+	public static String tree2prefix(LinkedBinaryTree<String> tree) throws IllegalArgumentException
+	{
+		return tree2prefix(tree, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Output the expression in prefix notation, as Assignment.tree2prefix does
+	 *
+	 * Each task produces its part of the output as a list of pieces, which are
+	 * only copied into one String at the end.
+	 *
+	 * @param tree - a tree representing an arithmetic expression
+	 * @param pool - the pool to run the tasks in
+	 * @return prefix notation expression of the tree
+	 * @throws IllegalArgumentException
+	 * 				if tree was not a valid expression
+	 */
+	public static String tree2prefix(LinkedBinaryTree<String> tree, ForkJoinPool pool) throws IllegalArgumentException
+	{
+		if (!Assignment.isArithmeticExpression(tree))
+			throw new IllegalArgumentException("Tree does not represent arithmetic expression");
+
+		ArrayList<CharSequence> pieces = pool.invoke(new PrefixTask(tree, tree.root()));
+		int length = 0;
+		for (CharSequence piece : pieces)
+		{
+			length += piece.length();
+		}
+		StringBuilder expression = new StringBuilder(length);
+		for (CharSequence piece : pieces)
+		{
+			expression.append(piece);
+		}
+		return expression.toString();
+	}
+
+	/**
+	 * @param tree - the tree being traversed
+	 * @param p - an operator position
+	 * @return true if the subtrees of p should be handled by separate tasks
+	 */
+	private static boolean split(LinkedBinaryTree<String> tree, Position<String> p)
+	{
+		return tree.left(tree.left(p)) != null && tree.left(tree.right(p)) != null
+				&& RecursiveTask.getSurplusQueuedTaskCount() <= SURPLUS;
+	}
+
+	/**
+	 * Simplifies the subtree at root, in postorder
+	 */
+	private static final class SimplifyTask extends RecursiveTask<Void>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final LinkedBinaryTree<String> tree;
+		private final Position<String> root;
+		private final Position<String> parent;	// operator waiting for this task (if any)
+
+		SimplifyTask(LinkedBinaryTree<String> tree, Position<String> root, Position<String> parent)
+		{
+			this.tree = tree;
+			this.root = root;
+			this.parent = parent;
+		}
+
+		@Override
+		protected Void compute()
+		{
+			// postorder traversal, keeping the operators whose subtrees are unfinished
+			// and the tasks forked for their left subtrees
+			ArrayDeque<Position<String>> stack = new ArrayDeque<Position<String>>();
+			ArrayDeque<SimplifyTask> forked = new ArrayDeque<SimplifyTask>();
+			Position<String> p = root;
+			Position<String> last = null;		// the last position whose subtree was finished
+			while (true)
+			{
+				if (p != null)
+				{
+					if (tree.left(p) == null)
+					{
+						// leaves need no work
+						last = p;
+						p = null;
+					}
+					else
+					{
+						stack.push(p);
+						if (split(tree, p))
+						{
+							SimplifyTask left = new SimplifyTask(tree, tree.left(p), p);
+							left.fork();
+							forked.push(left);
+							p = tree.right(p);
+						}
+						else
+						{
+							p = tree.left(p);
+						}
+					}
+				}
+				else if (stack.isEmpty())
+				{
+					break;
+				}
+				else
+				{
+					Position<String> top = stack.peek();
+					if (tree.right(top) != last)
+					{
+						p = tree.right(top);
+					}
+					else
+					{
+						stack.pop();
+						if (!forked.isEmpty() && forked.peek().parent == top)
+							forked.pop().join();
+						fold(top);
+						last = top;
+					}
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Replaces an operator whose children both hold integers by the result
+		 * of applying it, removing the children while holding the lock of the tree
+		 */
+		private void fold(Position<String> p)
+		{
+			Position<String> left = tree.left(p);
+			Position<String> right = tree.right(p);
+			if (!isInteger(left) || !isInteger(right))
+				return;
+
+			int value = apply(p, ExpressionTree.integerValue(left), ExpressionTree.integerValue(right));
+			synchronized (tree)
+			{
+				ExpressionTree.setInteger(tree, p, value);
+				tree.remove(right);
+				tree.remove(left);
+			}
+		}
+	}
+
+	/**
+	 * Produces the prefix notation of the subtree at root, as a list of pieces
+	 */
+	private static final class PrefixTask extends RecursiveTask<ArrayList<CharSequence>>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final LinkedBinaryTree<String> tree;
+		private final Position<String> root;
+
+		PrefixTask(LinkedBinaryTree<String> tree, Position<String> root)
+		{
+			this.tree = tree;
+			this.root = root;
+		}
+
+		@Override
+		protected ArrayList<CharSequence> compute()
+		{
+			// StringBuilders written by this task and PrefixTasks for the left subtrees it forked
+			ArrayList<Object> parts = new ArrayList<Object>();
+			StringBuilder current = new StringBuilder();
+			// preorder traversal, keeping the right subtrees still to be visited
+			ArrayDeque<Position<String>> stack = new ArrayDeque<Position<String>>();
+			Position<String> p = root;
+			while (true)
+			{
+				if (p != root)
+					current.append(' ');
+				current.append(p.getElement());
+				if (tree.left(p) != null)
+				{
+					stack.push(tree.right(p));
+					if (!split(tree, p))
+					{
+						p = tree.left(p);
+						continue;
+					}
+					PrefixTask left = new PrefixTask(tree, tree.left(p));
+					left.fork();
+					parts.add(current.append(' '));
+					parts.add(left);
+					current = new StringBuilder();
+				}
+				if (stack.isEmpty())
+					break;
+				p = stack.pop();
+			}
+			parts.add(current);
+
+			ArrayList<CharSequence> pieces = new ArrayList<CharSequence>();
+			for (Object part : parts)
+			{
+				if (part instanceof PrefixTask)
+					pieces.addAll(((PrefixTask) part).join());
+				else
+					pieces.add((StringBuilder) part);
+			}
+			return pieces;
+		}
+	}
+
+	/**
+	 * @return true if the position holds an integer
+	 */
+	private static boolean isInteger(Position<String> p)
+	{
+		return ExpressionTree.kindOf(p) == ExpressionTree.Kind.INTEGER;
+	}
+
+	/**
+	 * @return the result of applying the operator at p, with the same 32-bit
+	 *         arithmetic as Assignment.simplify
+	 */
+	private static int apply(Position<String> p, int left, int right)
+	{
+		switch (ExpressionTree.kindOf(p))
+		{
+			case ADD:
+				return left + right;
+			case SUBTRACT:
+				return left - right;
+			default:
+				return left * right;
+		}
+	}
+}
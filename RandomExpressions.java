@@ -0,0 +1,161 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A source of random arithmetic expressions in prefix notation, for tests,
+ * benchmarks and ExpressionLoadGenerator.
+ *
+ * Each expression has a given number of operators, chosen from "+", "-" and
+ * "*", and one more leaf than operators, chosen from the given leaves. The
+ * shape of the tree is one of:
+ * 		RIGHT_DEEP	- every left child is a leaf, e.g. "+ 1 * x - 2 y"
+ * 		LEFT_DEEP	- every right child is a leaf, e.g. "+ * - 1 x 2 y"
+ * 		BALANCED	- the operators of each subtree are split as evenly as
+ * 					  possible, so the depth is about log2(operators)
+ * 		RANDOM		- the operators of each subtree are split at random
+ * and is chosen at random for each expression unless it is given, so that
+ * code which handles one shape better than another is tested on all of them.
+ *
+ * Expressions are built without recursion, so they may be as deep as they
+ * are long. The same Random (or seed) gives the same expressions.
+ *
+ * Usage:
+ * 		RandomExpressions expressions = new RandomExpressions(new Random(5), "x", "y", "0", "1", "-3");
+ * 		String prefix = expressions.next(12);
+ */
+public final class RandomExpressions
+{
+	/**
+	 * The shape of the tree of an expression
+	 */
+	public enum Shape
+	{
+		RIGHT_DEEP, LEFT_DEEP, BALANCED, RANDOM
+	}
+
+	private static final String OPERATORS = "+-*";
+	private static final Shape[] SHAPES = Shape.values();
+
+	private final Random random;
+	private final String[] leaves;
+
+	/**
+	 * @param random - the source of every random choice
+	 * @param leaves - the elements the leaves are chosen from, each as likely
+	 * 				as any other (so repeat an element to make it more likely)
+	 * @throws IllegalArgumentException
+	 * 				if random is null or there are no leaves
+	 */
+	public RandomExpressions(Random random, String... leaves) throws IllegalArgumentException
+	{
+		if (random == null)
+			throw new IllegalArgumentException("random was null");
+		if (leaves == null || leaves.length == 0)
+			throw new IllegalArgumentException("at least one leaf is needed");
+		this.random = random;
+		this.leaves = leaves.clone();
+	}
+
+	/**
+	 * @param seed - seeds the random choices
+	 * @param leaves - the elements the leaves are chosen from
+	 * @throws IllegalArgumentException
+	 * 				if there are no leaves
+	 */
+	public RandomExpressions(long seed, String... leaves) throws IllegalArgumentException
+	{
+		this(new Random(seed), leaves);
+	}
+
+	/**
+	 * @param operators - the number of operators of the expression
+	 * @return an expression of a shape chosen at random
+	 * @throws IllegalArgumentException
+	 * 				if operators is negative
+	 */
+	public String next(int operators) throws IllegalArgumentException
+	{
+		return next(SHAPES[random.nextInt(SHAPES.length)], operators);
+	}
+
+	/**
+	 * Appends the subtrees in prefix order, keeping the numbers of operators
+	 * of the subtrees still to be appended on an explicit stack
+	 *
+	 * This method runs in O(operators) time
+	 *
+	 * @param shape - the shape of the tree of the expression
+	 * @param operators - the number of operators of the expression
+	 * @return an expression of the given shape
+	 * @throws IllegalArgumentException
+	 * 				if operators is negative
+	 */
+	public String next(Shape shape, int operators) throws IllegalArgumentException
+	{
+		if (operators < 0)
+			throw new IllegalArgumentException("negative number of operators: " + operators);
+
+		StringBuilder prefix = new StringBuilder();
+		int[] pending = new int[16];
+		int top = 0;
+		pending[top++] = operators;
+		while (top > 0)
+		{
+			int subtree = pending[--top];
+			if (prefix.length() > 0)
+				prefix.append(' ');
+			if (subtree == 0)
+			{
+				prefix.append(leaves[random.nextInt(leaves.length)]);
+				continue;
+			}
+			prefix.append(OPERATORS.charAt(random.nextInt(OPERATORS.length())));
+			int left;
+			switch (shape)
+			{
+				case RIGHT_DEEP:
+					left = 0;
+					break;
+				case LEFT_DEEP:
+					left = subtree - 1;
+					break;
+				case BALANCED:
+					left = (subtree - 1) / 2;
+					break;
+				default:
+					left = random.nextInt(subtree);
+			}
+			if (top + 2 > pending.length)
+				pending = Arrays.copyOf(pending, pending.length * 2);
+			// the left subtree is appended first, so it goes on top
+			pending[top++] = subtree - 1 - left;
+			pending[top++] = left;
+		}
+		return prefix.toString();
+	}
+
+	/**
+	 * @param count - the number of expressions
+	 * @param minOperators - the fewest operators of an expression
+	 * @param maxOperators - the most operators of an expression
+	 * @return expressions of shapes chosen at random, each with a number of
+	 *         operators chosen at random between minOperators and maxOperators
+	 * @throws IllegalArgumentException
+	 * 				if count or minOperators is negative, or maxOperators is
+	 * 				less than minOperators
+	 */
+	public List<String> list(int count, int minOperators, int maxOperators) throws IllegalArgumentException
+	{
+		if (count < 0 || minOperators < 0 || maxOperators < minOperators)
+			throw new IllegalArgumentException("invalid count or operators: " + count + ", " + minOperators + " to " + maxOperators);
+
+		List<String> expressions = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++)
+		{
+			expressions.add(next(minOperators + random.nextInt(maxOperators - minOperators + 1)));
+		}
+		return expressions;
+	}
+}
@@ -0,0 +1,680 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import textbook.LinkedBinaryTree;
+
+/**
+ * Simplifies a stream of independent arithmetic expressions in prefix
+ * notation, as
+ * 		tree2prefix(simplifyFancy(prefix2tree(expression)))
+ * would for each, on several threads, delivering the results in the order of
+ * the expressions.
+ *
+ * The work is split into stages, each on its own threads, connected by
+ * bounded queues of batches of expressions:
+ * 		READ		- one thread takes expressions from the input and numbers the batches
+ * 		PARSE		- prefix2tree
+ * 		SIMPLIFY	- simplifyFancy
+ * 		SERIALIZE	- tree2prefix
+ * 		WRITE		- the calling thread hands the results to the output, in order,
+ * 					  holding back batches which overtook an earlier one
+ * A stage whose output queue is full blocks until the next stage catches up,
+ * and READ takes no more batches while queueCapacity batches, plus one per
+ * worker, are between READ and WRITE (so memory use is bounded however large
+ * the input, even while WRITE holds back batches behind a slow one). The Metrics of
+ * each stage (time busy, idle waiting for input and blocked on a full queue,
+ * the depth of its input queue and its throughput) show which stage holds
+ * the others back: the stage before a queue which stays full.
+ *
+ * Threads are created for each run, as platform threads or, on Java 21 and
+ * later, virtual threads (which are looked up by reflection, so this class
+ * still compiles and runs on earlier versions).
+ *
+ * Blank expressions give blank results. If an expression is not valid, the
+ * run stops and throws an IllegalArgumentException giving its number.
+ */
+public class SimplificationPipeline
+{
+	/**
+	 * The stages of the pipeline, in order
+	 */
+	public enum Stage
+	{
+		READ, PARSE, SIMPLIFY, SERIALIZE, WRITE
+	}
+
+	/**
+	 * The kinds of thread the stages can run on
+	 */
+	public enum Threads
+	{
+		PLATFORM, VIRTUAL;
+
+		/**
+		 * @return true if threads of this kind can be created by this JVM
+		 */
+		public boolean isSupported()
+		{
+			return this == PLATFORM || VirtualThreads.FACTORY != null;
+		}
+
+		Thread newThread(Runnable task, String name)
+		{
+			Thread thread;
+			if (this == PLATFORM)
+			{
+				thread = new Thread(task);
+				thread.setDaemon(true);
+			}
+			else
+				thread = VirtualThreads.newThread(task);
+			thread.setName(name);
+			return thread;
+		}
+	}
+
+	/**
+	 * Thread.ofVirtual().factory(), looked up once, or null before Java 21
+	 */
+	private static final class VirtualThreads
+	{
+		private static final ThreadFactory FACTORY = lookup();
+
+		private static ThreadFactory lookup()
+		{
+			try
+			{
+				Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+				Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+				return (ThreadFactory) factory.invoke(builder);
+			}
+			catch (ReflectiveOperationException | RuntimeException e)
+			{
+				// before Java 21 (or a preview feature which is not enabled)
+				return null;
+			}
+		}
+
+		private static Thread newThread(Runnable task)
+		{
+			if (FACTORY == null)
+				throw new UnsupportedOperationException("Virtual threads need Java 21 or later");
+			return FACTORY.newThread(task);
+		}
+	}
+
+	/**
+	 * What a stage has done during the current (or last) run. Every method
+	 * may be called from any thread while the pipeline runs.
+	 */
+	public static final class Metrics
+	{
+		private final Stage stage;
+		private final LongAdder items = new LongAdder();
+		private final LongAdder busyNanos = new LongAdder();
+		private final LongAdder idleNanos = new LongAdder();
+		private final LongAdder blockedNanos = new LongAdder();
+		private volatile BlockingQueue<Batch> input;
+		private volatile int maxQueueDepth;
+		private volatile long start;
+		private volatile long end;
+
+		private Metrics(Stage stage)
+		{
+			this.stage = stage;
+		}
+
+		/**
+		 * @return the stage measured
+		 */
+		public Stage stage()
+		{
+			return stage;
+		}
+
+		/**
+		 * @return the number of expressions the stage has finished with
+		 */
+		public long items()
+		{
+			return items.sum();
+		}
+
+		/**
+		 * @return expressions finished per second since the run started
+		 */
+		public double itemsPerSecond()
+		{
+			long elapsed = ((end != 0) ? end : System.nanoTime()) - start;
+			return (start == 0 || elapsed <= 0) ? 0 : items() * 1e9 / elapsed;
+		}
+
+		/**
+		 * @return the time the stage's threads have spent working, in nanoseconds
+		 */
+		public long busyNanos()
+		{
+			return busyNanos.sum();
+		}
+
+		/**
+		 * @return the time the stage's threads have spent waiting for input
+		 *         from the stage before, in nanoseconds
+		 */
+		public long idleNanos()
+		{
+			return idleNanos.sum();
+		}
+
+		/**
+		 * @return the time the stage's threads have spent waiting for room in
+		 *         the queue to the next stage, in nanoseconds
+		 */
+		public long blockedNanos()
+		{
+			return blockedNanos.sum();
+		}
+
+		/**
+		 * @return the number of batches waiting in the stage's input queue
+		 *         (0 for READ, which has none)
+		 */
+		public int queueDepth()
+		{
+			BlockingQueue<Batch> queue = input;
+			return (queue == null) ? 0 : queue.size();
+		}
+
+		/**
+		 * @return the greatest number of batches seen waiting in the stage's input queue
+		 */
+		public int maxQueueDepth()
+		{
+			return maxQueueDepth;
+		}
+
+		private void reset(BlockingQueue<Batch> input, long start)
+		{
+			items.reset();
+			busyNanos.reset();
+			idleNanos.reset();
+			blockedNanos.reset();
+			this.input = input;
+			this.maxQueueDepth = 0;
+			this.start = start;
+			this.end = 0;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("%-9s %d items, %.0f/s, busy %d ms, idle %d ms, blocked %d ms, queue %d (max %d)",
+					stage, items(), itemsPerSecond(), busyNanos() / 1000000, idleNanos() / 1000000,
+					blockedNanos() / 1000000, queueDepth(), maxQueueDepth());
+		}
+	}
+
+	/**
+	 * Consecutive expressions, passed from stage to stage. Each stage
+	 * replaces every item with its result: an expression, then a tree (or null
+	 * for a blank expression), then the result.
+	 */
+	private static final class Batch
+	{
+		private final long sequence;
+		private final long first;		// number of the first expression, from 1
+		private final Object[] items;
+		private int size;
+
+		private Batch(long sequence, long first, int capacity)
+		{
+			this.sequence = sequence;
+			this.first = first;
+			this.items = new Object[capacity];
+		}
+	}
+
+	// follows the last batch through every queue
+	private static final Batch END = new Batch(-1, 0, 0);
+
+	// how often WRITE checks whether another stage has failed, while waiting
+	private static final long POLL_MILLIS = 50;
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 64;
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	private final Threads threads;
+	private final EnumMap<Stage, Integer> workers = new EnumMap<Stage, Integer>(Stage.class);
+	private final int queueCapacity;
+	private final int batchSize;
+	private final EnumMap<Stage, Metrics> metrics = new EnumMap<Stage, Metrics>(Stage.class);
+
+	// state of the current run
+	private final ArrayList<Thread> running = new ArrayList<Thread>();
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+	/**
+	 * Creates a pipeline with the given number of threads for each of PARSE,
+	 * SIMPLIFY and SERIALIZE, and queues of DEFAULT_QUEUE_CAPACITY batches of
+	 * DEFAULT_BATCH_SIZE expressions
+	 *
+	 * @param threads - the kind of thread to run the stages on
+	 * @param workers - the number of threads for each of PARSE, SIMPLIFY and SERIALIZE
+	 * @throws IllegalArgumentException
+	 * 				if threads is null or not supported, or workers is less than 1
+	 */
+	public SimplificationPipeline(Threads threads, int workers) throws IllegalArgumentException
+	{
+		this(threads, workers, workers, workers, DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * @param threads - the kind of thread to run the stages on
+	 * @param parseWorkers - the number of threads parsing
+	 * @param simplifyWorkers - the number of threads simplifying
+	 * @param serializeWorkers - the number of threads serializing
+	 * @param queueCapacity - the number of batches each queue between stages holds
+	 * @param batchSize - the number of expressions in a batch
+	 * @throws IllegalArgumentException
+	 * 				if threads is null or not supported, or any number is less than 1
+	 */
+	public SimplificationPipeline(Threads threads, int parseWorkers, int simplifyWorkers, int serializeWorkers,
+			int queueCapacity, int batchSize) throws IllegalArgumentException
+	{
+		if (threads == null || !threads.isSupported())
+			throw new IllegalArgumentException("Threads not supported by this JVM: " + threads);
+		if (parseWorkers < 1 || simplifyWorkers < 1 || serializeWorkers < 1 || queueCapacity < 1 || batchSize < 1)
+			throw new IllegalArgumentException("Numbers of workers, queueCapacity and batchSize must be at least 1");
+
+		this.threads = threads;
+		this.workers.put(Stage.PARSE, parseWorkers);
+		this.workers.put(Stage.SIMPLIFY, simplifyWorkers);
+		this.workers.put(Stage.SERIALIZE, serializeWorkers);
+		this.queueCapacity = queueCapacity;
+		this.batchSize = batchSize;
+		for (Stage stage : Stage.values())
+		{
+			metrics.put(stage, new Metrics(stage));
+		}
+	}
+
+	/**
+	 * @param stage - a stage of the pipeline
+	 * @return what the stage has done during the current (or last) run
+	 */
+	public Metrics metrics(Stage stage)
+	{
+		return metrics.get(stage);
+	}
+
+	/**
+	 * Simplifies every line of a reader, writing the results to a writer, one per line
+	 *
+	 * @param input - expressions in prefix notation, one per line
+	 * @param output - where to write the results
+	 * @return the number of expressions
+	 * @throws IOException
+	 * 				if the input could not be read or the output written
+	 * @throws InterruptedException
+	 * 				if the calling thread was interrupted (the run is abandoned)
+	 * @throws IllegalArgumentException
+	 * 				if an expression was not valid
+	 */
+	public long run(final BufferedReader input, final Writer output) throws IOException, InterruptedException, IllegalArgumentException
+	{
+		Iterator<String> lines = new Iterator<String>()
+		{
+			private String next;
+
+			@Override
+			public boolean hasNext()
+			{
+				try
+				{
+					if (next == null)
+						next = input.readLine();
+					return next != null;
+				}
+				catch (IOException e)
+				{
+					throw new UncheckedIOException(e);
+				}
+			}
+
+			@Override
+			public String next()
+			{
+				hasNext();
+				String line = next;
+				next = null;
+				return line;
+			}
+		};
+		try
+		{
+			return run(lines, new Consumer<String>()
+			{
+				@Override
+				public void accept(String result)
+				{
+					try
+					{
+						output.write(result);
+						output.write('\n');
+					}
+					catch (IOException e)
+					{
+						throw new UncheckedIOException(e);
+					}
+				}
+			});
+		}
+		catch (UncheckedIOException e)
+		{
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Simplifies every expression of an iterator, handing the results to a
+	 * consumer (on the calling thread) in the same order
+	 *
+	 * @param input - expressions in prefix notation (read on a thread of the pipeline)
+	 * @param output - receives the results
+	 * @return the number of expressions
+	 * @throws InterruptedException
+	 * 				if the calling thread was interrupted (the run is abandoned)
+	 * @throws IllegalArgumentException
+	 * 				if an expression was not valid
+	 */
+	public synchronized long run(final Iterator<String> input, Consumer<? super String> output)
+			throws InterruptedException, IllegalArgumentException
+	{
+		if (input == null || output == null)
+			throw new IllegalArgumentException("input and output must not be null");
+
+		final BlockingQueue<Batch> parse = new ArrayBlockingQueue<Batch>(queueCapacity);
+		final BlockingQueue<Batch> simplify = new ArrayBlockingQueue<Batch>(queueCapacity);
+		final BlockingQueue<Batch> serialize = new ArrayBlockingQueue<Batch>(queueCapacity);
+		final BlockingQueue<Batch> write = new ArrayBlockingQueue<Batch>(queueCapacity);
+		// a permit for each batch READ has passed on and WRITE has not yet written
+		final Semaphore inFlight = new Semaphore(queueCapacity + workers.get(Stage.PARSE) + workers.get(Stage.SIMPLIFY)
+				+ workers.get(Stage.SERIALIZE));
+		long start = System.nanoTime();
+		metrics(Stage.READ).reset(null, start);
+		metrics(Stage.PARSE).reset(parse, start);
+		metrics(Stage.SIMPLIFY).reset(simplify, start);
+		metrics(Stage.SERIALIZE).reset(serialize, start);
+		metrics(Stage.WRITE).reset(write, start);
+		failure.set(null);
+		running.clear();
+
+		try
+		{
+			start(Stage.READ, 0, new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					read(input, parse, inFlight);
+				}
+			});
+			startWorkers(Stage.PARSE, parse, simplify);
+			startWorkers(Stage.SIMPLIFY, simplify, serialize);
+			startWorkers(Stage.SERIALIZE, serialize, write);
+			for (Thread thread : running)
+			{
+				thread.start();
+			}
+
+			long count = write(write, output, inFlight);
+			for (Thread thread : running)
+			{
+				thread.join();
+			}
+			return count;
+		}
+		catch (RuntimeException | Error e)
+		{
+			// thrown by the output
+			failure.compareAndSet(null, e);
+			throw e;
+		}
+		finally
+		{
+			for (Thread thread : running)
+			{
+				thread.interrupt();
+			}
+			long end = System.nanoTime();
+			for (Metrics stage : metrics.values())
+			{
+				stage.end = end;
+			}
+			// the ends left for the workers of each stage, or batches abandoned
+			parse.clear();
+			simplify.clear();
+			serialize.clear();
+			write.clear();
+		}
+	}
+
+	private void start(Stage stage, int number, Runnable task)
+	{
+		running.add(threads.newThread(task, "pipeline-" + stage.name().toLowerCase() + "-" + number));
+	}
+
+	private void startWorkers(final Stage stage, final BlockingQueue<Batch> in, final BlockingQueue<Batch> out)
+	{
+		final AtomicInteger remaining = new AtomicInteger(workers.get(stage));
+		for (int i = 0; i < workers.get(stage); i++)
+		{
+			start(stage, i, new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					work(stage, in, out, remaining);
+				}
+			});
+		}
+	}
+
+	// READ: takes batches of expressions from the input
+	private void read(Iterator<String> input, BlockingQueue<Batch> out, Semaphore inFlight)
+	{
+		Metrics metrics = metrics(Stage.READ);
+		try
+		{
+			long sequence = 0;
+			long count = 0;
+			while (true)
+			{
+				long started = System.nanoTime();
+				Batch batch = new Batch(sequence++, count + 1, batchSize);
+				while (batch.size < batchSize && input.hasNext())
+				{
+					batch.items[batch.size++] = input.next();
+				}
+				count += batch.size;
+				metrics.items.add(batch.size);
+				metrics.busyNanos.add(System.nanoTime() - started);
+				if (batch.size == 0)
+					break;
+				long blocking = System.nanoTime();
+				inFlight.acquire();
+				metrics.blockedNanos.add(System.nanoTime() - blocking);
+				put(metrics, out, batch);
+			}
+			put(metrics, out, END);
+		}
+		catch (InterruptedException e)
+		{
+			// the run has been abandoned
+		}
+		catch (RuntimeException | Error e)
+		{
+			fail(e);
+		}
+	}
+
+	// PARSE, SIMPLIFY or SERIALIZE: replaces the items of each batch with their results
+	private void work(Stage stage, BlockingQueue<Batch> in, BlockingQueue<Batch> out, AtomicInteger remaining)
+	{
+		Metrics metrics = metrics(stage);
+		try
+		{
+			while (true)
+			{
+				long waiting = System.nanoTime();
+				Batch batch = in.take();
+				long started = System.nanoTime();
+				metrics.idleNanos.add(started - waiting);
+				if (batch == END)
+				{
+					// let the other workers of the stage see the end too
+					in.put(END);
+					if (remaining.decrementAndGet() == 0)
+						put(metrics, out, END);
+					return;
+				}
+
+				for (int i = 0; i < batch.size; i++)
+				{
+					try
+					{
+						batch.items[i] = process(stage, batch.items[i]);
+					}
+					catch (IllegalArgumentException e)
+					{
+						throw new IllegalArgumentException("Expression " + (batch.first + i) + ": " + e.getMessage(), e);
+					}
+				}
+				metrics.items.add(batch.size);
+				metrics.busyNanos.add(System.nanoTime() - started);
+				put(metrics, out, batch);
+			}
+		}
+		catch (InterruptedException e)
+		{
+			// the run has been abandoned
+		}
+		catch (RuntimeException | Error e)
+		{
+			fail(e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object process(Stage stage, Object item)
+	{
+		switch (stage)
+		{
+			case PARSE:
+				String expression = (String) item;
+				return isBlank(expression) ? null : Assignment.prefix2tree(expression);
+			case SIMPLIFY:
+				return (item == null) ? null : Assignment.simplifyFancy((LinkedBinaryTree<String>) item);
+			default:
+				return (item == null) ? "" : Assignment.tree2prefix((LinkedBinaryTree<String>) item);
+		}
+	}
+
+	private static boolean isBlank(String expression)
+	{
+		for (int i = 0; i < expression.length(); i++)
+		{
+			if (!Character.isWhitespace(expression.charAt(i)))
+				return false;
+		}
+		return true;
+	}
+
+	// WRITE: hands the results to the output in order, until the end or a failure
+	private long write(BlockingQueue<Batch> in, Consumer<? super String> output, Semaphore inFlight)
+			throws InterruptedException
+	{
+		Metrics metrics = metrics(Stage.WRITE);
+		// batches which arrived before an earlier batch
+		HashMap<Long, Batch> waiting = new HashMap<Long, Batch>();
+		long next = 0;
+		long count = 0;
+		while (true)
+		{
+			long polling = System.nanoTime();
+			Batch batch = in.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+			long started = System.nanoTime();
+			metrics.idleNanos.add(started - polling);
+			Throwable failed = failure.get();
+			if (failed != null)
+			{
+				if (failed instanceof Error)
+					throw (Error) failed;
+				throw (RuntimeException) failed;
+			}
+			if (batch == END)
+				return count;
+			if (batch == null)
+				continue;
+
+			waiting.put(batch.sequence, batch);
+			while ((batch = waiting.remove(next)) != null)
+			{
+				for (int i = 0; i < batch.size; i++)
+				{
+					output.accept((String) batch.items[i]);
+				}
+				count += batch.size;
+				metrics.items.add(batch.size);
+				next++;
+				inFlight.release();
+			}
+			metrics.busyNanos.add(System.nanoTime() - started);
+		}
+	}
+
+	private void put(Metrics metrics, BlockingQueue<Batch> out, Batch batch) throws InterruptedException
+	{
+		long blocking = System.nanoTime();
+		out.put(batch);
+		metrics.blockedNanos.add(System.nanoTime() - blocking);
+		// depth of the next stage's input queue
+		Metrics next = metrics(Stage.values()[metrics.stage.ordinal() + 1]);
+		int depth = out.size();
+		if (depth > next.maxQueueDepth)
+			next.maxQueueDepth = depth;
+	}
+
+	// stops the run, which throws the first failure
+	private void fail(Throwable e)
+	{
+		if (failure.compareAndSet(null, e))
+		{
+			synchronized (running)
+			{
+				for (Thread thread : running)
+				{
+					if (thread != Thread.currentThread())
+						thread.interrupt();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,173 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe map of bounded size, evicting its least recently used
+ * entries, used by ExpressionCache and EvaluationCache.
+ *
+ * The entries are split between a number of stripes by the hash of the key,
+ * each a LinkedHashMap in access order guarded by its own lock, and each
+ * stripe evicts its least recently used entry once it holds its share of
+ * maximumSize, so threads using different stripes never wait for each other.
+ * Evictions are counted with a LongAdder.
+ *
+ * @param <K> - the type of the keys (which must not be null)
+ * @param <V> - the type of the values (which must not be null)
+ */
+public class StripedLruCache<K, V>
+{
+	/**
+	 * One stripe of the cache: a map in access order, evicting its least
+	 * recently used entry beyond its capacity
+	 */
+	@SuppressWarnings("serial")
+	private final class Stripe extends LinkedHashMap<K, V>
+	{
+		private final int capacity;
+
+		private Stripe(int capacity)
+		{
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+		{
+			if (size() <= capacity)
+				return false;
+			evictions.increment();
+			return true;
+		}
+	}
+
+	private final ArrayList<Stripe> stripes;
+	private final int maximumSize;
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param maximumSize - the greatest number of entries to keep
+	 * @param stripes - the number of independently locked parts to split the
+	 * 				cache into (at most maximumSize are used)
+	 * @throws IllegalArgumentException
+	 * 				if maximumSize or stripes is less than 1
+	 */
+	public StripedLruCache(int maximumSize, int stripes) throws IllegalArgumentException
+	{
+		if (maximumSize < 1)
+			throw new IllegalArgumentException("maximumSize must be at least 1: " + maximumSize);
+		if (stripes < 1)
+			throw new IllegalArgumentException("stripes must be at least 1: " + stripes);
+
+		// share maximumSize out between the stripes, so the cache never holds more
+		int count = Math.min(stripes, maximumSize);
+		this.stripes = new ArrayList<Stripe>(count);
+		for (int i = 0; i < count; i++)
+		{
+			this.stripes.add(new Stripe(maximumSize / count + ((i < maximumSize % count) ? 1 : 0)));
+		}
+		this.maximumSize = maximumSize;
+	}
+
+	/**
+	 * @param key - a key
+	 * @return the value of the key (which becomes the most recently used
+	 *         entry of its stripe), or null if it is not in the cache
+	 */
+	public V get(K key)
+	{
+		Stripe stripe = stripe(key);
+		synchronized (stripe)
+		{
+			return stripe.get(key);
+		}
+	}
+
+	/**
+	 * Adds an entry, unless the key is already in the cache
+	 *
+	 * @param key - a key
+	 * @param value - the value to give the key
+	 * @return the value already in the cache, or null if value was added
+	 */
+	public V putIfAbsent(K key, V value)
+	{
+		Stripe stripe = stripe(key);
+		synchronized (stripe)
+		{
+			return stripe.putIfAbsent(key, value);
+		}
+	}
+
+	/**
+	 * Removes an entry, if the key still has the given value
+	 *
+	 * @param key - a key
+	 * @param value - the value the key is expected to have
+	 * @return true if the entry was removed
+	 */
+	public boolean remove(K key, V value)
+	{
+		Stripe stripe = stripe(key);
+		synchronized (stripe)
+		{
+			return stripe.remove(key, value);
+		}
+	}
+
+	private Stripe stripe(K key)
+	{
+		// spread the bits of the hash, as HashMap does
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return stripes.get(Math.floorMod(hash, stripes.size()));
+	}
+
+	/**
+	 * @return the greatest number of entries the cache keeps
+	 */
+	public int maximumSize()
+	{
+		return maximumSize;
+	}
+
+	/**
+	 * @return the number of entries in the cache
+	 */
+	public int size()
+	{
+		int size = 0;
+		for (Stripe stripe : stripes)
+		{
+			synchronized (stripe)
+			{
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Removes every entry from the cache (evictions are not reset)
+	 */
+	public void clear()
+	{
+		for (Stripe stripe : stripes)
+		{
+			synchronized (stripe)
+			{
+				stripe.clear();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of entries removed to keep the cache within its size
+	 */
+	public long evictions()
+	{
+		return evictions.sum();
+	}
+}
@@ -0,0 +1,106 @@
+import java.util.HashMap;
+
+/**
+ * A hash-consing table giving every distinct subexpression a small integer
+ * id, so that two subtrees are structurally equal exactly when their ids are
+ * equal.
+ *
+ * Ids are assigned bottom-up: a leaf is identified by its element, an
+ * operator by its kind and the ids of its two children, so finding the id of
+ * a position whose children already have ids takes O(1) expected time and
+ * each distinct subexpression is stored once, however often it occurs.
+ *
+ * Elements are compared as Strings, as the original comparison of the
+ * concatenated elements did ("007" and "7" are different leaves).
+ */
+public class SubexpressionTable
+{
+	private static final int INITIAL_CAPACITY = 64;		// must be a power of 2
+
+	// ids of the leaves, by element
+	private final HashMap<String, Integer> leaves = new HashMap<String, Integer>();
+
+	// ids of the operators, in an open addressing table keyed by
+	// (kind, left id, right id) packed into a long
+	private long[] keys = new long[INITIAL_CAPACITY];
+	private int[] ids = new int[INITIAL_CAPACITY];		// id + 1, 0 for an empty slot
+	private int operators;
+
+	private int size;
+
+	/**
+	 * @param element - the element of a leaf
+	 * @return the id of the leaf
+	 */
+	public int leaf(String element)
+	{
+		Integer id = leaves.get(element);
+		if (id == null)
+		{
+			id = size++;
+			leaves.put(element, id);
+		}
+		return id;
+	}
+
+	/**
+	 * @param kind - an operator kind (ADD, SUBTRACT or MULTIPLY)
+	 * @param left - the id of the left subexpression
+	 * @param right - the id of the right subexpression
+	 * @return the id of the subexpression applying kind to left and right
+	 */
+	public int operator(ExpressionTree.Kind kind, int left, int right)
+	{
+		long key = ((long) kind.ordinal() << 62) | ((long) left << 31) | right;
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while (ids[slot] != 0)
+		{
+			if (keys[slot] == key)
+				return ids[slot] - 1;
+			slot = (slot + 1) & mask;
+		}
+
+		int id = size++;
+		keys[slot] = key;
+		ids[slot] = id + 1;
+		if (++operators * 2 > keys.length)
+			grow();
+		return id;
+	}
+
+	/**
+	 * @return the number of distinct subexpressions seen so far
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	private static int hash(long key)
+	{
+		key *= 0x9E3779B97F4A7C15L;
+		return (int) (key ^ (key >>> 32));
+	}
+
+	private void grow()
+	{
+		long[] oldKeys = keys;
+		int[] oldIds = ids;
+		keys = new long[oldKeys.length * 2];
+		ids = new int[oldIds.length * 2];
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++)
+		{
+			if (oldIds[i] == 0)
+				continue;
+			int slot = hash(oldKeys[i]) & mask;
+			while (ids[slot] != 0)
+			{
+				slot = (slot + 1) & mask;
+			}
+			keys[slot] = oldKeys[i];
+			ids[slot] = oldIds[i];
+		}
+	}
+}
@@ -0,0 +1,221 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+/**
+ * An index of the variable positions of one tree, so values can be
+ * substituted into the tree repeatedly by slot number, visiting only the
+ * positions holding variables.
+ *
+ * Each distinct variable is given a slot number, in the order the variables
+ * first appear in prefix notation (the same slots CompiledExpression gives
+ * them). Building the index visits the whole tree once; after that, a call
+ * of substitute takes time proportional to the number of occurrences of the
+ * variables, not to the size of the tree, and looks up no names.
+ *
+ * The index refers to the positions of the tree, so it is only valid while
+ * none of them are removed (for instance by simplify folding a substituted
+ * variable away); substitute then throws IllegalArgumentException, before
+ * changing any position. Elements
+ * may be changed freely: substituting again overwrites the positions which
+ * held the variables, whatever they hold now.
+ *
+ * Usage:
+ * 		SymbolIndex index = Assignment.index(tree);
+ * 		int[] values = new int[index.variableCount()];
+ * 		values[index.slot("x")] = 3;
+ * 		index.substitute(values);
+ */
+public final class SymbolIndex
+{
+	private final LinkedBinaryTree<String> tree;
+	private final String[] variables;
+	private final HashMap<String, Integer> slots;
+	// positions holding variables, in prefix order, and the slot of each
+	private final ArrayList<Position<String>> occurrences;
+	private final int[] occurrenceSlots;
+	// ExpressionTree.removals() when the occurrences were last known to be in the tree
+	private int removals;
+
+	private SymbolIndex(LinkedBinaryTree<String> tree, String[] variables, HashMap<String, Integer> slots,
+			ArrayList<Position<String>> occurrences, int[] occurrenceSlots)
+	{
+		this.tree = tree;
+		this.variables = variables;
+		this.slots = slots;
+		this.occurrences = occurrences;
+		this.occurrenceSlots = occurrenceSlots;
+		this.removals = (tree instanceof ExpressionTree) ? ((ExpressionTree) tree).removals() : -1;
+	}
+
+	/**
+	 * Indexes the variables of a tree
+	 *
+	 * Performs a preorder traversal with an explicit stack, in O(n) time
+	 *
+	 * @param tree - a tree representing an arithmetic expression
+	 * @return the index of the variable positions of the tree
+	 * @throws IllegalArgumentException
+	 * 				if tree was not a valid expression
+	 */
+	public static SymbolIndex of(LinkedBinaryTree<String> tree) throws IllegalArgumentException
+	{
+		if (!Assignment.isArithmeticExpression(tree))
+			throw new IllegalArgumentException("Tree does not represent arithmetic expression");
+
+		ArrayList<String> variables = new ArrayList<String>();
+		HashMap<String, Integer> slots = new HashMap<String, Integer>();
+		ArrayList<Position<String>> occurrences = new ArrayList<Position<String>>();
+		int[] occurrenceSlots = new int[16];
+
+		ArrayDeque<Position<String>> stack = new ArrayDeque<Position<String>>();
+		stack.push(tree.root());
+		while (!stack.isEmpty())
+		{
+			Position<String> p = stack.pop();
+			if (tree.left(p) != null)
+			{
+				stack.push(tree.right(p));
+				stack.push(tree.left(p));
+			}
+			else if (ExpressionTree.kindOf(p) == ExpressionTree.Kind.VARIABLE)
+			{
+				Integer slot = slots.get(p.getElement());
+				if (slot == null)
+				{
+					slot = variables.size();
+					slots.put(p.getElement(), slot);
+					variables.add(p.getElement());
+				}
+				if (occurrences.size() == occurrenceSlots.length)
+					occurrenceSlots = Arrays.copyOf(occurrenceSlots, occurrenceSlots.length * 2);
+				occurrenceSlots[occurrences.size()] = slot;
+				occurrences.add(p);
+			}
+		}
+		return new SymbolIndex(tree, variables.toArray(new String[variables.size()]), slots, occurrences, occurrenceSlots);
+	}
+
+	/**
+	 * @return the tree this is an index of
+	 */
+	public LinkedBinaryTree<String> tree()
+	{
+		return tree;
+	}
+
+	/**
+	 * @return number of distinct variables in the tree (the number of slots)
+	 */
+	public int variableCount()
+	{
+		return variables.length;
+	}
+
+	/**
+	 * @param slot - a slot number, between 0 and variableCount() - 1
+	 * @return name of the variable in that slot
+	 */
+	public String variable(int slot)
+	{
+		return variables[slot];
+	}
+
+	/**
+	 * @param variable - a variable name
+	 * @return the slot of the variable, or -1 if it does not appear in the tree
+	 */
+	public int slot(String variable)
+	{
+		Integer slot = slots.get(variable);
+		return (slot == null) ? -1 : slot;
+	}
+
+	/**
+	 * @return number of positions holding variables
+	 */
+	public int occurrenceCount()
+	{
+		return occurrences.size();
+	}
+
+	/**
+	 * Replaces every position which held a variable with the value of its slot
+	 *
+	 * @param values - the value of each variable, indexed by slot
+	 * @return the tree, after substituting the values
+	 * @throws IllegalArgumentException
+	 * 				if values has fewer entries than there are variables, or a
+	 * 				position which held a variable has been removed from the tree
+	 */
+	public LinkedBinaryTree<String> substitute(int[] values) throws IllegalArgumentException
+	{
+		if (values == null || values.length < variables.length)
+			throw new IllegalArgumentException("a value is needed for each of the " + variables.length + " variables");
+		checkOccurrences();
+
+		for (int i = 0; i < occurrences.size(); i++)
+		{
+			ExpressionTree.setInteger(tree, occurrences.get(i), values[occurrenceSlots[i]]);
+		}
+		return tree;
+	}
+
+	/**
+	 * Replaces every position which held a variable with the value of its slot
+	 * (values outside the int range are written out in full, and are then
+	 * only evaluated by simplify in NumericMode.EXACT)
+	 *
+	 * @param values - the value of each variable, indexed by slot
+	 * @return the tree, after substituting the values
+	 * @throws IllegalArgumentException
+	 * 				if values has fewer entries than there are variables, or a
+	 * 				position which held a variable has been removed from the tree
+	 */
+	public LinkedBinaryTree<String> substitute(long[] values) throws IllegalArgumentException
+	{
+		if (values == null || values.length < variables.length)
+			throw new IllegalArgumentException("a value is needed for each of the " + variables.length + " variables");
+		checkOccurrences();
+
+		for (int i = 0; i < occurrences.size(); i++)
+		{
+			long value = values[occurrenceSlots[i]];
+			if ((int) value == value)
+				ExpressionTree.setInteger(tree, occurrences.get(i), (int) value);
+			else
+				tree.set(occurrences.get(i), Long.toString(value));
+		}
+		return tree;
+	}
+
+	/**
+	 * Helper method used by:
+	 * 		- substitute(int[] values)
+	 * 		- substitute(long[] values)
+	 *
+	 * Checks that every occurrence is still in the tree, so that substitute
+	 * fails before changing any position rather than part way through. For
+	 * an ExpressionTree from which nothing has been removed since the last
+	 * check, this takes O(1) time; otherwise each occurrence is validated.
+	 *
+	 * @throws IllegalArgumentException
+	 * 				if a position which held a variable has been removed from the tree
+	 */
+	private void checkOccurrences() throws IllegalArgumentException
+	{
+		if (tree instanceof ExpressionTree && ((ExpressionTree) tree).removals() == removals)
+			return;
+		for (Position<String> p : occurrences)
+		{
+			// throws IllegalArgumentException for a removed position
+			tree.parent(p);
+		}
+		if (tree instanceof ExpressionTree)
+			removals = ((ExpressionTree) tree).removals();
+	}
+}
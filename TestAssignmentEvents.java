@@ -0,0 +1,169 @@
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import jdk.jfr.EventType;
+import jdk.jfr.Recording;
+import jdk.jfr.SettingDescriptor;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import textbook.LinkedBinaryTree;
+
+public class TestAssignmentEvents
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final String[] EVENTS = {"Assignment.Parse", "Assignment.Validate", "Assignment.Simplify",
+			"Assignment.Substitute", "Assignment.Serialize"};
+
+	// the events of Assignment committed while task ran, with every call recorded
+	private List<RecordedEvent> record(Runnable task) throws IOException
+	{
+		Path file = folder.newFile("recording.jfr").toPath();
+		try (Recording recording = new Recording())
+		{
+			for (String event : EVENTS)
+			{
+				recording.enable(event).withThreshold(Duration.ZERO);
+			}
+			recording.start();
+			task.run();
+			recording.stop();
+			recording.dump(file);
+		}
+		List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+		for (RecordedEvent event : RecordingFile.readAllEvents(file))
+		{
+			if (event.getEventType().getName().startsWith("Assignment."))
+				events.add(event);
+		}
+		return events;
+	}
+
+	private static RecordedEvent find(List<RecordedEvent> events, String operation)
+	{
+		for (RecordedEvent event : events)
+		{
+			if (operation.equals(event.getString("operation")))
+				return event;
+		}
+		fail("No event for " + operation + " in " + events);
+		return null;
+	}
+
+	@Test (timeout = 30000)
+	public void testEvents() throws IOException
+	{
+		List<RecordedEvent> events = record(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				LinkedBinaryTree<String> tree = Assignment.prefix2tree("+ * 2 x - 3 3");
+				Assignment.simplifyFancy(tree);
+				Assignment.tree2prefix(tree);
+				HashMap<String, Integer> map = new HashMap<String, Integer>();
+				map.put("y", 1);
+				Assignment.substitute(tree, map);
+				Assignment.substitute(tree, "x", 4);
+				Assignment.simplify(tree);
+				Assignment.tree2infix(Assignment.infix2tree("1 + 2"));
+			}
+		});
+
+		RecordedEvent parse = find(events, "prefix2tree");
+		assertEquals("Assignment.Parse", parse.getEventType().getName());
+		assertEquals(7, parse.getInt("resultSize"));
+		assertEquals(2, parse.getInt("resultDepth"));
+		assertEquals("+ * 2 x - 3 3", parse.getString("expression"));
+		assertFalse(parse.getBoolean("rewritten"));
+
+		RecordedEvent fancy = find(events, "simplifyFancy");
+		assertEquals("Assignment.Simplify", fancy.getEventType().getName());
+		assertEquals(7, fancy.getInt("treeSize"));
+		assertEquals(3, fancy.getInt("resultSize"));
+		assertEquals(1, fancy.getInt("resultDepth"));
+		assertTrue(fancy.getBoolean("rewritten"));
+		assertEquals("* 2 x", fancy.getString("expression"));
+
+		RecordedEvent serialize = find(events, "tree2prefix");
+		assertEquals("Assignment.Serialize", serialize.getEventType().getName());
+		assertEquals("* 2 x", serialize.getString("expression"));
+
+		// substituting a variable the tree does not hold leaves it unchanged
+		List<RecordedEvent> substitutions = new ArrayList<RecordedEvent>();
+		for (RecordedEvent event : events)
+		{
+			if ("substitute".equals(event.getString("operation")))
+				substitutions.add(event);
+		}
+		assertEquals(2, substitutions.size());
+		assertFalse(substitutions.get(0).getBoolean("rewritten"));
+		assertTrue(substitutions.get(1).getBoolean("rewritten"));
+		assertEquals("* 2 4", substitutions.get(1).getString("expression"));
+
+		RecordedEvent simplify = find(events, "simplify");
+		assertEquals(1, simplify.getInt("resultSize"));
+		assertEquals("8", simplify.getString("expression"));
+
+		assertEquals("Assignment.Validate", find(events, "isArithmeticExpression").getEventType().getName());
+		assertEquals("Assignment.Parse", find(events, "infix2tree").getEventType().getName());
+		assertEquals("(1+2)", find(events, "tree2infix").getString("expression"));
+		assertTrue(parse.getDuration().toNanos() >= 0);
+	}
+
+	// by default, only calls of 1 ms or more are recorded
+	@Test (timeout = 5000)
+	public void testThreshold()
+	{
+		List<Class<? extends AssignmentEvents.ExpressionEvent>> types = new ArrayList<Class<? extends AssignmentEvents.ExpressionEvent>>();
+		types.add(AssignmentEvents.Parse.class);
+		types.add(AssignmentEvents.Validate.class);
+		types.add(AssignmentEvents.Simplify.class);
+		types.add(AssignmentEvents.Substitute.class);
+		types.add(AssignmentEvents.Serialize.class);
+		List<String> names = new ArrayList<String>();
+		for (Class<? extends AssignmentEvents.ExpressionEvent> type : types)
+		{
+			EventType eventType = EventType.getEventType(type);
+			names.add(eventType.getName());
+			String threshold = null;
+			for (SettingDescriptor setting : eventType.getSettingDescriptors())
+			{
+				if (setting.getName().equals("threshold"))
+					threshold = setting.getDefaultValue();
+			}
+			assertEquals(eventType.getName(), "1 ms", threshold);
+		}
+		assertEquals(Arrays.asList(EVENTS), names);
+	}
+
+	@Test (timeout = 1000)
+	public void testExpression()
+	{
+		StringBuilder prefix = new StringBuilder();
+		for (int i = 0; i < 1000; i++)
+		{
+			prefix.append("+ x").append(i).append(' ');
+		}
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree(prefix.append("y").toString());
+		String expression = AssignmentEvents.prefix(tree);
+		assertEquals(AssignmentEvents.MAX_EXPRESSION + 3, expression.length());
+		assertTrue(Assignment.tree2prefix(tree).startsWith(expression.substring(0, AssignmentEvents.MAX_EXPRESSION)));
+		assertTrue(expression.endsWith("..."));
+		// deep trees are measured without recursion
+		assertEquals(1000, AssignmentEvents.depth(tree));
+	}
+}
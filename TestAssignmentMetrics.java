@@ -0,0 +1,191 @@
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+
+import javax.management.Attribute;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import textbook.LinkedBinaryTree;
+
+public class TestAssignmentMetrics
+{
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Before
+	public void setUp()
+	{
+		AssignmentMetrics.reset();
+		AssignmentMetrics.setEnabled(true);
+	}
+
+	@After
+	public void tearDown()
+	{
+		AssignmentMetrics.setEnabled(false);
+		AssignmentMetrics.reset();
+	}
+
+	private static AssignmentMetrics.OperationMXBean operation(AssignmentMetrics.Operation operation)
+	{
+		return AssignmentMetrics.operation(operation);
+	}
+
+	@Test (timeout = 1000)
+	public void testOperations()
+	{
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree("+ * 2 x - 3 3");
+		assertEquals(1, operation(AssignmentMetrics.Operation.PREFIX2TREE).getCalls());
+		assertEquals(7, operation(AssignmentMetrics.Operation.PREFIX2TREE).getNodesVisited());
+
+		Assignment.simplifyFancy(tree);
+		assertEquals("* 2 x", Assignment.tree2prefix(tree));
+		assertEquals(1, operation(AssignmentMetrics.Operation.SIMPLIFY_FANCY).getCalls());
+		assertEquals(7, operation(AssignmentMetrics.Operation.SIMPLIFY_FANCY).getNodesVisited());
+		assertEquals(1, operation(AssignmentMetrics.Operation.TREE2PREFIX).getCalls());
+		assertEquals(3, operation(AssignmentMetrics.Operation.TREE2PREFIX).getNodesVisited());
+		// simplifyFancy and tree2prefix validate their tree, in O(1) time for an ExpressionTree
+		assertEquals(2, operation(AssignmentMetrics.Operation.IS_ARITHMETIC_EXPRESSION).getCalls());
+		assertEquals(0, operation(AssignmentMetrics.Operation.IS_ARITHMETIC_EXPRESSION).getNodesVisited());
+
+		HashMap<String, Integer> map = new HashMap<String, Integer>();
+		map.put("x", 4);
+		Assignment.substitute(tree, map);
+		Assignment.simplify(tree);
+		assertEquals(1, operation(AssignmentMetrics.Operation.SUBSTITUTE).getCalls());
+		assertEquals(1, operation(AssignmentMetrics.Operation.SIMPLIFY).getCalls());
+		Assignment.infix2tree("1 + 2");
+		Assignment.equals(tree, tree);
+		Assignment.bind(tree, map);
+		Assignment.compile(tree);
+		Assignment.index(tree);
+		Assignment.tree2infix(tree);
+		for (AssignmentMetrics.Operation op : AssignmentMetrics.Operation.values())
+		{
+			assertTrue(op.toString(), operation(op).getCalls() > 0 || op == AssignmentMetrics.Operation.EVALUATE);
+		}
+
+		// every overload is the same operation
+		Assignment.prefix2tree((CharSequence) "1");
+		assertEquals(2, operation(AssignmentMetrics.Operation.PREFIX2TREE).getCalls());
+	}
+
+	@Test (timeout = 1000)
+	public void testFoldsAndRules()
+	{
+		Assignment.simplifyFancy(Assignment.prefix2tree("- + * 1 x 0 * + 2 3 x"));
+		// 2 + 3 folds; 1 * x, then x + 0, apply rules
+		assertEquals(1, AssignmentMetrics.folds());
+		assertEquals(1, AssignmentMetrics.rule(AssignmentMetrics.Rule.ONE_TIMES_X));
+		assertEquals(1, AssignmentMetrics.rule(AssignmentMetrics.Rule.X_PLUS_ZERO));
+		assertEquals(0, AssignmentMetrics.rule(AssignmentMetrics.Rule.X_MINUS_X));
+
+		Assignment.simplifyFancy(Assignment.prefix2tree("- * x 0 - y y"));
+		assertEquals(1, AssignmentMetrics.rule(AssignmentMetrics.Rule.X_TIMES_ZERO));
+		assertEquals(1, AssignmentMetrics.rule(AssignmentMetrics.Rule.X_MINUS_X));
+		// 0 - 0 folds
+		assertEquals(2, AssignmentMetrics.folds());
+
+		Assignment.simplify(Assignment.prefix2tree("+ * 2 3 - 4 1"));
+		assertEquals(5, AssignmentMetrics.folds());
+	}
+
+	@Test (timeout = 1000)
+	public void testDisabled()
+	{
+		AssignmentMetrics.setEnabled(false);
+		assertFalse(AssignmentMetrics.isEnabled());
+		Assignment.simplifyFancy(Assignment.prefix2tree("+ * 1 x 2 3"));
+		for (AssignmentMetrics.Operation op : AssignmentMetrics.Operation.values())
+		{
+			assertEquals(0, operation(op).getCalls());
+		}
+		assertEquals(0, AssignmentMetrics.folds());
+		assertEquals(0, AssignmentMetrics.rule(AssignmentMetrics.Rule.ONE_TIMES_X));
+	}
+
+	@Test (timeout = 1000)
+	public void testLatency()
+	{
+		for (int i = 0; i < 1000; i++)
+		{
+			Assignment.prefix2tree("+ * 2 x - 3 3");
+		}
+		AssignmentMetrics.OperationMXBean metrics = operation(AssignmentMetrics.Operation.PREFIX2TREE);
+		assertEquals(1000, metrics.getCalls());
+		assertTrue(metrics.getTotalNanos() > 0);
+		assertEquals((double) metrics.getTotalNanos() / 1000, metrics.getMeanNanos(), 1e-9);
+		assertTrue(metrics.getP50Nanos() > 0);
+		assertTrue(metrics.getP50Nanos() <= metrics.getP99Nanos());
+		assertTrue(metrics.getP99Nanos() <= metrics.getP999Nanos());
+		assertTrue(metrics.getP999Nanos() <= metrics.getMaxNanos());
+
+		AssignmentMetrics.reset();
+		assertEquals(0, metrics.getCalls());
+		assertEquals(0, metrics.getP50Nanos());
+		assertEquals(0, metrics.getMaxNanos());
+	}
+
+	// each bucket holds the latencies between the limit of the previous bucket and its own
+	@Test (timeout = 1000)
+	public void testBuckets()
+	{
+		for (long nanos = 0; nanos < 100000; nanos++)
+		{
+			int bucket = AssignmentMetrics.bucket(nanos);
+			assertTrue(nanos <= AssignmentMetrics.bucketLimit(bucket));
+			assertTrue(bucket == 0 || nanos > AssignmentMetrics.bucketLimit(bucket - 1));
+		}
+		for (int shift = 3; shift < 63; shift++)
+		{
+			long nanos = 1L << shift;
+			int bucket = AssignmentMetrics.bucket(nanos);
+			assertEquals(nanos - 1, AssignmentMetrics.bucketLimit(bucket - 1));
+			// within 12.5%
+			assertTrue(AssignmentMetrics.bucketLimit(bucket) - nanos < nanos / 8);
+		}
+		assertEquals(Long.MAX_VALUE, AssignmentMetrics.bucketLimit(AssignmentMetrics.bucket(Long.MAX_VALUE)));
+	}
+
+	@Test (timeout = 2000)
+	public void testJmx() throws JMException
+	{
+		MBeanServer server = MBeanServerFactory.newMBeanServer();
+		AssignmentMetrics.register(server);
+		try
+		{
+			Assignment.simplifyFancy(Assignment.prefix2tree("* 1 x"));
+			assertEquals(1L, server.getAttribute(AssignmentMetrics.name(AssignmentMetrics.Operation.PREFIX2TREE), "Calls"));
+			assertEquals(3L, server.getAttribute(AssignmentMetrics.name(AssignmentMetrics.Operation.PREFIX2TREE), "NodesVisited"));
+			assertEquals(Boolean.TRUE, server.getAttribute(AssignmentMetrics.name(), "Enabled"));
+
+			TabularData rules = (TabularData) server.getAttribute(AssignmentMetrics.name(), "Rules");
+			CompositeData row = rules.get(new Object[] {"ONE_TIMES_X"});
+			assertEquals(1L, row.get("value"));
+
+			server.setAttribute(AssignmentMetrics.name(), new Attribute("Enabled", false));
+			assertFalse(AssignmentMetrics.isEnabled());
+			server.invoke(AssignmentMetrics.name(), "reset", new Object[0], new String[0]);
+			assertEquals(0L, server.getAttribute(AssignmentMetrics.name(AssignmentMetrics.Operation.PREFIX2TREE), "Calls"));
+
+			thrown.expect(JMException.class);
+			AssignmentMetrics.register(server);
+		}
+		finally
+		{
+			AssignmentMetrics.unregister(server);
+			// only the server's own delegate is left
+			assertEquals(1, server.queryNames(null, null).size());
+		}
+	}
+}
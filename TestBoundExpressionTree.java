@@ -0,0 +1,128 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+public class TestBoundExpressionTree 
+{
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+	
+	@Test (timeout = 100)
+	public void testBind()
+	{
+		String expression = "+ + 4 4 - - + x 7 * + 4 9 y - + x 7 * + 4 9 z";
+		LinkedBinaryTree<String> template = Assignment.prefix2tree(expression);
+		HashMap<String, Integer> values = new HashMap<String, Integer>();
+		values.put("x", 0);
+		values.put("y", -1);
+		values.put("@", 99);
+		
+		LinkedBinaryTree<String> view = Assignment.bind(template, values);
+		LinkedBinaryTree<String> expected = Assignment.substitute(Assignment.prefix2tree(expression), values);
+		assertEquals(Assignment.tree2prefix(expected), Assignment.tree2prefix(view));
+		assertEquals(Assignment.tree2infix(expected), Assignment.tree2infix(view));
+		assertTrue(Assignment.equals(expected, view));
+		assertTrue(Assignment.isArithmeticExpression(view));
+		assertEquals(expected.size(), view.size());
+		// the template is unchanged
+		assertEquals(expression, Assignment.tree2prefix(template));
+		
+		// binding the view binds the remaining variables of the template
+		LinkedBinaryTree<String> bound = Assignment.bind(view, "z", 3);
+		assertEquals("+ + 4 4 - - + 0 7 * + 4 9 -1 - + 0 7 * + 4 9 3", Assignment.tree2prefix(bound));
+		assertEquals("60", Assignment.tree2prefix(Assignment.simplify(((BoundExpressionTree) bound).toTree())));
+		assertEquals(60, Assignment.compile(bound).evaluate(new long[0]));
+		
+		// a tree which is a single variable
+		assertEquals("5", Assignment.bind(Assignment.prefix2tree("x"), "x", 5).root().getElement());
+	}
+	
+	// navigating a view behaves like navigating a substituted tree
+	@Test (timeout = 100)
+	public void testNavigation()
+	{
+		LinkedBinaryTree<String> template = Assignment.prefix2tree("* x - y x");
+		BoundExpressionTree view = Assignment.bind(template, "x", 2);
+		Position<String> left = view.left(view.root());
+		assertEquals("2", left.getElement());
+		assertTrue(view.isExternal(left));
+		assertNull(view.left(left));
+		assertSame(view.root(), view.parent(left));
+		assertEquals("-", view.sibling(left).getElement());
+		Position<String> minus = view.right(view.root());
+		assertEquals("2", view.sibling(view.left(minus)).getElement());
+		assertEquals("y", view.sibling(view.right(minus)).getElement());
+		assertTrue(view.isRoot(view.root()));
+		assertFalse(view.isRoot(left));
+		assertSame(template, view.template());
+	}
+	
+	// one template can be bound concurrently by many threads
+	@Test (timeout = 2000)
+	public void testConcurrentViews() throws Exception
+	{
+		final LinkedBinaryTree<String> template = Assignment.prefix2tree("- * x x + x 1");
+		final ArrayList<String> failures = new ArrayList<String>();
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++)
+		{
+			final int offset = t * 1000;
+			Thread thread = new Thread() 
+			{
+				public void run()
+				{
+					for (int x = offset; x < offset + 1000; x++)
+					{
+						String result = Assignment.simplify(Assignment.bind(template, "x", x).toTree()).root().getElement();
+						if (!result.equals(Integer.toString(x * x - (x + 1))))
+						{
+							synchronized (failures)
+							{
+								failures.add(x + " gave " + result);
+							}
+						}
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+		assertTrue(failures.toString(), failures.isEmpty());
+		assertEquals("- * x x + x 1", Assignment.tree2prefix(template));
+	}
+	
+	@Test (timeout = 100)
+	public void testReadOnly()
+	{
+		BoundExpressionTree view = Assignment.bind(Assignment.prefix2tree("+ x 1"), "x", 2);
+		thrown.expect(UnsupportedOperationException.class);
+		Assignment.simplify(view);
+	}
+	
+	@Test (timeout = 100)
+	public void testInvalidBindings()
+	{
+		HashMap<String, Integer> values = new HashMap<String, Integer>();
+		values.put("x", null);
+		thrown.expect(IllegalArgumentException.class);
+		Assignment.bind(Assignment.prefix2tree("+ x 1"), values);
+	}
+	
+	@Test (timeout = 100, expected = IllegalArgumentException.class)
+	public void testOperatorVariable()
+	{
+		Assignment.bind(Assignment.prefix2tree("+ x 1"), "+", 1);
+	}
+}
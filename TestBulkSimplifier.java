@@ -0,0 +1,98 @@
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+public class TestBulkSimplifier
+{
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path input;
+	private Path output;
+
+	private String simplify(String text, int chunkSize) throws IOException
+	{
+		input = folder.newFile().toPath();
+		output = new File(folder.getRoot(), "out" + chunkSize).toPath();
+		Files.write(input, text.getBytes(StandardCharsets.UTF_8));
+		BulkSimplifier.Report report = BulkSimplifier.simplify(input, output, chunkSize);
+		byte[] result = Files.readAllBytes(output);
+		assertEquals(result.length, report.bytesWritten());
+		assertEquals(Files.size(input), report.bytesRead());
+		return new String(result, StandardCharsets.UTF_8);
+	}
+
+	@Test (timeout = 1000)
+	public void testSimplify() throws IOException
+	{
+		String text = "- + 2 15 4\n* x 1\n+ * 2 x - 3 3\n";
+		String expected = "13\nx\n* 2 x\n";
+		assertEquals(expected, simplify(text, BulkSimplifier.DEFAULT_CHUNK_SIZE));
+		// chunks smaller than a line, and every size up to the whole file
+		for (int chunkSize = 1; chunkSize <= text.length(); chunkSize++)
+		{
+			assertEquals("chunkSize " + chunkSize, expected, simplify(text, chunkSize));
+		}
+	}
+
+	@Test (timeout = 1000)
+	public void testLineBreaks() throws IOException
+	{
+		// "\r\n" line breaks, blank lines, and a last line without a line break
+		assertEquals("5\n\n\nx\n7\n", simplify("+ 2 3\r\n\n  \r\n* x 1\n- 9 2", 4));
+		assertEquals("", simplify("", 4));
+		assertEquals("\n", simplify("\n", 4));
+	}
+
+	// bytes outside ASCII are copied unchanged
+	@Test (timeout = 1000)
+	public void testUtf8() throws IOException
+	{
+		assertEquals("+ \u00e9t\u00e9 2\n\u5909\u6570\n", simplify("+ \u00e9t\u00e9 * 1 2\n* \u5909\u6570 1\n", 5));
+	}
+
+	// the same result as simplifying each line through prefix2tree and tree2prefix
+	@Test (timeout = 2000)
+	public void testRandomLines() throws IOException
+	{
+		StringBuilder text = new StringBuilder();
+		StringBuilder expected = new StringBuilder();
+		for (String prefix : new RandomExpressions(5, "x", "y", "0", "1", "2", "7", "-3").list(300, 0, 11))
+		{
+			text.append(prefix).append('\n');
+			expected.append(Assignment.tree2prefix(Assignment.simplifyFancy(Assignment.prefix2tree(prefix)))).append('\n');
+		}
+		assertEquals(expected.toString(), simplify(text.toString(), 100));
+		BulkSimplifier.Report report = BulkSimplifier.simplify(input, output, 100);
+		assertEquals(300, report.lines());
+		assertTrue(report.linesPerSecond() > 0);
+		assertTrue(report.bytesPerSecond() > 0);
+	}
+
+	@Test (timeout = 1000)
+	public void testInvalidLine() throws IOException
+	{
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Line 2");
+		simplify("+ 1 2\n+ 1\n3\n", 64);
+	}
+
+	@Test (timeout = 100)
+	public void testInvalidChunkSize() throws IOException
+	{
+		thrown.expect(IllegalArgumentException.class);
+		BulkSimplifier.simplify(folder.newFile().toPath(), new File(folder.getRoot(), "out").toPath(), 0);
+	}
+}
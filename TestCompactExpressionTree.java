@@ -0,0 +1,145 @@
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import textbook.LinkedBinaryTree;
+
+public class TestCompactExpressionTree 
+{
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+	
+	private static final String[] EXPRESSIONS = {
+		"x", "7", "-7", "007", "+ 2 15", "- + 2 15 4", "- x + 1 2", "* + 2 x 007",
+		"+ + 4 4 - - + x 7 * + 4 9 x - + x 7 * + 4 9 x", "* * + 1 2 - -1 99 * + 5 -5 - 10 -10",
+		"* 99999 99999", "- + @ y * + x y * - z @ * x z", "+ x 99999999999", "* -3000000000 0099",
+		"+ 1 99999999999999999999"
+	};
+	
+	@Test (timeout = 100)
+	public void testRoundTrip()
+	{
+		for (String expression : EXPRESSIONS)
+		{
+			LinkedBinaryTree<String> tree = Assignment.prefix2tree(expression);
+			CompactExpressionTree compact = CompactExpressionTree.fromTree(tree);
+			assertEquals(tree.size(), compact.size());
+			assertTrue(Assignment.equals(tree, compact.toTree()));
+			assertEquals(Assignment.tree2prefix(tree), compact.tree2prefix());
+			assertEquals(Assignment.tree2infix(tree), compact.tree2infix());
+			assertTrue(CompactExpressionTree.equals(compact, CompactExpressionTree.fromTree(tree)));
+		}
+		assertFalse(CompactExpressionTree.equals(CompactExpressionTree.fromTree(Assignment.prefix2tree("+ 1 2")), 
+				CompactExpressionTree.fromTree(Assignment.prefix2tree("+ 2 1"))));
+		assertFalse(CompactExpressionTree.equals(CompactExpressionTree.fromTree(Assignment.prefix2tree("7")), 
+				CompactExpressionTree.fromTree(Assignment.prefix2tree("007"))));
+		assertFalse(CompactExpressionTree.equals(CompactExpressionTree.fromTree(Assignment.prefix2tree("+ + a b c")), 
+				CompactExpressionTree.fromTree(Assignment.prefix2tree("+ a + b c"))));
+	}
+	
+	@Test (timeout = 100)
+	public void testSimplify()
+	{
+		for (String expression : EXPRESSIONS)
+		{
+			CompactExpressionTree compact = CompactExpressionTree.fromTree(Assignment.prefix2tree(expression)).simplify();
+			LinkedBinaryTree<String> expected = Assignment.simplify(Assignment.prefix2tree(expression));
+			assertTrue(Assignment.equals(expected, compact.toTree()));
+			assertEquals(Assignment.tree2prefix(expected), compact.tree2prefix());
+		}
+	}
+	
+	@Test (timeout = 100)
+	public void testSubstitute()
+	{
+		HashMap<String, Integer> values = new HashMap<String, Integer>();
+		values.put("x", 0);
+		values.put("y", 1);
+		values.put("z", -1);
+		values.put("@", 99);
+		values.put("-7", 3);
+		for (String expression : EXPRESSIONS)
+		{
+			CompactExpressionTree compact = CompactExpressionTree.fromTree(Assignment.prefix2tree(expression)).substitute(values);
+			LinkedBinaryTree<String> expected = Assignment.substitute(Assignment.prefix2tree(expression), values);
+			assertEquals(Assignment.tree2prefix(expected), compact.tree2prefix());
+			
+			compact = CompactExpressionTree.fromTree(Assignment.prefix2tree(expression)).substitute("x", -4);
+			expected = Assignment.substitute(Assignment.prefix2tree(expression), "x", -4);
+			assertEquals(Assignment.tree2prefix(expected), compact.tree2prefix());
+		}
+		
+		values.put("r", null);
+		CompactExpressionTree.fromTree(Assignment.prefix2tree("+ x y")).substitute(values);	// r is not in the tree
+		thrown.expect(IllegalArgumentException.class);
+		CompactExpressionTree.fromTree(Assignment.prefix2tree("+ r y")).substitute(values);
+	}
+	
+	// substituted values reuse the literal pool rather than growing it
+	@Test (timeout = 1000)
+	public void testSubstituteReusesSlots()
+	{
+		CompactExpressionTree compact = CompactExpressionTree.fromTree(Assignment.prefix2tree("+ * x x - -5 x"));
+		LinkedBinaryTree<String> expected = Assignment.prefix2tree("+ * x x - -5 x");
+		compact.substitute("x", -2);
+		Assignment.substitute(expected, "x", -2);
+		assertEquals(Assignment.tree2prefix(expected), compact.tree2prefix());
+		long bytes = compact.estimatedBytes();
+
+		HashMap<String, Integer> values = new HashMap<String, Integer>();
+		values.put("-5", -5);
+		for (int i = 0; i < 1000; i++)
+		{
+			compact.substitute(values);
+		}
+		assertEquals(bytes, compact.estimatedBytes());
+
+		// every position that held -2 becomes -7, once, although they share a slot
+		values.put("-2", -7);
+		values.put("-7", -9);
+		compact.substitute(values);
+		Assignment.substitute(expected, values);
+		assertEquals("+ * -7 -7 - -5 -7", compact.tree2prefix());
+		assertEquals(Assignment.tree2prefix(expected), compact.tree2prefix());
+		assertEquals(bytes, compact.estimatedBytes());
+		assertEquals(51, compact.simplify().literal(0));
+	}
+	
+	@Test (timeout = 100, expected = IllegalArgumentException.class)
+	public void testSubstituteOperator()
+	{
+		CompactExpressionTree.fromTree(Assignment.prefix2tree("+ x y")).substitute("*", 2);
+	}
+	
+	@Test (timeout = 100, expected = IllegalArgumentException.class)
+	public void testFromInvalidTree()
+	{
+		LinkedBinaryTree<String> tree = new LinkedBinaryTree<String>();
+		tree.addRoot("+");
+		tree.addLeft(tree.root(), "x");
+		CompactExpressionTree.fromTree(tree);
+	}
+	
+	// deep chains are converted and simplified without recursion
+	@Test (timeout = 2000)
+	public void testDeepChain()
+	{
+		StringBuilder expression = new StringBuilder();
+		for (int i = 0; i < 100000; i++)
+		{
+			expression.append("+ 1 ");
+		}
+		expression.append("x");
+		CompactExpressionTree compact = CompactExpressionTree.fromTree(Assignment.prefix2tree(expression.toString()));
+		assertEquals(200001, compact.size());
+		assertEquals(expression.toString(), compact.tree2prefix());
+		assertEquals(200001, compact.toTree().size());
+		assertEquals(200001, compact.simplify().size());
+		compact.substitute("x", 1).simplify();
+		assertEquals("100001", compact.tree2prefix());
+	}
+}
@@ -0,0 +1,223 @@
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import textbook.LinkedBinaryTree;
+
+public class TestCompiledExpression 
+{
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+	
+	@Test (timeout = 100)
+	public void testEvaluate()
+	{
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree("+ * 2 x y");
+		CompiledExpression compiled = Assignment.compile(tree);
+		assertEquals(2, compiled.variableCount());
+		assertEquals(0, compiled.slot("x"));
+		assertEquals(1, compiled.slot("y"));
+		assertEquals(-1, compiled.slot("z"));
+		assertEquals("y", compiled.variable(1));
+		assertEquals(10, compiled.evaluate(new long[] {3, 4}));
+		assertEquals(-2, compiled.evaluate(new int[] {-3, 4}));
+		// the tree is untouched
+		assertEquals("+ * 2 x y", Assignment.tree2prefix(tree));
+		
+		// constant expressions have no slots
+		assertEquals(-42, Assignment.compile(Assignment.prefix2tree("- 8 * 5 10")).evaluate(new long[0]));
+		assertEquals(7, Assignment.compile(Assignment.prefix2tree("007")).evaluate(new long[0]));
+	}
+	
+	// evaluating must agree with substitute followed by simplify
+	@Test (timeout = 100)
+	public void testMatchesSubstituteSimplify()
+	{
+		String[] expressions = {"x", "- x y", "- - x y z", "- x - y z", "* + a b - c d", 
+				"+ + 4 4 - - + a 7 * + 4 9 b - + c 7 * + 4 9 d", "- * 3 - a b + c * d - a 2"};
+		int[][] bindings = {{0, 0, 0, 0}, {1, 2, 3, 4}, {-5, 7, -11, 13}, {100, -1, 0, 99}};
+		for (String expression : expressions)
+		{
+			CompiledExpression compiled = Assignment.compile(Assignment.prefix2tree(expression));
+			for (int[] values : bindings)
+			{
+				HashMap<String, Integer> map = new HashMap<String, Integer>();
+				String[] names = {"a", "b", "c", "d"};
+				String[] otherNames = {"x", "y", "z", "w"};
+				for (int v = 0; v < names.length; v++)
+				{
+					map.put(names[v], values[v]);
+					map.put(otherNames[v], values[v]);
+				}
+				int[] slotValues = new int[compiled.variableCount()];
+				for (int slot = 0; slot < slotValues.length; slot++)
+				{
+					slotValues[slot] = map.get(compiled.variable(slot));
+				}
+				LinkedBinaryTree<String> tree = Assignment.simplify(Assignment.substitute(Assignment.prefix2tree(expression), map));
+				assertEquals(expression, Long.parseLong(tree.root().getElement()), compiled.evaluate(slotValues));
+			}
+		}
+	}
+	
+	// the evaluation stack stays shallow for deep chains in either direction
+	@Test (timeout = 2000)
+	public void testDeepChains()
+	{
+		StringBuilder right = new StringBuilder();
+		StringBuilder left = new StringBuilder();
+		for (int i = 0; i < 100000; i++)
+		{
+			right.append("- x ");
+			left.append("- ");
+		}
+		right.append("1");
+		left.append("x");
+		for (int i = 0; i < 100000; i++)
+		{
+			left.append(" 1");
+		}
+		CompiledExpression compiled = Assignment.compile(Assignment.prefix2tree(right.toString()));
+		assertTrue(compiled.maxStack() <= 2);
+		assertEquals(1, compiled.evaluate(new long[] {5}));		// x - (x - ... (x - 1)) is 1 for an even number of x
+		compiled = Assignment.compile(Assignment.prefix2tree(left.toString()));
+		assertTrue(compiled.maxStack() <= 2);
+		assertEquals(5 - 100000, compiled.evaluate(new long[] {5}));
+	}
+	
+	@Test (timeout = 100)
+	public void testOverflow()
+	{
+		CompiledExpression compiled = Assignment.compile(Assignment.prefix2tree("* x x"));
+		assertEquals(99999L * 99999L, compiled.evaluate(new int[] {99999}));
+		thrown.expect(ArithmeticException.class);
+		compiled.evaluate(new long[] {Long.MAX_VALUE});
+	}
+	
+	// literals outside the int range are constants, not variables
+	@Test (timeout = 100)
+	public void testLongLiterals()
+	{
+		CompiledExpression compiled = Assignment.compile(Assignment.prefix2tree("+ x 99999999999"));
+		assertEquals(1, compiled.variableCount());
+		assertEquals("x", compiled.variable(0));
+		assertEquals(-1, compiled.slot("99999999999"));
+		assertEquals(100000000000L, compiled.evaluate(new long[] {1}));
+		assertEquals(-6000000000L, Assignment.compile(Assignment.prefix2tree("* -3000000000 2")).evaluate(new long[0]));
+		assertEquals(Long.MAX_VALUE, Assignment.compile(Assignment.prefix2tree("9223372036854775807")).evaluate(new long[0]));
+
+		thrown.expect(ArithmeticException.class);
+		Assignment.compile(Assignment.prefix2tree("+ x 9223372036854775808"));
+	}
+	
+	// batch evaluation over columns agrees with evaluating one row at a time
+	@Test (timeout = 1000)
+	public void testBatch()
+	{
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree("- * 3 - a b + c * d - a 2");
+		CompiledExpression compiled = Assignment.compile(tree);
+		int rows = 3 * CompiledExpression.BATCH_CHUNK + 17;
+		int[] a = new int[rows];
+		long[] b = new long[rows];
+		int[] c = new int[rows];
+		long[] d = new long[rows];
+		for (int row = 0; row < rows; row++)
+		{
+			a[row] = row - 1000;
+			b[row] = 7L * row;
+			c[row] = -row;
+			d[row] = row % 13;
+		}
+		HashMap<String, Object> columns = new HashMap<String, Object>();
+		columns.put("a", a);
+		columns.put("b", b);
+		columns.put("c", c);
+		columns.put("d", d);
+		columns.put("unused", new int[0]);
+		long[] results = new long[rows];
+		Assignment.evaluate(tree, columns, results);
+		
+		long[] values = new long[compiled.variableCount()];
+		for (int row = 0; row < rows; row++)
+		{
+			values[compiled.slot("a")] = a[row];
+			values[compiled.slot("b")] = b[row];
+			values[compiled.slot("c")] = c[row];
+			values[compiled.slot("d")] = d[row];
+			assertEquals(compiled.evaluate(values), results[row]);
+		}
+	}
+	
+	@Test (timeout = 100)
+	public void testBatchOverflow()
+	{
+		CompiledExpression compiled = Assignment.compile(Assignment.prefix2tree("- * x x y"));
+		HashMap<String, Object> columns = new HashMap<String, Object>();
+		columns.put("x", new long[] {3, 3037000500L});
+		columns.put("y", new long[] {1, 0});
+		long[] results = new long[1];
+		compiled.evaluate(columns, results);
+		assertEquals(8, results[0]);
+		thrown.expect(ArithmeticException.class);
+		compiled.evaluate(columns, new long[2]);
+	}
+	
+	@Test (timeout = 100, expected = IllegalArgumentException.class)
+	public void testBatchMissingColumn()
+	{
+		HashMap<String, Object> columns = new HashMap<String, Object>();
+		columns.put("x", new int[4]);
+		Assignment.evaluate(Assignment.prefix2tree("+ x y"), columns, new long[4]);
+	}
+	
+	@Test (timeout = 100, expected = IllegalArgumentException.class)
+	public void testMissingValues()
+	{
+		Assignment.compile(Assignment.prefix2tree("+ x y")).evaluate(new long[] {1});
+	}
+	
+	@Test (timeout = 100, expected = IllegalArgumentException.class)
+	public void testNullStack()
+	{
+		Assignment.compile(Assignment.prefix2tree("+ x y")).evaluate(new long[] {1, 2}, null);
+	}
+	
+	// int values are widened into an array of the thread, however many variables there are
+	@Test (timeout = 100)
+	public void testManyIntValues()
+	{
+		StringBuilder prefix = new StringBuilder();
+		int[] values = new int[40];
+		for (int i = 0; i < values.length; i++)
+		{
+			if (i < values.length - 1)
+				prefix.append("- ");
+			values[i] = Integer.MIN_VALUE + i;
+		}
+		prefix.append("v0");
+		for (int i = 1; i < values.length; i++)
+		{
+			prefix.append(" v").append(i);
+		}
+		CompiledExpression compiled = Assignment.compile(Assignment.prefix2tree(prefix.toString()));
+		long expected = values[0];
+		for (int i = 1; i < values.length; i++)
+		{
+			expected -= values[i];
+		}
+		assertEquals(expected, compiled.evaluate(values));
+		assertEquals(3, Assignment.compile(Assignment.prefix2tree("- x y")).evaluate(new int[] {5, 2}));
+	}
+	
+	@Test (timeout = 100, expected = IllegalArgumentException.class)
+	public void testInvalidTree()
+	{
+		LinkedBinaryTree<String> tree = new LinkedBinaryTree<String>();
+		tree.addRoot("*");
+		Assignment.compile(tree);
+	}
+}
@@ -0,0 +1,161 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import textbook.LinkedBinaryTree;
+
+public class TestEvaluationCache
+{
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	private static HashMap<String, Integer> map(Object... entries)
+	{
+		HashMap<String, Integer> map = new HashMap<String, Integer>();
+		for (int i = 0; i < entries.length; i += 2)
+		{
+			map.put((String) entries[i], (Integer) entries[i + 1]);
+		}
+		return map;
+	}
+
+	// results agree with substitute followed by simplify
+	@Test (timeout = 100)
+	public void testEvaluate()
+	{
+		EvaluationCache cache = new EvaluationCache(100, 1, TimeUnit.MINUTES, NumericMode.WRAPPING);
+		String[] expressions = {"+ * 2 x y", "- x x", "* + x 1 - y z", "x", "7", "+ 99999999999 x"};
+		ArrayList<HashMap<String, Integer>> bindings = new ArrayList<HashMap<String, Integer>>();
+		bindings.add(map());
+		bindings.add(map("x", 3));
+		bindings.add(map("x", 3, "y", -4));
+		bindings.add(map("y", 2, "z", 0, "w", 9));
+		for (String expression : expressions)
+		{
+			for (HashMap<String, Integer> values : bindings)
+			{
+				LinkedBinaryTree<String> expected = Assignment.simplify(Assignment.substitute(Assignment.prefix2tree(expression), values));
+				assertEquals(Assignment.tree2prefix(expected), Assignment.tree2prefix(cache.evaluate(expression, values)));
+				// the second time is a hit
+				long hits = cache.hits();
+				assertEquals(Assignment.tree2prefix(expected), Assignment.tree2prefix(cache.evaluate(expression, values)));
+				assertEquals(hits + 1, cache.hits());
+			}
+		}
+	}
+
+	@Test (timeout = 100)
+	public void testHits()
+	{
+		EvaluationCache cache = new EvaluationCache(100, 1, TimeUnit.MINUTES, NumericMode.EXACT);
+		LinkedBinaryTree<String> result = cache.evaluate("* x 99999", map("x", 99999));
+		assertEquals("9999800001", Assignment.tree2prefix(result));
+		assertSame(result, cache.evaluate("* x 99999", map("x", 99999)));
+		// variables the expression does not use are not part of the key
+		assertSame(result, cache.evaluate("* x 99999", map("x", 99999, "y", 5)));
+		assertEquals(2, cache.hits());
+		assertEquals(1, cache.misses());
+
+		assertNotSame(result, cache.evaluate("* x 99999", map("x", 2)));
+		assertEquals("+ y 1", Assignment.tree2prefix(cache.evaluate("+ y x", map("x", 1))));
+		assertEquals(3, cache.size());
+
+		// results cannot be changed
+		thrown.expect(UnsupportedOperationException.class);
+		Assignment.substitute(cache.evaluate("+ y x", map("x", 1)), "y", 2);
+	}
+
+	@Test (timeout = 1000)
+	public void testExpiry() throws InterruptedException
+	{
+		EvaluationCache cache = new EvaluationCache(100, 20, TimeUnit.MILLISECONDS, NumericMode.WRAPPING);
+		LinkedBinaryTree<String> result = cache.evaluate("- x 1", map("x", 5));
+		assertSame(result, cache.evaluate("- x 1", map("x", 5)));
+		Thread.sleep(50);
+		LinkedBinaryTree<String> again = cache.evaluate("- x 1", map("x", 5));
+		assertNotSame(result, again);
+		assertEquals("4", Assignment.tree2prefix(again));
+		assertEquals(1, cache.expirations());
+		assertEquals(2, cache.misses());
+		assertEquals(1, cache.size());
+	}
+
+	@Test (timeout = 100)
+	public void testEviction()
+	{
+		EvaluationCache cache = new EvaluationCache(10, 1, TimeUnit.MINUTES, NumericMode.WRAPPING);
+		for (int i = 0; i < 100; i++)
+		{
+			cache.evaluate("* x 2", map("x", i));
+		}
+		assertTrue(cache.size() <= 10);
+		assertEquals(100 - cache.size(), cache.evictions());
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+
+	// bindings of integer elements are substituted as substitute does, without caching
+	@Test (timeout = 100)
+	public void testIntegerKey()
+	{
+		EvaluationCache cache = new EvaluationCache(10, 1, TimeUnit.MINUTES, NumericMode.WRAPPING);
+		assertEquals("2", Assignment.tree2prefix(cache.evaluate("+ -7 x", map("-7", 1, "x", 1))));
+		assertEquals("-6", Assignment.tree2prefix(cache.evaluate("+ -7 x", map("x", 1))));
+	}
+
+	// a literal too long for a long is evaluated (and cached) like any other expression
+	@Test (timeout = 100)
+	public void testOversizedLiteral()
+	{
+		EvaluationCache cache = new EvaluationCache(10, 1, TimeUnit.MINUTES, NumericMode.WRAPPING);
+		assertEquals("+ 1 99999999999999999999", Assignment.tree2prefix(cache.evaluate("+ 1 99999999999999999999", map("x", 1))));
+		assertEquals("+ 2 99999999999999999999", Assignment.tree2prefix(cache.evaluate("+ x 99999999999999999999", map("x", 2))));
+		assertEquals("+ 2 99999999999999999999", Assignment.tree2prefix(cache.evaluate("+ x 99999999999999999999", map("x", 2))));
+		assertEquals(1, cache.hits());
+	}
+
+	// a binding of a literal outside the int range is substituted, not looked up in the cache
+	@Test (timeout = 100)
+	public void testLongLiteralKey()
+	{
+		EvaluationCache cache = new EvaluationCache(10, 1, TimeUnit.MINUTES, NumericMode.WRAPPING);
+		assertEquals("+ 1 -99999999999", Assignment.tree2prefix(cache.evaluate("+ 1 -99999999999", map("x", 1))));
+		assertEquals("6", Assignment.tree2prefix(cache.evaluate("+ 1 -99999999999", map("-99999999999", 5))));
+		assertEquals("+ 1 -99999999999", Assignment.tree2prefix(cache.evaluate("+ 1 -99999999999", map("x", 1))));
+	}
+
+	@Test (timeout = 100)
+	public void testInvalid()
+	{
+		EvaluationCache cache = new EvaluationCache(10, 1, TimeUnit.MINUTES, NumericMode.WRAPPING);
+		// a null value is only an error for a variable of the expression
+		assertEquals("x", Assignment.tree2prefix(cache.evaluate("x", map("y", null))));
+		try
+		{
+			cache.evaluate("x", map("x", null));
+			fail();
+		}
+		catch (IllegalArgumentException e)
+		{
+			assertEquals(1, cache.size());
+		}
+		try
+		{
+			cache.evaluate("x", map("12", 1));
+			fail();
+		}
+		catch (IllegalArgumentException e)
+		{
+			assertEquals(1, cache.size());
+		}
+
+		thrown.expect(IllegalArgumentException.class);
+		cache.evaluate("+ x", map());
+	}
+}
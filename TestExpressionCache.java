@@ -0,0 +1,162 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import textbook.LinkedBinaryTree;
+
+public class TestExpressionCache
+{
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test (timeout = 100)
+	public void testHitsAndMisses()
+	{
+		ExpressionCache cache = new ExpressionCache(100);
+		LinkedBinaryTree<String> tree = cache.tree("+ * 2 x y");
+		assertEquals("+ * 2 x y", Assignment.tree2prefix(tree));
+		assertEquals("((2*x)+y)", Assignment.tree2infix(tree));
+		assertEquals(0, cache.hits());
+		assertEquals(1, cache.misses());
+
+		// the same tree is shared by every lookup of the expression
+		assertSame(tree, cache.tree("+ * 2 x y"));
+		assertEquals(1, cache.hits());
+		assertEquals(1, cache.size());
+
+		CompiledExpression compiled = cache.compiled("+ * 2 x y");
+		assertSame(compiled, cache.compiled("+ * 2 x y"));
+		assertEquals(3, cache.hits());
+		assertEquals(10, compiled.evaluate(new long[] {3, 4}));
+
+		// a different string is a different expression
+		assertNotSame(tree, cache.tree("+ * 2 x  y"));
+		assertEquals(2, cache.misses());
+
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(100, cache.maximumSize());
+	}
+
+	// cached trees cannot be changed, but copies of them can
+	@Test (timeout = 100)
+	public void testReadOnly()
+	{
+		ExpressionCache cache = new ExpressionCache(10);
+		LinkedBinaryTree<String> tree = cache.tree("+ 1 2");
+		assertEquals("3", Assignment.tree2prefix(Assignment.simplify(((BoundExpressionTree) tree).toTree())));
+		assertEquals("+ 1 2", Assignment.tree2prefix(cache.tree("+ 1 2")));
+
+		thrown.expect(UnsupportedOperationException.class);
+		Assignment.simplify(tree);
+	}
+
+	@Test (timeout = 100)
+	public void testSimplified()
+	{
+		ExpressionCache cache = new ExpressionCache(10, 1, NumericMode.EXACT);
+		assertEquals("+ x 9999800001", Assignment.tree2prefix(cache.tree("+ x * 99999 99999")));
+		assertEquals("- 3 x", Assignment.tree2prefix(cache.tree("- + 1 2 x")));
+	}
+
+	// the least recently used expression is evicted first
+	@Test (timeout = 100)
+	public void testEviction()
+	{
+		ExpressionCache cache = new ExpressionCache(2, 1, null);
+		LinkedBinaryTree<String> a = cache.tree("a");
+		cache.tree("b");
+		cache.tree("a");
+		cache.tree("c");
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.evictions());
+		assertSame(a, cache.tree("a"));
+		assertEquals(2, cache.hits());
+		cache.tree("b");
+		assertEquals(4, cache.misses());
+		assertEquals(2, cache.evictions());
+
+		// the size is shared out between the stripes
+		cache = new ExpressionCache(5, 16, null);
+		for (int i = 0; i < 100; i++)
+		{
+			cache.tree("+ x " + i);
+		}
+		assertTrue(cache.size() <= 5);
+		assertEquals(100 - cache.size(), cache.evictions());
+	}
+
+	// invalid expressions are rejected and not cached
+	@Test (timeout = 100)
+	public void testInvalid()
+	{
+		ExpressionCache cache = new ExpressionCache(10);
+		try
+		{
+			cache.tree("+ 1");
+			fail();
+		}
+		catch (IllegalArgumentException e)
+		{
+			assertEquals(0, cache.size());
+		}
+
+		thrown.expect(IllegalArgumentException.class);
+		cache.tree(null);
+	}
+
+	@Test (timeout = 100)
+	public void testInvalidSize()
+	{
+		thrown.expect(IllegalArgumentException.class);
+		new ExpressionCache(0);
+	}
+
+	// many threads sharing a cache smaller than the set of expressions see the right trees
+	@Test (timeout = 2000)
+	public void testConcurrent() throws InterruptedException
+	{
+		final ExpressionCache cache = new ExpressionCache(64, 4, null);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 8; t++)
+		{
+			final int seed = t;
+			Thread thread = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						for (int i = 0; i < 5000; i++)
+						{
+							int n = (i * 31 + seed) % 100;
+							String expression = "- * " + n + " x " + n;
+							assertEquals(expression, Assignment.tree2prefix(cache.tree(expression)));
+							assertEquals(n * 2 - n, cache.compiled(expression).evaluate(new long[] {2}));
+						}
+					}
+					catch (Throwable e)
+					{
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+		assertNull(failure.get());
+		assertEquals(8 * 5000 * 2, cache.hits() + cache.misses());
+		assertTrue(cache.size() <= 64);
+	}
+}
@@ -0,0 +1,218 @@
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import textbook.LinkedBinaryTree;
+
+public class TestExpressionCodec
+{
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	private static List<LinkedBinaryTree<String>> roundTrip(String... prefixes)
+	{
+		List<LinkedBinaryTree<String>> trees = new ArrayList<LinkedBinaryTree<String>>();
+		for (String prefix : prefixes)
+		{
+			trees.add(Assignment.prefix2tree(prefix));
+		}
+		ByteBuffer buffer = ExpressionCodec.encode(trees);
+		assertEquals(ExpressionCodec.encodedLength(trees), buffer.remaining());
+		List<CompactExpressionTree> compact = ExpressionCodec.decodeCompact(buffer.duplicate());
+		List<LinkedBinaryTree<String>> decoded = ExpressionCodec.decode(buffer);
+		assertFalse(buffer.hasRemaining());
+		assertEquals(prefixes.length, decoded.size());
+		assertEquals(prefixes.length, compact.size());
+		for (int i = 0; i < prefixes.length; i++)
+		{
+			assertEquals(prefixes[i], Assignment.tree2prefix(decoded.get(i)));
+			assertEquals(prefixes[i], compact.get(i).tree2prefix());
+			assertTrue(CompactExpressionTree.equals(CompactExpressionTree.fromTree(trees.get(i)), compact.get(i)));
+		}
+		return decoded;
+	}
+
+	@Test (timeout = 100)
+	public void testRoundTrip()
+	{
+		roundTrip("- + 2 15 4");
+		roundTrip("x");
+		roundTrip("+ * 2 x - y x", "* x 7", "-2147483648", "2147483647");
+		// elements which are not written as Integer.toString would write them
+		roundTrip("+ 007 * +5 -0", "- 99999999999 x", "* 0099999999999 -99999999999999999999");
+		roundTrip();
+
+		List<LinkedBinaryTree<String>> decoded = roundTrip("* 2 3");
+		assertTrue(decoded.get(0) instanceof ExpressionTree);
+		assertEquals("6", Assignment.tree2prefix(Assignment.simplify(decoded.get(0))));
+	}
+
+	// each variable is stored once, however often it occurs
+	@Test (timeout = 100)
+	public void testDictionary()
+	{
+		List<LinkedBinaryTree<String>> one = Collections.singletonList(Assignment.prefix2tree("+ variable 1"));
+		List<LinkedBinaryTree<String>> many = Arrays.asList(Assignment.prefix2tree("+ variable variable"), Assignment.prefix2tree("* variable variable"));
+		// the second occurrence takes the place of the literal, and the second tree is 6 more bytes
+		assertEquals(ExpressionCodec.encodedLength(one) + 6, ExpressionCodec.encodedLength(many));
+
+		List<LinkedBinaryTree<String>> decoded = ExpressionCodec.decode(ExpressionCodec.encode(many));
+		LinkedBinaryTree<String> tree = decoded.get(1);
+		assertSame(tree.left(tree.root()).getElement(), decoded.get(0).right(decoded.get(0).root()).getElement());
+	}
+
+	// decoding starts at the buffer's position, and works on direct buffers
+	@Test (timeout = 100)
+	public void testBuffers()
+	{
+		List<LinkedBinaryTree<String>> trees = Collections.singletonList(Assignment.prefix2tree("- * x 300 -70000"));
+		ByteBuffer direct = ByteBuffer.allocateDirect(3 + ExpressionCodec.encodedLength(trees) + 2);
+		direct.put(new byte[3]);
+		ExpressionCodec.encode(trees, direct);
+		direct.put((byte) 1).put((byte) 2);
+		direct.flip().position(3);
+		assertEquals("- * x 300 -70000", Assignment.tree2prefix(ExpressionCodec.decode(direct).get(0)));
+		assertEquals(2, direct.remaining());
+	}
+
+	@Test (timeout = 1000)
+	public void testRandomTrees()
+	{
+		Random random = new Random(19);
+		RandomExpressions expressions = new RandomExpressions(random, "x", "y", "0", "-1", "127", "128", "-70000", "2147483647", "ab1");
+		for (int trial = 0; trial < 200; trial++)
+		{
+			String prefix = expressions.next(random.nextInt(30));
+			roundTrip(prefix, prefix);
+		}
+	}
+
+	@Test (timeout = 100)
+	public void testNullElements()
+	{
+		LinkedBinaryTree<String> tree = new LinkedBinaryTree<String>();
+		tree.addRoot("+");
+		tree.addLeft(tree.root(), null);
+		tree.addRight(tree.root(), "");
+		ByteBuffer buffer = ExpressionCodec.encode(Collections.singletonList(tree));
+		CompactExpressionTree compact = ExpressionCodec.decodeCompact(buffer.duplicate()).get(0);
+		assertNull(compact.element(1));
+		assertEquals("", compact.element(2));
+		LinkedBinaryTree<String> decoded = ExpressionCodec.decode(buffer).get(0);
+		assertNull(decoded.left(decoded.root()).getElement());
+		assertEquals("", decoded.right(decoded.root()).getElement());
+	}
+
+	@Test (timeout = 100)
+	public void testTruncated()
+	{
+		ByteBuffer buffer = ExpressionCodec.encode(Collections.singletonList(Assignment.prefix2tree("+ x 1")));
+		buffer.limit(buffer.limit() - 1);
+		try
+		{
+			ExpressionCodec.decodeCompact(buffer.duplicate());
+			fail();
+		}
+		catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+		thrown.expect(IllegalArgumentException.class);
+		ExpressionCodec.decode(buffer);
+	}
+
+	// the number of positions must match the tree which follows
+	@Test (timeout = 100)
+	public void testWrongSize()
+	{
+		ByteBuffer buffer = ExpressionCodec.encode(Arrays.asList(Assignment.prefix2tree("+ x 1"), Assignment.prefix2tree("7")));
+		// the first tree's size follows the header, the name "x" and the count of trees
+		assertEquals(3, buffer.get(9));
+		for (byte size : new byte[] {1, 2, 4})
+		{
+			buffer.put(9, size);
+			try
+			{
+				ExpressionCodec.decodeCompact(buffer.duplicate());
+				fail("decodeCompact " + size);
+			}
+			catch (IllegalArgumentException e)
+			{
+				// expected
+			}
+			try
+			{
+				ExpressionCodec.decode(buffer.duplicate());
+				fail("decode " + size);
+			}
+			catch (IllegalArgumentException e)
+			{
+				// expected
+			}
+		}
+	}
+
+	// counts and lengths read from the buffer are checked before anything is allocated for them
+	@Test (timeout = 100)
+	public void testCorrupt()
+	{
+		byte[][] bodies = {
+			{1, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07, 0, 0},	// a name of 2^31 - 1 bytes
+			{1, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f, 0, 0},	// a name of -1 bytes
+			{(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f, 0, 0},		// -1 names
+			{0, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f, 0},		// -1 trees
+			{1, 1, '+', 1, 1, CompactExpressionTree.VARIABLE, 0}					// a tree of the name "+"
+		};
+		for (byte[] body : bodies)
+		{
+			ByteBuffer buffer = ByteBuffer.allocate(5 + body.length);
+			buffer.putInt(ExpressionCodec.MAGIC).put((byte) ExpressionCodec.VERSION).put(body).flip();
+			try
+			{
+				ExpressionCodec.decode(buffer.duplicate());
+				fail("decode " + Arrays.toString(body));
+			}
+			catch (IllegalArgumentException e)
+			{
+				// expected
+			}
+			try
+			{
+				ExpressionCodec.decodeCompact(buffer.duplicate());
+				fail("decodeCompact " + Arrays.toString(body));
+			}
+			catch (IllegalArgumentException e)
+			{
+				// expected
+			}
+		}
+	}
+
+	@Test (timeout = 100)
+	public void testWrongVersion()
+	{
+		ByteBuffer buffer = ExpressionCodec.encode(Collections.singletonList(Assignment.prefix2tree("+ x 1")));
+		buffer.put(4, (byte) (ExpressionCodec.VERSION + 1));
+		thrown.expect(IllegalArgumentException.class);
+		ExpressionCodec.decode(buffer);
+	}
+
+	@Test (timeout = 100)
+	public void testInvalidTree()
+	{
+		LinkedBinaryTree<String> tree = new LinkedBinaryTree<String>();
+		tree.addRoot("+");
+		tree.addLeft(tree.root(), "x");
+		thrown.expect(IllegalArgumentException.class);
+		ExpressionCodec.encode(Collections.singletonList(tree));
+	}
+}
@@ -0,0 +1,195 @@
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import textbook.LinkedBinaryTree;
+
+public class TestExpressionServer
+{
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	private ExpressionServer server;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		server = new ExpressionServer(0, SimplificationPipeline.Threads.PLATFORM,
+				new EvaluationCache(100, 1, TimeUnit.MINUTES, NumericMode.WRAPPING));
+	}
+
+	@After
+	public void tearDown() throws IOException
+	{
+		server.close();
+	}
+
+	// sends every request before reading any reply
+	private String[] send(String... requests) throws IOException
+	{
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.port()))
+		{
+			Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+			for (String request : requests)
+			{
+				out.write(request);
+			}
+			out.flush();
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			String[] replies = new String[requests.length];
+			for (int i = 0; i < replies.length; i++)
+			{
+				replies[i] = in.readLine();
+			}
+			return replies;
+		}
+	}
+
+	@Test (timeout = 2000)
+	public void testSimplify() throws IOException
+	{
+		assertArrayEquals(new String[] {"OK 13", "OK * 2 x", "OK x"},
+				send("- + 2 15 4\n", "+ * 2 x - 3 3\r\n", "* x 1\n"));
+	}
+
+	@Test (timeout = 2000)
+	public void testEvaluate() throws IOException
+	{
+		assertArrayEquals(new String[] {"OK 2", "OK 2", "OK + 6 y", "OK + * 2 x y"},
+				send("+ * 2 x y | x=3 y=-4\n", "+ * 2 x y|y=-4   x=3 \n", "+ * 2 x y | x=3\n", "+ * 2 x y |\n"));
+	}
+
+	@Test (timeout = 2000)
+	public void testErrors() throws IOException
+	{
+		String[] replies = send("+ 1\n", "+ x 1 | x\n", "+ x 1 | x=one\n", "+ x 1 | +=1\n", "\n", "* 3 3\n");
+		for (int i = 0; i < 4; i++)
+		{
+			assertTrue(replies[i], replies[i].startsWith("ERR "));
+		}
+		// a blank request has a blank result, and the connection is still served after an error
+		assertEquals("OK ", replies[4]);
+		assertEquals("OK 9", replies[5]);
+	}
+
+	// a request too deep for the stack is answered with an error, and the connection is still served
+	@Test (timeout = 10000)
+	public void testDeepRequest() throws IOException
+	{
+		StringBuilder deep = new StringBuilder();
+		for (int i = 0; i < 500000; i++)
+		{
+			deep.append("+ x ");
+		}
+		deep.append("1\n");
+		String[] replies = send(deep.toString(), "* 3 3\n");
+		assertEquals("ERR expression is nested too deeply to simplify", replies[0]);
+		assertEquals("OK 9", replies[1]);
+	}
+
+	// any exception while answering is an error reply, and the connection is still served
+	@Test (timeout = 2000)
+	public void testUnexpectedException() throws IOException
+	{
+		// a literal too long for a long is not an error
+		assertEquals("OK + 99999999999999999999 1", send("+ 99999999999999999999 x | x=1\n")[0]);
+
+		server.close();
+		server = new ExpressionServer(0, SimplificationPipeline.Threads.PLATFORM,
+				new EvaluationCache(100, 1, TimeUnit.MINUTES, NumericMode.WRAPPING)
+				{
+					@Override
+					public LinkedBinaryTree<String> evaluate(String expression, Map<String, Integer> bindings)
+					{
+						throw new ArithmeticException("overflow");
+					}
+				});
+		assertArrayEquals(new String[] {"ERR overflow", "OK 9"}, send("+ x 1 | x=1\n", "* 3 3\n"));
+	}
+
+	@Test (timeout = 2000)
+	public void testUtf8() throws IOException
+	{
+		assertArrayEquals(new String[] {"OK \u5909\u6570"}, send("* \u5909\u6570 1\n"));
+	}
+
+	@Test (timeout = 5000)
+	public void testLoadGenerator() throws IOException, InterruptedException
+	{
+		ExpressionLoadGenerator.Report report = ExpressionLoadGenerator.run(server.port(), 20, 50,
+				ExpressionLoadGenerator.randomRequests(100, 1), SimplificationPipeline.Threads.PLATFORM);
+		assertEquals(20, report.connections());
+		assertEquals(1000, report.requests());
+		assertEquals(0, report.errors());
+		assertTrue(report.requestsPerSecond() > 0);
+		assertTrue(report.latency(50) > 0);
+		assertTrue(report.latency(50) <= report.latency(99));
+		assertTrue(report.latency(99) <= report.latency(99.9));
+		assertTrue(report.latency(99.9) <= report.latency(100));
+		assertTrue(report.toString().contains("p99.9"));
+
+		report = ExpressionLoadGenerator.run(server.port(), 3, 4, Arrays.asList("+ 1"), SimplificationPipeline.Threads.PLATFORM);
+		assertEquals(12, report.errors());
+	}
+
+	@Test (timeout = 5000)
+	public void testClose() throws IOException, InterruptedException
+	{
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.port());
+		while (server.connections() == 0)
+		{
+			Thread.sleep(1);
+		}
+		server.close();
+		assertEquals(-1, socket.getInputStream().read());
+		socket.close();
+		thrown.expect(IOException.class);
+		ExpressionLoadGenerator.run(server.port(), 1, 1, Arrays.asList("1"), SimplificationPipeline.Threads.PLATFORM);
+	}
+
+	@Test (timeout = 1000)
+	public void testVirtualThreads() throws IOException
+	{
+		if (!SimplificationPipeline.Threads.VIRTUAL.isSupported())
+		{
+			thrown.expect(IllegalArgumentException.class);
+			new ExpressionServer(0, SimplificationPipeline.Threads.VIRTUAL,
+					new EvaluationCache(100, 1, TimeUnit.MINUTES, NumericMode.WRAPPING));
+			return;
+		}
+		try (ExpressionServer virtual = new ExpressionServer(0))
+		{
+			try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), virtual.port()))
+			{
+				socket.getOutputStream().write("+ 2 3\n".getBytes(StandardCharsets.UTF_8));
+				assertEquals("OK 5", new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)).readLine());
+			}
+		}
+	}
+
+	@Test (timeout = 100)
+	public void testInvalidPercentile() throws IOException, InterruptedException
+	{
+		ExpressionLoadGenerator.Report report = ExpressionLoadGenerator.run(server.port(), 1, 0, Arrays.asList("1"),
+				SimplificationPipeline.Threads.PLATFORM);
+		assertEquals(0, report.latency(50));
+		thrown.expect(IllegalArgumentException.class);
+		report.latency(0);
+	}
+}
@@ -0,0 +1,134 @@
+import static org.junit.Assert.*;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import textbook.LinkedBinaryTree;
+
+public class TestExpressionTokenizer 
+{
+	// collect every token handed out by a tokenizer
+	private static ArrayList<String> tokens(ExpressionTokenizer tokenizer)
+	{
+		ArrayList<String> tokens = new ArrayList<String>();
+		while (tokenizer.next())
+		{
+			tokens.add(tokenizer.token());
+		}
+		return tokens;
+	}
+	
+	// a reader that hands out at most 3 characters per read, so tokens span refills
+	private static Reader slowReader(String text)
+	{
+		return new StringReader(text) 
+		{
+			@Override
+			public int read(char[] buffer, int offset, int length) throws java.io.IOException
+			{
+				return super.read(buffer, offset, Math.min(length, 3));
+			}
+		};
+	}
+	
+	@Test (timeout = 100)
+	public void testWhitespace()
+	{
+		ExpressionTokenizer tokenizer = new ExpressionTokenizer("  +\t 2 \t\n- x1   15  ");
+		assertEquals(java.util.Arrays.asList("+", "2", "-", "x1", "15"), tokens(tokenizer));
+		
+		assertTrue(tokens(new ExpressionTokenizer("")).isEmpty());
+		assertTrue(tokens(new ExpressionTokenizer(" \t ")).isEmpty());
+	}
+	
+	@Test (timeout = 100)
+	public void testOffsetsAndOperators()
+	{
+		ExpressionTokenizer tokenizer = new ExpressionTokenizer("* abc  -");
+		assertTrue(tokenizer.next());
+		assertSame(ExpressionTokenizer.TIMES, tokenizer.operator());
+		assertSame(ExpressionTokenizer.TIMES, tokenizer.token());
+		assertTrue(tokenizer.next());
+		assertNull(tokenizer.operator());
+		assertEquals(2, tokenizer.start());
+		assertEquals(5, tokenizer.end());
+		assertEquals(3, tokenizer.length());
+		assertEquals('b', tokenizer.charAt(1));
+		assertTrue(tokenizer.next());
+		assertSame(ExpressionTokenizer.MINUS, tokenizer.operator());
+		assertEquals(7, tokenizer.start());
+		assertFalse(tokenizer.next());
+		
+		// negative numbers and longer tokens starting with an operator are not operators
+		tokenizer = new ExpressionTokenizer("-5 ++");
+		assertTrue(tokenizer.next());
+		assertNull(tokenizer.operator());
+		assertEquals("-5", tokenizer.token());
+		assertTrue(tokenizer.next());
+		assertNull(tokenizer.operator());
+	}
+	
+	// splitOnSpaces must agree with String.split(" ")
+	@Test (timeout = 100)
+	public void testSplitOnSpaces()
+	{
+		String[] expressions = {"", " ", "   ", "a", "+ 5 10", "+  y", " + a b", "+ a b ", "+ a b   ", "  a  b  c", "a\tb"};
+		for (String expression : expressions)
+		{
+			assertEquals(java.util.Arrays.asList(expression.split(" ")), tokens(ExpressionTokenizer.splitOnSpaces(expression)));
+		}
+	}
+	
+	@Test (timeout = 100)
+	public void testReader()
+	{
+		String expression = "+\t2 \n - verylongvariablename   15";
+		assertEquals(tokens(new ExpressionTokenizer(expression)), tokens(new ExpressionTokenizer(slowReader(expression))));
+		
+		ExpressionTokenizer tokenizer = new ExpressionTokenizer(slowReader(expression));
+		tokenizer.next();
+		tokenizer.next();
+		tokenizer.next();
+		tokenizer.next();
+		assertEquals("verylongvariablename", tokenizer.token());
+		assertEquals(8, tokenizer.start());
+		assertEquals(28, tokenizer.end());
+		
+		// a token longer than the internal buffer
+		StringBuilder longToken = new StringBuilder();
+		for (int i = 0; i < 20000; i++)
+		{
+			longToken.append('v');
+		}
+		assertEquals(java.util.Arrays.asList("-", longToken.toString(), "1"), 
+				tokens(new ExpressionTokenizer(new StringReader("- " + longToken + " 1"))));
+	}
+	
+	@Test (timeout = 100)
+	public void testPrefix2tree() throws Exception
+	{
+		LinkedBinaryTree<String> expected = Assignment.prefix2tree("+ 2 - x 15");
+		assertTrue(Assignment.equals(expected, Assignment.prefix2tree((CharSequence) "  +\t2 -  x 15\n")));
+		assertTrue(Assignment.equals(expected, Assignment.prefix2tree(CharBuffer.wrap("+ 2\t- x\t15"))));
+		assertTrue(Assignment.equals(expected, Assignment.readPrefix(slowReader("+\t\t2 - x   15"))));
+		
+		// operators in the tree are the shared constants
+		assertSame(ExpressionTokenizer.PLUS, Assignment.prefix2tree(new StringBuilder("+ 1 2")).root().getElement());
+	}
+	
+	@Test (timeout = 100, expected = IllegalArgumentException.class)
+	public void testPrefix2treeIncomplete() throws Exception
+	{
+		Assignment.readPrefix(slowReader("+ 2 \t "));
+	}
+	
+	@Test (timeout = 100, expected = IllegalArgumentException.class)
+	public void testPrefix2treeNull() throws Exception
+	{
+		Assignment.prefix2tree(null);
+	}
+}
@@ -0,0 +1,287 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+public class TestExpressionTree 
+{
+	// classify must agree with Integer.parseInt on what is an integer
+	@Test (timeout = 100)
+	public void testClassify()
+	{
+		String[] elements = {"0", "7", "-7", "+7", "007", "-0", "2147483647", "2147483648", "-2147483648", "-2147483649",
+				"99999999999", "x", "x1", "1x", "", "--1", "+-1", "1.5", "\u0661\u0662", " 1", "@"};
+		for (String element : elements)
+		{
+			boolean parses;
+			try
+			{
+				Integer.parseInt(element);
+				parses = true;
+			}
+			catch(NumberFormatException e)
+			{
+				parses = false;
+			}
+			assertEquals(element, parses, ExpressionTree.classify(element) == ExpressionTree.Kind.INTEGER);
+		}
+		assertEquals(ExpressionTree.Kind.ADD, ExpressionTree.classify("+"));
+		assertEquals(ExpressionTree.Kind.SUBTRACT, ExpressionTree.classify("-"));
+		assertEquals(ExpressionTree.Kind.MULTIPLY, ExpressionTree.classify("*"));
+		assertEquals(ExpressionTree.Kind.VARIABLE, ExpressionTree.classify(null));
+		assertTrue(ExpressionTree.Kind.MULTIPLY.isOperator());
+		assertFalse(ExpressionTree.Kind.INTEGER.isOperator());
+	}
+	
+	// positions are classified when they are created and whenever their element is set
+	@Test (timeout = 100)
+	public void testCachedKinds()
+	{
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree("* -12 y");
+		assertTrue(tree instanceof ExpressionTree);
+		Position<String> left = tree.left(tree.root());
+		assertEquals(ExpressionTree.Kind.MULTIPLY, ExpressionTree.kindOf(tree.root()));
+		assertEquals(ExpressionTree.Kind.INTEGER, ExpressionTree.kindOf(left));
+		assertEquals(-12, ExpressionTree.integerValue(left));
+		assertEquals(ExpressionTree.Kind.VARIABLE, ExpressionTree.kindOf(tree.right(tree.root())));
+		
+		tree.set(left, "x");
+		assertEquals(ExpressionTree.Kind.VARIABLE, ExpressionTree.kindOf(left));
+		tree.set(left, "15");
+		assertEquals(15, ExpressionTree.integerValue(left));
+		ExpressionTree.setInteger(tree, left, -3);
+		assertEquals("-3", left.getElement());
+		assertEquals(-3, ExpressionTree.integerValue(left));
+		
+		// positions of other trees are classified from their element
+		LinkedBinaryTree<String> plain = new LinkedBinaryTree<String>();
+		plain.addRoot("42");
+		assertEquals(ExpressionTree.Kind.INTEGER, ExpressionTree.kindOf(plain.root()));
+		ExpressionTree.setInteger(plain, plain.root(), 7);
+		assertEquals("7", plain.root().getElement());
+	}
+	
+	// simplifying trees built by hand (not classified in advance) gives the same results
+	@Test (timeout = 100)
+	public void testSimplifyPlainTree()
+	{
+		LinkedBinaryTree<String> plain = new LinkedBinaryTree<String>();
+		plain.addRoot("-");
+		plain.addLeft(plain.root(), "*");
+		plain.addRight(plain.root(), "x");
+		plain.addLeft(plain.left(plain.root()), "1");
+		plain.addRight(plain.left(plain.root()), "x");
+		assertEquals("0", Assignment.tree2prefix(Assignment.simplifyFancy(plain)));
+		
+		plain = new LinkedBinaryTree<String>();
+		plain.addRoot("+");
+		plain.addLeft(plain.root(), "007");
+		plain.addRight(plain.root(), "-2");
+		assertEquals("5", Assignment.tree2prefix(Assignment.simplify(plain)));
+	}
+	
+	// validity is kept up to date through every kind of change
+	@Test (timeout = 100)
+	public void testValidity()
+	{
+		ExpressionTree tree = new ExpressionTree();
+		assertFalse(tree.isArithmeticExpression());
+		Position<String> root = tree.addRoot("+");
+		assertFalse(tree.isArithmeticExpression());
+		Position<String> left = tree.addLeft(root, "x");
+		assertFalse(tree.isArithmeticExpression());
+		Position<String> right = tree.addRight(root, "2");
+		assertTrue(tree.isArithmeticExpression());
+		tree.set(left, "*");
+		assertFalse(tree.isArithmeticExpression());
+		tree.set(left, "y");
+		assertTrue(tree.isArithmeticExpression());
+		tree.set(root, "z");
+		assertFalse(tree.isArithmeticExpression());
+		tree.setInteger(root, 5);
+		assertFalse(tree.isArithmeticExpression());
+		tree.remove(right);
+		tree.remove(left);
+		assertTrue(tree.isArithmeticExpression());
+		assertEquals(1, tree.size());
+		tree.remove(root);
+		assertFalse(tree.isArithmeticExpression());
+		
+		// attaching valid and invalid trees, of either class
+		tree.addRoot("-");
+		LinkedBinaryTree<String> plain = new LinkedBinaryTree<String>();
+		plain.addRoot("x");
+		plain.addLeft(plain.root(), "y");
+		tree.attach(tree.root(), Assignment.prefix2tree("* 3 a"), plain);
+		assertFalse(tree.isArithmeticExpression());
+		assertFalse(Assignment.isArithmeticExpression(tree));
+		tree.remove(tree.left(tree.right(tree.root())));
+		assertTrue(Assignment.isArithmeticExpression(tree));
+		assertEquals("- * 3 a x", Assignment.tree2prefix(tree));
+	}
+	
+	// random changes agree with validating a plain copy of the tree
+	@Test (timeout = 1000)
+	public void testValidityRandomChanges()
+	{
+		String[] elements = {"+", "-", "*", "x", "1", "-4"};
+		Random random = new Random(11);
+		for (int trial = 0; trial < 200; trial++)
+		{
+			ExpressionTree tree = new ExpressionTree();
+			ArrayList<Position<String>> positions = new ArrayList<Position<String>>();
+			positions.add(tree.addRoot(elements[random.nextInt(elements.length)]));
+			for (int change = 0; change < 40 && !positions.isEmpty(); change++)
+			{
+				Position<String> p = positions.get(random.nextInt(positions.size()));
+				String element = elements[random.nextInt(elements.length)];
+				switch (random.nextInt(5))
+				{
+					case 0:
+						if (tree.left(p) == null)
+							positions.add(tree.addLeft(p, element));
+						break;
+					case 1:
+						if (tree.right(p) == null)
+							positions.add(tree.addRight(p, element));
+						break;
+					case 2:
+						tree.set(p, element);
+						break;
+					case 3:
+						tree.setInteger(p, random.nextInt(3));
+						break;
+					default:
+						if (tree.left(p) == null || tree.right(p) == null)
+						{
+							tree.remove(p);
+							positions.remove(p);
+						}
+						break;
+				}
+				assertEquals(Assignment.isArithmeticExpression(plainCopy(tree)), tree.isArithmeticExpression());
+			}
+		}
+	}
+	
+	// simplify after substitute only refolds the changed paths, with the same result as simplifying from scratch
+	@Test (timeout = 1000)
+	public void testIncrementalSimplify()
+	{
+		String[] variables = {"x", "y", "z"};
+		Random random = new Random(5);
+		RandomExpressions expressions = new RandomExpressions(random, "x", "y", "z", "0", "1", "2", "3", "4");
+		for (int trial = 0; trial < 200; trial++)
+		{
+			String prefix = expressions.next(1 + random.nextInt(20));
+			NumericMode mode = random.nextBoolean() ? NumericMode.WRAPPING : NumericMode.EXACT;
+			
+			LinkedBinaryTree<String> tree = Assignment.simplify(Assignment.prefix2tree(prefix), mode);
+			assertTrue(((ExpressionTree) tree).isSimplified(mode));
+			Assignment.substitute(tree, variables[random.nextInt(3)], random.nextInt(7) - 3);
+			LinkedBinaryTree<String> expected = Assignment.simplify(plainCopy(tree), mode);
+			assertEquals(Assignment.tree2prefix(expected), Assignment.tree2prefix(Assignment.simplify(tree, mode)));
+		}
+		
+		// adding or removing positions means the whole tree is simplified again
+		ExpressionTree tree = (ExpressionTree) Assignment.simplify(Assignment.prefix2tree("+ x 1"));
+		assertTrue(tree.isSimplified(NumericMode.WRAPPING));
+		assertFalse(tree.isSimplified(NumericMode.EXACT));
+		tree.set(tree.right(tree.root()), "*");
+		tree.addLeft(tree.right(tree.root()), "2");
+		tree.addRight(tree.right(tree.root()), "3");
+		assertFalse(tree.isSimplified(NumericMode.WRAPPING));
+		assertEquals("+ x 6", Assignment.tree2prefix(Assignment.simplify(tree)));
+	}
+	
+	// re-binding the same positions again and again remembers each of them once
+	@Test (timeout = 1000)
+	public void testRepeatedChanges()
+	{
+		ExpressionTree tree = (ExpressionTree) Assignment.simplify(Assignment.prefix2tree("+ * x 2 - y x"));
+		SymbolIndex index = Assignment.index(tree);
+		for (int i = 0; i < 1000; i++)
+		{
+			index.substitute(new int[] {i, -i});
+		}
+		assertEquals(3, tree.changedSinceSimplified().size());
+		assertEquals("+ * 999 2 - -999 999", Assignment.tree2prefix(tree));
+		assertEquals("0", Assignment.tree2prefix(Assignment.simplify(tree)));
+		assertEquals(0, tree.changedSinceSimplified().size());
+	}
+	
+	// changing one leaf of a large simplified tree refolds its path only
+	@Test (timeout = 1000)
+	public void testIncrementalSimplifyLargeTree()
+	{
+		// 2^16 subtrees "+ x 1" joined by a balanced tree of additions
+		StringBuilder prefix = new StringBuilder();
+		balanced(16, prefix, new int[] {0});
+		LinkedBinaryTree<String> tree = Assignment.simplify(Assignment.prefix2tree(prefix.substring(1)));
+		
+		// the leaves holding x, from left to right
+		ArrayList<Position<String>> variables = new ArrayList<Position<String>>();
+		ArrayDeque<Position<String>> stack = new ArrayDeque<Position<String>>();
+		stack.push(tree.root());
+		while (!stack.isEmpty())
+		{
+			Position<String> p = stack.pop();
+			if (tree.left(p) != null)
+			{
+				stack.push(tree.right(p));
+				stack.push(tree.left(p));
+			}
+			else if (p.getElement().equals("x"))
+				variables.add(p);
+		}
+		assertEquals(1 << 16, variables.size());
+		
+		// setting the first 2^11 variables one at a time
+		for (int i = 0; i < (1 << 11); i++)
+		{
+			tree.set(variables.get(i), "2");
+			Assignment.simplify(tree);
+		}
+		StringBuilder expected = new StringBuilder();
+		balanced(16, expected, new int[] {1 << 11});
+		assertEquals(Assignment.tree2prefix(Assignment.simplify(Assignment.prefix2tree(expected.substring(1)))),
+				Assignment.tree2prefix(tree));
+		assertEquals("6144", tree.left(tree.left(tree.left(tree.left(tree.left(tree.root()))))).getElement());
+	}
+	
+	// append a balanced tree of additions with 2^depth subtrees "+ x 1", the first twos[0] of them "+ 2 1"
+	private static void balanced(int depth, StringBuilder prefix, int[] twos)
+	{
+		prefix.append(" +");
+		if (depth == 0)
+		{
+			prefix.append(twos[0]-- > 0 ? " 2 1" : " x 1");
+			return;
+		}
+		balanced(depth - 1, prefix, twos);
+		balanced(depth - 1, prefix, twos);
+	}
+	
+	// copy of a tree as a plain LinkedBinaryTree, which is validated by traversing it
+	private static LinkedBinaryTree<String> plainCopy(LinkedBinaryTree<String> tree)
+	{
+		LinkedBinaryTree<String> copy = new LinkedBinaryTree<String>();
+		if (tree.root() != null)
+			copy(tree, tree.root(), copy, copy.addRoot(tree.root().getElement()));
+		return copy;
+	}
+	
+	private static void copy(LinkedBinaryTree<String> tree, Position<String> p, LinkedBinaryTree<String> copy, Position<String> q)
+	{
+		if (tree.left(p) != null)
+			copy(tree, tree.left(p), copy, copy.addLeft(q, tree.left(p).getElement()));
+		if (tree.right(p) != null)
+			copy(tree, tree.right(p), copy, copy.addRight(q, tree.right(p).getElement()));
+	}
+}
@@ -0,0 +1,129 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import textbook.LinkedBinaryTree;
+
+public class TestExpressionWriter 
+{
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+	
+	private static final String PREFIX = "+ + 4 4 - - + x 7 * + 4 9 y - + x 7 * + 4 9 z";
+	private static final String INFIX = "((4+4)+(((x+7)-((4+9)*y))-((x+7)-((4+9)*z))))";
+	
+	@Test (timeout = 100)
+	public void testAppendable() throws IOException
+	{
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree(PREFIX);
+		StringWriter writer = new StringWriter();
+		ExpressionWriter.writePrefix(tree, writer);
+		assertEquals(PREFIX, writer.toString());
+		
+		StringBuilder builder = new StringBuilder("infix: ");
+		ExpressionWriter.writeInfix(tree, builder);
+		assertEquals("infix: " + INFIX, builder.toString());
+		
+		assertEquals(PREFIX.length(), ExpressionWriter.prefixLength(tree));
+		assertEquals(INFIX.length(), ExpressionWriter.infixLength(tree));
+		assertEquals(PREFIX, ExpressionWriter.prefix(tree));
+		assertEquals(INFIX, ExpressionWriter.infix(tree));
+		
+		// a single leaf
+		tree = Assignment.prefix2tree("-12");
+		assertEquals("-12", ExpressionWriter.prefix(tree));
+		assertEquals("-12", ExpressionWriter.infix(tree));
+		assertEquals(3, ExpressionWriter.infixLength(tree));
+	}
+	
+	@Test (timeout = 100)
+	public void testByteBuffer()
+	{
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree(PREFIX);
+		ByteBuffer buffer = ByteBuffer.allocate((int) ExpressionWriter.prefixLength(tree));
+		ExpressionWriter.writePrefix(tree, buffer);
+		assertFalse(buffer.hasRemaining());
+		assertEquals(PREFIX, new String(buffer.array(), StandardCharsets.US_ASCII));
+		
+		buffer = ByteBuffer.allocateDirect(100);
+		ExpressionWriter.writeInfix(tree, buffer);
+		buffer.flip();
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		assertEquals(INFIX, new String(bytes, StandardCharsets.US_ASCII));
+		
+		// characters outside ASCII are encoded as '?'
+		buffer = ByteBuffer.allocate(5);
+		ExpressionWriter.writePrefix(Assignment.prefix2tree("* \u00e9 2"), buffer);
+		assertEquals("* ? 2", new String(buffer.array(), StandardCharsets.US_ASCII));
+		
+		thrown.expect(BufferOverflowException.class);
+		ExpressionWriter.writePrefix(tree, ByteBuffer.allocate(PREFIX.length() - 1));
+	}
+	
+	// output larger than the buffer used for the channel
+	@Test (timeout = 1000)
+	public void testChannel() throws IOException
+	{
+		StringBuilder expression = new StringBuilder();
+		for (int i = 0; i < 10000; i++)
+		{
+			expression.append("- x").append(i).append(' ');
+		}
+		expression.append("y");
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree(expression.toString());
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ExpressionWriter.writePrefix(tree, Channels.newChannel(bytes));
+		assertEquals(expression.toString(), new String(bytes.toByteArray(), StandardCharsets.US_ASCII));
+		
+		bytes.reset();
+		ExpressionWriter.writeInfix(tree, Channels.newChannel(bytes));
+		assertEquals(Assignment.tree2infix(tree), new String(bytes.toByteArray(), StandardCharsets.US_ASCII));
+		assertEquals(ExpressionWriter.infixLength(tree), bytes.size());
+	}
+	
+	// deep trees are written without recursion
+	@Test (timeout = 5000)
+	public void testDeepTrees()
+	{
+		int operators = 200000;
+		StringBuilder right = new StringBuilder();
+		StringBuilder left = new StringBuilder();
+		for (int i = 0; i < operators; i++)
+		{
+			right.append("+ 1 ");
+			left.append("* ");
+		}
+		right.append("2");
+		left.append("a");
+		for (int i = 0; i < operators; i++)
+		{
+			left.append(" b");
+		}
+		assertEquals(right.toString(), Assignment.tree2prefix(Assignment.prefix2tree(right.toString())));
+		assertEquals(left.toString(), Assignment.tree2prefix(Assignment.prefix2tree(left.toString())));
+		String infix = Assignment.tree2infix(Assignment.prefix2tree(left.toString()));
+		assertEquals(operators * 4 + 1, infix.length());
+		assertTrue(infix.endsWith("*b)*b)"));
+	}
+	
+	@Test (timeout = 100)
+	public void testInvalid() throws IOException
+	{
+		LinkedBinaryTree<String> tree = new LinkedBinaryTree<String>();
+		tree.addRoot("+");
+		thrown.expect(IllegalArgumentException.class);
+		ExpressionWriter.writePrefix(tree, new StringBuilder());
+	}
+}
@@ -0,0 +1,221 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+public class TestImmutableExpressionTree
+{
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	private static final String[] EXPRESSIONS = {
+		"x", "7", "-7", "007", "+ 2 15", "- + 2 15 4", "- x + 1 2", "* + 2 x 007", "+ * 1 x 0", "- * x 0 - y y",
+		"+ + 4 4 - - + x 7 * + 4 9 x - + x 7 * + 4 9 x", "* * + 1 2 - -1 99 * + 5 -5 - 10 -10",
+		"* 99999 99999", "+ 2147483647 1", "* 99999999999999999999 2", "- + @ y * + x y * - z @ * x z",
+		"- - x y - x y", "* 0 + x 1"
+	};
+
+	private static ImmutableExpressionTree immutable(String expression)
+	{
+		return ImmutableExpressionTree.fromTree(Assignment.prefix2tree(expression));
+	}
+
+	@Test (timeout = 1000)
+	public void testRoundTrip()
+	{
+		for (String expression : EXPRESSIONS)
+		{
+			LinkedBinaryTree<String> tree = Assignment.prefix2tree(expression);
+			ImmutableExpressionTree copy = ImmutableExpressionTree.fromTree(tree);
+			assertEquals(tree.size(), copy.size());
+			assertTrue(Assignment.isArithmeticExpression(copy));
+			assertTrue(Assignment.equals(tree, copy));
+			assertTrue(Assignment.equals(tree, copy.toTree()));
+			assertEquals(Assignment.tree2prefix(tree), Assignment.tree2prefix(copy));
+			assertEquals(Assignment.tree2infix(tree), Assignment.tree2infix(copy));
+			assertSame(copy, ImmutableExpressionTree.fromTree(copy));
+		}
+	}
+
+	@Test (timeout = 1000)
+	public void testSimplify()
+	{
+		for (NumericMode mode : NumericMode.values())
+		{
+			for (String expression : EXPRESSIONS)
+			{
+				ImmutableExpressionTree tree = immutable(expression);
+				assertEquals(mode + " " + expression, Assignment.tree2prefix(Assignment.simplify(Assignment.prefix2tree(expression), mode)),
+						Assignment.tree2prefix(tree.simplify(mode)));
+				assertEquals(mode + " " + expression,
+						Assignment.tree2prefix(Assignment.simplifyFancy(Assignment.prefix2tree(expression), mode)),
+						Assignment.tree2prefix(tree.simplifyFancy(mode)));
+				// the tree itself is unchanged
+				assertEquals(Assignment.tree2prefix(Assignment.prefix2tree(expression)), Assignment.tree2prefix(tree));
+			}
+		}
+	}
+
+	@Test (timeout = 1000)
+	public void testSubstitute()
+	{
+		HashMap<String, Integer> values = new HashMap<String, Integer>();
+		values.put("x", 0);
+		values.put("y", 1);
+		values.put("z", -1);
+		values.put("@", 99);
+		values.put("-7", 3);
+		for (String expression : EXPRESSIONS)
+		{
+			LinkedBinaryTree<String> expected = Assignment.substitute(Assignment.prefix2tree(expression), values);
+			assertEquals(Assignment.tree2prefix(expected), Assignment.tree2prefix(immutable(expression).substitute(values)));
+
+			expected = Assignment.substitute(Assignment.prefix2tree(expression), "x", -4);
+			assertEquals(Assignment.tree2prefix(expected), Assignment.tree2prefix(immutable(expression).substitute("x", -4)));
+		}
+
+		values.put("r", null);
+		immutable("+ x y").substitute(values);	// r is not in the tree
+		thrown.expect(IllegalArgumentException.class);
+		immutable("+ r y").substitute(values);
+	}
+
+	// unchanged subtrees are shared with the new tree, and an unchanged tree is returned as it is
+	@Test (timeout = 1000)
+	public void testSharing()
+	{
+		ImmutableExpressionTree tree = immutable("+ * x y - 4 1");
+		ImmutableExpressionTree simplified = tree.simplify();
+		assertEquals("+ * x y 3", Assignment.tree2prefix(simplified));
+		assertSame(tree.left(tree.root()), simplified.left(simplified.root()));
+		assertNotSame(tree.root(), simplified.root());
+		assertSame(simplified, simplified.simplify());
+		assertSame(simplified, simplified.simplifyFancy());
+		assertSame(tree, tree.substitute("z", 1));
+
+		ImmutableExpressionTree substituted = tree.substitute("x", 2);
+		assertEquals("+ * 2 y - 4 1", Assignment.tree2prefix(substituted));
+		assertSame(tree.right(tree.root()), substituted.right(substituted.root()));
+		assertSame(tree.right(tree.left(tree.root())), substituted.right(substituted.left(substituted.root())));
+
+		// (x + 0) takes the place of the + by x itself
+		tree = immutable("* + * a b 0 c");
+		Position<String> product = tree.left(tree.left(tree.root()));
+		simplified = tree.simplifyFancy();
+		assertEquals("* * a b c", Assignment.tree2prefix(simplified));
+		assertSame(product, simplified.left(simplified.root()));
+		assertEquals(5, simplified.size());
+	}
+
+	@Test (timeout = 1000)
+	public void testReadOnly()
+	{
+		ImmutableExpressionTree tree = immutable("+ * x y - 4 1");
+		Position<String> product = tree.left(tree.root());
+		assertTrue(Assignment.equals(Assignment.simplify(tree.toTree()), tree.simplify()));
+
+		thrown.expect(UnsupportedOperationException.class);
+		tree.set(product, "-");
+	}
+
+	// positions are shared between trees, so they have no single parent
+	@Test (timeout = 1000)
+	public void testNoParent()
+	{
+		ImmutableExpressionTree tree = immutable("+ * x y - 4 1");
+		assertTrue(tree.isRoot(tree.root()));
+		thrown.expect(UnsupportedOperationException.class);
+		tree.parent(tree.left(tree.root()));
+	}
+
+	@Test (timeout = 1000)
+	public void testNoSibling()
+	{
+		ImmutableExpressionTree tree = immutable("+ * x y - 4 1");
+		thrown.expect(UnsupportedOperationException.class);
+		tree.sibling(tree.left(tree.root()));
+	}
+
+	@Test (timeout = 1000)
+	public void testInvalid()
+	{
+		LinkedBinaryTree<String> tree = new LinkedBinaryTree<String>();
+		tree.addRoot("+");
+		thrown.expect(IllegalArgumentException.class);
+		ImmutableExpressionTree.fromTree(tree);
+	}
+
+	// a tree as deep as it is long is rewritten without recursion
+	@Test (timeout = 5000)
+	public void testDeep()
+	{
+		StringBuilder expression = new StringBuilder();
+		for (int i = 0; i < 100000; i++)
+		{
+			expression.append("+ 1 ");
+		}
+		expression.append('x');
+		ImmutableExpressionTree tree = immutable(expression.toString());
+		assertEquals(200001, tree.size());
+		assertSame(tree, tree.simplify());
+		assertEquals("100002", tree.substitute("x", 2).simplify().root().getElement());
+		assertEquals("100000", tree.substitute("x", 0).simplifyFancy().root().getElement());
+	}
+
+	// one tree serves many threads at once, each with its own values
+	@Test (timeout = 10000)
+	public void testConcurrent() throws InterruptedException, ExecutionException
+	{
+		final ImmutableExpressionTree tree = immutable("+ * 2 x - * y y + x 1");
+		final String before = Assignment.tree2prefix(tree);
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try
+		{
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int t = 0; t < 8; t++)
+			{
+				final int thread = t;
+				results.add(pool.submit(new Callable<Boolean>()
+				{
+					@Override
+					public Boolean call()
+					{
+						for (int i = 0; i < 2000; i++)
+						{
+							int x = thread * 2000 + i;
+							HashMap<String, Integer> values = new HashMap<String, Integer>();
+							values.put("x", x);
+							values.put("y", -x);
+							String result = tree.substitute(values).simplify().root().getElement();
+							if (!result.equals(Integer.toString(2 * x + x * x - (x + 1))))
+								return false;
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> result : results)
+			{
+				assertTrue(result.get());
+			}
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+		assertEquals(before, Assignment.tree2prefix(tree));
+	}
+}
@@ -0,0 +1,122 @@
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import textbook.LinkedBinaryTree;
+
+public class TestInfixParser
+{
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	private static String prefixOf(String infix)
+	{
+		return Assignment.tree2prefix(Assignment.infix2tree(infix));
+	}
+
+	@Test (timeout = 100)
+	public void testParse()
+	{
+		assertEquals("- + 2 15 4", prefixOf("((2+15)-4)"));
+		assertEquals("x", prefixOf("x"));
+		assertEquals("x", prefixOf("((x))"));
+		assertEquals("+ 2 * 3 4", prefixOf("2+3*4"));
+		assertEquals("* + 2 3 4", prefixOf("(2+3)*4"));
+		// equal precedence groups to the left
+		assertEquals("- - a b c", prefixOf("a-b-c"));
+		assertEquals("+ - a b c", prefixOf("a - b + c"));
+		assertEquals("- a + b c", prefixOf("a-(b+c)"));
+		assertEquals("* * x y z", prefixOf(" x *y\t* z "));
+		assertEquals("+ x1 * y_2 @", prefixOf("x1+y_2*@"));
+
+		LinkedBinaryTree<String> tree = Assignment.infix2tree("(2*x)+5");
+		assertTrue(tree instanceof ExpressionTree);
+		assertEquals(ExpressionTree.Kind.INTEGER, ExpressionTree.kindOf(tree.right(tree.root())));
+	}
+
+	@Test (timeout = 100)
+	public void testUnaryMinus()
+	{
+		// negative literals
+		assertEquals("-5", prefixOf("-5"));
+		assertEquals("* 2 -5", prefixOf("2*-5"));
+		assertEquals("- 2 -4", prefixOf("(2--4)"));
+		// negating anything else subtracts it from 0, binding tightest
+		assertEquals("- 0 x", prefixOf("-x"));
+		assertEquals("* - 0 x y", prefixOf("-x*y"));
+		assertEquals("- 0 + a b", prefixOf("-(a+b)"));
+		assertEquals("- 0 - 0 x", prefixOf("--x"));
+		assertEquals("- a - 0 b", prefixOf("a - -b"));
+		assertEquals("- 0 5", prefixOf("- 5"));
+		assertEquals("-3", Assignment.tree2prefix(Assignment.simplify(Assignment.infix2tree("-(1+2)"))));
+	}
+
+	// infix2tree undoes tree2infix on random trees
+	@Test (timeout = 1000)
+	public void testRoundTrip()
+	{
+		Random random = new Random(3);
+		RandomExpressions expressions = new RandomExpressions(random, "x", "y", "0", "7", "-4", "15", "ab1");
+		for (int trial = 0; trial < 500; trial++)
+		{
+			LinkedBinaryTree<String> tree = Assignment.prefix2tree(expressions.next(random.nextInt(20)));
+			String infix = Assignment.tree2infix(tree);
+			LinkedBinaryTree<String> parsed = Assignment.infix2tree(infix);
+			assertTrue(infix, Assignment.equals(tree, parsed));
+			assertEquals(infix, Assignment.tree2infix(parsed));
+		}
+	}
+
+	// nesting is handled with explicit stacks, not recursion
+	@Test (timeout = 1000)
+	public void testDeepNesting()
+	{
+		int depth = 100000;
+		StringBuilder infix = new StringBuilder();
+		for (int i = 0; i < depth; i++)
+		{
+			infix.append("(a+");
+		}
+		infix.append('b');
+		for (int i = 0; i < depth; i++)
+		{
+			infix.append(')');
+		}
+		LinkedBinaryTree<String> tree = Assignment.infix2tree(infix.toString());
+		assertEquals(2 * depth + 1, tree.size());
+		assertEquals(infix.toString(), Assignment.tree2infix(tree));
+
+		// a long run without parentheses is left-deep
+		StringBuilder chain = new StringBuilder("a");
+		for (int i = 0; i < depth; i++)
+		{
+			chain.append("-a");
+		}
+		assertEquals(2 * depth + 1, Assignment.infix2tree(chain.toString()).size());
+	}
+
+	@Test (timeout = 100)
+	public void testInvalid()
+	{
+		String[] invalid = {"", "   ", "(", ")", "()", "x+", "+x", "x y", "(x", "x)", "(x+y))", "x**y", "2(3)", "*", "x-"};
+		for (String expression : invalid)
+		{
+			try
+			{
+				Assignment.infix2tree(expression);
+				fail(expression);
+			}
+			catch (IllegalArgumentException e)
+			{
+				// expected
+			}
+		}
+
+		thrown.expect(IllegalArgumentException.class);
+		Assignment.infix2tree(null);
+	}
+}
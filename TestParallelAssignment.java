@@ -0,0 +1,101 @@
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import textbook.LinkedBinaryTree;
+
+public class TestParallelAssignment 
+{
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+	
+	private static final ForkJoinPool pool = new ForkJoinPool(4);
+	
+	@AfterClass
+	public static void shutdown()
+	{
+		pool.shutdown();
+	}
+	
+	// random expressions in prefix notation, with roughly one variable for every variables leaves
+	private static RandomExpressions randomExpressions(Random random, int variables)
+	{
+		String[] leaves = new String[3 * variables];
+		for (int i = 0; i < leaves.length; i++)
+		{
+			leaves[i] = (i < 3) ? String.valueOf((char) ('a' + i)) : Integer.toString(random.nextInt(201) - 100);
+		}
+		return new RandomExpressions(random, leaves);
+	}
+	
+	// a pool of several workers splits trees of any size
+	@Test (timeout = 5000)
+	public void testSameAsSequential()
+	{
+		Random random = new Random(8);
+		for (int trial = 0; trial < 200; trial++)
+		{
+			String prefix = randomExpressions(random, 1 + random.nextInt(20)).next(random.nextInt(300));
+			
+			assertEquals(prefix, ParallelAssignment.tree2prefix(Assignment.prefix2tree(prefix), pool));
+			
+			LinkedBinaryTree<String> expected = Assignment.simplify(Assignment.prefix2tree(prefix));
+			LinkedBinaryTree<String> actual = ParallelAssignment.simplify(Assignment.prefix2tree(prefix), pool);
+			assertEquals(Assignment.tree2prefix(expected), Assignment.tree2prefix(actual));
+			assertEquals(expected.size(), actual.size());
+			assertTrue(Assignment.isArithmeticExpression(actual));
+		}
+	}
+	
+	// leaves are not rewritten, folded subtrees are
+	@Test (timeout = 1000)
+	public void testSimplify()
+	{
+		assertEquals("007", Assignment.tree2prefix(ParallelAssignment.simplify(Assignment.prefix2tree("007"), pool)));
+		assertEquals("-1", Assignment.tree2prefix(ParallelAssignment.simplify(Assignment.prefix2tree("- 007 8"), pool)));
+		assertEquals("+ x 56", Assignment.tree2prefix(ParallelAssignment.simplify(Assignment.prefix2tree("+ x * 7 8"), pool)));
+		assertEquals("* - 3 x 56", Assignment.tree2prefix(ParallelAssignment.simplify(Assignment.prefix2tree("* - 3 x * 7 8"))));
+		
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree("* + 1 2 + 3 4");
+		assertSame(tree, ParallelAssignment.simplify(tree, pool));
+		assertEquals(1, tree.size());
+		assertEquals("21", tree.root().getElement());
+	}
+	
+	// long chains are walked without recursion
+	@Test (timeout = 5000)
+	public void testDeepChain()
+	{
+		StringBuilder expression = new StringBuilder();
+		for (int i = 0; i < 100000; i++)
+		{
+			expression.append((i % 2 == 0) ? "+ 1 " : "- ");
+		}
+		expression.append('x');
+		for (int i = 0; i < 100000; i++)
+		{
+			if (i % 2 != 0)
+				expression.append(" 2");
+		}
+		String prefix = expression.toString();
+		assertEquals(prefix, ParallelAssignment.tree2prefix(Assignment.prefix2tree(prefix), pool));
+		
+		LinkedBinaryTree<String> constant = Assignment.prefix2tree(prefix.replace('x', '5'));
+		ParallelAssignment.simplify(constant, pool);
+		assertEquals(1, constant.size());
+		assertEquals("-49995", constant.root().getElement());
+	}
+	
+	@Test (timeout = 100)
+	public void testInvalid()
+	{
+		thrown.expect(IllegalArgumentException.class);
+		ParallelAssignment.simplify(Assignment.prefix2tree("+ x"));
+	}
+}
@@ -0,0 +1,89 @@
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+public class TestRandomExpressions
+{
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	// number of positions on the longest path from p down to a leaf, not counting p
+	private static int height(LinkedBinaryTree<String> tree, Position<String> p)
+	{
+		if (tree.left(p) == null)
+			return 0;
+		return 1 + Math.max(height(tree, tree.left(p)), height(tree, tree.right(p)));
+	}
+
+	@Test (timeout = 1000)
+	public void testShapes()
+	{
+		RandomExpressions expressions = new RandomExpressions(3, "x", "1");
+		LinkedBinaryTree<String> right = Assignment.prefix2tree(expressions.next(RandomExpressions.Shape.RIGHT_DEEP, 20));
+		assertEquals(41, right.size());
+		assertEquals(20, height(right, right.root()));
+		assertTrue(right.isExternal(right.left(right.root())));
+
+		LinkedBinaryTree<String> left = Assignment.prefix2tree(expressions.next(RandomExpressions.Shape.LEFT_DEEP, 20));
+		assertEquals(41, left.size());
+		assertEquals(20, height(left, left.root()));
+		assertTrue(left.isExternal(left.right(left.root())));
+
+		LinkedBinaryTree<String> balanced = Assignment.prefix2tree(expressions.next(RandomExpressions.Shape.BALANCED, 1023));
+		assertEquals(2047, balanced.size());
+		assertEquals(10, height(balanced, balanced.root()));
+
+		LinkedBinaryTree<String> random = Assignment.prefix2tree(expressions.next(RandomExpressions.Shape.RANDOM, 100));
+		assertEquals(201, random.size());
+		String leaf = expressions.next(RandomExpressions.Shape.RANDOM, 0);
+		assertTrue(leaf, leaf.equals("x") || leaf.equals("1"));
+	}
+
+	@Test (timeout = 1000)
+	public void testList()
+	{
+		List<String> expressions = new RandomExpressions(7, "x", "y", "0", "-3").list(200, 2, 9);
+		assertEquals(200, expressions.size());
+		assertEquals(expressions, new RandomExpressions(7, "x", "y", "0", "-3").list(200, 2, 9));
+		boolean leftLeaf = false;
+		boolean rightLeaf = false;
+		for (String expression : expressions)
+		{
+			LinkedBinaryTree<String> tree = Assignment.prefix2tree(expression);
+			assertTrue(expression, tree.size() >= 5 && tree.size() <= 19);
+			leftLeaf |= tree.isExternal(tree.left(tree.root()));
+			rightLeaf |= tree.isExternal(tree.right(tree.root()));
+		}
+		// shapes vary from one expression to the next
+		assertTrue(leftLeaf && rightLeaf);
+	}
+
+	// an expression as deep as it is long is built without recursion
+	@Test (timeout = 2000)
+	public void testDeep()
+	{
+		String expression = new RandomExpressions(1, "x").next(RandomExpressions.Shape.LEFT_DEEP, 500000);
+		assertEquals(1000001, Assignment.prefix2tree(expression).size());
+	}
+
+	@Test (timeout = 100)
+	public void testNoLeaves()
+	{
+		thrown.expect(IllegalArgumentException.class);
+		new RandomExpressions(1);
+	}
+
+	@Test (timeout = 100)
+	public void testNegativeOperators()
+	{
+		thrown.expect(IllegalArgumentException.class);
+		new RandomExpressions(1, "x").next(-1);
+	}
+}
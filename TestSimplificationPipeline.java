@@ -0,0 +1,213 @@
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class TestSimplificationPipeline
+{
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	private static List<String> randomExpressions(int count, long seed)
+	{
+		return new RandomExpressions(seed, "x", "y", "0", "1", "2", "7", "-3").list(count, 0, 11);
+	}
+
+	private static List<String> run(SimplificationPipeline pipeline, List<String> expressions) throws InterruptedException
+	{
+		final List<String> results = new ArrayList<String>();
+		assertEquals(expressions.size(), pipeline.run(expressions.iterator(), new Consumer<String>()
+		{
+			@Override
+			public void accept(String result)
+			{
+				results.add(result);
+			}
+		}));
+		return results;
+	}
+
+	@Test (timeout = 1000)
+	public void testSimplify() throws InterruptedException
+	{
+		SimplificationPipeline pipeline = new SimplificationPipeline(SimplificationPipeline.Threads.PLATFORM, 2);
+		assertEquals(Arrays.asList("13", "x", "* 2 x", "", "6"),
+				run(pipeline, Arrays.asList("- + 2 15 4", "* x 1", "+ * 2 x - 3 3", "  ", "* 2 3")));
+		assertEquals(Arrays.asList(), run(pipeline, Arrays.<String>asList()));
+	}
+
+	// results in input order, with batches overtaking each other between stages
+	@Test (timeout = 5000)
+	public void testOrder() throws InterruptedException
+	{
+		List<String> expressions = randomExpressions(2000, 3);
+		List<String> expected = new ArrayList<String>();
+		for (String expression : expressions)
+		{
+			expected.add(Assignment.tree2prefix(Assignment.simplifyFancy(Assignment.prefix2tree(expression))));
+		}
+		int[][] configurations = {{1, 1, 1, 1, 1}, {3, 2, 4, 1, 1}, {4, 4, 4, 2, 7}, {2, 3, 2, 64, 256}};
+		for (int[] c : configurations)
+		{
+			SimplificationPipeline pipeline = new SimplificationPipeline(SimplificationPipeline.Threads.PLATFORM, c[0], c[1], c[2], c[3], c[4]);
+			assertEquals(Arrays.toString(c), expected, run(pipeline, expressions));
+		}
+	}
+
+	@Test (timeout = 1000)
+	public void testReaderWriter() throws IOException, InterruptedException
+	{
+		SimplificationPipeline pipeline = new SimplificationPipeline(SimplificationPipeline.Threads.PLATFORM, 1, 2, 1, 2, 2);
+		StringWriter output = new StringWriter();
+		assertEquals(4, pipeline.run(new BufferedReader(new StringReader("+ 2 3\r\n\n* x 1\n- 9 2")), output));
+		assertEquals("5\n\nx\n7\n", output.toString());
+	}
+
+	@Test (timeout = 2000)
+	public void testMetrics() throws InterruptedException
+	{
+		SimplificationPipeline pipeline = new SimplificationPipeline(SimplificationPipeline.Threads.PLATFORM, 2, 2, 2, 4, 10);
+		run(pipeline, randomExpressions(1000, 7));
+		for (SimplificationPipeline.Stage stage : SimplificationPipeline.Stage.values())
+		{
+			SimplificationPipeline.Metrics metrics = pipeline.metrics(stage);
+			assertEquals(stage, metrics.stage());
+			assertEquals(stage.toString(), 1000, metrics.items());
+			assertTrue(metrics.itemsPerSecond() > 0);
+			assertTrue(metrics.busyNanos() > 0);
+			assertEquals(0, metrics.queueDepth());
+			assertTrue(metrics.maxQueueDepth() <= 4);
+			assertTrue(metrics.toString().startsWith(stage.toString()));
+		}
+		assertEquals(0, pipeline.metrics(SimplificationPipeline.Stage.READ).maxQueueDepth());
+		assertTrue(pipeline.metrics(SimplificationPipeline.Stage.PARSE).maxQueueDepth() > 0);
+
+		// reset by the next run
+		run(pipeline, randomExpressions(10, 7));
+		assertEquals(10, pipeline.metrics(SimplificationPipeline.Stage.WRITE).items());
+	}
+
+	// a slow output fills every queue, and the stages wait for it
+	@Test (timeout = 5000)
+	public void testBackpressure() throws InterruptedException
+	{
+		SimplificationPipeline pipeline = new SimplificationPipeline(SimplificationPipeline.Threads.PLATFORM, 1, 1, 1, 2, 1);
+		List<String> expressions = randomExpressions(40, 11);
+		final List<String> results = new ArrayList<String>();
+		pipeline.run(expressions.iterator(), new Consumer<String>()
+		{
+			@Override
+			public void accept(String result)
+			{
+				try
+				{
+					Thread.sleep(2);
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				results.add(result);
+			}
+		});
+		assertEquals(40, results.size());
+		assertEquals(2, pipeline.metrics(SimplificationPipeline.Stage.WRITE).maxQueueDepth());
+		assertTrue(pipeline.metrics(SimplificationPipeline.Stage.SERIALIZE).blockedNanos() > 0);
+		assertTrue(pipeline.metrics(SimplificationPipeline.Stage.READ).blockedNanos() > 0);
+	}
+
+	// while a slow first batch holds up WRITE, READ stops once the batches in flight reach the limit
+	@Test (timeout = 10000)
+	public void testSlowBatch() throws InterruptedException
+	{
+		SimplificationPipeline pipeline = new SimplificationPipeline(SimplificationPipeline.Threads.PLATFORM, 1, 2, 1, 2, 1);
+		final List<String> expressions = randomExpressions(3000, 17);
+		expressions.add(0, new RandomExpressions(17, "x", "y", "z", "w").next(RandomExpressions.Shape.BALANCED, (1 << 16) - 1));
+		final AtomicInteger read = new AtomicInteger();
+		final int[] readBeforeFirst = {-1};
+		Iterator<String> input = new Iterator<String>()
+		{
+			@Override
+			public boolean hasNext()
+			{
+				return read.get() < expressions.size();
+			}
+
+			@Override
+			public String next()
+			{
+				return expressions.get(read.getAndIncrement());
+			}
+		};
+		pipeline.run(input, new Consumer<String>()
+		{
+			@Override
+			public void accept(String result)
+			{
+				if (readBeforeFirst[0] < 0)
+					readBeforeFirst[0] = read.get();
+			}
+		});
+		assertEquals(expressions.size(), read.get());
+		// queueCapacity + 4 workers in flight, and one more batch READ waits to pass on
+		assertTrue(readBeforeFirst[0] + "", readBeforeFirst[0] <= 2 + 4 + 1);
+	}
+
+	@Test (timeout = 2000)
+	public void testInvalidExpression() throws InterruptedException
+	{
+		SimplificationPipeline pipeline = new SimplificationPipeline(SimplificationPipeline.Threads.PLATFORM, 2, 2, 2, 2, 3);
+		List<String> expressions = randomExpressions(500, 13);
+		expressions.set(200, "+ 1");
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Expression 201");
+		run(pipeline, expressions);
+	}
+
+	@Test (timeout = 2000)
+	public void testFailingOutput() throws InterruptedException
+	{
+		SimplificationPipeline pipeline = new SimplificationPipeline(SimplificationPipeline.Threads.PLATFORM, 1);
+		thrown.expect(IllegalStateException.class);
+		pipeline.run(randomExpressions(5000, 17).iterator(), new Consumer<String>()
+		{
+			@Override
+			public void accept(String result)
+			{
+				throw new IllegalStateException("full");
+			}
+		});
+	}
+
+	@Test (timeout = 2000)
+	public void testVirtualThreads() throws InterruptedException
+	{
+		if (!SimplificationPipeline.Threads.VIRTUAL.isSupported())
+		{
+			thrown.expect(IllegalArgumentException.class);
+			new SimplificationPipeline(SimplificationPipeline.Threads.VIRTUAL, 1);
+			return;
+		}
+		SimplificationPipeline pipeline = new SimplificationPipeline(SimplificationPipeline.Threads.VIRTUAL, 4);
+		assertEquals(Arrays.asList("5", "x"), run(pipeline, Arrays.asList("+ 2 3", "* x 1")));
+	}
+
+	@Test (timeout = 100)
+	public void testInvalidArguments()
+	{
+		thrown.expect(IllegalArgumentException.class);
+		new SimplificationPipeline(SimplificationPipeline.Threads.PLATFORM, 1, 1, 0, 1, 1);
+	}
+}
@@ -0,0 +1,156 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+public class TestSymbolIndex
+{
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test (timeout = 100)
+	public void testSlots()
+	{
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree("+ * 2 x - y x");
+		SymbolIndex index = Assignment.index(tree);
+		assertSame(tree, index.tree());
+		assertEquals(2, index.variableCount());
+		assertEquals(3, index.occurrenceCount());
+		assertEquals(0, index.slot("x"));
+		assertEquals(1, index.slot("y"));
+		assertEquals(-1, index.slot("z"));
+		assertEquals("y", index.variable(1));
+		// the same slots as the compiled expression
+		CompiledExpression compiled = Assignment.compile(tree);
+		assertEquals(compiled.slot("y"), index.slot("y"));
+
+		assertEquals(0, Assignment.index(Assignment.prefix2tree("- 4 5")).variableCount());
+	}
+
+	// substituting again overwrites the positions which held the variables
+	@Test (timeout = 100)
+	public void testSubstitute()
+	{
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree("+ * 2 x - y x");
+		SymbolIndex index = Assignment.index(tree);
+		index.substitute(new int[] {3, -4});
+		assertEquals("+ * 2 3 - -4 3", Assignment.tree2prefix(tree));
+		assertEquals(3, ExpressionTree.integerValue(tree.right(tree.left(tree.root()))));
+		index.substitute(new long[] {5, 3000000000L});
+		assertEquals("+ * 2 5 - 3000000000 5", Assignment.tree2prefix(tree));
+		assertEquals("3000000005", Assignment.tree2prefix(Assignment.simplify(tree, NumericMode.EXACT)));
+
+		// plain trees can be indexed too
+		LinkedBinaryTree<String> plain = new LinkedBinaryTree<String>();
+		plain.addRoot("-");
+		plain.addLeft(plain.root(), "a");
+		plain.addRight(plain.root(), "1");
+		Assignment.index(plain).substitute(new int[] {8});
+		assertEquals("7", Assignment.tree2prefix(Assignment.simplify(plain)));
+	}
+
+	// the same results as substitute with a map, on random trees
+	@Test (timeout = 1000)
+	public void testSameAsSubstitute()
+	{
+		Random random = new Random(17);
+		RandomExpressions expressions = new RandomExpressions(random, "a", "b", "c", "d", "0", "1", "2", "5", "8");
+		for (int trial = 0; trial < 200; trial++)
+		{
+			String prefix = expressions.next(random.nextInt(15));
+
+			LinkedBinaryTree<String> tree = Assignment.prefix2tree(prefix);
+			SymbolIndex index = Assignment.index(tree);
+			int[] values = new int[index.variableCount()];
+			HashMap<String, Integer> map = new HashMap<String, Integer>();
+			for (int slot = 0; slot < values.length; slot++)
+			{
+				values[slot] = random.nextInt(21) - 10;
+				map.put(index.variable(slot), values[slot]);
+			}
+			LinkedBinaryTree<String> expected = Assignment.substitute(Assignment.prefix2tree(prefix), map);
+			assertEquals(Assignment.tree2prefix(expected), Assignment.tree2prefix(index.substitute(values)));
+			assertEquals(Assignment.tree2prefix(Assignment.simplify(expected)), Assignment.tree2prefix(Assignment.simplify(tree)));
+		}
+	}
+
+	@Test (timeout = 100)
+	public void testTooFewValues()
+	{
+		SymbolIndex index = Assignment.index(Assignment.prefix2tree("+ x y"));
+		thrown.expect(IllegalArgumentException.class);
+		index.substitute(new int[] {1});
+	}
+
+	// the index cannot be used once simplify has removed its positions
+	@Test (timeout = 100)
+	public void testRemovedPosition()
+	{
+		LinkedBinaryTree<String> tree = Assignment.prefix2tree("* x 2");
+		SymbolIndex index = Assignment.index(tree);
+		Assignment.simplify(index.substitute(new int[] {4}));
+		assertEquals("8", Assignment.tree2prefix(tree));
+		thrown.expect(IllegalArgumentException.class);
+		index.substitute(new int[] {5});
+	}
+
+	// a removed position is found before any value is written
+	@Test (timeout = 100)
+	public void testRemovedPositionUnchanged()
+	{
+		LinkedBinaryTree<String> plain = new LinkedBinaryTree<String>();
+		plain.addRoot("+");
+		plain.addLeft(plain.root(), "x");
+		plain.addRight(plain.root(), "-");
+		plain.addLeft(plain.right(plain.root()), "y");
+		plain.addRight(plain.right(plain.root()), "z");
+		List<LinkedBinaryTree<String>> trees = new ArrayList<LinkedBinaryTree<String>>();
+		trees.add(plain);
+		trees.add(Assignment.prefix2tree("+ x - y z"));
+		for (LinkedBinaryTree<String> tree : trees)
+		{
+			SymbolIndex index = Assignment.index(tree);
+			Position<String> difference = tree.right(tree.root());
+			tree.remove(tree.left(difference));
+			tree.remove(tree.right(difference));
+			tree.set(difference, "7");
+			try
+			{
+				index.substitute(new int[] {1, 2, 3});
+				fail();
+			}
+			catch (IllegalArgumentException e)
+			{
+				assertEquals("+ x 7", Assignment.tree2prefix(tree));
+			}
+			try
+			{
+				index.substitute(new long[] {1, 2, 3});
+				fail();
+			}
+			catch (IllegalArgumentException e)
+			{
+				assertEquals("+ x 7", Assignment.tree2prefix(tree));
+			}
+		}
+	}
+
+	@Test (timeout = 100)
+	public void testInvalid()
+	{
+		LinkedBinaryTree<String> plain = new LinkedBinaryTree<String>();
+		plain.addRoot("+");
+		plain.addLeft(plain.root(), "x");
+		thrown.expect(IllegalArgumentException.class);
+		Assignment.index(plain);
+	}
+}
@@ -0,0 +1,164 @@
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import textbook.LinkedBinaryTree;
+import textbook.Position;
+
+/**
+ * JMH benchmark covering every operation of Assignment, on trees of a range
+ * of shapes and sizes, to catch regressions that the 100 ms timeouts of the
+ * tests cannot.
+ *
+ * Shapes are those of RandomExpressions: BALANCED, LEFT_DEEP
+ * ("+ + + ... a b c d"), RIGHT_DEEP ("+ a + b + c d") and RANDOM (the
+ * operators split at random), and size is the number of positions in the
+ * tree. Leaves are small integers (including 0 and 1, so simplifyFancy has
+ * rules to apply) and, about one time in four, one of the variables x, y and z.
+ *
+ * simplify, simplifyFancy and substitute modify the tree they are given, so
+ * those benchmarks include copying the tree first; the copy benchmark
+ * measures that cost on its own. substituteIndexed substitutes the same
+ * values by slot into a copy indexed once in setup (substituting again
+ * overwrites the same positions), so it needs no copy.
+ *
+ * isArithmeticExpression takes O(1) time on an ExpressionTree, which keeps
+ * count of its invalid positions, so it is measured on a plain
+ * LinkedBinaryTree copy, where every position is checked.
+ *
+ * Most operations are recursive, so the fork runs with a large thread stack
+ * to allow the deep shapes of 10^6 positions.
+ *
+ * Run with "-prof gc" to report the allocation rate (and bytes allocated per
+ * operation) of each benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xss1g", "-Xmx4g"})
+public class AssignmentBenchmark
+{
+	@Param({"BALANCED", "LEFT_DEEP", "RIGHT_DEEP", "RANDOM"})
+	public RandomExpressions.Shape shape;
+
+	// number of positions in the tree (odd, as every operator has two children)
+	@Param({"11", "1001", "100001", "1000001"})
+	public int size;
+
+	private static final String[] LEAVES = {"x", "y", "z", "0", "1", "2", "3", "4", "5", "6", "7", "8", "9"};
+
+	private String expression;
+	private LinkedBinaryTree<String> tree;
+	private LinkedBinaryTree<String> plain;
+	private HashMap<String, Integer> values;
+	private SymbolIndex index;
+	private int[] slotValues;
+
+	@Setup
+	public void setup()
+	{
+		expression = new RandomExpressions(42, LEAVES).next(shape, size / 2);
+		tree = Assignment.prefix2tree(expression);
+		plain = plainCopy(tree);
+
+		values = new HashMap<String, Integer>();
+		values.put("x", 3);
+		values.put("y", 0);
+		values.put("z", -7);
+
+		index = Assignment.index(ExpressionTree.copyOf(tree));
+		slotValues = new int[index.variableCount()];
+		for (int slot = 0; slot < slotValues.length; slot++)
+		{
+			slotValues[slot] = values.get(index.variable(slot));
+		}
+	}
+
+	// copy a tree into a plain LinkedBinaryTree, in preorder with an explicit stack
+	private static LinkedBinaryTree<String> plainCopy(LinkedBinaryTree<String> tree)
+	{
+		LinkedBinaryTree<String> copy = new LinkedBinaryTree<String>();
+		copy.addRoot(tree.root().getElement());
+		ArrayDeque<Position<String>> from = new ArrayDeque<Position<String>>();
+		ArrayDeque<Position<String>> to = new ArrayDeque<Position<String>>();
+		from.push(tree.root());
+		to.push(copy.root());
+		while (!from.isEmpty())
+		{
+			Position<String> p = from.pop();
+			Position<String> q = to.pop();
+			if (tree.left(p) != null)
+			{
+				from.push(tree.right(p));
+				to.push(copy.addRight(q, tree.right(p).getElement()));
+				from.push(tree.left(p));
+				to.push(copy.addLeft(q, tree.left(p).getElement()));
+			}
+		}
+		return copy;
+	}
+
+	@Benchmark
+	public LinkedBinaryTree<String> prefix2tree()
+	{
+		return Assignment.prefix2tree(expression);
+	}
+
+	@Benchmark
+	public String tree2prefix()
+	{
+		return Assignment.tree2prefix(tree);
+	}
+
+	@Benchmark
+	public String tree2infix()
+	{
+		return Assignment.tree2infix(tree);
+	}
+
+	@Benchmark
+	public boolean isArithmeticExpression()
+	{
+		return Assignment.isArithmeticExpression(plain);
+	}
+
+	@Benchmark
+	public LinkedBinaryTree<String> copy()
+	{
+		return ExpressionTree.copyOf(tree);
+	}
+
+	@Benchmark
+	public LinkedBinaryTree<String> simplify()
+	{
+		return Assignment.simplify(ExpressionTree.copyOf(tree));
+	}
+
+	@Benchmark
+	public LinkedBinaryTree<String> simplifyFancy()
+	{
+		return Assignment.simplifyFancy(ExpressionTree.copyOf(tree));
+	}
+
+	@Benchmark
+	public LinkedBinaryTree<String> substitute()
+	{
+		return Assignment.substitute(ExpressionTree.copyOf(tree), values);
+	}
+
+	@Benchmark
+	public LinkedBinaryTree<String> substituteIndexed()
+	{
+		return index.substitute(slotValues);
+	}
+}
@@ -0,0 +1,58 @@
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * JMH benchmark of the cost of AssignmentMetrics: prefix2tree, simplifyFancy
+ * and tree2prefix (five recorded operations, with the validations) on random
+ * expressions, with instrumentation off and on.
+ *
+ * With enabled=false the result should be within noise of the same loop on a
+ * tree without AssignmentMetrics (each operation reads one volatile boolean,
+ * and each fold or rule one more). Small expressions show the cost of
+ * enabled=true at its largest, since the clock is read twice per operation
+ * whatever its size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+public class AssignmentMetricsBenchmark
+{
+	@Param({"false", "true"})
+	public boolean enabled;
+
+	// number of operators in the expression
+	@Param({"3", "100"})
+	public int operators;
+
+	private String prefix;
+
+	@Setup
+	public void setup()
+	{
+		prefix = new RandomExpressions(42, "x", "y", "z", "0", "1", "2", "7").next(operators);
+		AssignmentMetrics.setEnabled(enabled);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		AssignmentMetrics.setEnabled(false);
+	}
+
+	@Benchmark
+	public String simplifyFancy()
+	{
+		return Assignment.tree2prefix(Assignment.simplifyFancy(Assignment.prefix2tree(prefix)));
+	}
+}
@@ -0,0 +1,93 @@
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import textbook.LinkedBinaryTree;
+
+/**
+ * JMH benchmark scoring one expression over a table of integer columns:
+ * the per-row path (a HashMap, substitute and simplify for every row)
+ * against the columnar Assignment.evaluate(tree, columns, results).
+ * 
+ * Run with "-prof gc" to compare allocation per row. Raise rows to
+ * 10000000 for the batch path only (the per-row path takes minutes).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BatchEvaluationBenchmark 
+{
+	@Param({"100000"})
+	public int rows;
+	
+	// number of integer columns in the table
+	@Param({"24"})
+	public int columnCount;
+	
+	private String expression;
+	private LinkedBinaryTree<String> tree;
+	private HashMap<String, int[]> columns;
+	private long[] results;
+	
+	@Setup
+	public void setup()
+	{
+		Random random = new Random(42);
+		columns = new HashMap<String, int[]>();
+		for (int c = 0; c < columnCount; c++)
+		{
+			int[] column = new int[rows];
+			for (int row = 0; row < rows; row++)
+			{
+				column[row] = random.nextInt(2001) - 1000;
+			}
+			columns.put("c" + c, column);
+		}
+		// a sum of products of neighbouring columns, with some constants mixed in
+		StringBuilder builder = new StringBuilder();
+		for (int c = 0; c < columnCount - 1; c++)
+		{
+			builder.append((c % 3 == 0) ? "- " : "+ ");
+			builder.append("* c").append(c).append(" c").append(c + 1).append(' ');
+		}
+		builder.append("* 7 c0");
+		expression = builder.toString();
+		tree = Assignment.prefix2tree(expression);
+		results = new long[rows];
+	}
+	
+	@Benchmark
+	public long perRow()
+	{
+		long total = 0;
+		for (int row = 0; row < rows; row++)
+		{
+			HashMap<String, Integer> values = new HashMap<String, Integer>();
+			for (String name : columns.keySet())
+			{
+				values.put(name, columns.get(name)[row]);
+			}
+			LinkedBinaryTree<String> substituted = Assignment.substitute(Assignment.prefix2tree(expression), values);
+			total += Integer.parseInt(Assignment.simplify(substituted).root().getElement());
+		}
+		return total;
+	}
+	
+	@Benchmark
+	public long[] batch()
+	{
+		Assignment.evaluate(tree, columns, results);
+		return results;
+	}
+}
@@ -0,0 +1,89 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * JMH benchmark comparing BulkSimplifier with a loop of BufferedReader.readLine,
+ * prefix2tree, simplifyFancy and tree2prefix into a BufferedWriter, on a file
+ * of random expressions of 1 to 30 operators, one per line.
+ *
+ * Run with "-prof gc" to compare the bytes allocated per operation as well:
+ * BulkSimplifier creates no String per line or per result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class BulkSimplifierBenchmark
+{
+	// number of lines in the file
+	@Param({"100000"})
+	public int lines;
+
+	private Path input;
+	private Path output;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		Random random = new Random(42);
+		RandomExpressions expressions = new RandomExpressions(random, "x", "y", "z", "0", "1", "2", "7", "15", "-3");
+		input = Files.createTempFile("expressions", ".txt");
+		output = Files.createTempFile("simplified", ".txt");
+		try (BufferedWriter writer = Files.newBufferedWriter(input, StandardCharsets.UTF_8))
+		{
+			for (int i = 0; i < lines; i++)
+			{
+				writer.write(expressions.next(1 + random.nextInt(30)));
+				writer.newLine();
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException
+	{
+		Files.deleteIfExists(input);
+		Files.deleteIfExists(output);
+	}
+
+	@Benchmark
+	public long readLine() throws IOException
+	{
+		long count = 0;
+		try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+				BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8))
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				writer.write(Assignment.tree2prefix(Assignment.simplifyFancy(Assignment.prefix2tree(line))));
+				writer.newLine();
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Benchmark
+	public long mapped() throws IOException
+	{
+		return BulkSimplifier.simplify(input, output).lines();
+	}
+}
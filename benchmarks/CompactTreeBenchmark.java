@@ -0,0 +1,129 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import textbook.LinkedBinaryTree;
+
+/**
+ * JMH benchmark comparing LinkedBinaryTree<String> with CompactExpressionTree
+ * on a workload of many small formulas.
+ * 
+ * Run with "-prof gc" to compare the bytes allocated per formula when the
+ * trees are built; the copy benchmarks measure the cost of producing a
+ * tree that simplify and substitute are then allowed to modify.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class CompactTreeBenchmark 
+{
+	// number of operators in each formula
+	@Param({"3", "15"})
+	public int operators;
+	
+	// number of formulas in the workload
+	private static final int FORMULAS = 1000;
+	private static final String[] LEAVES = {"x", "y", "z", "x", "y", "z", "0", "1", "7", "15", "42", "99"};
+	
+	private String[] expressions;
+	private List<LinkedBinaryTree<String>> linked;
+	private CompactExpressionTree[] compact;
+	
+	@Setup
+	public void setup()
+	{
+		RandomExpressions generator = new RandomExpressions(42, LEAVES);
+		expressions = new String[FORMULAS];
+		linked = new ArrayList<LinkedBinaryTree<String>>(FORMULAS);
+		compact = new CompactExpressionTree[FORMULAS];
+		for (int i = 0; i < FORMULAS; i++)
+		{
+			expressions[i] = generator.next(operators);
+			linked.add(Assignment.prefix2tree(expressions[i]));
+			compact[i] = CompactExpressionTree.fromTree(linked.get(i));
+		}
+	}
+	
+	@Benchmark
+	public void buildLinked(Blackhole blackhole)
+	{
+		for (String expression : expressions)
+			blackhole.consume(Assignment.prefix2tree(expression));
+	}
+	
+	@Benchmark
+	public void buildCompact(Blackhole blackhole)
+	{
+		for (LinkedBinaryTree<String> tree : linked)
+			blackhole.consume(CompactExpressionTree.fromTree(tree));
+	}
+	
+	@Benchmark
+	public void tree2prefixLinked(Blackhole blackhole)
+	{
+		for (LinkedBinaryTree<String> tree : linked)
+			blackhole.consume(Assignment.tree2prefix(tree));
+	}
+	
+	@Benchmark
+	public void tree2prefixCompact(Blackhole blackhole)
+	{
+		for (CompactExpressionTree tree : compact)
+			blackhole.consume(tree.tree2prefix());
+	}
+	
+	@Benchmark
+	public void tree2infixLinked(Blackhole blackhole)
+	{
+		for (LinkedBinaryTree<String> tree : linked)
+			blackhole.consume(Assignment.tree2infix(tree));
+	}
+	
+	@Benchmark
+	public void tree2infixCompact(Blackhole blackhole)
+	{
+		for (CompactExpressionTree tree : compact)
+			blackhole.consume(tree.tree2infix());
+	}
+	
+	// parse (to get a tree that may be modified), substitute x then simplify
+	@Benchmark
+	public void substituteSimplifyLinked(Blackhole blackhole)
+	{
+		for (String expression : expressions)
+			blackhole.consume(Assignment.simplify(Assignment.substitute(Assignment.prefix2tree(expression), "x", 3)));
+	}
+	
+	@Benchmark
+	public void substituteSimplifyCompact(Blackhole blackhole)
+	{
+		for (LinkedBinaryTree<String> tree : linked)
+			blackhole.consume(CompactExpressionTree.fromTree(tree).substitute("x", 3).simplify());
+	}
+	
+	@Benchmark
+	public void equalsLinked(Blackhole blackhole)
+	{
+		for (int i = 1; i < FORMULAS; i++)
+			blackhole.consume(Assignment.equals(linked.get(i - 1), linked.get(i)) | Assignment.equals(linked.get(i), linked.get(i)));
+	}
+	
+	@Benchmark
+	public void equalsCompact(Blackhole blackhole)
+	{
+		for (int i = 1; i < FORMULAS; i++)
+			blackhole.consume(CompactExpressionTree.equals(compact[i - 1], compact[i]) | CompactExpressionTree.equals(compact[i], compact[i]));
+	}
+}
@@ -0,0 +1,67 @@
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import textbook.LinkedBinaryTree;
+
+/**
+ * JMH benchmark evaluating one formula against a different binding of its
+ * variables on every call: parse, substitute and simplify (the only way to
+ * evaluate with Assignment alone) against a CompiledExpression.
+ * 
+ * Run with "-prof gc" to confirm the compiled evaluation allocates nothing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+public class CompiledExpressionBenchmark 
+{
+	private static final String EXPRESSION = "+ + 4 * x 4 - - + y 7 * + 4 9 z - + x 7 * + 4 9 * y z";
+	
+	private CompiledExpression compiled;
+	private int slotX, slotY, slotZ;
+	private long[] values;
+	private HashMap<String, Integer> map;
+	private int counter;
+	
+	@Setup
+	public void setup()
+	{
+		compiled = Assignment.compile(Assignment.prefix2tree(EXPRESSION));
+		slotX = compiled.slot("x");
+		slotY = compiled.slot("y");
+		slotZ = compiled.slot("z");
+		values = new long[compiled.variableCount()];
+		map = new HashMap<String, Integer>();
+	}
+	
+	@Benchmark
+	public String substituteSimplify()
+	{
+		counter++;
+		map.put("x", counter);
+		map.put("y", counter + 1);
+		map.put("z", counter - 1);
+		LinkedBinaryTree<String> tree = Assignment.substitute(Assignment.prefix2tree(EXPRESSION), map);
+		return Assignment.simplify(tree).root().getElement();
+	}
+	
+	@Benchmark
+	public long compiled()
+	{
+		counter++;
+		values[slotX] = counter;
+		values[slotY] = counter + 1;
+		values[slotZ] = counter - 1;
+		return compiled.evaluate(values);
+	}
+}
@@ -0,0 +1,82 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import textbook.LinkedBinaryTree;
+
+/**
+ * JMH benchmark for ExpressionCache shared by many threads, on a workload
+ * repeating a few thousand distinct formulas, against parsing every request
+ * with Assignment.prefix2tree.
+ *
+ * The cache holds 4096 expressions, so with 2000 distinct formulas every
+ * lookup after the first round hits, and with 8000 about half of them miss
+ * and evict. Runs with 32 threads by default; use "-t" to try other thread
+ * counts (and "-prof gc" for the allocation of a hit).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(32)
+@Fork(1)
+public class ExpressionCacheBenchmark
+{
+	// number of distinct formulas in the workload
+	@Param({"2000", "8000"})
+	public int distinct;
+
+	@Param({"16", "64"})
+	public int stripes;
+
+	private static final int MAXIMUM_SIZE = 4096;
+	private static final int OPERATORS = 15;
+	private static final String[] LEAVES = {"x", "y", "z", "0", "1", "7", "15", "42", "99"};
+
+	private String[] expressions;
+	private ExpressionCache cache;
+
+	@Setup
+	public void setup()
+	{
+		RandomExpressions generator = new RandomExpressions(42, LEAVES);
+		expressions = new String[distinct];
+		for (int i = 0; i < distinct; i++)
+		{
+			expressions[i] = generator.next(OPERATORS);
+		}
+		cache = new ExpressionCache(MAXIMUM_SIZE, stripes, null);
+	}
+
+	private String next()
+	{
+		return expressions[ThreadLocalRandom.current().nextInt(expressions.length)];
+	}
+
+	@Benchmark
+	public LinkedBinaryTree<String> uncached()
+	{
+		return Assignment.prefix2tree(next());
+	}
+
+	@Benchmark
+	public LinkedBinaryTree<String> cachedTree()
+	{
+		return cache.tree(next());
+	}
+
+	@Benchmark
+	public CompiledExpression cachedCompiled()
+	{
+		return cache.compiled(next());
+	}
+}
@@ -0,0 +1,105 @@
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import textbook.LinkedBinaryTree;
+
+/**
+ * JMH benchmark comparing ExpressionCodec.decode and decodeCompact with
+ * Assignment.prefix2tree on the same random expression (of each shape of
+ * RandomExpressions but RANDOM), of variables ("x0" to "x63") and literals
+ * (0 to 9999), read from a heap buffer and from a direct buffer (as a
+ * memory-mapped file would be).
+ *
+ * decode does not tokenize or parse integers, and shares one String per
+ * variable and per small integer instead of creating one per token, but it
+ * still allocates a node per position, which bounds how much faster than
+ * prefix2tree it can be (the nodes alone are about a third of the time of
+ * prefix2tree). decodeCompact allocates nothing per position and should be
+ * several times faster than prefix2tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class ExpressionCodecBenchmark
+{
+	// number of operators in the expression
+	@Param({"1000", "100000"})
+	public int operators;
+
+	@Param({"RIGHT_DEEP", "LEFT_DEEP", "BALANCED"})
+	public RandomExpressions.Shape shape;
+
+	private String prefix;
+	private List<LinkedBinaryTree<String>> trees;
+	private ByteBuffer heap;
+	private ByteBuffer direct;
+
+	@Setup
+	public void setup()
+	{
+		Random random = new Random(42);
+		String[] leaves = new String[128];
+		for (int i = 0; i < 64; i++)
+		{
+			leaves[i] = "x" + i;
+			leaves[64 + i] = Integer.toString(random.nextInt(10000));
+		}
+		prefix = new RandomExpressions(random, leaves).next(shape, operators);
+		trees = Collections.singletonList(Assignment.prefix2tree(prefix));
+
+		heap = ExpressionCodec.encode(trees);
+		direct = ByteBuffer.allocateDirect(heap.remaining());
+		direct.put(heap.duplicate());
+		direct.flip();
+	}
+
+	@Benchmark
+	public LinkedBinaryTree<String> prefix2tree()
+	{
+		return Assignment.prefix2tree(prefix);
+	}
+
+	@Benchmark
+	public List<LinkedBinaryTree<String>> decodeHeap()
+	{
+		return ExpressionCodec.decode(heap.duplicate());
+	}
+
+	@Benchmark
+	public List<LinkedBinaryTree<String>> decodeDirect()
+	{
+		return ExpressionCodec.decode(direct.duplicate());
+	}
+
+	@Benchmark
+	public List<CompactExpressionTree> decodeCompactHeap()
+	{
+		return ExpressionCodec.decodeCompact(heap.duplicate());
+	}
+
+	@Benchmark
+	public List<CompactExpressionTree> decodeCompactDirect()
+	{
+		return ExpressionCodec.decodeCompact(direct.duplicate());
+	}
+
+	@Benchmark
+	public ByteBuffer encode()
+	{
+		return ExpressionCodec.encode(trees);
+	}
+}
@@ -0,0 +1,109 @@
+import java.util.HashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import textbook.LinkedBinaryTree;
+
+/**
+ * JMH benchmark for one parsed formula shared by many threads, each
+ * evaluating it with its own values: an ImmutableExpressionTree used by
+ * every thread at once, against copying a LinkedBinaryTree for each request
+ * so that Assignment.substitute and simplify can change the copy.
+ *
+ * Nothing is written to the shared tree, so throughput should grow with the
+ * number of threads up to the number of cores. Runs with as many threads as
+ * there are processors by default; use "-t 1" for the single-threaded
+ * figures to compare with (and "-prof gc" for the allocation per request,
+ * which for the immutable tree is only the paths that change).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(Threads.MAX)
+@Fork(1)
+public class ImmutableExpressionTreeBenchmark
+{
+	@Param({"15", "255"})
+	public int operators;
+
+	// share of the leaves which are variables, out of 8
+	@Param({"1", "4"})
+	public int variables;
+
+	private static final String[] VARIABLES = {"x", "y", "z"};
+
+	private LinkedBinaryTree<String> template;
+	private ImmutableExpressionTree shared;
+
+	/**
+	 * The values each thread substitutes
+	 */
+	@State(Scope.Thread)
+	public static class Values
+	{
+		HashMap<String, Integer> map = new HashMap<String, Integer>();
+
+		@Setup
+		public void setup()
+		{
+			for (String variable : VARIABLES)
+			{
+				map.put(variable, ThreadLocalRandom.current().nextInt(-100, 100));
+			}
+		}
+	}
+
+	@Setup
+	public void setup()
+	{
+		// variables of the 8 leaves, the others digits
+		String[] leaves = new String[8];
+		for (int i = 0; i < leaves.length; i++)
+		{
+			leaves[i] = (i < variables) ? VARIABLES[i % VARIABLES.length] : Integer.toString(i);
+		}
+		template = Assignment.prefix2tree(new RandomExpressions(42, leaves).next(RandomExpressions.Shape.RANDOM, operators));
+		shared = ImmutableExpressionTree.fromTree(template);
+	}
+
+	@Benchmark
+	public LinkedBinaryTree<String> copiedSubstituteSimplify(Values values)
+	{
+		return Assignment.simplify(Assignment.substitute(ExpressionTree.copyOf(template), values.map));
+	}
+
+	@Benchmark
+	public LinkedBinaryTree<String> sharedSubstituteSimplify(Values values)
+	{
+		return shared.substitute(values.map).simplify();
+	}
+
+	@Benchmark
+	public LinkedBinaryTree<String> copiedSimplifyFancy()
+	{
+		return Assignment.simplifyFancy(ExpressionTree.copyOf(template));
+	}
+
+	@Benchmark
+	public LinkedBinaryTree<String> sharedSimplifyFancy()
+	{
+		return shared.simplifyFancy();
+	}
+
+	@Benchmark
+	public String sharedTree2prefix()
+	{
+		return Assignment.tree2prefix(shared);
+	}
+}
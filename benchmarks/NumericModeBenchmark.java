@@ -0,0 +1,73 @@
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import textbook.LinkedBinaryTree;
+
+/**
+ * JMH benchmark comparing the arithmetic of simplify in NumericMode.WRAPPING
+ * and NumericMode.EXACT, on balanced trees of integer literals.
+ *
+ * "small" literals are 0 to 99, so every result stays well inside a long and
+ * EXACT folds with primitive arithmetic; "large" literals have 11 digits, so
+ * EXACT parses them, and the products soon overflow a long and are evaluated
+ * as BigIntegers (WRAPPING treats them as variables and folds nothing).
+ *
+ * Run with "-prof gc": for small literals both modes should allocate the same
+ * bytes per operation, which is the copy of the tree (see the copy benchmark)
+ * plus the String element of each folded position, i.e. nothing beyond the
+ * resulting node.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class NumericModeBenchmark
+{
+	@Param({"WRAPPING", "EXACT"})
+	public NumericMode mode;
+
+	@Param({"small", "large"})
+	public String literals;
+
+	// number of operators in the tree
+	private static final int OPERATORS = 1023;
+
+	private LinkedBinaryTree<String> tree;
+
+	@Setup
+	public void setup()
+	{
+		Random random = new Random(42);
+		String[] leaves = new String[100];
+		for (int i = 0; i < leaves.length; i++)
+		{
+			if (literals.equals("small"))
+				leaves[i] = Integer.toString(i);
+			else
+				leaves[i] = Long.toString(10000000000L + (random.nextLong() & Long.MAX_VALUE) % 90000000000L);
+		}
+		tree = Assignment.prefix2tree(new RandomExpressions(random, leaves).next(RandomExpressions.Shape.BALANCED, OPERATORS));
+	}
+
+	@Benchmark
+	public LinkedBinaryTree<String> copy()
+	{
+		return ExpressionTree.copyOf(tree);
+	}
+
+	@Benchmark
+	public LinkedBinaryTree<String> simplify()
+	{
+		return Assignment.simplify(ExpressionTree.copyOf(tree), mode);
+	}
+}
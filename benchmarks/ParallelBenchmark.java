@@ -0,0 +1,85 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import textbook.LinkedBinaryTree;
+
+/**
+ * JMH benchmark comparing Assignment.simplify and tree2prefix with the
+ * fork/join versions in ParallelAssignment on one huge, balanced expression,
+ * for a range of pool sizes (1 shows the overhead of splitting).
+ * 
+ * simplify modifies the tree, so a fresh copy is parsed before each call;
+ * the copy is not part of the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class ParallelBenchmark 
+{
+	// number of leaves is 2^depth
+	@Param({"16", "20"})
+	public int depth;
+	
+	@Param({"1", "4", "8"})
+	public int parallelism;
+	
+	private String expression;
+	private ForkJoinPool pool;
+	private LinkedBinaryTree<String> tree;
+	
+	@Setup
+	public void setup()
+	{
+		// one variable in every 64 leaves, so most of the tree folds but not the root
+		String[] leaves = new String[64];
+		leaves[0] = "x";
+		for (int i = 1; i < leaves.length; i++)
+		{
+			leaves[i] = Integer.toString(i % 10);
+		}
+		expression = new RandomExpressions(42, leaves).next(RandomExpressions.Shape.BALANCED, (1 << depth) - 1);
+		pool = new ForkJoinPool(parallelism);
+	}
+	
+	@Setup(Level.Invocation)
+	public void parse()
+	{
+		tree = Assignment.prefix2tree(expression);
+	}
+	
+	@Benchmark
+	public LinkedBinaryTree<String> simplifySequential()
+	{
+		return Assignment.simplify(tree);
+	}
+	
+	@Benchmark
+	public LinkedBinaryTree<String> simplifyParallel()
+	{
+		return ParallelAssignment.simplify(tree, pool);
+	}
+	
+	@Benchmark
+	public String tree2prefixSequential()
+	{
+		return Assignment.tree2prefix(tree);
+	}
+	
+	@Benchmark
+	public String tree2prefixParallel()
+	{
+		return ParallelAssignment.tree2prefix(tree, pool);
+	}
+}
@@ -0,0 +1,84 @@
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import textbook.LinkedBinaryTree;
+
+/**
+ * JMH benchmark for Assignment.prefix2tree on right leaning chains
+ * ("+ a + a ... + a a") of the kind produced by rule generators, next to
+ * Assignment.infix2tree on the same chain as tree2infix writes it
+ * ("(a+(a+...(a+a)))") and on an unparenthesized chain ("a+a+...+a").
+ * 
+ * Runs with the default thread stack size (no -Xss) so that any recursion
+ * proportional to the depth of the expression would fail the benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class Prefix2treeBenchmark 
+{
+	// number of tokens in the expression (always odd for a complete chain)
+	@Param({"1001", "100001", "1000001"})
+	public int tokens;
+	
+	private String expression;
+	private String infix;
+	private String unparenthesized;
+	
+	@Setup
+	public void setup()
+	{
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < tokens / 2; i++)
+		{
+			builder.append("+ a ");
+		}
+		builder.append("a");
+		expression = builder.toString();
+		infix = Assignment.tree2infix(Assignment.prefix2tree(expression));
+
+		builder.setLength(0);
+		builder.append('a');
+		for (int i = 0; i < tokens / 2; i++)
+		{
+			builder.append("+a");
+		}
+		unparenthesized = builder.toString();
+	}
+	
+	@Benchmark
+	public LinkedBinaryTree<String> rightChain()
+	{
+		return Assignment.prefix2tree(expression);
+	}
+	
+	@Benchmark
+	public LinkedBinaryTree<String> rightChainFromReader() throws IOException
+	{
+		return Assignment.readPrefix(new StringReader(expression));
+	}
+	
+	@Benchmark
+	public LinkedBinaryTree<String> rightChainInfix()
+	{
+		return Assignment.infix2tree(infix);
+	}
+	
+	@Benchmark
+	public LinkedBinaryTree<String> unparenthesizedChainInfix()
+	{
+		return Assignment.infix2tree(unparenthesized);
+	}
+}
@@ -0,0 +1,77 @@
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * JMH benchmark comparing SimplificationPipeline, with as many workers per
+ * stage as there are processors, with a loop of prefix2tree, simplifyFancy
+ * and tree2prefix on one thread, over random expressions of 1 to 30 operators.
+ *
+ * The pipeline can only be faster with several processors; on one it
+ * measures the cost of passing batches between threads (which grows as
+ * batchSize shrinks).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class SimplificationPipelineBenchmark
+{
+	// number of expressions
+	@Param({"100000"})
+	public int expressions;
+
+	@Param({"16", "256"})
+	public int batchSize;
+
+	@Param({"PLATFORM"})
+	public SimplificationPipeline.Threads threads;
+
+	private List<String> input;
+	private SimplificationPipeline pipeline;
+
+	@Setup
+	public void setup()
+	{
+		input = new RandomExpressions(42, "x", "y", "z", "0", "1", "2", "7", "15", "-3").list(expressions, 1, 30);
+		int workers = Runtime.getRuntime().availableProcessors();
+		pipeline = new SimplificationPipeline(threads, workers, workers, workers,
+				SimplificationPipeline.DEFAULT_QUEUE_CAPACITY, batchSize);
+	}
+
+	@Benchmark
+	public long sequential()
+	{
+		long length = 0;
+		for (String expression : input)
+		{
+			length += Assignment.tree2prefix(Assignment.simplifyFancy(Assignment.prefix2tree(expression))).length();
+		}
+		return length;
+	}
+
+	@Benchmark
+	public long pipeline() throws InterruptedException
+	{
+		final long[] length = new long[1];
+		pipeline.run(input.iterator(), new Consumer<String>()
+		{
+			@Override
+			public void accept(String result)
+			{
+				length[0] += result.length();
+			}
+		});
+		return length[0];
+	}
+}